@@ -0,0 +1,133 @@
+package ninja.siili.climbingroutes;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps the number of ARCore anchors of all Routes within an AnchorBudgetPolicy's budget.
+ * Items are handed their limits nearest first, and the Host merges, re-parents or releases
+ * anchors when a limit changes. Nothing here touches ARCore, so it runs on a plain JVM.
+ * @param <T> Type of the items owning anchors.
+ */
+public class AnchorBudget<T> {
+
+    /** Owns the anchors and applies limits. */
+    public interface Host<T> {
+        /**
+         * Get the number of anchors an item uses when unlimited.
+         * @param item Item.
+         * @return Anchor count.
+         */
+        int getWantedAnchors(T item);
+
+        /**
+         * Limit an item's anchors. Clips of anchors over the limit move to the nearest kept anchor.
+         * @param item Item.
+         * @param limit Anchors the item may keep, 0 to release all.
+         */
+        void setAnchorLimit(T item, int limit);
+    }
+
+    private final AnchorBudgetPolicy mPolicy;
+    private final Host<T> mHost;
+    // Limit and wanted count last given to the Host for each item.
+    private final HashMap<T, int[]> mStates = new HashMap<>();
+    private int mAnchorCount = 0;
+
+    // Indices of items by distance, reused. Order changes little between updates,
+    // so insertion sort is close to linear.
+    private int[] mOrder = new int[16];
+
+
+    /**
+     * Constructor for AnchorBudget.
+     * @param policy AnchorBudgetPolicy to decide limits with.
+     * @param host Host applying the limits.
+     */
+    public AnchorBudget(AnchorBudgetPolicy policy, Host<T> host) {
+        mPolicy = policy;
+        mHost = host;
+    }
+
+
+    /**
+     * Hand out anchors to items, nearest first.
+     * @param items Items owning anchors.
+     * @param distances Distance from the camera to each item.
+     */
+    public void update(List<T> items, float[] distances) {
+        int count = items.size();
+        sortByDistance(count, distances);
+
+        int remaining = mPolicy.getMaxAnchors();
+        mAnchorCount = 0;
+        for (int i = 0; i < count; i++) {
+            T item = items.get(mOrder[i]);
+            int wanted = mHost.getWantedAnchors(item);
+            int[] state = mStates.get(item);
+            int current = state != null ? Math.min(state[0], wanted) : wanted;
+            int limit = Math.min(wanted, Math.max(0,
+                    mPolicy.allowAnchors(wanted, current, distances[mOrder[i]], remaining)));
+            remaining -= limit;
+            mAnchorCount += limit;
+            // Wanted count changes when Clips are added, new anchors may need a limit too.
+            if (state == null) {
+                mStates.put(item, new int[] {limit, wanted});
+                mHost.setAnchorLimit(item, limit);
+            } else if (state[0] != limit || state[1] != wanted) {
+                state[0] = limit;
+                state[1] = wanted;
+                mHost.setAnchorLimit(item, limit);
+            }
+        }
+    }
+
+
+    private void sortByDistance(int count, float[] distances) {
+        if (mOrder.length < count) {
+            mOrder = new int[count * 2];
+        }
+        for (int i = 0; i < count; i++) {
+            mOrder[i] = i;
+        }
+        for (int i = 1; i < count; i++) {
+            int index = mOrder[i];
+            float distance = distances[index];
+            int j = i - 1;
+            while (j >= 0 && distances[mOrder[j]] > distance) {
+                mOrder[j + 1] = mOrder[j];
+                j--;
+            }
+            mOrder[j + 1] = index;
+        }
+    }
+
+
+    /**
+     * Get the limit last given to an item.
+     * @param item Item.
+     * @return Anchor limit, -1 if the item hasn't been updated yet.
+     */
+    public int getLimit(T item) {
+        int[] state = mStates.get(item);
+        return state != null ? state[0] : -1;
+    }
+
+
+    /**
+     * Get the number of anchors in use after the last update.
+     * @return Anchor count.
+     */
+    public int getAnchorCount() {
+        return mAnchorCount;
+    }
+
+
+    /**
+     * Forget an item, e.g. when it's removed.
+     * @param item Item.
+     */
+    public void remove(T item) {
+        mStates.remove(item);
+    }
+}
@@ -0,0 +1,25 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * Decides how many ARCore anchors each Route may keep. ARCore updates every anchor on every
+ * frame, so the total is capped and far away Routes give theirs up first.
+ */
+public interface AnchorBudgetPolicy {
+
+    /**
+     * Get the maximum number of anchors for all Routes together.
+     * @return Anchor count.
+     */
+    int getMaxAnchors();
+
+
+    /**
+     * Choose how many anchors a Route may keep. Routes are asked nearest first.
+     * @param wanted Anchors the Route uses when unlimited.
+     * @param current Anchors the Route may keep now.
+     * @param distance Distance from the camera to the Route in meters.
+     * @param remaining Anchors left in the budget for this and farther Routes.
+     * @return Allowed anchors: 0 releases all, less than wanted merges Clips to fewer anchors.
+     */
+    int allowAnchors(int wanted, int current, float distance, int remaining);
+}
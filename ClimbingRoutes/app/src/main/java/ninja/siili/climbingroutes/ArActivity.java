@@ -1,122 +1,342 @@
 package ninja.siili.climbingroutes;
 
+import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
+import android.os.Build;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.PopupMenu;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.google.ar.core.Anchor;
 import com.google.ar.core.Frame;
-import com.google.ar.core.HitResult;
-import com.google.ar.core.Point;
-import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingState;
 import com.google.ar.sceneform.HitTestResult;
+import com.google.ar.sceneform.Node;
 import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.collision.Ray;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Color;
+import com.google.ar.sceneform.rendering.Material;
+import com.google.ar.sceneform.rendering.MaterialFactory;
 import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.rendering.ViewRenderable;
 import com.google.ar.sceneform.ux.ArFragment;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ArActivity extends AppCompatActivity {
 
     private static final String TAG = ArActivity.class.getSimpleName();
 
+    // Time in milliseconds per frame for our own work, the rest is left for rendering.
+    private static final float FRAME_BUDGET_MS = 4.0f;
+    // Whole frame at 60 fps, slower frames are counted by the profiler.
+    private static final float FRAME_TIME_MS = 1000.0f / 60.0f;
+    private static final int FRAMES_PER_PROFILER_UPDATE = 30;
+
+    private static final String ROUTE_STORE_FILE = "routes.bin";
+    private static final String EDIT_JOURNAL_FILE = "edits.journal";
+    private static final String SYNC_STATE_FILE = "sync.state";
+    private static final long SYNC_INTERVAL_S = 60;
+    private static final int ROUTES_REFRESHED_PER_FRAME = 8;
+    private static final int ROUTES_LOD_CHECKED_PER_FRAME = 32;
+    private static final int INFO_CARD_COUNT = 6;
+    private static final int FRAMES_PER_INFO_CARD_UPDATE = 15;
+    private static final int FRAMES_PER_ANCHOR_UPDATE = 30;
+    // Feature points are accumulated in 2 cm voxels and forgotten after 30 s unseen.
+    private static final float POINT_VOXEL_SIZE = 0.02f;
+    private static final int MAX_POINT_VOXELS = 16384;
+    private static final int POINT_MAX_AGE_FRAMES = 30 * 60;
+    // Wall surfaces are refit from the points a few times a second, on a couple of threads.
+    private static final int FRAMES_PER_SURFACE_UPDATE = 10;
+    private static final int SURFACE_WORKERS = 2;
+    // Picking a file to export routes to or import them from.
+    private static final int REQUEST_EXPORT_ROUTES = 1;
+    private static final int REQUEST_IMPORT_ROUTES = 2;
+    private static final String ARCHIVE_MIME_TYPE = "application/octet-stream";
+    // Routes between progress updates, and saved to the store at a time, when importing.
+    private static final int ROUTES_PER_TRANSFER_BATCH = 256;
+
     private ArFragment arFragment;
     private Scene mScene;
 
     private RenderableHelper mRenderableHelper;
+    // Routes make their nodes and anchors here, null until placeholders are ready.
+    private SceneformRouteScene mRouteScene;
     private GestureDetector gestureDetector;
+    private FrameScheduler mFrameScheduler;
+    // Changes to the Scene from other threads, applied at the start of each frame.
+    private final SceneMutationQueue mSceneMutations = new SceneMutationQueue();
 
     private Route mActiveRoute;
     private ArrayList<Route> mRoutes;
+    private final HashMap<Long, Route> mRoutesById = new HashMap<>();
+    // Stored and placed routes by name, notes, type and grade, keyed by id, for searching.
+    private final RouteSearchIndex<Long> mSearchIndex = new RouteSearchIndex<>();
+    // Name and grade of each indexed route, for listing search results.
+    private final HashMap<Long, String> mSearchLabels = new HashMap<>();
+    private final RouteSearchIndex.Query mSearchQuery = new RouteSearchIndex.Query();
+    private final RouteRecord mInfoRecord = new RouteRecord();
+    private final ClipBvh<Route> mClipBvh = new ClipBvh<>();
+    private final ClipBvh.Hit<Route> mPickHit = new ClipBvh.Hit<>();
+    private final float[] mRayOrigin = new float[3];
+    private final float[] mRayDirection = new float[3];
+    // Wall surfaces are fit on their own thread, RANSAC hypotheses are scored on the workers.
+    private final ExecutorService mSurfaceExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService mSurfaceWorkers = Executors.newFixedThreadPool(SURFACE_WORKERS);
+    private final WallSurfaceEstimator mWallSurfaces =
+            new WallSurfaceEstimator(mSurfaceWorkers, SURFACE_WORKERS, new Random());
+    private final ArCoreHitTestProvider mHitTester = new ArCoreHitTestProvider(
+            new FeaturePointCloud(POINT_VOXEL_SIZE, MAX_POINT_VOXELS, POINT_MAX_AGE_FRAMES), mWallSurfaces);
+    // Points handed to the surface thread, not touched on the UI thread while it's updating.
+    private final float[] mSurfacePoints = new float[MAX_POINT_VOXELS * 3];
+    private volatile boolean mSurfaceUpdating = false;
+    private int mFramesUntilSurfaceUpdate = 0;
+    private final float[] mHitPosition = new float[3];
+    private final LodPolicy mLodPolicy = new LodPolicy();
+    private final float[] mCameraPosition = new float[3];
+    private final float[] mCameraForward = new float[3];
+    private int mNextLodRoute = 0;
+    // Routes whose anchors ARCore updated this frame, reused between frames.
+    private final ArrayList<Route> mUpdatedRoutes = new ArrayList<>();
+
+    // Info cards are made once and handed to the routes nearest to the camera.
+    private final InfoCardPool<Route> mInfoCardPool = new InfoCardPool<>(INFO_CARD_COUNT,
+            new InfoCardPool.Binder<Route>() {
+                @Override
+                public void bind(int card, Route route) {
+                    route.bindInfoCard(card);
+                }
+
+                @Override
+                public void unbind(int card, Route route) {
+                    route.unbindInfoCard();
+                }
+            });
+    // ARCore anchors are limited, far away routes merge or release theirs.
+    private final AnchorBudget<Route> mAnchorBudget = new AnchorBudget<>(new DefaultAnchorBudgetPolicy(),
+            new AnchorBudget.Host<Route>() {
+                @Override
+                public int getWantedAnchors(Route route) {
+                    return route.getWantedAnchorCount();
+                }
+
+                @Override
+                public void setAnchorLimit(Route route, int limit) {
+                    route.setAnchorLimit(limit);
+                }
+            });
+    private float[] mAnchorDistances = new float[16];
+    private int mFramesUntilAnchorUpdate = 0;
+    private float[] mCardScores = new float[16];
+    private final float[] mCardPosition = new float[3];
+    private int mFramesUntilCardUpdate = 0;
     private boolean editMode = false;
     private TextView modeTextView;
+    // Hot path timers, shown in a debug overlay toggled by long pressing the mode FAB.
+    private final FrameProfiler mProfiler = new FrameProfiler(FRAME_TIME_MS);
+    private TextView mProfilerTextView;
+    private int mFramesUntilProfilerUpdate = 0;
 
 
     private View mInfoView;
     private View mInfoViewFAB;
+    private View mUndoFAB;
+    private View mRedoFAB;
     private FloatingActionButton mChangeModeFAB;
+    private View mTransferFAB;
+    private TextView mTransferTextView;
+    private ProgressBar mTransferProgressBar;
 
     private boolean hasFinishedLoading = false;
+    private StartupTrace mStartupTrace;
+
+    // Route store is only touched on its own thread so disk access never blocks the UI.
+    private final ScheduledExecutorService mStoreExecutor = Executors.newSingleThreadScheduledExecutor();
+    private RouteStore mRouteStore;
+    // Edits since the last save, written on the store's thread.
+    private EditJournal mEditJournal;
+    // Sync with the gym's server runs on the store's thread, its network requests on their own.
+    private final ScheduledExecutorService mSyncExecutor = Executors.newSingleThreadScheduledExecutor();
+    private RouteSync mRouteSync;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mStartupTrace = new StartupTrace(this);
         setContentView(R.layout.activity_ar);
         mInfoView = findViewById(R.id.include);
         mInfoView.setVisibility(View.GONE);
         mInfoViewFAB = findViewById(R.id.fab_info_view);
         mInfoViewFAB.setVisibility(View.INVISIBLE);
         mChangeModeFAB = findViewById(R.id.fab_change_mode);
+        mUndoFAB = findViewById(R.id.fab_undo);
+        mUndoFAB.setVisibility(View.INVISIBLE);
+        mRedoFAB = findViewById(R.id.fab_redo);
+        mRedoFAB.setVisibility(View.INVISIBLE);
         modeTextView = findViewById(R.id.tv_mode);
+        mProfilerTextView = findViewById(R.id.tv_profiler);
+        mProfilerTextView.setVisibility(View.GONE);
+        mTransferFAB = findViewById(R.id.fab_transfer);
+        mTransferTextView = findViewById(R.id.tv_transfer);
+        mTransferTextView.setVisibility(View.GONE);
+        mTransferProgressBar = findViewById(R.id.pb_transfer);
+        mTransferProgressBar.setVisibility(View.GONE);
+        mChangeModeFAB.setOnLongClickListener(button -> {
+            toggleProfilerOverlay();
+            return true;
+        });
 
         mRoutes = new ArrayList<>();
+        openEditJournal();
+        openRouteStore();
 
         arFragment = (ArFragment) getSupportFragmentManager().findFragmentById(R.id.ux_fragment);
         arFragment.getPlaneDiscoveryController().hide();
         arFragment.getPlaneDiscoveryController().setInstructionView(null);
         mScene = arFragment.getArSceneView().getScene();
 
-        // Build all the models.
-        CompletableFuture<ModelRenderable> clipStageGreen =
-                ModelRenderable.builder().setSource(this, Uri.parse("sphere_green.sfb")).build();
-        CompletableFuture<ModelRenderable> clipStageYellow =
-                ModelRenderable.builder().setSource(this, Uri.parse("sphere_yellow.sfb")).build();
-        CompletableFuture<ModelRenderable> clipStageOrange =
-                ModelRenderable.builder().setSource(this, Uri.parse("sphere_orange.sfb")).build();
-        CompletableFuture<ModelRenderable> clipStageRed =
-                ModelRenderable.builder().setSource(this, Uri.parse("sphere_red.sfb")).build();
-        CompletableFuture<ModelRenderable> lineStageGreen =
-                ModelRenderable.builder().setSource(this, Uri.parse("cylinder_green.sfb")).build();
-        CompletableFuture<ModelRenderable> lineStageYellow =
-                ModelRenderable.builder().setSource(this, Uri.parse("cylinder_yellow.sfb")).build();
-        CompletableFuture<ModelRenderable> lineStageOrange =
-                ModelRenderable.builder().setSource(this, Uri.parse("cylinder_orange.sfb")).build();
-        CompletableFuture<ModelRenderable> lineStageRed =
-                ModelRenderable.builder().setSource(this, Uri.parse("cylinder_red.sfb")).build();
-
-        CompletableFuture.allOf(
-                clipStageGreen,
-                clipStageYellow,
-                clipStageOrange,
-                clipStageRed,
-                lineStageGreen,
-                lineStageYellow,
-                lineStageOrange,
-                lineStageRed)
-                .handle((notUsed, throwable) -> {
-
-                    if (throwable != null) {
-                        Toast.makeText(this, "Failed to load renderables", Toast.LENGTH_LONG).show();
-                        return null;
-                    }
+        // Per-frame work goes through the scheduler.
+        mFrameScheduler = new FrameScheduler(FRAME_BUDGET_MS);
 
-                    try {
-                        // Helper handles renderables from now on.
-                        mRenderableHelper = new RenderableHelper(this, mScene,
-                                clipStageGreen.get(), clipStageYellow.get(), clipStageOrange.get(), clipStageRed.get(),
-                                lineStageGreen.get(), lineStageYellow.get(), lineStageOrange.get(), lineStageRed.get());
-                        hasFinishedLoading = true;
+        // Placeholders are plain shapes, so routes can be placed before the models have loaded.
+        // Clip model is needed first, the line model is only loaded after it.
+        CompletableFuture<Material> placeholderStage =
+                MaterialFactory.makeOpaqueWithColor(this, new Color(getColor(R.color.grey)));
+        CompletableFuture<ModelRenderable> clipStage =
+                ModelRenderable.builder().setSource(this, Uri.parse("sphere.sfb")).build();
+        CompletableFuture<ModelRenderable> lineStage = clipStage
+                .handle((notUsed, throwable) -> null)
+                .thenCompose(notUsed ->
+                        ModelRenderable.builder().setSource(this, Uri.parse("cylinder.sfb")).build());
 
-                    } catch (InterruptedException | ExecutionException ex) {
-                        Toast.makeText(this, "Failed to load renderables", Toast.LENGTH_LONG).show();
-                    }
+        placeholderStage.handle((material, throwable) -> {
+            if (throwable != null) {
+                Toast.makeText(this, "Failed to load renderables", Toast.LENGTH_LONG).show();
+                return null;
+            }
+
+            // Helper handles renderables from now on.
+            mRenderableHelper = new RenderableHelper(this, mScene,
+                    GradePalette.fromResources(this), material);
+            mRenderableHelper.setOnModelsChangedListener(this::refreshRouteRenderables);
+            mRouteScene = new SceneformRouteScene(mRenderableHelper, arFragment.getTransformationSystem(),
+                    mHitTester, () -> arFragment.getArSceneView().getSession());
+            // Info cards go to the nearest routes, the pool gets them as their views are ready.
+            createInfoCards();
+            hasFinishedLoading = true;
+            mStartupTrace.mark(StartupTrace.PLACEHOLDERS_READY);
+
+            clipStage.thenAccept(clip -> {
+                mRenderableHelper.setClipModel(clip);
+                mStartupTrace.mark(StartupTrace.CLIP_MODEL_LOADED);
+            }).exceptionally(this::onModelFailed);
+            lineStage.thenAccept(line -> {
+                mRenderableHelper.setLineModel(line);
+                mStartupTrace.mark(StartupTrace.LINE_MODEL_LOADED);
+            }).exceptionally(this::onModelFailed);
+            return null;
+        });
 
-                    return null;
-                });
-        
 
-        // Update listener for moving lines.
+        // Moving lines never finishes, so it runs first on every frame.
+        mFrameScheduler.post(FrameScheduler.CATEGORY_LINES, FrameScheduler.PRIORITY_HIGH, () -> {
+            Frame frame = arFragment.getArSceneView().getArFrame();
+            if (frame != null && mRouteScene != null && mRouteScene.hasTrackedAnchors()) {
+                notifyUpdatedAnchors(frame);
+            }
+            if (mActiveRoute != null && editMode) {
+                mActiveRoute.moveLinesIfNeeded();
+            }
+            return false;
+        });
+
+        // Feature points are gathered every frame, so taps can snap to where they're dense.
+        mFrameScheduler.post(FrameScheduler.CATEGORY_OTHER, FrameScheduler.PRIORITY_HIGH, () -> {
+            Frame frame = arFragment.getArSceneView().getArFrame();
+            if (frame != null) {
+                mHitTester.accumulatePoints(frame);
+                if (--mFramesUntilSurfaceUpdate <= 0 && !mSurfaceUpdating) {
+                    mFramesUntilSurfaceUpdate = FRAMES_PER_SURFACE_UPDATE;
+                    updateWallSurfaces();
+                }
+            }
+            return false;
+        });
+
+        // Level of detail is checked for a slice of routes per frame.
+        mFrameScheduler.post(FrameScheduler.CATEGORY_LOD, FrameScheduler.PRIORITY_NORMAL, () -> {
+            updateLodSlice();
+            return false;
+        });
+
+        // Anchors change slowly with distance, they're rebalanced twice a second or so.
+        mFrameScheduler.post(FrameScheduler.CATEGORY_ANCHORS, FrameScheduler.PRIORITY_LOW, () -> {
+            if (--mFramesUntilAnchorUpdate <= 0) {
+                mFramesUntilAnchorUpdate = FRAMES_PER_ANCHOR_UPDATE;
+                updateAnchorBudget();
+            }
+            return false;
+        });
+
+        // Info cards go to the nearest routes, no need to check that every frame.
+        mFrameScheduler.post(FrameScheduler.CATEGORY_INFO_CARDS, FrameScheduler.PRIORITY_LOW, () -> {
+            if (--mFramesUntilCardUpdate <= 0) {
+                mFramesUntilCardUpdate = FRAMES_PER_INFO_CARD_UPDATE;
+                updateInfoCards();
+            }
+            return false;
+        });
+
+        // Profiler overlay is refreshed twice a second while shown.
+        mFrameScheduler.post(FrameScheduler.CATEGORY_OTHER, FrameScheduler.PRIORITY_LOW, () -> {
+            if (mProfilerTextView.getVisibility() == View.VISIBLE && --mFramesUntilProfilerUpdate <= 0) {
+                mFramesUntilProfilerUpdate = FRAMES_PER_PROFILER_UPDATE;
+                mProfilerTextView.setText(mProfiler.getReport() + mFrameScheduler.getUsageReport()
+                        + mSceneMutations.getReport());
+            }
+            return false;
+        });
+
+        // Update listener for running per-frame work.
         arFragment.getArSceneView().getScene().setOnUpdateListener(
                 frameTime -> {
+                    mProfiler.frame();
+
+                    // Queued changes go in even while not tracking, so they don't pile up.
+                    long mutationStart = mProfiler.start();
+                    mSceneMutations.applyPending();
+                    mProfiler.stop(FrameProfiler.TIMER_MUTATIONS, mutationStart);
 
                     Frame frame = arFragment.getArSceneView().getArFrame();
                     if (frame == null) {
@@ -127,12 +347,18 @@ public class ArActivity extends AppCompatActivity {
                         return;
                     }
 
-                    if (mActiveRoute != null && editMode) {
-                        // TODO do this only when there is touch event?
-                        mActiveRoute.moveLinesIfNeeded();
+                    if (hasFinishedLoading && !mStartupTrace.isMarked(StartupTrace.FIRST_PLACEABLE_CLIP)) {
+                        mStartupTrace.mark(StartupTrace.FIRST_PLACEABLE_CLIP);
                     }
 
+                    long updateStart = mProfiler.start();
+                    mFrameScheduler.runFrame();
+                    mProfiler.stop(FrameProfiler.TIMER_SCHEDULER, updateStart);
+
+                    long fragmentStart = mProfiler.start();
                     arFragment.onUpdate(frameTime);
+                    mProfiler.stop(FrameProfiler.TIMER_AR_FRAGMENT, fragmentStart);
+                    mProfiler.stop(FrameProfiler.TIMER_UPDATE, updateStart);
                 });
 
 
@@ -166,10 +392,16 @@ public class ArActivity extends AppCompatActivity {
      * @param tap MotionEvent for the tap.
      */
     private void onSingleTap(MotionEvent tap) {
+        if (!hasFinishedLoading) {
+            Toast.makeText(this, "Still loading", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        long tapStart = mProfiler.start();
         Frame frame = arFragment.getArSceneView().getArFrame();
         if (frame != null) {
+            mHitTester.setFrame(frame, arFragment.getArSceneView().getSession(), mScene.getCamera());
             if (mActiveRoute == null && editMode) {
-                if (tryPlaceNewRoute(tap, frame)) {
+                if (tryPlaceNewRoute(tap)) {
                     selectRoute(mRoutes.get(mRoutes.size() - 1));
                     editingRoute(editMode);
                 } else {
@@ -177,14 +409,736 @@ public class ArActivity extends AppCompatActivity {
                 }
             } else {
                 if (editMode) {
-                    if (!tryPlaceClip(tap, frame)) {
+                    if (!tryPlaceClip(tap)) {
                         Toast.makeText(this, "nope", Toast.LENGTH_SHORT).show();
                     }
                 } else {
-                    selectRoute(null);
+                    selectRoute(pickRoute(tap));
+                }
+            }
+        }
+        mProfiler.stop(FrameProfiler.TIMER_TAP, tapStart);
+    }
+
+
+    /**
+     * Model replaced a placeholder, swap renderables of existing routes a few per frame.
+     */
+    private void refreshRouteRenderables() {
+        int[] next = {0};
+        mFrameScheduler.post(FrameScheduler.CATEGORY_LOADING, FrameScheduler.PRIORITY_LOW, () -> {
+            int end = Math.min(next[0] + ROUTES_REFRESHED_PER_FRAME, mRoutes.size());
+            for (; next[0] < end; next[0]++) {
+                mRoutes.get(next[0]).refreshRenderables();
+            }
+            return next[0] >= mRoutes.size();
+        });
+    }
+
+
+    /**
+     * Refit the wall's surfaces to the accumulated feature points on the surface thread.
+     * The points are copied here, the fitting takes a few milliseconds off the UI thread.
+     */
+    private void updateWallSurfaces() {
+        int count = mHitTester.copyPoints(mSurfacePoints);
+        mSurfaceUpdating = true;
+        mSurfaceExecutor.execute(() -> {
+            try {
+                mWallSurfaces.update(mSurfacePoints, count);
+            } finally {
+                mSurfaceUpdating = false;
+            }
+        });
+    }
+
+
+    /**
+     * Update level of detail of the next few routes, so all routes are checked every few frames.
+     */
+    private void updateLodSlice() {
+        if (mRoutes.isEmpty()) {
+            return;
+        }
+        sampleCamera();
+
+        int count = Math.min(ROUTES_LOD_CHECKED_PER_FRAME, mRoutes.size());
+        for (int i = 0; i < count; i++) {
+            if (mNextLodRoute >= mRoutes.size()) {
+                mNextLodRoute = 0;
+            }
+            mRoutes.get(mNextLodRoute++).updateLod(mLodPolicy, mCameraPosition, mCameraForward);
+        }
+    }
+
+
+    /**
+     * Copy camera's world position and forward direction to mCameraPosition and mCameraForward.
+     */
+    private void sampleCamera() {
+        Vector3 position = mScene.getCamera().getWorldPosition();
+        Vector3 forward = mScene.getCamera().getForward();
+        mCameraPosition[0] = position.x;
+        mCameraPosition[1] = position.y;
+        mCameraPosition[2] = position.z;
+        mCameraForward[0] = forward.x;
+        mCameraForward[1] = forward.y;
+        mCameraForward[2] = forward.z;
+    }
+
+
+    /**
+     * Tell the Routes whose anchors ARCore updated this frame. ARCore makes a new collection
+     * on every call, so it's asked once per frame and only while Routes have tracked anchors.
+     * @param frame Current Frame.
+     */
+    private void notifyUpdatedAnchors(Frame frame) {
+        for (Anchor anchor : frame.getUpdatedAnchors()) {
+            Route route = mRouteScene.getRoute(anchor);
+            if (route != null && !mUpdatedRoutes.contains(route)) {
+                mUpdatedRoutes.add(route);
+            }
+        }
+        for (int i = 0; i < mUpdatedRoutes.size(); i++) {
+            mUpdatedRoutes.get(i).onAnchorsUpdated();
+        }
+        mUpdatedRoutes.clear();
+    }
+
+
+    /**
+     * Inflate the pooled info cards. Each card joins the pool when its view is ready.
+     */
+    private void createInfoCards() {
+        for (int i = 0; i < INFO_CARD_COUNT; i++) {
+            long buildStart = mProfiler.start();
+            ViewRenderable.builder()
+                    .setView(this, R.layout.route_info_card_view)
+                    .build()
+                    .thenAccept(renderable -> {
+                        mProfiler.stop(FrameProfiler.TIMER_VIEW_BUILD, buildStart);
+                        Node card = new Node();
+                        card.setRenderable(renderable);
+                        mRouteScene.addInfoCard(card, renderable.getView());
+                        mInfoCardPool.addCard();
+                    })
+                    .exceptionally(throwable -> {
+                        Log.e(TAG, "Could not load card view", throwable);
+                        return null;
+                    });
+        }
+    }
+
+
+    /**
+     * Hand out ARCore anchors to routes nearest to the camera. The route being edited counts
+     * as nearest, so it keeps all of its anchors.
+     */
+    private void updateAnchorBudget() {
+        sampleCamera();
+        if (mAnchorDistances.length < mRoutes.size()) {
+            mAnchorDistances = new float[mRoutes.size() * 2];
+        }
+        for (int i = 0; i < mRoutes.size(); i++) {
+            Route route = mRoutes.get(i);
+            if (route == mActiveRoute && editMode) {
+                // Route being edited keeps its anchors.
+                mAnchorDistances[i] = 0.0f;
+            } else if (route.getStartPosition(mCardPosition)) {
+                mAnchorDistances[i] = LineMath.distance(mCameraPosition, mCardPosition);
+            } else {
+                mAnchorDistances[i] = Float.POSITIVE_INFINITY;
+            }
+        }
+        mAnchorBudget.update(mRoutes, mAnchorDistances);
+    }
+
+
+    /**
+     * Give info cards to the routes nearest to the camera. Active route always has one,
+     * routes not shown in full detail get none.
+     */
+    private void updateInfoCards() {
+        if (mInfoCardPool.getCardCount() == 0) {
+            return;
+        }
+        sampleCamera();
+        if (mCardScores.length < mRoutes.size()) {
+            mCardScores = new float[mRoutes.size() * 2];
+        }
+        for (int i = 0; i < mRoutes.size(); i++) {
+            Route route = mRoutes.get(i);
+            if (!route.getStartPosition(mCardPosition)) {
+                // No Clips to show a card on.
+                mCardScores[i] = Float.POSITIVE_INFINITY;
+            } else if (route == mActiveRoute) {
+                mCardScores[i] = 0.0f;
+            } else if (route.getLodLevel() != LodPolicy.LEVEL_FULL) {
+                mCardScores[i] = Float.POSITIVE_INFINITY;
+            } else {
+                mCardScores[i] = LineMath.distance(mCameraPosition, mCardPosition);
+            }
+        }
+        mInfoCardPool.update(mRoutes, mCardScores);
+    }
+
+
+    /**
+     * Loading a model failed, placeholders stay in use.
+     * @param throwable What went wrong.
+     * @return Nothing.
+     */
+    private Void onModelFailed(Throwable throwable) {
+        Log.e(TAG, "Failed to load model", throwable);
+        Toast.makeText(this, "Failed to load renderables", Toast.LENGTH_LONG).show();
+        return null;
+    }
+
+
+    /**
+     * Find the Route under the tap.
+     * @param tap MotionEvent for the tap.
+     * @return Tapped Route, null if none.
+     */
+    private Route pickRoute(MotionEvent tap) {
+        Ray ray = mScene.getCamera().screenPointToRay(tap.getX(), tap.getY());
+        Vector3 origin = ray.getOrigin();
+        Vector3 direction = ray.getDirection();
+        mRayOrigin[0] = origin.x;
+        mRayOrigin[1] = origin.y;
+        mRayOrigin[2] = origin.z;
+        mRayDirection[0] = direction.x;
+        mRayDirection[1] = direction.y;
+        mRayDirection[2] = direction.z;
+
+        if (mClipBvh.raycast(mRayOrigin, mRayDirection, mPickHit)) {
+            return mPickHit.owner;
+        }
+        return null;
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mEditJournal.close();
+        mStoreExecutor.execute(() -> {
+            if (mRouteStore != null) {
+                try {
+                    mRouteStore.close();
+                } catch (IOException ex) {
+                    Log.e(TAG, "Failed to close route store", ex);
+                }
+            }
+        });
+        mStoreExecutor.shutdown();
+        mSyncExecutor.shutdownNow();
+        mSurfaceExecutor.shutdownNow();
+        mSurfaceWorkers.shutdownNow();
+    }
+
+
+    /**
+     * Open the route store in the background. Routes are read once for the search index, and
+     * loaded again as needed.
+     */
+    private void openRouteStore() {
+        File file = new File(getFilesDir(), ROUTE_STORE_FILE);
+        mStoreExecutor.execute(() -> {
+            try {
+                mRouteStore = new RouteStore(file);
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to open route store", ex);
+                return;
+            }
+            try {
+                int count = mEditJournal.recoverInto(mRouteStore);
+                if (count > 0) {
+                    Log.i(TAG, "Recovered " + count + " unsaved edits");
+                }
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to recover edits", ex);
+            }
+            indexStoredRoutes();
+            openRouteSync();
+        });
+    }
+
+
+    /**
+     * Start syncing the route store with the gym's server, if the build has one.
+     * Called on the store's thread once the store is open.
+     */
+    private void openRouteSync() {
+        if (BuildConfig.SYNC_URL.isEmpty()) {
+            return;
+        }
+        File stateFile = new File(getFilesDir(), SYNC_STATE_FILE);
+        SyncState state;
+        RouteSyncClient client;
+        try {
+            state = SyncState.load(stateFile, new Random());
+            client = new RouteSyncClient(new URL(BuildConfig.SYNC_URL), mSyncExecutor);
+        } catch (MalformedURLException ex) {
+            Log.e(TAG, "Bad sync server URL", ex);
+            return;
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed to load sync state", ex);
+            return;
+        }
+        if (state.isNew()) {
+            // Routes saved before syncing was set up are pushed too.
+            for (long id : mRouteStore.getIds()) {
+                state.markChanged(id);
+            }
+        }
+
+        mRouteSync = new RouteSync(mRouteStore, state, stateFile, client, mStoreExecutor,
+                new RouteSync.Listener() {
+                    @Override
+                    public void onSynced(int pushed, int pulled) {
+                        if (pushed > 0 || pulled > 0) {
+                            Log.i(TAG, "Synced, pushed " + pushed + ", pulled " + pulled + " routes, "
+                                    + client.getBytesSent() + " B sent, "
+                                    + client.getBytesReceived() + " B received in total");
+                        }
+                    }
+
+                    @Override
+                    public void onPulled(List<RouteRecord> records) {
+                        indexRecords(records);
+                    }
+
+                    @Override
+                    public void onSyncFailed(IOException ex) {
+                        Log.e(TAG, "Failed to sync routes", ex);
+                    }
+                });
+        mStoreExecutor.scheduleWithFixedDelay(mRouteSync::sync, 0, SYNC_INTERVAL_S, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Open the edit journal. Must be done before the route store, so edits can be recovered.
+     */
+    private void openEditJournal() {
+        mEditJournal = new EditJournal(new File(getFilesDir(), EDIT_JOURNAL_FILE), mStoreExecutor);
+        mEditJournal.setListener(new EditJournal.Listener() {
+            @Override
+            public void onSnapshotNeeded(Set<Long> routeIds) {
+                for (Long id : routeIds) {
+                    mSceneMutations.post(id, SceneMutationQueue.KIND_SNAPSHOT, () -> {
+                        Route route = mRoutesById.get(id);
+                        if (route != null) {
+                            saveRoute(route);
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onWriteFailed(IOException ex) {
+                Log.e(TAG, "Failed to write edit journal", ex);
+            }
+        });
+    }
+
+
+    /**
+     * Update a route's values in the search index.
+     * @param route Route to index.
+     */
+    private void indexRoute(Route route) {
+        route.writeInfoTo(mInfoRecord);
+        mInfoRecord.id = route.getId();
+        indexRecord(mInfoRecord);
+    }
+
+
+    /**
+     * Update a route's values in the search index from its record.
+     * @param record RouteRecord of the route.
+     */
+    private void indexRecord(RouteRecord record) {
+        mSearchIndex.put(record.id, record);
+        mSearchLabels.put(record.id, (record.name.isEmpty() ? "Unnamed route" : record.name)
+                + ", " + GradeEngine.getLabel(GradeEngine.FRENCH, record.difficulty));
+    }
+
+
+    /**
+     * Index stored, imported or pulled routes. Called on the store's thread, the index is
+     * updated on the UI thread.
+     * @param records Records to index, not touched afterwards.
+     */
+    private void indexRecords(List<RouteRecord> records) {
+        runOnUiThread(() -> {
+            for (RouteRecord record : records) {
+                indexRecord(record);
+            }
+        });
+    }
+
+
+    /**
+     * Index every stored route, a batch at a time. Only info fields are read, clips stay on
+     * disk. Called on the store's thread.
+     */
+    private void indexStoredRoutes() {
+        ArrayList<RouteRecord> batch = new ArrayList<>(ROUTES_PER_TRANSFER_BATCH);
+        for (long id : mRouteStore.getIds()) {
+            RouteRecord record = mRouteStore.loadInfo(id);
+            if (record != null) {
+                batch.add(record);
+            }
+            if (batch.size() == ROUTES_PER_TRANSFER_BATCH) {
+                indexRecords(batch);
+                batch = new ArrayList<>(ROUTES_PER_TRANSFER_BATCH);
+            }
+        }
+        indexRecords(batch);
+    }
+
+
+    /**
+     * Search FAB asks for words and grades, e.g. "crimp 6a-6c", and lists matching routes.
+     * @param button Search FAB.
+     */
+    public void onClickSearch(View button) {
+        EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint("Name, notes or grades, e.g. crimp 6a-6c");
+        new AlertDialog.Builder(this)
+                .setTitle("Search routes")
+                .setView(input)
+                .setPositiveButton("Search", (dialog, which) -> showSearchResults(input.getText().toString()))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+
+    /**
+     * List routes matching typed text, easiest first. Picking a placed route selects it
+     * outside edit mode.
+     * @param text Words and grades typed by the user.
+     */
+    private void showSearchResults(String text) {
+        List<Long> ids = mSearchIndex.search(mSearchQuery.parse(GradeEngine.FRENCH, text), new ArrayList<>());
+        if (ids.isEmpty()) {
+            Toast.makeText(this, "No routes found", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] labels = new String[ids.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = mSearchLabels.get(ids.get(i));
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(ids.size() == 1 ? "1 route" : ids.size() + " routes")
+                .setItems(labels, (dialog, which) -> {
+                    Route route = mRoutesById.get(ids.get(which));
+                    if (route == null) {
+                        Toast.makeText(this, "Route is not placed here", Toast.LENGTH_SHORT).show();
+                    } else if (editMode) {
+                        Toast.makeText(this, "Leave edit mode to select", Toast.LENGTH_SHORT).show();
+                    } else {
+                        selectRoute(route);
+                    }
+                })
+                .show();
+    }
+
+
+    /**
+     * Save a route in the background.
+     * @param route Route to save.
+     */
+    private void saveRoute(Route route) {
+        RouteRecord record = route.toRecord();
+        long stamp = mEditJournal.mark();
+        mStoreExecutor.execute(() -> {
+            if (mRouteStore == null) {
+                return;
+            }
+            try {
+                mRouteStore.save(record);
+                mEditJournal.snapshotSaved(record.id, stamp);
+                if (mRouteSync != null) {
+                    mRouteSync.markChanged(record.id);
+                }
+                if (mRouteStore.shouldCompact()) {
+                    mRouteStore.compact();
+                }
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to save route", ex);
+            }
+        });
+    }
+
+
+    /**
+     * Show or hide the profiler overlay.
+     */
+    private void toggleProfilerOverlay() {
+        boolean show = mProfilerTextView.getVisibility() != View.VISIBLE;
+        mProfilerTextView.setVisibility(show ? View.VISIBLE : View.GONE);
+        mFramesUntilProfilerUpdate = 0;
+    }
+
+
+    /**
+     * Tapping the profiler overlay saves the results to a file in the app's external files,
+     * so they can be pulled from devices and compared.
+     * @param view Profiler overlay.
+     */
+    public void onClickSaveProfile(View view) {
+        StringWriter csv = new StringWriter();
+        try {
+            mProfiler.writeCsv(csv, Build.MANUFACTURER + " " + Build.MODEL
+                    + ", Android " + Build.VERSION.SDK_INT);
+        } catch (IOException ex) {
+            // StringWriter doesn't throw.
+        }
+        File file = new File(getExternalFilesDir(null), "profile-" + System.currentTimeMillis() + ".csv");
+        mStoreExecutor.execute(() -> {
+            try (Writer writer = new FileWriter(file)) {
+                writer.write(csv.toString());
+                runOnUiThread(() -> Toast.makeText(this, "Profile saved to " + file.getName(),
+                        Toast.LENGTH_SHORT).show());
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to save profile", ex);
+            }
+        });
+    }
+
+
+    /**
+     * Transfer FAB offers exporting the stored routes to a file and importing them from one.
+     * @param button Transfer FAB.
+     */
+    public void onClickTransfer(View button) {
+        PopupMenu menu = new PopupMenu(this, button);
+        menu.getMenu().add(0, REQUEST_EXPORT_ROUTES, 0, "Export routes");
+        menu.getMenu().add(0, REQUEST_IMPORT_ROUTES, 1, "Import routes");
+        menu.setOnMenuItemClickListener(item -> {
+            pickArchive(item.getItemId());
+            return true;
+        });
+        menu.show();
+    }
+
+
+    /**
+     * Let the user pick a file with the system's file picker.
+     * @param request REQUEST_EXPORT_ROUTES or REQUEST_IMPORT_ROUTES.
+     */
+    private void pickArchive(int request) {
+        Intent intent;
+        if (request == REQUEST_EXPORT_ROUTES) {
+            intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.putExtra(Intent.EXTRA_TITLE, "routes.crta");
+        } else {
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(ARCHIVE_MIME_TYPE);
+        startActivityForResult(intent, request);
+    }
+
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_EXPORT_ROUTES) {
+            exportRoutes(data.getData());
+        } else if (requestCode == REQUEST_IMPORT_ROUTES) {
+            importRoutes(data.getData());
+        }
+    }
+
+
+    /**
+     * Write all stored routes to a file in the background, one route at a time.
+     * @param uri File picked by the user.
+     */
+    private void exportRoutes(Uri uri) {
+        startTransfer("Exporting routes");
+        mStoreExecutor.execute(() -> {
+            if (mRouteStore == null) {
+                finishTransfer("Routes are not available");
+                return;
+            }
+            List<Long> ids = mRouteStore.getIds();
+            int total = ids.size();
+            try (RouteArchive.Writer writer = new RouteArchive.Writer(openArchiveOutput(uri),
+                    (routes, bytes) -> showTransferProgress("Exported " + routes + " / " + total + " routes",
+                            routes, total), ROUTES_PER_TRANSFER_BATCH)) {
+                for (long id : ids) {
+                    RouteRecord record = mRouteStore.load(id);
+                    if (record != null) {
+                        writer.write(record);
+                    }
+                }
+                writer.finish();
+                finishTransfer("Exported " + writer.getCount() + " routes");
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to export routes", ex);
+                finishTransfer("Exporting routes failed");
+            }
+        });
+    }
+
+
+    /**
+     * Read routes from a file into the store in the background, a batch at a time.
+     * Routes with the same id as stored ones replace them.
+     * @param uri File picked by the user.
+     */
+    private void importRoutes(Uri uri) {
+        startTransfer("Importing routes");
+        mStoreExecutor.execute(() -> {
+            if (mRouteStore == null) {
+                finishTransfer("Routes are not available");
+                return;
+            }
+            long size = getArchiveSize(uri);
+            ArrayList<RouteRecord> batch = new ArrayList<>(ROUTES_PER_TRANSFER_BATCH);
+            int imported = 0;
+            try (RouteArchive.Reader reader = new RouteArchive.Reader(openArchiveInput(uri),
+                    (routes, bytes) -> showTransferProgress("Imported " + routes + " routes", bytes, size),
+                    ROUTES_PER_TRANSFER_BATCH)) {
+                RouteRecord record;
+                while ((record = reader.next()) != null) {
+                    batch.add(record);
+                    if (batch.size() == ROUTES_PER_TRANSFER_BATCH) {
+                        saveImported(batch);
+                        imported += batch.size();
+                        batch.clear();
+                    }
                 }
+                saveImported(batch);
+                imported += batch.size();
+                finishTransfer("Imported " + imported + " routes");
+            } catch (IOException ex) {
+                // Batches saved before the error stay imported.
+                Log.e(TAG, "Failed to import routes", ex);
+                finishTransfer("Importing routes failed after " + imported + " routes");
+            }
+            try {
+                if (mRouteStore.shouldCompact()) {
+                    mRouteStore.compact();
+                }
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to compact route store", ex);
+            }
+        });
+    }
+
+
+    /**
+     * Save a batch of imported routes, and share them with the gym if syncing.
+     * @param batch Imported records.
+     * @throws IOException If writing fails.
+     */
+    private void saveImported(List<RouteRecord> batch) throws IOException {
+        mRouteStore.saveAll(batch);
+        if (mRouteSync != null) {
+            for (RouteRecord record : batch) {
+                mRouteSync.markChanged(record.id);
             }
         }
+        // Batch is reused by the caller.
+        indexRecords(new ArrayList<>(batch));
+    }
+
+
+    /**
+     * Open a file picked by the user for writing.
+     * @param uri File picked by the user.
+     * @return Stream to write to.
+     * @throws IOException If the file can't be opened.
+     */
+    private OutputStream openArchiveOutput(Uri uri) throws IOException {
+        OutputStream out = getContentResolver().openOutputStream(uri);
+        if (out == null) {
+            throw new IOException("Could not open " + uri);
+        }
+        return out;
+    }
+
+
+    /**
+     * Open a file picked by the user for reading.
+     * @param uri File picked by the user.
+     * @return Stream to read from.
+     * @throws IOException If the file can't be opened.
+     */
+    private InputStream openArchiveInput(Uri uri) throws IOException {
+        InputStream in = getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Could not open " + uri);
+        }
+        return in;
+    }
+
+
+    /**
+     * Get the size of a file picked by the user, for showing progress.
+     * @param uri File picked by the user.
+     * @return Size in bytes, -1 if unknown.
+     */
+    private long getArchiveSize(Uri uri) {
+        try (AssetFileDescriptor descriptor = getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            return descriptor == null ? -1 : descriptor.getLength();
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Show the progress views, and keep another transfer from starting meanwhile.
+     * @param text Text to show until the first progress update.
+     */
+    private void startTransfer(String text) {
+        mTransferFAB.setEnabled(false);
+        mTransferTextView.setText(text);
+        mTransferTextView.setVisibility(View.VISIBLE);
+        mTransferProgressBar.setIndeterminate(true);
+        mTransferProgressBar.setVisibility(View.VISIBLE);
+    }
+
+
+    /**
+     * Update the progress views from the store's thread, only the newest progress is shown in a frame.
+     * @param text Text to show.
+     * @param done Routes or bytes done so far.
+     * @param total Routes or bytes in total, -1 if unknown.
+     */
+    private void showTransferProgress(String text, long done, long total) {
+        mSceneMutations.post(mTransferTextView, SceneMutationQueue.KIND_PROGRESS, () -> {
+            mTransferTextView.setText(text);
+            if (total > 0) {
+                mTransferProgressBar.setIndeterminate(false);
+                mTransferProgressBar.setProgress((int) (mTransferProgressBar.getMax() * Math.min(done, total) / total));
+            }
+        });
+    }
+
+
+    /**
+     * Hide the progress views from the store's thread and tell how the transfer went.
+     * @param result Text to show.
+     */
+    private void finishTransfer(String result) {
+        mSceneMutations.post(() -> {
+            mTransferTextView.setVisibility(View.GONE);
+            mTransferProgressBar.setVisibility(View.GONE);
+            mTransferFAB.setEnabled(true);
+            Toast.makeText(this, result, Toast.LENGTH_SHORT).show();
+        });
     }
 
 
@@ -197,19 +1151,19 @@ public class ArActivity extends AppCompatActivity {
     /**
      * Try to place a new Route.
      * @param tap MotionEvent fot the tap.
-     * @param frame Current frame.
-     */
-    private boolean tryPlaceNewRoute(MotionEvent tap, Frame frame) {
-        if (tap != null && frame.getCamera().getTrackingState() == TrackingState.TRACKING) {
-            for (HitResult hit : frame.hitTest(tap)) {
-                Trackable trackable = hit.getTrackable();
-                if (trackable instanceof Point) {
-                    Route newRoute = new Route(this, arFragment.getTransformationSystem(), mRenderableHelper);
-                    newRoute.addClip(hit);
-                    mRoutes.add(newRoute);
-                    return true;
-                }
-            }
+     */
+    private boolean tryPlaceNewRoute(MotionEvent tap) {
+        if (tap != null && mHitTester.hitTest(tap.getX(), tap.getY(), mHitPosition)) {
+            Route newRoute = new Route(this, mRouteScene, mRenderableHelper.getPalette(), mClipBvh);
+            newRoute.setEditJournal(mEditJournal);
+            newRoute.setSnapSurface(mHitTester);
+            newRoute.setMutationQueue(mSceneMutations);
+            newRoute.setInfoCardPool(mInfoCardPool);
+            newRoute.addClip(mHitPosition);
+            mRoutes.add(newRoute);
+            mRoutesById.put(newRoute.getId(), newRoute);
+            indexRoute(newRoute);
+            return true;
         }
         return false;
     }
@@ -218,17 +1172,11 @@ public class ArActivity extends AppCompatActivity {
     /**
      * Try to place a new clip to active Route.
      * @param tap MotionEvent fot the tap.
-     * @param frame Current frame.
-     */
-    private boolean tryPlaceClip(MotionEvent tap, Frame frame) {
-        if (tap != null && frame.getCamera().getTrackingState() == TrackingState.TRACKING) {
-            for (HitResult hit : frame.hitTest(tap)) {
-                Trackable trackable = hit.getTrackable();
-                if (trackable instanceof Point) {
-                    mActiveRoute.addClip(hit);
-                    return true;
-                }
-            }
+     */
+    private boolean tryPlaceClip(MotionEvent tap) {
+        if (tap != null && mHitTester.hitTest(tap.getX(), tap.getY(), mHitPosition)) {
+            mActiveRoute.addClip(mHitPosition);
+            return true;
         }
         return false;
     }
@@ -263,12 +1211,17 @@ public class ArActivity extends AppCompatActivity {
         editMode = startEdit;
         updateModeText();
 
-        // Show FAB for info view only when a route is in editing mode.
+        // Show FABs for info view and undo only when a route is in editing mode.
         if (startEdit) {
             mInfoViewFAB.setVisibility(View.VISIBLE);
+            mUndoFAB.setVisibility(View.VISIBLE);
+            mRedoFAB.setVisibility(View.VISIBLE);
             mActiveRoute.setupInfoView(mInfoView);
         } else {
             mInfoViewFAB.setVisibility(View.INVISIBLE);
+            mUndoFAB.setVisibility(View.INVISIBLE);
+            mRedoFAB.setVisibility(View.INVISIBLE);
+            saveRoute(mActiveRoute);
         }
     }
 
@@ -322,8 +1275,54 @@ public class ArActivity extends AppCompatActivity {
             } else {
                 mInfoView.setVisibility(View.GONE);
                 mActiveRoute.updateRouteInfo(mInfoView);
+                indexRoute(mActiveRoute);
+                saveRoute(mActiveRoute);
             }
         }
     }
-}
 
+
+    /**
+     * FAB button for undoing the latest edit.
+     * @param button Undo FAB button
+     */
+    public void onClickUndo(View button) {
+        EditCommand command = mEditJournal.undo();
+        if (command == null) {
+            Toast.makeText(this, "Nothing to undo", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        applyEdit(command);
+    }
+
+
+    /**
+     * FAB button for redoing the latest undone edit.
+     * @param button Redo FAB button
+     */
+    public void onClickRedo(View button) {
+        EditCommand command = mEditJournal.redo();
+        if (command == null) {
+            Toast.makeText(this, "Nothing to redo", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        applyEdit(command);
+    }
+
+
+    /**
+     * Apply an edit from undo or redo to its route.
+     * @param command Edit to apply.
+     */
+    private void applyEdit(EditCommand command) {
+        Route route = mRoutesById.get(command.routeId);
+        if (route == null) {
+            return;
+        }
+        route.applyEdit(command);
+        if (route == mActiveRoute && mInfoView.getVisibility() == View.VISIBLE) {
+            route.updateInfoView(mInfoView);
+        }
+        indexRoute(route);
+    }
+}
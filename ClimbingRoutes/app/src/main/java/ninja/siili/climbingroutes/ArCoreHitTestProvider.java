@@ -0,0 +1,166 @@
+package ninja.siili.climbingroutes;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Frame;
+import com.google.ar.core.HitResult;
+import com.google.ar.core.Point;
+import com.google.ar.core.PointCloud;
+import com.google.ar.core.Pose;
+import com.google.ar.core.Session;
+import com.google.ar.core.TrackingState;
+import com.google.ar.sceneform.Camera;
+import com.google.ar.sceneform.collision.Ray;
+import com.google.ar.sceneform.math.Vector3;
+
+/**
+ * HitTestProvider hitting ARCore's feature points, accumulated over frames in a
+ * FeaturePointCloud. A hit on one of the current Frame's points is snapped to the densest
+ * surface around it, and if the Frame has no point under the tap the accumulated points are
+ * searched along the tap's ray instead. Where the points are too sparse, the wall's surfaces
+ * fitted by a WallSurfaceEstimator are hit.
+ */
+public class ArCoreHitTestProvider implements HitTestProvider {
+
+    // Hits are snapped to the densest voxel this far away, in meters.
+    private static final float SNAP_RADIUS = 0.05f;
+    // Summed confidence of points around a voxel needed for it to count as wall.
+    private static final float MIN_SURFACE_WEIGHT = 2.0f;
+    // Farthest the tap's ray is followed, in meters.
+    private static final float MAX_RAY_DISTANCE = 5.0f;
+    // Positions this close to a fitted surface are projected onto it, in meters.
+    private static final float MAX_SURFACE_DISTANCE = 0.15f;
+    // Voxels with this much weight are used for fitting surfaces.
+    private static final float MIN_CENTROID_WEIGHT = 1.0f;
+
+    private final FeaturePointCloud mPointCloud;
+    private final WallSurfaceEstimator mSurfaces;
+    private Frame mFrame;
+    private Session mSession;
+    private Camera mCamera;
+    private long mPointCloudTimestamp = -1;
+
+    private HitResult mLastHit;
+    private final float[] mLastPosition = new float[3];
+    private final float[] mRayOrigin = new float[3];
+    private final float[] mRayDirection = new float[3];
+
+
+    /**
+     * Constructor for ArCoreHitTestProvider.
+     * @param pointCloud FeaturePointCloud to accumulate points into.
+     * @param surfaces WallSurfaceEstimator for where the points are sparse.
+     */
+    public ArCoreHitTestProvider(FeaturePointCloud pointCloud, WallSurfaceEstimator surfaces) {
+        mPointCloud = pointCloud;
+        mSurfaces = surfaces;
+    }
+
+
+    /**
+     * Copy the accumulated points for updating the WallSurfaceEstimator. Call on the thread
+     * the points are accumulated on.
+     * @param out Array of 3 floats per point.
+     * @return Number of points copied.
+     */
+    public int copyPoints(float[] out) {
+        return mPointCloud.copyCentroids(out, MIN_CENTROID_WEIGHT);
+    }
+
+
+    /**
+     * Add the Frame's feature points to the cloud, call once per frame.
+     * ARCore only updates the points now and then, the same ones aren't added twice.
+     * @param frame Current Frame.
+     */
+    public void accumulatePoints(Frame frame) {
+        mPointCloud.frame();
+        PointCloud pointCloud = frame.acquirePointCloud();
+        try {
+            if (pointCloud.getTimestamp() != mPointCloudTimestamp) {
+                mPointCloudTimestamp = pointCloud.getTimestamp();
+                mPointCloud.addPoints(pointCloud.getPoints());
+            }
+        } finally {
+            pointCloud.release();
+        }
+    }
+
+
+    /**
+     * Set the Frame to hit test against, call before hitTest().
+     * @param frame Current Frame, null if none.
+     * @param session Session for anchors that aren't on a trackable.
+     * @param camera Scene's Camera for rays through the screen.
+     */
+    public void setFrame(Frame frame, Session session, Camera camera) {
+        mFrame = frame;
+        mSession = session;
+        mCamera = camera;
+        mLastHit = null;
+    }
+
+
+    @Override
+    public boolean hitTest(float x, float y, float[] outPosition) {
+        mLastHit = null;
+        if (mFrame == null || mFrame.getCamera().getTrackingState() != TrackingState.TRACKING) {
+            return false;
+        }
+        for (HitResult hit : mFrame.hitTest(x, y)) {
+            if (hit.getTrackable() instanceof Point) {
+                Pose pose = hit.getHitPose();
+                outPosition[0] = pose.tx();
+                outPosition[1] = pose.ty();
+                outPosition[2] = pose.tz();
+                mLastHit = hit;
+                break;
+            }
+        }
+
+        if (mLastHit != null) {
+            // Single points are noisy, the surface around them is steadier.
+            mPointCloud.snap(outPosition, SNAP_RADIUS, MIN_SURFACE_WEIGHT, outPosition);
+        } else {
+            Ray ray = mCamera.screenPointToRay(x, y);
+            Vector3 origin = ray.getOrigin();
+            Vector3 direction = ray.getDirection();
+            mRayOrigin[0] = origin.x;
+            mRayOrigin[1] = origin.y;
+            mRayOrigin[2] = origin.z;
+            mRayDirection[0] = direction.x;
+            mRayDirection[1] = direction.y;
+            mRayDirection[2] = direction.z;
+            if (!mPointCloud.raycast(mRayOrigin, mRayDirection, MAX_RAY_DISTANCE, MIN_SURFACE_WEIGHT,
+                    outPosition)
+                    && !mSurfaces.raycast(mRayOrigin, mRayDirection, MAX_RAY_DISTANCE, outPosition)) {
+                return false;
+            }
+        }
+        System.arraycopy(outPosition, 0, mLastPosition, 0, 3);
+        return true;
+    }
+
+
+    @Override
+    public boolean snapToSurface(float[] position, float[] outPosition) {
+        return mPointCloud.snap(position, SNAP_RADIUS, MIN_SURFACE_WEIGHT, outPosition)
+                || mSurfaces.project(position, MAX_SURFACE_DISTANCE, outPosition);
+    }
+
+
+    /**
+     * Create an anchor at the last hit. It's attached to the hit feature point's trackable if
+     * there was one, so it follows ARCore's updates to it.
+     * @return New Anchor.
+     */
+    public Anchor createAnchor() {
+        Pose pose = Pose.makeTranslation(mLastPosition[0], mLastPosition[1], mLastPosition[2]);
+        if (mLastHit != null) {
+            return mLastHit.getTrackable().createAnchor(pose);
+        }
+        if (mSession == null) {
+            throw new IllegalStateException("No hit to anchor to");
+        }
+        return mSession.createAnchor(pose);
+    }
+}
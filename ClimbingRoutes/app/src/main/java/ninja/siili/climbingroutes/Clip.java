@@ -1,133 +1,254 @@
 package ninja.siili.climbingroutes;
 
-import android.view.View;
-import android.widget.Toast;
 
-import com.google.ar.core.HitResult;
-import com.google.ar.sceneform.AnchorNode;
 import com.google.ar.sceneform.Node;
 import com.google.ar.sceneform.math.Quaternion;
 import com.google.ar.sceneform.math.Vector3;
 import com.google.ar.sceneform.rendering.ModelRenderable;
-import com.google.ar.sceneform.rendering.ViewRenderable;
 import com.google.ar.sceneform.ux.TransformableNode;
 import com.google.ar.sceneform.ux.TransformationSystem;
 
+import java.util.ArrayList;
+
 /** Clip represents a point in Route, visualised by a sphere.
- *  Route's first clip is always a start clip and has an info card attached to it,
- *  rest of the clips have a single line attached to them.
+ *  Route's first clip is always a start clip and can have an info card from the pool
+ *  attached to it, rest of the clips have a line from the previous clip attached to them,
+ *  drawn as a chain of straight pieces along Route's spline.
+ *  Clips don't own ARCore anchors, they sit at a local offset under one of Route's anchors.
+ *  Route places the nodes from its RouteModel, the only thing read back from them is
+ *  the user's gesture.
  */
-public class Clip {
+public class Clip implements RouteScene.ClipHandle {
+    private static final float LINE_THICKNESS = 0.03f;
+    // Clip model is a sphere of this radius at scale 1.
+    public static final float MODEL_RADIUS = 0.5f;
+    // Scales the user can pinch between, new Clips start at the largest.
+    private static final float MIN_SCALE = 0.1f;
+    public static final float MAX_SCALE = 0.3f;
+
+    // Scratch objects for placing nodes. Sceneform is only touched from the UI thread,
+    // so these can be shared between all Clips.
+    private static final Vector3 sScratchPosition = new Vector3();
+    private static final Vector3 sScratchScale = new Vector3();
+    private static final Quaternion sScratchRotation = new Quaternion();
+    private static final float[] sScratchQuaternion = new float[4];
+    private static final float[] sScratchFrom = new float[3];
+    private static final float[] sScratchTo = new float[3];
+
+    private final SceneformRouteScene mScene;
     private RenderableHelper mRenderableHelper;
+    private int mBand;
 
-    private AnchorNode mAnchor;
+    // Root of the Clip's nodes, a child of one of Route's anchor nodes.
+    private Node mRoot;
     private TransformableNode mTransformableNode;
     private Node mStaticNode;
+    // Parent of the line's pieces, pieces past the spline's current count are disabled.
     private Node mLine;
+    private final ArrayList<Node> mLinePieces = new ArrayList<>();
     private Node mInfoCard;
-    private View mInfoCardView;
+
+    // Which parts Route's level of detail shows, and whether transforming is on.
+    private boolean mVisible = true;
+    private boolean mShowSphere = true;
+    private boolean mShowLine = true;
+    private boolean mShowCard = true;
+    private boolean mTransformingEnabled = true;
+
+    private Runnable mTransformListener;
 
 
     /**
      * Constructor for the Clip.
+     * @param scene SceneformRouteScene with the pooled info cards.
      * @param transformationSystem TransformationSystem for Trasformable Nodes.
      * @param renderableHelper RenderableHelper class to help with Renderables.
-     * @param hit HitResult for the spot the user tapped.
-     * @param color Integer of the Route's color.
-     * @param previousClip Route's previous Clip, null if this is the first one.
+     * @param anchorNode Route's anchor node to place the Clip under.
+     * @param band Grade band of the Route, sets the color.
+     * @param withLine True if the Clip has a line from a previous Clip.
      */
-    public Clip(TransformationSystem transformationSystem, RenderableHelper renderableHelper,
-                HitResult hit, int color, Clip previousClip) {
+    public Clip(SceneformRouteScene scene, TransformationSystem transformationSystem,
+                RenderableHelper renderableHelper, Node anchorNode, int band, boolean withLine) {
+        mScene = scene;
         mRenderableHelper = renderableHelper;
+        mBand = band;
 
-        // Create anchor node.
-        mAnchor = new AnchorNode(hit.createAnchor());
-        mAnchor.setParent(mRenderableHelper.getScene());
+        // Create a root node under the anchor, setTransform() places it.
+        mRoot = new Node();
+        mRoot.setParent(anchorNode);
 
-        // Create a transformable node and add it to the anchor.
+        // Create a transformable node and add it to the root.
         mTransformableNode = new TransformableNode(transformationSystem);
-        mTransformableNode.setParent(mAnchor);
-        mTransformableNode.setRenderable(mRenderableHelper.getColoredClipRenderable(color));
+        mTransformableNode.setParent(mRoot);
+        mTransformableNode.setRenderable(mRenderableHelper.getClipRenderable(band));
+        mTransformableNode.setLocalScale(new Vector3(MAX_SCALE, MAX_SCALE, MAX_SCALE));
         mTransformableNode.select();
-        mTransformableNode.getScaleController().setMinScale(0.1f);
-        mTransformableNode.getScaleController().setMaxScale(0.3f);
+        mTransformableNode.getScaleController().setMinScale(MIN_SCALE);
+        mTransformableNode.getScaleController().setMaxScale(MAX_SCALE);
+        mTransformableNode.addTransformChangedListener(this::onTransformChanged);
 
-        // Create a static node and add it to the anchor.
+        // Create a static node and add it to the root.
         mStaticNode = new Node();
-        mStaticNode.setParent(mAnchor);
+        mStaticNode.setParent(mRoot);
 
-        // If no previous clip, create info card instead of a line.
-        if (previousClip == null) {
-            createInfoCard();
-        } else {
-            createLine(previousClip, color);
+        // First clip gets an info card from the pool instead of a line.
+        if (withLine) {
+            createLine();
         }
     }
 
 
+    @Override
+    public void setOnTransformListener(Runnable listener) {
+        mTransformListener = listener;
+    }
+
+
     /**
-     * Create info card ViewRenderable for the first Clip on Route.
+     * Transformable node or one of its parents moved. Only the node's own changes
+     * during a gesture are passed on, so ARCore moving the anchor costs nothing here.
      */
-    private void createInfoCard() {
-        if (mInfoCard == null && mTransformableNode != null) {
-            mInfoCard = new Node();
-            mInfoCard.setParent(mTransformableNode);
-            mInfoCard.setLocalPosition(new Vector3(0.0f, 1.5f, 0.0f));
-            mInfoCard.setLocalScale(new Vector3(4.0f, 4.0f, 4.0f));
-            mInfoCard.setWorldRotation(mRenderableHelper.getScene().getCamera().getWorldRotation());
-
-            // Build ViewRenderable.
-            ViewRenderable.builder()
-                    .setView(mRenderableHelper.getContext(), R.layout.route_info_card_view)
-                    .build()
-                    .thenAccept(
-                            (renderable) -> {
-                                mInfoCard.setRenderable(renderable);
-                                mInfoCardView = renderable.getView();
-                            })
-                    .exceptionally(
-                            (throwable) -> {
-                                throw new AssertionError("Could not load card view.", throwable);
-                            });
+    private void onTransformChanged(Node node, Node originatingNode) {
+        if (mTransformListener != null && originatingNode == mTransformableNode
+                && mTransformableNode.isTransforming()) {
+            mTransformListener.run();
+        }
+    }
+
+
+    @Override
+    public void attachInfoCard(int card) {
+        mInfoCard = mScene.getInfoCardNode(card);
+        mInfoCard.setParent(mTransformingEnabled ? mTransformableNode : mStaticNode);
+        mInfoCard.setLocalPosition(new Vector3(0.0f, 1.5f, 0.0f));
+        mInfoCard.setLocalScale(new Vector3(4.0f, 4.0f, 4.0f));
+        mInfoCard.setWorldRotation(mRenderableHelper.getScene().getCamera().getWorldRotation());
+        mInfoCard.setEnabled(mShowCard);
+    }
+
+
+    @Override
+    public void detachInfoCard() {
+        if (mInfoCard != null) {
+            mInfoCard.setParent(null);
+            mInfoCard = null;
         }
     }
 
 
     /**
-     * Create a line from this Clip to previous in Route.
-     * @param previousClip Previous Clip in Route.
-     * @param color Color for the line.
+     * Create a line from this Clip to previous in Route. It's placed by placeLine().
      */
-    private void createLine(Clip previousClip, int color) {
+    private void createLine() {
         mLine = new Node();
-        mLine.setParent(mAnchor);
-        mLine.setRenderable(mRenderableHelper.getColoredLineRenderable(color));
-        moveLine(previousClip);
+        mLine.setParent(mRoot);
     }
 
 
     /**
-     * Move line alogside Clip.
-     * @param previousClip Previous Clip in Route.
+     * Set the renderable of all line pieces, e.g. after a color change.
      */
-    public void moveLine(Clip previousClip) {
-        if (mLine != null && mTransformableNode != null && previousClip != null ) {
-            Vector3 up = new Vector3(0.0f, 1.0f, 0.0f);
-            Vector3 worldPosPrev = new Vector3(previousClip.getClipNode().getWorldPosition());
-            Vector3 worldPosThis = new Vector3(mTransformableNode.getWorldPosition());
+    private void setLineRenderable() {
+        ModelRenderable renderable = mRenderableHelper.getLineRenderable(mBand);
+        for (int i = 0; i < mLinePieces.size(); i++) {
+            mLinePieces.get(i).setRenderable(renderable);
+        }
+    }
 
-            Vector3 directionVector =  new Vector3(
-                    worldPosThis.x - worldPosPrev.x,
-                    worldPosThis.y - worldPosPrev.y,
-                    worldPosThis.z - worldPosPrev.z);
 
-            float distance = directionVector.length();
-            Quaternion rotation = Quaternion.lookRotation(directionVector, up);
+    /**
+     * Place the Clip's nodes. The transformable node sits on the root, so a gesture's offset
+     * from it is folded back in here.
+     */
+    @Override
+    public void setTransform(float[] localPosition, float[] rotation, float scale) {
+        sScratchPosition.set(localPosition[0], localPosition[1], localPosition[2]);
+        mRoot.setLocalPosition(sScratchPosition);
+        sScratchPosition.set(0.0f, 0.0f, 0.0f);
+        sScratchRotation.set(rotation[0], rotation[1], rotation[2], rotation[3]);
+        sScratchScale.set(scale, scale, scale);
+        mTransformableNode.setLocalPosition(sScratchPosition);
+        mTransformableNode.setWorldRotation(sScratchRotation);
+        mTransformableNode.setLocalScale(sScratchScale);
+        mStaticNode.setLocalPosition(sScratchPosition);
+        mStaticNode.setWorldRotation(sScratchRotation);
+        mStaticNode.setLocalScale(sScratchScale);
+    }
+
+
+    @Override
+    public float readGesture(float[] worldPosition, float[] rotation) {
+        // Sceneform returns copies, these are the only allocations per frame of a gesture.
+        Vector3 position = mTransformableNode.getWorldPosition();
+        worldPosition[0] = position.x;
+        worldPosition[1] = position.y;
+        worldPosition[2] = position.z;
+        Quaternion worldRotation = mTransformableNode.getWorldRotation();
+        rotation[0] = worldRotation.x;
+        rotation[1] = worldRotation.y;
+        rotation[2] = worldRotation.z;
+        rotation[3] = worldRotation.w;
+        return mTransformableNode.getLocalScale().x;
+    }
+
+
+    /**
+     * Place the line from the previous Clip along Route's spline, a piece between each two
+     * samples. Pieces are created as a bend first needs them and kept for later.
+     */
+    @Override
+    public void placeLine(RouteSpline spline, int index) {
+        if (mLine == null) {
+            return;
+        }
+        int pieces = spline.getSampleCount(index) - 1;
+        while (mLinePieces.size() < pieces) {
+            Node piece = new Node();
+            piece.setParent(mLine);
+            piece.setRenderable(mRenderableHelper.getLineRenderable(mBand));
+            mLinePieces.add(piece);
+        }
 
-            mLine.setWorldScale(new Vector3(0.03f, 0.03f, distance));
-            mLine.setWorldPosition(mTransformableNode.getWorldPosition());
-            mLine.setWorldRotation(rotation);
+        spline.getSample(index, 0, sScratchFrom);
+        for (int i = 0; i < pieces; i++) {
+            spline.getSample(index, i + 1, sScratchTo);
+            float dx = sScratchTo[0] - sScratchFrom[0];
+            float dy = sScratchTo[1] - sScratchFrom[1];
+            float dz = sScratchTo[2] - sScratchFrom[2];
+            LineMath.lookRotation(dx, dy, dz, sScratchQuaternion);
+            sScratchRotation.set(sScratchQuaternion[0], sScratchQuaternion[1],
+                    sScratchQuaternion[2], sScratchQuaternion[3]);
+            sScratchScale.set(LINE_THICKNESS, LINE_THICKNESS, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+            // Line model goes from its origin backwards, the piece sits at its far end.
+            sScratchPosition.set(sScratchTo[0], sScratchTo[1], sScratchTo[2]);
+
+            Node piece = mLinePieces.get(i);
+            piece.setWorldScale(sScratchScale);
+            piece.setWorldPosition(sScratchPosition);
+            piece.setWorldRotation(sScratchRotation);
+            piece.setEnabled(true);
+            System.arraycopy(sScratchTo, 0, sScratchFrom, 0, 3);
         }
+        for (int i = pieces; i < mLinePieces.size(); i++) {
+            mLinePieces.get(i).setEnabled(false);
+        }
+    }
+
+
+    @Override
+    public void setParent(RouteScene.AnchorHandle anchor) {
+        mRoot.setParent(SceneformRouteScene.getNode(anchor));
+    }
+
+
+    /**
+     * Remove the Clip from the Scene. Anchors are Route's, they're released there.
+     */
+    @Override
+    public void destroy() {
+        mTransformListener = null;
+        detachInfoCard();
+        mRoot.setParent(null);
     }
 
 
@@ -135,21 +256,21 @@ public class Clip {
      * Enable or disable clip's transforming.
      * @param enable True if enable, false if disable.
      */
+    @Override
     public void enableTransforming(boolean enable) {
         if (mTransformableNode != null && mStaticNode != null) {
-            mTransformableNode.setEnabled(enable);
+            mTransformingEnabled = enable;
+            mTransformableNode.setEnabled(enable && mShowSphere);
 
+            updateStaticRenderable();
             if (enable) {
-                // Hide the static node.
-                mStaticNode.setRenderable(null);
                 if (mInfoCard != null) {
                     // Change info card's parent, so that it moves with the transformable node.
                     mInfoCard.setParent(mTransformableNode);
                 }
 
             } else {
-                // Update and show the static node.
-                mStaticNode.setRenderable(mTransformableNode.getRenderable());
+                // Move the static node where the transformable node is.
                 mStaticNode.setLocalScale(mTransformableNode.getLocalScale());
                 mStaticNode.setLocalRotation(mTransformableNode.getLocalRotation());
                 mStaticNode.setLocalPosition(mTransformableNode.getLocalPosition());
@@ -163,51 +284,86 @@ public class Clip {
 
 
     /**
-     * Change clip's and line's rederable's color.
-     * @param newColor Integer of the new color.
+     * Choose which parts of the Clip are shown. Hidden parts are disabled,
+     * so Sceneform neither updates nor draws them.
+     * @param visible False to hide the whole Clip.
+     * @param sphere True to show the sphere.
+     * @param line True to show the line to previous Clip.
+     * @param card True to show the info card.
      */
-    public void changeColor(int newColor) {
+    @Override
+    public void setDetail(boolean visible, boolean sphere, boolean line, boolean card) {
+        if (visible == mVisible && sphere == mShowSphere && line == mShowLine && card == mShowCard) {
+            return;
+        }
+        mVisible = visible;
+        mShowSphere = sphere;
+        mShowLine = line;
+        mShowCard = card;
+
+        mRoot.setEnabled(visible);
         if (mTransformableNode != null) {
-            mTransformableNode.setRenderable(mRenderableHelper.getColoredClipRenderable(newColor));
+            mTransformableNode.setEnabled(mTransformingEnabled && sphere);
         }
+        updateStaticRenderable();
         if (mLine != null) {
-            mLine.setRenderable(mRenderableHelper.getColoredLineRenderable(newColor));
+            mLine.setEnabled(line);
+        }
+        if (mInfoCard != null) {
+            mInfoCard.setEnabled(card);
         }
     }
 
 
     /**
-     * Check if Clip is currently selected.
-     * @return True if selected.
+     * Change clip's and line's rederable's color.
+     * @param newBand Grade band of the new color.
      */
-    public boolean isClipSelected() {
-        return mTransformableNode.isSelected();
+    @Override
+    public void changeColor(int newBand) {
+        if (newBand == mBand) {
+            return;
+        }
+        mBand = newBand;
+        if (mTransformableNode != null) {
+            mTransformableNode.setRenderable(mRenderableHelper.getClipRenderable(newBand));
+            updateStaticRenderable();
+        }
+        setLineRenderable();
     }
 
 
     /**
-     * Check if Clip is currently transforming.
-     * @return True if transforming.
+     * Fetch renderables again, used when placeholders have been replaced by models.
      */
-    public boolean isClipTransforming() {
-        return mTransformableNode.isTransforming();
+    @Override
+    public void refreshRenderables() {
+        if (mTransformableNode != null) {
+            mTransformableNode.setRenderable(mRenderableHelper.getClipRenderable(mBand));
+            updateStaticRenderable();
+        }
+        setLineRenderable();
     }
 
 
     /**
-     * Get Clip's Node. Used to get a vector from a Clip to another.
-     * @return TransformableNode of the Clip.
+     * Show the sphere on the static node when not transforming. The static node itself stays
+     * enabled, so an info card attached to it stays visible when the sphere is hidden.
      */
-    private TransformableNode getClipNode() {
-        return mTransformableNode;
+    private void updateStaticRenderable() {
+        if (mStaticNode != null) {
+            mStaticNode.setRenderable(!mTransformingEnabled && mShowSphere
+                    ? mTransformableNode.getRenderable() : null);
+        }
     }
 
 
     /**
-     * Get info card for updating.
-     * @return View of the info card.
+     * Check if Clip is currently transforming.
+     * @return True if transforming.
      */
-    public View getInfoCardView() {
-        return mInfoCardView;
+    @Override
+    public boolean isTransforming() {
+        return mTransformableNode.isTransforming();
     }
 }
@@ -0,0 +1,613 @@
+package ninja.siili.climbingroutes;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over clip spheres and line segments, for picking Routes by tap.
+ * A dynamic AABB tree: proxies can be added, moved and removed without rebuilding,
+ * and the tree is kept balanced with rotations so ray picks stay logarithmic.
+ * Leaves have slightly fattened boxes so small moves don't touch the tree at all.
+ * @param <T> Owner of the proxies, a Route in the app.
+ */
+public class ClipBvh<T> {
+
+    /** Result of a ray pick. */
+    public static class Hit<T> {
+        public T owner;
+        public int clipIndex;
+        public float distance;
+    }
+
+    private static final int NULL = -1;
+    private static final int SPHERE = 0;
+    private static final int SEGMENT = 1;
+
+    // How much leaf boxes are grown, in meters.
+    private static final float MARGIN = 0.05f;
+
+    private int mCapacity = 0;
+    // Per node: min x, y, z, max x, y, z.
+    private float[] mBounds = new float[0];
+    private int[] mParent = new int[0];
+    private int[] mLeft = new int[0];
+    private int[] mRight = new int[0];
+    // Height of the node in the tree, leaves are 0 and free nodes -1.
+    private int[] mHeight = new int[0];
+
+    // Leaf data. Shape is a, b and radius, b is unused for spheres.
+    private Object[] mOwner = new Object[0];
+    private int[] mClipIndex = new int[0];
+    private int[] mType = new int[0];
+    private float[] mShape = new float[0];
+
+    private int mRoot = NULL;
+    private int mFreeList = NULL;
+    private int mProxyCount = 0;
+
+    private int[] mStack = new int[64];
+    private final float[] mScratchBox = new float[6];
+    // Normalized direction of the current ray and its inverse.
+    private final float[] mRayDirection = new float[3];
+    private final float[] mRayInverse = new float[3];
+
+
+    /**
+     * Add a clip sphere.
+     * @param owner Owner of the clip.
+     * @param clipIndex Index of the clip in its Route.
+     * @param position Center of the sphere, 3 floats.
+     * @param radius Radius of the sphere.
+     * @return Proxy id for moving and removing.
+     */
+    public int addSphere(T owner, int clipIndex, float[] position, float radius) {
+        return addProxy(owner, clipIndex, SPHERE, position, position, radius);
+    }
+
+
+    /**
+     * Add a line segment.
+     * @param owner Owner of the line.
+     * @param clipIndex Index of the clip the line belongs to.
+     * @param a Start of the line, 3 floats.
+     * @param b End of the line, 3 floats.
+     * @param radius Thickness of the line.
+     * @return Proxy id for moving and removing.
+     */
+    public int addSegment(T owner, int clipIndex, float[] a, float[] b, float radius) {
+        return addProxy(owner, clipIndex, SEGMENT, a, b, radius);
+    }
+
+
+    private int addProxy(T owner, int clipIndex, int type, float[] a, float[] b, float radius) {
+        int leaf = allocateNode();
+        mOwner[leaf] = owner;
+        mClipIndex[leaf] = clipIndex;
+        mType[leaf] = type;
+        setShape(leaf, a, b, radius);
+        fatBounds(leaf, mBounds, leaf * 6);
+        mHeight[leaf] = 0;
+        insertLeaf(leaf);
+        mProxyCount++;
+        return leaf;
+    }
+
+
+    /**
+     * Move a sphere.
+     * @param proxy Id from addSphere().
+     * @param position New center, 3 floats.
+     */
+    public void moveSphere(int proxy, float[] position) {
+        move(proxy, position, position);
+    }
+
+
+    /**
+     * Move a line segment.
+     * @param proxy Id from addSegment().
+     * @param a New start, 3 floats.
+     * @param b New end, 3 floats.
+     */
+    public void moveSegment(int proxy, float[] a, float[] b) {
+        move(proxy, a, b);
+    }
+
+
+    private void move(int proxy, float[] a, float[] b) {
+        setShape(proxy, a, b, mShape[proxy * 7 + 6]);
+
+        // Tight box of the new shape, reinsert only if it's outside the fat box.
+        float r = mShape[proxy * 7 + 6];
+        float[] box = mScratchBox;
+        for (int i = 0; i < 3; i++) {
+            box[i] = Math.min(a[i], b[i]) - r;
+            box[i + 3] = Math.max(a[i], b[i]) + r;
+        }
+        int o = proxy * 6;
+        if (mBounds[o] <= box[0] && mBounds[o + 1] <= box[1] && mBounds[o + 2] <= box[2]
+                && mBounds[o + 3] >= box[3] && mBounds[o + 4] >= box[4] && mBounds[o + 5] >= box[5]) {
+            return;
+        }
+
+        removeLeaf(proxy);
+        fatBounds(proxy, mBounds, o);
+        insertLeaf(proxy);
+    }
+
+
+    /**
+     * Remove a proxy.
+     * @param proxy Id from addSphere() or addSegment().
+     */
+    public void remove(int proxy) {
+        removeLeaf(proxy);
+        mOwner[proxy] = null;
+        freeNode(proxy);
+        mProxyCount--;
+    }
+
+
+    /**
+     * Remove all proxies of an owner. Walks all nodes, meant for deleting whole Routes.
+     * @param owner Owner to remove.
+     */
+    public void removeAll(T owner) {
+        for (int i = 0; i < mCapacity; i++) {
+            if (mHeight[i] == 0 && mOwner[i] == owner) {
+                remove(i);
+            }
+        }
+    }
+
+
+    /**
+     * Get the number of proxies in the tree.
+     * @return Proxy count.
+     */
+    public int size() {
+        return mProxyCount;
+    }
+
+
+    /**
+     * Find the closest sphere or line hit by a ray.
+     * @param origin Origin of the ray, 3 floats.
+     * @param direction Direction of the ray, 3 floats, doesn't need to be normalized.
+     * @param hit Result is written here if something was hit.
+     * @return True if something was hit.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean raycast(float[] origin, float[] direction, Hit<T> hit) {
+        if (mRoot == NULL) {
+            return false;
+        }
+        float length = (float) Math.sqrt(direction[0] * direction[0]
+                + direction[1] * direction[1] + direction[2] * direction[2]);
+        if (length == 0.0f) {
+            return false;
+        }
+        float dx = direction[0] / length;
+        float dy = direction[1] / length;
+        float dz = direction[2] / length;
+        mRayDirection[0] = dx;
+        mRayDirection[1] = dy;
+        mRayDirection[2] = dz;
+        mRayInverse[0] = 1.0f / dx;
+        mRayInverse[1] = 1.0f / dy;
+        mRayInverse[2] = 1.0f / dz;
+
+        float best = Float.POSITIVE_INFINITY;
+        int bestLeaf = NULL;
+
+        int top = 0;
+        mStack[top++] = mRoot;
+        while (top > 0) {
+            int node = mStack[--top];
+            if (!rayHitsBox(mBounds, node * 6, origin, mRayDirection, mRayInverse, best)) {
+                continue;
+            }
+            if (mLeft[node] == NULL) {
+                float t = mType[node] == SPHERE
+                        ? raySphere(node, origin, dx, dy, dz)
+                        : raySegment(node, origin, dx, dy, dz);
+                if (t < best) {
+                    best = t;
+                    bestLeaf = node;
+                }
+            } else {
+                if (top + 2 > mStack.length) {
+                    mStack = Arrays.copyOf(mStack, mStack.length * 2);
+                }
+                mStack[top++] = mLeft[node];
+                mStack[top++] = mRight[node];
+            }
+        }
+
+        if (bestLeaf == NULL) {
+            return false;
+        }
+        hit.owner = (T) mOwner[bestLeaf];
+        hit.clipIndex = mClipIndex[bestLeaf];
+        hit.distance = best;
+        return true;
+    }
+
+
+    /**
+     * Height of the tree, for checking it stays balanced.
+     * @return Height, 0 for a single leaf and -1 for an empty tree.
+     */
+    public int getHeight() {
+        return mRoot == NULL ? -1 : mHeight[mRoot];
+    }
+
+
+    // Tree maintenance, after Box2D's b2DynamicTree.
+
+    private int allocateNode() {
+        if (mFreeList == NULL) {
+            int oldCapacity = mCapacity;
+            mCapacity = Math.max(16, mCapacity * 2);
+            mBounds = Arrays.copyOf(mBounds, mCapacity * 6);
+            mParent = Arrays.copyOf(mParent, mCapacity);
+            mLeft = Arrays.copyOf(mLeft, mCapacity);
+            mRight = Arrays.copyOf(mRight, mCapacity);
+            mHeight = Arrays.copyOf(mHeight, mCapacity);
+            mOwner = Arrays.copyOf(mOwner, mCapacity);
+            mClipIndex = Arrays.copyOf(mClipIndex, mCapacity);
+            mType = Arrays.copyOf(mType, mCapacity);
+            mShape = Arrays.copyOf(mShape, mCapacity * 7);
+            for (int i = mCapacity - 1; i >= oldCapacity; i--) {
+                mHeight[i] = -1;
+                mParent[i] = mFreeList;
+                mFreeList = i;
+            }
+        }
+        int node = mFreeList;
+        mFreeList = mParent[node];
+        mParent[node] = NULL;
+        mLeft[node] = NULL;
+        mRight[node] = NULL;
+        mHeight[node] = 0;
+        return node;
+    }
+
+
+    private void freeNode(int node) {
+        mHeight[node] = -1;
+        mParent[node] = mFreeList;
+        mFreeList = node;
+    }
+
+
+    private void insertLeaf(int leaf) {
+        if (mRoot == NULL) {
+            mRoot = leaf;
+            mParent[leaf] = NULL;
+            return;
+        }
+
+        // Find the best sibling by surface area heuristic.
+        int lo = leaf * 6;
+        int index = mRoot;
+        while (mLeft[index] != NULL) {
+            int child1 = mLeft[index];
+            int child2 = mRight[index];
+
+            float area = area(mBounds, index * 6);
+            float combinedArea = unionArea(index * 6, lo);
+            float cost = 2.0f * combinedArea;
+            float inheritanceCost = 2.0f * (combinedArea - area);
+
+            float cost1 = unionArea(child1 * 6, lo) + inheritanceCost;
+            if (mLeft[child1] != NULL) cost1 -= area(mBounds, child1 * 6);
+            float cost2 = unionArea(child2 * 6, lo) + inheritanceCost;
+            if (mLeft[child2] != NULL) cost2 -= area(mBounds, child2 * 6);
+
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? child1 : child2;
+        }
+        int sibling = index;
+
+        int oldParent = mParent[sibling];
+        int newParent = allocateNode();
+        mParent[newParent] = oldParent;
+        union(newParent, sibling, leaf);
+        mHeight[newParent] = mHeight[sibling] + 1;
+        mLeft[newParent] = sibling;
+        mRight[newParent] = leaf;
+        mParent[sibling] = newParent;
+        mParent[leaf] = newParent;
+        if (oldParent == NULL) {
+            mRoot = newParent;
+        } else if (mLeft[oldParent] == sibling) {
+            mLeft[oldParent] = newParent;
+        } else {
+            mRight[oldParent] = newParent;
+        }
+
+        refitUpwards(mParent[leaf]);
+    }
+
+
+    private void removeLeaf(int leaf) {
+        if (leaf == mRoot) {
+            mRoot = NULL;
+            return;
+        }
+
+        int parent = mParent[leaf];
+        int grandParent = mParent[parent];
+        int sibling = mLeft[parent] == leaf ? mRight[parent] : mLeft[parent];
+
+        if (grandParent == NULL) {
+            mRoot = sibling;
+            mParent[sibling] = NULL;
+            freeNode(parent);
+            return;
+        }
+
+        if (mLeft[grandParent] == parent) {
+            mLeft[grandParent] = sibling;
+        } else {
+            mRight[grandParent] = sibling;
+        }
+        mParent[sibling] = grandParent;
+        freeNode(parent);
+
+        refitUpwards(grandParent);
+    }
+
+
+    private void refitUpwards(int index) {
+        while (index != NULL) {
+            index = balance(index);
+            int left = mLeft[index];
+            int right = mRight[index];
+            mHeight[index] = 1 + Math.max(mHeight[left], mHeight[right]);
+            union(index, left, right);
+            index = mParent[index];
+        }
+    }
+
+
+    /**
+     * Rotate A's higher child up if A is unbalanced.
+     * @return Index of the node now in A's place.
+     */
+    private int balance(int a) {
+        if (mLeft[a] == NULL || mHeight[a] < 2) {
+            return a;
+        }
+        int b = mLeft[a];
+        int c = mRight[a];
+        int balance = mHeight[c] - mHeight[b];
+
+        if (balance > 1) {
+            int f = mLeft[c];
+            int g = mRight[c];
+            mLeft[c] = a;
+            mParent[c] = mParent[a];
+            mParent[a] = c;
+            replaceChild(mParent[c], a, c);
+
+            if (mHeight[f] > mHeight[g]) {
+                mRight[c] = f;
+                mRight[a] = g;
+                mParent[g] = a;
+                union(a, b, g);
+                union(c, a, f);
+                mHeight[a] = 1 + Math.max(mHeight[b], mHeight[g]);
+                mHeight[c] = 1 + Math.max(mHeight[a], mHeight[f]);
+            } else {
+                mRight[c] = g;
+                mRight[a] = f;
+                mParent[f] = a;
+                union(a, b, f);
+                union(c, a, g);
+                mHeight[a] = 1 + Math.max(mHeight[b], mHeight[f]);
+                mHeight[c] = 1 + Math.max(mHeight[a], mHeight[g]);
+            }
+            return c;
+        }
+
+        if (balance < -1) {
+            int d = mLeft[b];
+            int e = mRight[b];
+            mLeft[b] = a;
+            mParent[b] = mParent[a];
+            mParent[a] = b;
+            replaceChild(mParent[b], a, b);
+
+            if (mHeight[d] > mHeight[e]) {
+                mRight[b] = d;
+                mLeft[a] = e;
+                mParent[e] = a;
+                union(a, c, e);
+                union(b, a, d);
+                mHeight[a] = 1 + Math.max(mHeight[c], mHeight[e]);
+                mHeight[b] = 1 + Math.max(mHeight[a], mHeight[d]);
+            } else {
+                mRight[b] = e;
+                mLeft[a] = d;
+                mParent[d] = a;
+                union(a, c, d);
+                union(b, a, e);
+                mHeight[a] = 1 + Math.max(mHeight[c], mHeight[d]);
+                mHeight[b] = 1 + Math.max(mHeight[a], mHeight[e]);
+            }
+            return b;
+        }
+
+        return a;
+    }
+
+
+    private void replaceChild(int parent, int oldChild, int newChild) {
+        if (parent == NULL) {
+            mRoot = newChild;
+        } else if (mLeft[parent] == oldChild) {
+            mLeft[parent] = newChild;
+        } else {
+            mRight[parent] = newChild;
+        }
+    }
+
+
+    // Box and shape helpers.
+
+    private void setShape(int leaf, float[] a, float[] b, float radius) {
+        int o = leaf * 7;
+        mShape[o] = a[0];
+        mShape[o + 1] = a[1];
+        mShape[o + 2] = a[2];
+        mShape[o + 3] = b[0];
+        mShape[o + 4] = b[1];
+        mShape[o + 5] = b[2];
+        mShape[o + 6] = radius;
+    }
+
+
+    private void fatBounds(int leaf, float[] out, int o) {
+        int s = leaf * 7;
+        float r = mShape[s + 6] + MARGIN;
+        for (int i = 0; i < 3; i++) {
+            out[o + i] = Math.min(mShape[s + i], mShape[s + 3 + i]) - r;
+            out[o + 3 + i] = Math.max(mShape[s + i], mShape[s + 3 + i]) + r;
+        }
+    }
+
+
+    private void union(int target, int first, int second) {
+        int t = target * 6;
+        int f = first * 6;
+        int s = second * 6;
+        for (int i = 0; i < 3; i++) {
+            mBounds[t + i] = Math.min(mBounds[f + i], mBounds[s + i]);
+            mBounds[t + 3 + i] = Math.max(mBounds[f + 3 + i], mBounds[s + 3 + i]);
+        }
+    }
+
+
+    private float unionArea(int first, int second) {
+        for (int i = 0; i < 3; i++) {
+            mScratchBox[i] = Math.min(mBounds[first + i], mBounds[second + i]);
+            mScratchBox[i + 3] = Math.max(mBounds[first + 3 + i], mBounds[second + 3 + i]);
+        }
+        return area(mScratchBox, 0);
+    }
+
+
+    private static float area(float[] box, int o) {
+        float x = box[o + 3] - box[o];
+        float y = box[o + 4] - box[o + 1];
+        float z = box[o + 5] - box[o + 2];
+        return 2.0f * (x * y + y * z + z * x);
+    }
+
+
+    /**
+     * Slab test of a ray against a box. An axis the ray is parallel to is checked by where
+     * the origin is, (min - origin) * infinity would be NaN for an origin on the box's face.
+     * @param box Boxes as min x, y, z, max x, y, z.
+     * @param o Offset of the box.
+     * @param origin Origin of the ray, 3 floats.
+     * @param direction Normalized direction of the ray, 3 floats.
+     * @param inverse 1 / direction per axis.
+     * @param maxT Boxes farther along the ray than this are missed.
+     * @return True if the ray passes through the box within maxT.
+     */
+    static boolean rayHitsBox(float[] box, int o, float[] origin, float[] direction,
+                              float[] inverse, float maxT) {
+        float tMin = 0.0f;
+        float tMax = maxT;
+        for (int axis = 0; axis < 3; axis++) {
+            float near = box[o + axis] - origin[axis];
+            float far = box[o + 3 + axis] - origin[axis];
+            if (direction[axis] == 0.0f) {
+                if (near > 0.0f || far < 0.0f) {
+                    return false;
+                }
+                continue;
+            }
+            float t1 = near * inverse[axis];
+            float t2 = far * inverse[axis];
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            if (tMin > tMax) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Distance along a normalized ray to a sphere leaf.
+     * @return Distance, or infinity if missed.
+     */
+    private float raySphere(int leaf, float[] origin, float dx, float dy, float dz) {
+        int s = leaf * 7;
+        float mx = origin[0] - mShape[s];
+        float my = origin[1] - mShape[s + 1];
+        float mz = origin[2] - mShape[s + 2];
+        float r = mShape[s + 6];
+        float b = mx * dx + my * dy + mz * dz;
+        float c = mx * mx + my * my + mz * mz - r * r;
+        if (c > 0.0f && b > 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float discriminant = b * b - c;
+        if (discriminant < 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(0.0f, -b - (float) Math.sqrt(discriminant));
+    }
+
+
+    /**
+     * Distance along a normalized ray to the point closest to a segment leaf,
+     * if the ray passes within the segment's radius.
+     * @return Distance, or infinity if missed.
+     */
+    private float raySegment(int leaf, float[] origin, float dx, float dy, float dz) {
+        int s = leaf * 7;
+        float ux = mShape[s + 3] - mShape[s];
+        float uy = mShape[s + 4] - mShape[s + 1];
+        float uz = mShape[s + 5] - mShape[s + 2];
+        float wx = origin[0] - mShape[s];
+        float wy = origin[1] - mShape[s + 1];
+        float wz = origin[2] - mShape[s + 2];
+
+        // Closest points between the ray o + t*d and the segment a + u*(b-a).
+        float a = ux * ux + uy * uy + uz * uz;
+        float b = dx * ux + dy * uy + dz * uz;
+        float d = dx * wx + dy * wy + dz * wz;
+        float e = ux * wx + uy * wy + uz * wz;
+        float denominator = a - b * b;
+
+        float u;
+        if (a < 1e-9f) {
+            u = 0.0f;
+        } else if (denominator < 1e-9f) {
+            u = Math.max(0.0f, Math.min(1.0f, e / a));
+        } else {
+            u = Math.max(0.0f, Math.min(1.0f, (e - b * d) / denominator));
+        }
+        float px = mShape[s] + ux * u;
+        float py = mShape[s + 1] + uy * u;
+        float pz = mShape[s + 2] + uz * u;
+        float t = Math.max(0.0f, (px - origin[0]) * dx + (py - origin[1]) * dy + (pz - origin[2]) * dz);
+
+        float cx = origin[0] + dx * t - px;
+        float cy = origin[1] + dy * t - py;
+        float cz = origin[2] + dz * t - pz;
+        float r = mShape[s + 6];
+        if (cx * cx + cy * cy + cz * cz > r * r) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return t;
+    }
+}
@@ -0,0 +1,445 @@
+package ninja.siili.climbingroutes;
+
+import java.util.Arrays;
+
+/**
+ * World transforms of a Route's Clips as a structure of arrays: one float array per
+ * coordinate, so batch computations run down plain arrays without touching Nodes or
+ * allocating. Segment i is the line from Clip i - 1 to Clip i, its length is derived from the
+ * positions by updateSegments(), lines themselves are drawn from RouteSpline's samples.
+ * Each Clip also keeps its offset from the anchor it's placed relative to, so world positions
+ * can be derived again when the anchor moves. These arrays are the Clips' state, Nodes are
+ * placed from them and only the user's gestures are read back in.
+ */
+public class ClipGeometry {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Scratch position, geometries are only touched from one thread.
+    private static final float[] sScratchPosition = new float[3];
+
+    private int mCount = 0;
+
+    // Clip transforms.
+    private float[] mX = new float[INITIAL_CAPACITY];
+    private float[] mY = new float[INITIAL_CAPACITY];
+    private float[] mZ = new float[INITIAL_CAPACITY];
+    private float[] mScale = new float[INITIAL_CAPACITY];
+    private float[] mRotationX = new float[INITIAL_CAPACITY];
+    private float[] mRotationY = new float[INITIAL_CAPACITY];
+    private float[] mRotationZ = new float[INITIAL_CAPACITY];
+    private float[] mRotationW = new float[INITIAL_CAPACITY];
+    // Anchor each Clip is relative to, -1 if none, and its offset in the anchor's space.
+    private int[] mAnchor = new int[INITIAL_CAPACITY];
+    private float[] mLocalX = new float[INITIAL_CAPACITY];
+    private float[] mLocalY = new float[INITIAL_CAPACITY];
+    private float[] mLocalZ = new float[INITIAL_CAPACITY];
+
+    // Lengths of the segments from the previous Clip, index 0 is unused.
+    private float[] mSegmentLength = new float[INITIAL_CAPACITY];
+
+    // Segments whose Clips have moved since updateSegments(), start inclusive, end exclusive.
+    private int mDirtyStart = Integer.MAX_VALUE;
+    private int mDirtyEnd = 0;
+    // Sum of the segment lengths, summed again when asked for after changes.
+    private float mLength = 0.0f;
+    private boolean mLengthDirty = false;
+
+
+    /**
+     * Get the number of Clips.
+     * @return Clip count.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+
+    /**
+     * Add a Clip to the end, not rotated and not relative to an anchor.
+     * @param position World position, 3 floats.
+     * @param scale Uniform scale.
+     * @return Index of the new Clip.
+     */
+    public int add(float[] position, float scale) {
+        int index = mCount++;
+        ensureCapacity(mCount);
+        mX[index] = position[0];
+        mY[index] = position[1];
+        mZ[index] = position[2];
+        mScale[index] = scale;
+        mRotationX[index] = 0.0f;
+        mRotationY[index] = 0.0f;
+        mRotationZ[index] = 0.0f;
+        mRotationW[index] = 1.0f;
+        mAnchor[index] = -1;
+        markDirty(index, index + 1);
+        return index;
+    }
+
+
+    private void ensureCapacity(int count) {
+        if (mX.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, mX.length * 2);
+        mX = Arrays.copyOf(mX, capacity);
+        mY = Arrays.copyOf(mY, capacity);
+        mZ = Arrays.copyOf(mZ, capacity);
+        mScale = Arrays.copyOf(mScale, capacity);
+        mRotationX = Arrays.copyOf(mRotationX, capacity);
+        mRotationY = Arrays.copyOf(mRotationY, capacity);
+        mRotationZ = Arrays.copyOf(mRotationZ, capacity);
+        mRotationW = Arrays.copyOf(mRotationW, capacity);
+        mAnchor = Arrays.copyOf(mAnchor, capacity);
+        mLocalX = Arrays.copyOf(mLocalX, capacity);
+        mLocalY = Arrays.copyOf(mLocalY, capacity);
+        mLocalZ = Arrays.copyOf(mLocalZ, capacity);
+        mSegmentLength = Arrays.copyOf(mSegmentLength, capacity);
+    }
+
+
+    /**
+     * Remove the last Clip.
+     */
+    public void removeLast() {
+        if (mCount == 0) {
+            return;
+        }
+        mCount--;
+        mDirtyEnd = Math.min(mDirtyEnd, mCount);
+        if (mDirtyStart >= mDirtyEnd) {
+            clearDirty();
+        }
+        mLengthDirty = true;
+    }
+
+
+    /**
+     * Move a Clip if it has moved more than LineMath.MOVE_EPSILON_SQUARED allows.
+     * Its segments on both sides become dirty.
+     * @param index Index of the Clip.
+     * @param x World x.
+     * @param y World y.
+     * @param z World z.
+     * @return True if the Clip moved.
+     */
+    public boolean setPosition(int index, float x, float y, float z) {
+        float dx = x - mX[index];
+        float dy = y - mY[index];
+        float dz = z - mZ[index];
+        if (dx * dx + dy * dy + dz * dz <= LineMath.MOVE_EPSILON_SQUARED) {
+            return false;
+        }
+        mX[index] = x;
+        mY[index] = y;
+        mZ[index] = z;
+        markDirty(index, Math.min(index + 2, mCount));
+        return true;
+    }
+
+
+    private void markDirty(int start, int end) {
+        mDirtyStart = Math.min(mDirtyStart, start);
+        mDirtyEnd = Math.max(mDirtyEnd, end);
+    }
+
+
+    private void clearDirty() {
+        mDirtyStart = Integer.MAX_VALUE;
+        mDirtyEnd = 0;
+    }
+
+
+    /**
+     * Get a Clip's world position.
+     * @param index Index of the Clip.
+     * @param out Array of 3 floats to write to.
+     */
+    public void getPosition(int index, float[] out) {
+        out[0] = mX[index];
+        out[1] = mY[index];
+        out[2] = mZ[index];
+    }
+
+
+    /**
+     * Set the anchor a Clip is relative to, and its offset from it.
+     * @param index Index of the Clip.
+     * @param anchor Index of the anchor, -1 for none.
+     * @param local Position in the anchor's space, 3 floats.
+     */
+    public void setAnchor(int index, int anchor, float[] local) {
+        mAnchor[index] = anchor;
+        mLocalX[index] = local[0];
+        mLocalY[index] = local[1];
+        mLocalZ[index] = local[2];
+    }
+
+
+    /**
+     * Get the anchor a Clip is relative to.
+     * @param index Index of the Clip.
+     * @return Index of the anchor, -1 if none.
+     */
+    public int getAnchor(int index) {
+        return mAnchor[index];
+    }
+
+
+    /**
+     * Get a Clip's offset from its anchor.
+     * @param index Index of the Clip.
+     * @param out Position in the anchor's space, 3 floats.
+     */
+    public void getLocalPosition(int index, float[] out) {
+        out[0] = mLocalX[index];
+        out[1] = mLocalY[index];
+        out[2] = mLocalZ[index];
+    }
+
+
+    /**
+     * Get a Clip's world x.
+     * @param index Index of the Clip.
+     * @return X in meters.
+     */
+    public float getX(int index) {
+        return mX[index];
+    }
+
+
+    /**
+     * Get a Clip's world y.
+     * @param index Index of the Clip.
+     * @return Y in meters.
+     */
+    public float getY(int index) {
+        return mY[index];
+    }
+
+
+    /**
+     * Get a Clip's world z.
+     * @param index Index of the Clip.
+     * @return Z in meters.
+     */
+    public float getZ(int index) {
+        return mZ[index];
+    }
+
+
+    /**
+     * Get a Clip's scale.
+     * @param index Index of the Clip.
+     * @return Uniform scale.
+     */
+    public float getScale(int index) {
+        return mScale[index];
+    }
+
+
+    /**
+     * Set a Clip's scale.
+     * @param index Index of the Clip.
+     * @param scale Uniform scale.
+     */
+    public void setScale(int index, float scale) {
+        mScale[index] = scale;
+    }
+
+
+    /**
+     * Get a Clip's world rotation.
+     * @param index Index of the Clip.
+     * @param out Quaternion as x, y, z, w.
+     */
+    public void getRotation(int index, float[] out) {
+        out[0] = mRotationX[index];
+        out[1] = mRotationY[index];
+        out[2] = mRotationZ[index];
+        out[3] = mRotationW[index];
+    }
+
+
+    /**
+     * Set a Clip's world rotation.
+     * @param index Index of the Clip.
+     * @param x Quaternion x.
+     * @param y Quaternion y.
+     * @param z Quaternion z.
+     * @param w Quaternion w.
+     */
+    public void setRotation(int index, float x, float y, float z, float w) {
+        mRotationX[index] = x;
+        mRotationY[index] = y;
+        mRotationZ[index] = z;
+        mRotationW[index] = w;
+    }
+
+
+    /**
+     * Get the first dirty segment.
+     * @return Index of the segment, getDirtyEnd() or more if none is dirty.
+     */
+    public int getDirtyStart() {
+        return mDirtyStart;
+    }
+
+
+    /**
+     * Get the end of the dirty segments.
+     * @return Index after the last dirty segment.
+     */
+    public int getDirtyEnd() {
+        return mDirtyEnd;
+    }
+
+
+    /**
+     * Recompute lengths of the dirty segments.
+     * Dirty range is cleared, read it before calling to know which lines to place.
+     */
+    public void updateSegments() {
+        int start = Math.max(1, mDirtyStart);
+        int end = Math.min(mDirtyEnd, mCount);
+        for (int i = start; i < end; i++) {
+            float dx = mX[i] - mX[i - 1];
+            float dy = mY[i] - mY[i - 1];
+            float dz = mZ[i] - mZ[i - 1];
+            mSegmentLength[i] = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+        if (start < end) {
+            mLengthDirty = true;
+        }
+        clearDirty();
+    }
+
+
+    /**
+     * Get the length of a segment, as of the last updateSegments().
+     * @param index Index of the Clip the segment ends at, 1 or more.
+     * @return Length in meters.
+     */
+    public float getSegmentLength(int index) {
+        return mSegmentLength[index];
+    }
+
+
+    /**
+     * Get the length of the whole Route along its segments, as of the last updateSegments().
+     * @return Length in meters.
+     */
+    public float getLength() {
+        if (mLengthDirty) {
+            float length = 0.0f;
+            for (int i = 1; i < mCount; i++) {
+                length += mSegmentLength[i];
+            }
+            mLength = length;
+            mLengthDirty = false;
+        }
+        return mLength;
+    }
+
+
+    /**
+     * Get the axis aligned bounding box of the Clip positions.
+     * @param out Array of 6 floats to write to: min x, y, z, max x, y, z.
+     */
+    public void getBounds(float[] out) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            minX = Math.min(minX, mX[i]);
+            maxX = Math.max(maxX, mX[i]);
+        }
+        for (int i = 0; i < mCount; i++) {
+            minY = Math.min(minY, mY[i]);
+            maxY = Math.max(maxY, mY[i]);
+        }
+        for (int i = 0; i < mCount; i++) {
+            minZ = Math.min(minZ, mZ[i]);
+            maxZ = Math.max(maxZ, mZ[i]);
+        }
+        out[0] = minX;
+        out[1] = minY;
+        out[2] = minZ;
+        out[3] = maxX;
+        out[4] = maxY;
+        out[5] = maxZ;
+    }
+
+
+    /**
+     * Get a sphere around the Clip positions, centered on their bounding box.
+     * @param out Array of at least 6 floats, x, y, z and radius are written to the first 4.
+     */
+    public void getBoundingSphere(float[] out) {
+        getBounds(out);
+        float cx = (out[0] + out[3]) * 0.5f;
+        float cy = (out[1] + out[4]) * 0.5f;
+        float cz = (out[2] + out[5]) * 0.5f;
+        float radiusSquared = 0.0f;
+        for (int i = 0; i < mCount; i++) {
+            float dx = mX[i] - cx;
+            float dy = mY[i] - cy;
+            float dz = mZ[i] - cz;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+        out[0] = cx;
+        out[1] = cy;
+        out[2] = cz;
+        out[3] = (float) Math.sqrt(radiusSquared);
+    }
+
+
+    /**
+     * Get a Clip's world pose, laid out like RouteRecord's origin.
+     * @param index Index of the Clip.
+     * @param out Pose, 7 floats.
+     */
+    public void getPose(int index, float[] out) {
+        out[0] = mX[index];
+        out[1] = mY[index];
+        out[2] = mZ[index];
+        out[3] = mRotationX[index];
+        out[4] = mRotationY[index];
+        out[5] = mRotationZ[index];
+        out[6] = mRotationW[index];
+    }
+
+
+    /**
+     * Write Clip poses relative to an origin, as laid out in RouteRecord.
+     * @param origin Origin pose, 7 floats.
+     * @param poseMath Converts positions to the origin's space.
+     * @param out Array of getCount() * RouteRecord.CLIP_FLOATS floats.
+     */
+    public void writePoses(float[] origin, PoseMath poseMath, float[] out) {
+        // Rotations relative to the origin are conj(origin) * rotation.
+        float ox = -origin[3];
+        float oy = -origin[4];
+        float oz = -origin[5];
+        float ow = origin[6];
+        for (int i = 0, offset = 0; i < mCount; i++, offset += RouteRecord.CLIP_FLOATS) {
+            sScratchPosition[0] = mX[i];
+            sScratchPosition[1] = mY[i];
+            sScratchPosition[2] = mZ[i];
+            poseMath.toLocal(origin, sScratchPosition, sScratchPosition);
+            out[offset] = sScratchPosition[0];
+            out[offset + 1] = sScratchPosition[1];
+            out[offset + 2] = sScratchPosition[2];
+
+            float x = mRotationX[i];
+            float y = mRotationY[i];
+            float z = mRotationZ[i];
+            float w = mRotationW[i];
+            out[offset + 3] = ow * x + ox * w + oy * z - oz * y;
+            out[offset + 4] = ow * y - ox * z + oy * w + oz * x;
+            out[offset + 5] = ow * z + ox * y - oy * x + oz * w;
+            out[offset + 6] = ow * w - ox * x - oy * y - oz * z;
+            out[offset + 7] = mScale[i];
+        }
+    }
+}
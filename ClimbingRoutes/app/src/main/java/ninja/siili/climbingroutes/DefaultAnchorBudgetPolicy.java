@@ -0,0 +1,68 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * AnchorBudgetPolicy by distance: near Routes keep all their anchors, farther ones are merged
+ * to one anchor and the farthest are released. Like LodPolicy, a distance has to be clearly
+ * past a threshold before the count changes, as creating anchors isn't free either.
+ */
+public class DefaultAnchorBudgetPolicy implements AnchorBudgetPolicy {
+
+    private static final int DEFAULT_MAX_ANCHORS = 24;
+    // Routes closer than this keep all their anchors, in meters.
+    private static final float DEFAULT_FULL_DISTANCE = 6.0f;
+    // Routes farther than this keep no anchor.
+    private static final float DEFAULT_RELEASE_DISTANCE = 40.0f;
+    private static final float DEFAULT_HYSTERESIS = 0.15f;
+
+    private final int mMaxAnchors;
+    private final float mFullDistance;
+    private final float mReleaseDistance;
+    private final float mHysteresis;
+
+
+    /**
+     * Constructor for DefaultAnchorBudgetPolicy with default values.
+     */
+    public DefaultAnchorBudgetPolicy() {
+        this(DEFAULT_MAX_ANCHORS, DEFAULT_FULL_DISTANCE, DEFAULT_RELEASE_DISTANCE, DEFAULT_HYSTERESIS);
+    }
+
+
+    /**
+     * Constructor for DefaultAnchorBudgetPolicy.
+     * @param maxAnchors Maximum number of anchors in total.
+     * @param fullDistance Distance where Routes start to be merged to one anchor, in meters.
+     * @param releaseDistance Distance where Routes lose their anchor.
+     * @param hysteresis Fraction of a threshold to be past before changing.
+     */
+    public DefaultAnchorBudgetPolicy(int maxAnchors, float fullDistance, float releaseDistance,
+                                     float hysteresis) {
+        mMaxAnchors = maxAnchors;
+        mFullDistance = fullDistance;
+        mReleaseDistance = releaseDistance;
+        mHysteresis = hysteresis;
+    }
+
+
+    @Override
+    public int getMaxAnchors() {
+        return mMaxAnchors;
+    }
+
+
+    @Override
+    public int allowAnchors(int wanted, int current, float distance, int remaining) {
+        if (remaining <= 0 || wanted <= 0) {
+            return 0;
+        }
+        float release = mReleaseDistance * (current > 0 ? 1.0f + mHysteresis : 1.0f - mHysteresis);
+        if (distance > release) {
+            return 0;
+        }
+        float full = mFullDistance * (current >= wanted ? 1.0f + mHysteresis : 1.0f - mHysteresis);
+        if (distance <= full && wanted <= remaining) {
+            return wanted;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,267 @@
+package ninja.siili.climbingroutes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single edit of a Route, as stored in the EditJournal.
+ * Keeps both the state before and after the edit for undo, but only the state after
+ * is written to disk. Every command sets absolute values by clip index, so replaying
+ * commands over a newer snapshot still ends in the right state.
+ */
+public class EditCommand {
+
+    public static final byte ADD_CLIP = 1;
+    public static final byte REMOVE_CLIP = 2;
+    public static final byte MOVE_CLIP = 3;
+    public static final byte SET_INFO = 4;
+
+    // Floats for a clip: world position x, y, z and scale.
+    public static final int CLIP_FLOATS = 4;
+
+    // Converts positions to a record's origin space.
+    private static final PoseMath POSE_MATH = new RigidPoseMath();
+
+    public final byte type;
+    public final long routeId;
+    public final int clipIndex;
+    // Clip values before and after, CLIP_FLOATS each. Unused ones are null.
+    public final float[] before;
+    public final float[] after;
+    // Info values before and after, only the info fields are used.
+    public final RouteRecord beforeInfo;
+    public final RouteRecord afterInfo;
+
+
+    private EditCommand(byte type, long routeId, int clipIndex, float[] before, float[] after,
+                        RouteRecord beforeInfo, RouteRecord afterInfo) {
+        this.type = type;
+        this.routeId = routeId;
+        this.clipIndex = clipIndex;
+        this.before = before;
+        this.after = after;
+        this.beforeInfo = beforeInfo;
+        this.afterInfo = afterInfo;
+    }
+
+
+    /**
+     * Clip was added to the end of a Route.
+     * @param routeId Id of the Route.
+     * @param clipIndex Position of the new Clip.
+     * @param position World position of the Clip, 3 floats.
+     * @param scale Scale of the Clip.
+     * @return The command.
+     */
+    public static EditCommand addClip(long routeId, int clipIndex, float[] position, float scale) {
+        return new EditCommand(ADD_CLIP, routeId, clipIndex, null, clip(position, scale), null, null);
+    }
+
+
+    /**
+     * Clip was moved.
+     * @param routeId Id of the Route.
+     * @param clipIndex Position of the Clip.
+     * @param from World position before, 3 floats.
+     * @param to World position after, 3 floats.
+     * @param scale Scale of the Clip.
+     * @return The command.
+     */
+    public static EditCommand moveClip(long routeId, int clipIndex, float[] from, float[] to, float scale) {
+        return new EditCommand(MOVE_CLIP, routeId, clipIndex, clip(from, scale), clip(to, scale), null, null);
+    }
+
+
+    /**
+     * RouteInfo's values changed.
+     * @param routeId Id of the Route.
+     * @param from Info before, may be null if only logged.
+     * @param to Info after.
+     * @return The command.
+     */
+    public static EditCommand setInfo(long routeId, RouteRecord from, RouteRecord to) {
+        return new EditCommand(SET_INFO, routeId, -1, null, null, from, to);
+    }
+
+
+    private static float[] clip(float[] position, float scale) {
+        return new float[] {position[0], position[1], position[2], scale};
+    }
+
+
+    /**
+     * Make the command that undoes this one.
+     * @return Inverse command.
+     */
+    public EditCommand inverse() {
+        switch (type) {
+            case ADD_CLIP:
+                return new EditCommand(REMOVE_CLIP, routeId, clipIndex, after, null, null, null);
+            case REMOVE_CLIP:
+                return new EditCommand(ADD_CLIP, routeId, clipIndex, null, before, null, null);
+            case MOVE_CLIP:
+                return new EditCommand(MOVE_CLIP, routeId, clipIndex, after, before, null, null);
+            default:
+                return new EditCommand(SET_INFO, routeId, clipIndex, null, null, afterInfo, beforeInfo);
+        }
+    }
+
+
+    /**
+     * Check if this command can be merged with a later one, e.g. steps of one drag.
+     * @param later Later command.
+     * @return True if later only continues this one.
+     */
+    public boolean canMerge(EditCommand later) {
+        return type == MOVE_CLIP && later.type == MOVE_CLIP
+                && routeId == later.routeId && clipIndex == later.clipIndex;
+    }
+
+
+    /**
+     * Merge with a later command, see canMerge().
+     * @param later Later command.
+     * @return Command from this one's before state to later's after state.
+     */
+    public EditCommand mergedWith(EditCommand later) {
+        return new EditCommand(type, routeId, clipIndex, before, later.after, beforeInfo, later.afterInfo);
+    }
+
+
+    /**
+     * Apply the command's after state to a saved Route. Commands don't know the rotations,
+     * added Clips get the origin's rotation.
+     * @param record RouteRecord to modify.
+     */
+    public void applyTo(RouteRecord record) {
+        int count = record.getClipCount();
+        float[] local = new float[3];
+        switch (type) {
+            case ADD_CLIP:
+                if (clipIndex > count) {
+                    return;
+                }
+                if (clipIndex == 0) {
+                    System.arraycopy(after, 0, record.origin, 0, 3);
+                    record.origin[3] = 0.0f;
+                    record.origin[4] = 0.0f;
+                    record.origin[5] = 0.0f;
+                    record.origin[6] = 1.0f;
+                }
+                float[] clips = new float[(clipIndex + 1) * RouteRecord.CLIP_FLOATS];
+                System.arraycopy(record.clips, 0, clips, 0, clipIndex * RouteRecord.CLIP_FLOATS);
+                int c = clipIndex * RouteRecord.CLIP_FLOATS;
+                POSE_MATH.toLocal(record.origin, after, local);
+                System.arraycopy(local, 0, clips, c, 3);
+                clips[c + 6] = 1.0f;
+                clips[c + 7] = after[3];
+                record.clips = clips;
+                break;
+            case REMOVE_CLIP:
+                if (clipIndex < count) {
+                    float[] kept = new float[clipIndex * RouteRecord.CLIP_FLOATS];
+                    System.arraycopy(record.clips, 0, kept, 0, kept.length);
+                    record.clips = kept;
+                }
+                break;
+            case MOVE_CLIP:
+                if (clipIndex < count) {
+                    POSE_MATH.toLocal(record.origin, after, local);
+                    System.arraycopy(local, 0, record.clips, clipIndex * RouteRecord.CLIP_FLOATS, 3);
+                }
+                break;
+            case SET_INFO:
+                record.name = afterInfo.name;
+                record.difficulty = afterInfo.difficulty;
+                record.flags = afterInfo.flags;
+                record.startHoldCount = afterInfo.startHoldCount;
+                record.notes = afterInfo.notes;
+                break;
+        }
+    }
+
+
+    /**
+     * Size of the encoded command in bytes.
+     * @return Byte count.
+     */
+    public int encodedSize() {
+        int size = 1 + 8 + 2;
+        switch (type) {
+            case ADD_CLIP:
+                return size + 4 * CLIP_FLOATS;
+            case MOVE_CLIP:
+                return size + 4 * 3;
+            case SET_INFO:
+                return size + infoOnly(afterInfo).encodedSize();
+            default:
+                return size;
+        }
+    }
+
+
+    /**
+     * Encode the after state of the command.
+     * @param buffer Buffer with at least encodedSize() bytes remaining.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(type);
+        buffer.putLong(routeId);
+        buffer.putShort((short) clipIndex);
+        switch (type) {
+            case ADD_CLIP:
+                for (float f : after) {
+                    buffer.putFloat(f);
+                }
+                break;
+            case MOVE_CLIP:
+                buffer.putFloat(after[0]).putFloat(after[1]).putFloat(after[2]);
+                break;
+            case SET_INFO:
+                infoOnly(afterInfo).writeTo(buffer);
+                break;
+        }
+    }
+
+
+    /**
+     * Decode a command written with writeTo(). Only the after state is restored.
+     * @param buffer Buffer positioned at the start of the command.
+     * @return The command.
+     */
+    public static EditCommand readFrom(ByteBuffer buffer) {
+        byte type = buffer.get();
+        long routeId = buffer.getLong();
+        int clipIndex = buffer.getShort();
+        switch (type) {
+            case ADD_CLIP:
+                float[] clip = new float[CLIP_FLOATS];
+                for (int i = 0; i < CLIP_FLOATS; i++) {
+                    clip[i] = buffer.getFloat();
+                }
+                return new EditCommand(type, routeId, clipIndex, null, clip, null, null);
+            case MOVE_CLIP:
+                float[] position = {buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), 0.0f};
+                return new EditCommand(type, routeId, clipIndex, null, position, null, null);
+            case SET_INFO:
+                return new EditCommand(type, routeId, clipIndex, null, null, null,
+                        RouteRecord.readFrom(routeId, buffer));
+            default:
+                return new EditCommand(type, routeId, clipIndex, null, null, null, null);
+        }
+    }
+
+
+    // Copy of the info fields without clips, so they're encoded compactly.
+    private static RouteRecord infoOnly(RouteRecord info) {
+        if (info.getClipCount() == 0) {
+            return info;
+        }
+        RouteRecord record = new RouteRecord();
+        record.name = info.name;
+        record.difficulty = info.difficulty;
+        record.flags = info.flags;
+        record.startHoldCount = info.startHoldCount;
+        record.notes = info.notes;
+        return record;
+    }
+}
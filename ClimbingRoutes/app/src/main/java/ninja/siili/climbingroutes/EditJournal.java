@@ -0,0 +1,448 @@
+package ninja.siili.climbingroutes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * History of Route edits with undo and redo, written behind to an append-only file.
+ *
+ * Edits are recorded on the UI thread, where undo and redo only move commands between two
+ * deques. Commands are written on the writer thread a moment later, so a burst of drag steps
+ * becomes one record. Undo and redo are written as new commands, the file is never rewritten.
+ * Commands are numbered as they are recorded. A snapshot of a Route is stamped with mark() when
+ * it's taken, and once every Route in the journal has been saved with no commands after its
+ * stamp, the journal is cut back to empty. If it grows long, the listener is asked for
+ * snapshots, so replay after a crash stays short.
+ *
+ * File layout: header (magic, version), then records of [int length][int crc][EditCommand bytes],
+ * the CRC-32 covers the command bytes. A journal of another version is started over, its edits
+ * can't be replayed.
+ */
+public class EditJournal {
+
+    private static final int MAGIC = 0x43524a4c; // "CRJL"
+    private static final short VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 2;
+    // length + crc
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+
+    // Moves of the same clip closer than this in time are one undo step.
+    private static final long COALESCE_NANOS = 500L * 1000000L;
+    private static final long DEFAULT_WRITE_DELAY_MS = 300;
+    private static final int SNAPSHOT_AFTER_COMMANDS = 256;
+    private static final int MAX_UNDO_STEPS = 200;
+
+    /** Called on the writer thread. */
+    public interface Listener {
+        /**
+         * Journal is getting long, save these Routes to the store and call snapshotSaved().
+         * Each Route is asked for again only after its snapshot has been saved.
+         * @param routeIds Ids of Routes with edits in the journal.
+         */
+        void onSnapshotNeeded(Set<Long> routeIds);
+
+        /**
+         * Writing the journal failed.
+         * @param ex What went wrong.
+         */
+        void onWriteFailed(IOException ex);
+    }
+
+    private final File mFile;
+    private final ScheduledExecutorService mWriter;
+    private final LongSupplier mClock;
+    private final long mWriteDelayMs;
+    private Listener mListener;
+
+    // UI thread only.
+    private final ArrayDeque<EditCommand> mUndo = new ArrayDeque<>();
+    private final ArrayDeque<EditCommand> mRedo = new ArrayDeque<>();
+    private long mLastRecordNanos = 0;
+
+    // Commands waiting to be written, guarded by itself. The last one has number mSequence.
+    private final ArrayList<EditCommand> mPending = new ArrayList<>();
+    private boolean mFlushScheduled = false;
+    private long mSequence = 0;
+
+    // Writer thread only.
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private final CRC32 mCrc = new CRC32();
+    private long mSize;
+    private int mSinceSnapshot = 0;
+    // Routes asked for in onSnapshotNeeded() that haven't been saved yet.
+    private final HashSet<Long> mSnapshotRequested = new HashSet<>();
+    // Number of the last written command of each Route that isn't covered by a snapshot.
+    private final HashMap<Long, Long> mUnsaved = new HashMap<>();
+
+
+    /**
+     * Constructor for EditJournal. The file is opened on the writer thread.
+     * @param file File of the journal.
+     * @param writer Single thread executor for disk access, shared with the RouteStore.
+     */
+    public EditJournal(File file, ScheduledExecutorService writer) {
+        this(file, writer, System::nanoTime, DEFAULT_WRITE_DELAY_MS);
+    }
+
+
+    /**
+     * Constructor with a custom clock and write delay, for tests.
+     */
+    EditJournal(File file, ScheduledExecutorService writer, LongSupplier clock, long writeDelayMs) {
+        mFile = file;
+        mWriter = writer;
+        mClock = clock;
+        mWriteDelayMs = writeDelayMs;
+        mWriter.execute(() -> {
+            try {
+                open();
+            } catch (IOException ex) {
+                reportFailure(ex);
+            }
+        });
+    }
+
+
+    /**
+     * Set a listener for snapshot requests and failures.
+     * @param listener Listener.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+
+    private void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (mChannel.read(header, header.position()) <= 0) {
+                break;
+            }
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+            header.clear();
+            header.putInt(MAGIC).putShort(VERSION).flip();
+            mChannel.truncate(0);
+            writeFully(header, 0);
+        }
+        mSize = mChannel.size();
+    }
+
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += mChannel.write(buffer, position);
+        }
+    }
+
+
+    private void reportFailure(IOException ex) {
+        if (mListener != null) {
+            mListener.onWriteFailed(ex);
+        }
+    }
+
+
+    /**
+     * Record an edit that can be undone. Clears redo history.
+     * @param command The edit.
+     */
+    public void record(EditCommand command) {
+        long now = mClock.getAsLong();
+        EditCommand last = mUndo.peekFirst();
+        if (last != null && last.canMerge(command) && now - mLastRecordNanos < COALESCE_NANOS) {
+            mUndo.pollFirst();
+            mUndo.push(last.mergedWith(command));
+        } else {
+            mUndo.push(command);
+            if (mUndo.size() > MAX_UNDO_STEPS) {
+                mUndo.pollLast();
+            }
+        }
+        mLastRecordNanos = now;
+        mRedo.clear();
+        enqueue(command);
+    }
+
+
+    /**
+     * Write a command without adding it to undo history, e.g. a new Route's default info.
+     * @param command The command.
+     */
+    public void log(EditCommand command) {
+        enqueue(command);
+    }
+
+
+    /**
+     * Undo the latest edit.
+     * @return Command to apply to undo it, null if there's nothing to undo.
+     */
+    public EditCommand undo() {
+        EditCommand command = mUndo.pollFirst();
+        if (command == null) {
+            return null;
+        }
+        mRedo.push(command);
+        mLastRecordNanos = 0;
+        EditCommand inverse = command.inverse();
+        enqueue(inverse);
+        return inverse;
+    }
+
+
+    /**
+     * Redo the latest undone edit.
+     * @return Command to apply to redo it, null if there's nothing to redo.
+     */
+    public EditCommand redo() {
+        EditCommand command = mRedo.pollFirst();
+        if (command == null) {
+            return null;
+        }
+        mUndo.push(command);
+        mLastRecordNanos = 0;
+        enqueue(command);
+        return command;
+    }
+
+
+    /**
+     * Check if there's an edit to undo.
+     * @return True if undo() would return a command.
+     */
+    public boolean canUndo() {
+        return !mUndo.isEmpty();
+    }
+
+
+    /**
+     * Check if there's an undone edit to redo.
+     * @return True if redo() would return a command.
+     */
+    public boolean canRedo() {
+        return !mRedo.isEmpty();
+    }
+
+
+    /**
+     * Stamp a snapshot being taken. Call on the UI thread together with Route.toRecord(),
+     * and pass the stamp to snapshotSaved().
+     * @return Number of the latest recorded command.
+     */
+    public long mark() {
+        synchronized (mPending) {
+            return mSequence;
+        }
+    }
+
+
+    private void enqueue(EditCommand command) {
+        synchronized (mPending) {
+            mSequence++;
+            mPending.add(command);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mWriter.schedule(this::flush, mWriteDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+
+    /**
+     * Write pending commands, merging steps of the same drag. Writer thread only.
+     */
+    private void flush() {
+        ArrayList<EditCommand> batch;
+        long firstSequence;
+        synchronized (mPending) {
+            batch = new ArrayList<>(mPending);
+            firstSequence = mSequence - mPending.size() + 1;
+            mPending.clear();
+            mFlushScheduled = false;
+        }
+        if (batch.isEmpty() || mChannel == null) {
+            return;
+        }
+
+        ArrayList<EditCommand> merged = new ArrayList<>(batch.size());
+        int[] sizes = new int[batch.size()];
+        int bytes = 0;
+        for (EditCommand command : batch) {
+            int last = merged.size() - 1;
+            int size = command.encodedSize();
+            if (last >= 0 && merged.get(last).canMerge(command)) {
+                bytes -= RECORD_HEADER_SIZE + sizes[last];
+                merged.set(last, command);
+            } else {
+                last++;
+                merged.add(command);
+            }
+            sizes[last] = size;
+            bytes += RECORD_HEADER_SIZE + size;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < merged.size(); i++) {
+            int start = buffer.position();
+            buffer.putInt(sizes[i]).putInt(0);
+            merged.get(i).writeTo(buffer);
+            mCrc.reset();
+            mCrc.update(buffer.array(), start + RECORD_HEADER_SIZE, sizes[i]);
+            buffer.putInt(start + 4, (int) mCrc.getValue());
+        }
+        buffer.flip();
+        try {
+            writeFully(buffer, mSize);
+            mSize += bytes;
+        } catch (IOException ex) {
+            reportFailure(ex);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            mUnsaved.put(batch.get(i).routeId, firstSequence + i);
+        }
+
+        mSinceSnapshot += merged.size();
+        if (mSinceSnapshot >= SNAPSHOT_AFTER_COMMANDS && mListener != null) {
+            HashSet<Long> routeIds = new HashSet<>(mUnsaved.keySet());
+            routeIds.removeAll(mSnapshotRequested);
+            if (!routeIds.isEmpty()) {
+                mSnapshotRequested.addAll(routeIds);
+                mSinceSnapshot = 0;
+                mListener.onSnapshotNeeded(routeIds);
+            }
+        }
+    }
+
+
+    /**
+     * A Route has been saved to the store, its edits up to the stamp aren't needed any more.
+     * When no Route needs the journal, it's cut back to empty. Writer thread only.
+     * @param routeId Id of the saved Route.
+     * @param stamp Value of mark() when the saved record was taken.
+     */
+    public void snapshotSaved(long routeId, long stamp) {
+        flush();
+        mSnapshotRequested.remove(routeId);
+        Long last = mUnsaved.get(routeId);
+        if (last != null && last <= stamp) {
+            mUnsaved.remove(routeId);
+        }
+        if (!mUnsaved.isEmpty() || mChannel == null || mSize == HEADER_SIZE) {
+            return;
+        }
+        try {
+            mChannel.truncate(HEADER_SIZE);
+            mSize = HEADER_SIZE;
+            mSinceSnapshot = 0;
+            mSnapshotRequested.clear();
+        } catch (IOException ex) {
+            reportFailure(ex);
+        }
+    }
+
+
+    /**
+     * Replay the journal into the store after a crash and empty it. Everything from the first
+     * record that is cut short, fails its CRC or doesn't decode is dropped, e.g. a command torn
+     * by the crash. Writer thread only, before any edits are written.
+     * @param store RouteStore to apply the edits to.
+     * @return Number of commands replayed.
+     * @throws IOException If reading or saving fails.
+     */
+    public int recoverInto(RouteStore store) throws IOException {
+        if (mChannel == null || mSize <= HEADER_SIZE) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) mSize).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        int end = buffer.limit();
+
+        LinkedHashMap<Long, RouteRecord> records = new LinkedHashMap<>();
+        int count = 0;
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= end) {
+            int length = buffer.getInt(offset);
+            int start = offset + RECORD_HEADER_SIZE;
+            if (length <= 0 || start + (long) length > end) {
+                break;
+            }
+            mCrc.reset();
+            mCrc.update(buffer.array(), start, length);
+            if ((int) mCrc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            // Decoding stops at the record's end, a command can't read into the next one.
+            buffer.limit(start + length).position(start);
+            EditCommand command;
+            try {
+                command = EditCommand.readFrom(buffer);
+            } catch (BufferUnderflowException ex) {
+                break;
+            }
+            buffer.limit(end);
+            RouteRecord record = records.get(command.routeId);
+            if (record == null) {
+                record = store.load(command.routeId);
+                if (record == null) {
+                    record = new RouteRecord();
+                    record.id = command.routeId;
+                }
+                records.put(command.routeId, record);
+            }
+            command.applyTo(record);
+            count++;
+            offset = start + length;
+        }
+
+        for (RouteRecord record : records.values()) {
+            store.save(record);
+        }
+        mChannel.truncate(HEADER_SIZE);
+        mSize = HEADER_SIZE;
+        return count;
+    }
+
+
+    /**
+     * Write pending commands and close the file. Runs on the writer thread.
+     */
+    public void close() {
+        mWriter.execute(() -> {
+            flush();
+            try {
+                if (mChannel != null) {
+                    mChannel.close();
+                    mRandomAccessFile.close();
+                    mChannel = null;
+                }
+            } catch (IOException ex) {
+                reportFailure(ex);
+            }
+        });
+    }
+}
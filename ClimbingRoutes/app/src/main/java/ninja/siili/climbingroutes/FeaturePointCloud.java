@@ -0,0 +1,417 @@
+package ninja.siili.climbingroutes;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * ARCore's feature points accumulated over many frames in a voxel hash, so Clips can be placed
+ * on the wall where points are dense instead of on one noisy point.
+ * Each voxel keeps the confidence weighted centroid of the points seen in it and the frame it
+ * was last seen. Voxels not seen for a while age out, a slice of the table per frame, and the
+ * table never grows: when it's full new voxels are dropped until old ones age out.
+ * Queries look up the voxels around a position, so they cost the same however many there are.
+ */
+public class FeaturePointCloud {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    // Voxel coordinates are packed into 21 bits each.
+    private static final int COORD_BITS = 21;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    // Weight of a voxel stops growing here, so old observations fade as new ones come in.
+    private static final float MAX_WEIGHT = 32.0f;
+    // Table slots checked for aging per frame.
+    private static final int SWEEP_SLOTS_PER_FRAME = 512;
+
+    private final float mVoxelSize;
+    private final float mInverseVoxelSize;
+    private final int mMaxAgeFrames;
+    private final int mMask;
+    private final int mMaxVoxels;
+
+    // Open addressing with linear probing, keys are packed voxel coordinates.
+    private final long[] mKeys;
+    // Per voxel: weighted sums of x, y, z and the sum of weights.
+    private final float[] mSums;
+    private final float[] mWeights;
+    private final int[] mLastSeen;
+    private int mCount = 0;
+    private int mSweepSlot = 0;
+    private int mFrame = 0;
+    // Frame the table was last swept whole to make room, it's done at most once a frame.
+    private int mFullSweepFrame = -1;
+
+    private final float[] mScratchCentroid = new float[3];
+
+
+    /**
+     * Constructor for FeaturePointCloud.
+     * @param voxelSize Edge of a voxel in meters.
+     * @param maxVoxels Most voxels kept, memory is allocated for these up front.
+     * @param maxAgeFrames Frames a voxel is kept after it was last seen.
+     */
+    public FeaturePointCloud(float voxelSize, int maxVoxels, int maxAgeFrames) {
+        mVoxelSize = voxelSize;
+        mInverseVoxelSize = 1.0f / voxelSize;
+        mMaxAgeFrames = maxAgeFrames;
+        mMaxVoxels = maxVoxels;
+        // Table is kept at most half full so probes stay short.
+        int capacity = Integer.highestOneBit(Math.max(16, maxVoxels * 2 - 1)) << 1;
+        mMask = capacity - 1;
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        mSums = new float[capacity * 3];
+        mWeights = new float[capacity];
+        mLastSeen = new int[capacity];
+    }
+
+
+    /**
+     * Get the edge of a voxel.
+     * @return Voxel size in meters.
+     */
+    public float getVoxelSize() {
+        return mVoxelSize;
+    }
+
+
+    /**
+     * Get the number of voxels with points in them.
+     * @return Voxel count.
+     */
+    public int size() {
+        return mCount;
+    }
+
+
+    /**
+     * Get the current frame, as counted by frame().
+     * @return Frame number.
+     */
+    public int getFrame() {
+        return mFrame;
+    }
+
+
+    /**
+     * A new frame starts. Ages out a slice of the voxels.
+     */
+    public void frame() {
+        mFrame++;
+        sweep(SWEEP_SLOTS_PER_FRAME, mMaxAgeFrames);
+    }
+
+
+    /**
+     * Add the points of a frame.
+     * @param points World positions and confidences, 4 floats per point, from the buffer's
+     *               position to its limit. The buffer's position is not changed.
+     */
+    public void addPoints(FloatBuffer points) {
+        for (int i = points.position(); i + 3 < points.limit(); i += 4) {
+            addPoint(points.get(i), points.get(i + 1), points.get(i + 2), points.get(i + 3));
+        }
+    }
+
+
+    /**
+     * Add a point.
+     * @param x World x.
+     * @param y World y.
+     * @param z World z.
+     * @param confidence ARCore's confidence of the point, 0 to 1.
+     */
+    public void addPoint(float x, float y, float z, float confidence) {
+        if (confidence <= 0.0f) {
+            return;
+        }
+        long key = keyOf(voxelOf(x), voxelOf(y), voxelOf(z));
+        int slot = find(key);
+        if (mKeys[slot] == EMPTY) {
+            if (mCount >= mMaxVoxels) {
+                if (mFullSweepFrame == mFrame) {
+                    return;
+                }
+                // Full, make room from voxels that are old but not yet swept.
+                mFullSweepFrame = mFrame;
+                sweep(mKeys.length, mMaxAgeFrames / 2);
+                if (mCount >= mMaxVoxels) {
+                    return;
+                }
+                slot = find(key);
+            }
+            mKeys[slot] = key;
+            mSums[slot * 3] = 0.0f;
+            mSums[slot * 3 + 1] = 0.0f;
+            mSums[slot * 3 + 2] = 0.0f;
+            mWeights[slot] = 0.0f;
+            mCount++;
+        }
+
+        float weight = mWeights[slot];
+        if (weight + confidence > MAX_WEIGHT) {
+            // Scale the old observations down so the new one still counts.
+            float scale = (MAX_WEIGHT - confidence) / weight;
+            mSums[slot * 3] *= scale;
+            mSums[slot * 3 + 1] *= scale;
+            mSums[slot * 3 + 2] *= scale;
+            weight = MAX_WEIGHT - confidence;
+        }
+        mSums[slot * 3] += x * confidence;
+        mSums[slot * 3 + 1] += y * confidence;
+        mSums[slot * 3 + 2] += z * confidence;
+        mWeights[slot] = weight + confidence;
+        mLastSeen[slot] = mFrame;
+    }
+
+
+    /**
+     * Get the summed confidence of the points in the voxel at a position.
+     * @param x World x.
+     * @param y World y.
+     * @param z World z.
+     * @return Weight, 0 if the voxel is empty.
+     */
+    public float getWeight(float x, float y, float z) {
+        int slot = find(keyOf(voxelOf(x), voxelOf(y), voxelOf(z)));
+        return mKeys[slot] == EMPTY ? 0.0f : mWeights[slot];
+    }
+
+
+    /**
+     * Snap a position to the densest surface near it: the densest voxel within radius, and
+     * the weighted centroid of it and its neighbours.
+     * @param position World position, 3 floats.
+     * @param radius Search radius in meters.
+     * @param minWeight Least summed confidence around the densest voxel to count as a surface.
+     * @param out Array of 3 floats for the snapped position, may be position.
+     * @return True if a surface was found.
+     */
+    public boolean snap(float[] position, float radius, float minWeight, float[] out) {
+        int densest = densestWithin(position[0], position[1], position[2], radius);
+        if (densest < 0) {
+            return false;
+        }
+        int vx = unpack(mKeys[densest] >> (2 * COORD_BITS));
+        int vy = unpack(mKeys[densest] >> COORD_BITS);
+        int vz = unpack(mKeys[densest]);
+        float weight = neighbourhoodCentroid(vx, vy, vz, mScratchCentroid);
+        if (weight < minWeight) {
+            return false;
+        }
+        out[0] = mScratchCentroid[0];
+        out[1] = mScratchCentroid[1];
+        out[2] = mScratchCentroid[2];
+        return true;
+    }
+
+
+    /**
+     * Find the first dense surface along a ray, e.g. under a tap, and snap to it.
+     * The ray is stepped a voxel at a time and each step checks the voxels around it.
+     * @param origin Start of the ray, 3 floats.
+     * @param direction Direction of the ray, unit length.
+     * @param maxDistance Farthest distance to look at.
+     * @param minWeight Least summed confidence to count as a surface.
+     * @param out Array of 3 floats for the snapped position.
+     * @return True if a surface was found.
+     */
+    public boolean raycast(float[] origin, float[] direction, float maxDistance, float minWeight, float[] out) {
+        int lastX = Integer.MIN_VALUE;
+        int lastY = Integer.MIN_VALUE;
+        int lastZ = Integer.MIN_VALUE;
+        for (float t = 0.0f; t <= maxDistance; t += mVoxelSize) {
+            int vx = voxelOf(origin[0] + direction[0] * t);
+            int vy = voxelOf(origin[1] + direction[1] * t);
+            int vz = voxelOf(origin[2] + direction[2] * t);
+            if (vx == lastX && vy == lastY && vz == lastZ) {
+                continue;
+            }
+            lastX = vx;
+            lastY = vy;
+            lastZ = vz;
+            if (neighbourhoodCentroid(vx, vy, vz, mScratchCentroid) >= minWeight) {
+                out[0] = mScratchCentroid[0];
+                out[1] = mScratchCentroid[1];
+                out[2] = mScratchCentroid[2];
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Copy the centroids of the voxels, e.g. for fitting surfaces on another thread.
+     * @param out Array of 3 floats per voxel, at least 3 * size() long.
+     * @param minWeight Least weight of the voxels copied.
+     * @return Number of centroids copied.
+     */
+    public int copyCentroids(float[] out, float minWeight) {
+        int count = 0;
+        for (int slot = 0; slot < mKeys.length && count * 3 + 2 < out.length; slot++) {
+            if (mKeys[slot] == EMPTY || mWeights[slot] < minWeight) {
+                continue;
+            }
+            float w = mWeights[slot];
+            out[count * 3] = mSums[slot * 3] / w;
+            out[count * 3 + 1] = mSums[slot * 3 + 1] / w;
+            out[count * 3 + 2] = mSums[slot * 3 + 2] / w;
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Forget all points, e.g. when ARCore loses tracking and the world moves.
+     */
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mCount = 0;
+    }
+
+
+    /**
+     * Find the voxel with the most weight whose centroid is within radius of a position.
+     * @return Slot of the voxel, -1 if none.
+     */
+    private int densestWithin(float x, float y, float z, float radius) {
+        int reach = (int) Math.ceil(radius * mInverseVoxelSize);
+        int cx = voxelOf(x);
+        int cy = voxelOf(y);
+        int cz = voxelOf(z);
+        float radiusSquared = radius * radius;
+        int best = -1;
+        float bestWeight = 0.0f;
+        for (int ix = cx - reach; ix <= cx + reach; ix++) {
+            for (int iy = cy - reach; iy <= cy + reach; iy++) {
+                for (int iz = cz - reach; iz <= cz + reach; iz++) {
+                    int slot = find(keyOf(ix, iy, iz));
+                    if (mKeys[slot] == EMPTY || mWeights[slot] <= bestWeight) {
+                        continue;
+                    }
+                    float w = mWeights[slot];
+                    float dx = mSums[slot * 3] / w - x;
+                    float dy = mSums[slot * 3 + 1] / w - y;
+                    float dz = mSums[slot * 3 + 2] / w - z;
+                    if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                        best = slot;
+                        bestWeight = w;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Weighted centroid of a voxel and its 26 neighbours.
+     * @param out Array of 3 floats for the centroid, untouched if there are no points.
+     * @return Summed weight.
+     */
+    private float neighbourhoodCentroid(int vx, int vy, int vz, float[] out) {
+        float sx = 0.0f;
+        float sy = 0.0f;
+        float sz = 0.0f;
+        float weight = 0.0f;
+        for (int ix = vx - 1; ix <= vx + 1; ix++) {
+            for (int iy = vy - 1; iy <= vy + 1; iy++) {
+                for (int iz = vz - 1; iz <= vz + 1; iz++) {
+                    int slot = find(keyOf(ix, iy, iz));
+                    if (mKeys[slot] != EMPTY) {
+                        sx += mSums[slot * 3];
+                        sy += mSums[slot * 3 + 1];
+                        sz += mSums[slot * 3 + 2];
+                        weight += mWeights[slot];
+                    }
+                }
+            }
+        }
+        if (weight > 0.0f) {
+            out[0] = sx / weight;
+            out[1] = sy / weight;
+            out[2] = sz / weight;
+        }
+        return weight;
+    }
+
+
+    /**
+     * Remove voxels not seen for a while from a slice of the table.
+     * @param slots Number of slots to check.
+     * @param maxAge Frames a voxel is kept after it was last seen.
+     */
+    private void sweep(int slots, int maxAge) {
+        for (int i = 0; i < slots && mCount > 0; i++) {
+            int slot = mSweepSlot;
+            if (mKeys[slot] != EMPTY && mFrame - mLastSeen[slot] > maxAge && remove(slot)) {
+                // Another voxel was shifted into this slot, check it too.
+                continue;
+            }
+            mSweepSlot = (slot + 1) & mMask;
+        }
+    }
+
+
+    /**
+     * Remove the voxel in a slot, shifting back the voxels probed past it.
+     * @param slot Slot of the voxel.
+     * @return True if another voxel was moved into the slot.
+     */
+    private boolean remove(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mMask;
+        while (mKeys[next] != EMPTY) {
+            int home = hash(mKeys[next]) & mMask;
+            // The voxel can fill the hole if the hole is between its home slot and its slot.
+            if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+                mKeys[hole] = mKeys[next];
+                System.arraycopy(mSums, next * 3, mSums, hole * 3, 3);
+                mWeights[hole] = mWeights[next];
+                mLastSeen[hole] = mLastSeen[next];
+                hole = next;
+            }
+            next = (next + 1) & mMask;
+        }
+        mKeys[hole] = EMPTY;
+        mCount--;
+        return hole != slot;
+    }
+
+
+    /**
+     * Find the slot of a key, or the empty slot where it would go.
+     */
+    private int find(long key) {
+        int slot = hash(key) & mMask;
+        while (mKeys[slot] != EMPTY && mKeys[slot] != key) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+
+    private int voxelOf(float coordinate) {
+        return (int) Math.floor(coordinate * mInverseVoxelSize);
+    }
+
+
+    private static long keyOf(int x, int y, int z) {
+        return ((x & COORD_MASK) << (2 * COORD_BITS)) | ((y & COORD_MASK) << COORD_BITS) | (z & COORD_MASK);
+    }
+
+
+    /**
+     * Sign extend a packed voxel coordinate.
+     */
+    private static int unpack(long bits) {
+        return (int) ((bits & COORD_MASK) << (64 - COORD_BITS) >> (64 - COORD_BITS));
+    }
+}
@@ -0,0 +1,187 @@
+package ninja.siili.climbingroutes;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Timers around the app's hot paths, each recording into its own LatencyHistogram.
+ * A timer is started with start() and ended with stop(), which only read the clock, so they
+ * can stay in release builds. Frame time is measured between calls to frame() and compared
+ * to a budget to count slow frames.
+ */
+public class FrameProfiler {
+
+    // Timers.
+    public static final int TIMER_FRAME = 0;
+    public static final int TIMER_UPDATE = 1;
+    public static final int TIMER_SCHEDULER = 2;
+    public static final int TIMER_AR_FRAGMENT = 3;
+    public static final int TIMER_TAP = 4;
+    public static final int TIMER_VIEW_BUILD = 5;
+    public static final int TIMER_MUTATIONS = 6;
+    private static final String[] TIMER_NAMES =
+            {"frame", "update", "scheduler", "ar fragment", "tap", "view build", "mutations"};
+    public static final int TIMER_COUNT = TIMER_NAMES.length;
+
+    private final LongSupplier mClock;
+    private final long mFrameBudgetNanos;
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[TIMER_COUNT];
+    private long mLastFrameStart = -1;
+    private long mFramesOverBudget = 0;
+    private boolean mEnabled = true;
+
+
+    /**
+     * Constructor for FrameProfiler.
+     * @param frameBudgetMillis Time a frame may take, e.g. 16.7 for 60 fps.
+     */
+    public FrameProfiler(float frameBudgetMillis) {
+        this(frameBudgetMillis, System::nanoTime);
+    }
+
+
+    /**
+     * Constructor with a custom clock, for tests.
+     * @param frameBudgetMillis Time a frame may take.
+     * @param clock Clock returning nanoseconds.
+     */
+    FrameProfiler(float frameBudgetMillis, LongSupplier clock) {
+        mClock = clock;
+        mFrameBudgetNanos = (long) (frameBudgetMillis * 1000000.0f);
+        for (int i = 0; i < TIMER_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /**
+     * Turn recording on or off. While off, timers do nothing.
+     * @param enabled True to record.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        mLastFrameStart = -1;
+    }
+
+
+    /**
+     * Check if recording is on.
+     * @return True if recording.
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+
+    /**
+     * A new frame starts, records the time since the previous one.
+     */
+    public void frame() {
+        if (!mEnabled) {
+            return;
+        }
+        long now = mClock.getAsLong();
+        if (mLastFrameStart >= 0) {
+            long frameNanos = now - mLastFrameStart;
+            mHistograms[TIMER_FRAME].record(frameNanos);
+            if (frameNanos > mFrameBudgetNanos) {
+                mFramesOverBudget++;
+            }
+        }
+        mLastFrameStart = now;
+    }
+
+
+    /**
+     * Start timing.
+     * @return Start time to pass to stop().
+     */
+    public long start() {
+        return mEnabled ? mClock.getAsLong() : 0;
+    }
+
+
+    /**
+     * Stop timing and record the duration.
+     * @param timer One of the TIMER_ constants.
+     * @param start Time returned by start().
+     */
+    public void stop(int timer, long start) {
+        if (mEnabled) {
+            mHistograms[timer].record(mClock.getAsLong() - start);
+        }
+    }
+
+
+    /**
+     * Get a timer's histogram.
+     * @param timer One of the TIMER_ constants.
+     * @return LatencyHistogram of the timer.
+     */
+    public LatencyHistogram getHistogram(int timer) {
+        return mHistograms[timer];
+    }
+
+
+    /**
+     * Number of frames that took longer than the budget.
+     * @return Count of frames.
+     */
+    public long getFramesOverBudget() {
+        return mFramesOverBudget;
+    }
+
+
+    /**
+     * Forget everything recorded, e.g. after loading has settled.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mFramesOverBudget = 0;
+        mLastFrameStart = -1;
+    }
+
+
+    /**
+     * Human readable summary for the debug overlay.
+     * @return Report, one timer per line.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "frames %d, over %.1f ms %d%n",
+                mHistograms[TIMER_FRAME].getCount(), mFrameBudgetNanos / 1e6, mFramesOverBudget));
+        report.append(String.format(Locale.US, "%-12s %7s %7s %7s %7s%n", "ms", "p50", "p95", "p99", "max"));
+        for (int i = 0; i < TIMER_COUNT; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            report.append(String.format(Locale.US, "%-12s %7.2f %7.2f %7.2f %7.2f%n", TIMER_NAMES[i],
+                    histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(95) / 1e6,
+                    histogram.getPercentileNanos(99) / 1e6, histogram.getMaxNanos() / 1e6));
+        }
+        return report.toString();
+    }
+
+
+    /**
+     * Write the results as CSV, one timer per row, for comparing devices.
+     * @param writer Writer to write to.
+     * @param device Description of the device, written as a comment line.
+     * @throws IOException If writing fails.
+     */
+    public void writeCsv(Writer writer, String device) throws IOException {
+        writer.write("# " + device + "\n");
+        writer.write(String.format(Locale.US, "# frame budget ms %.2f, frames over budget %d%n",
+                mFrameBudgetNanos / 1e6, mFramesOverBudget));
+        writer.write("timer,count,mean_us,p50_us,p95_us,p99_us,max_us\n");
+        for (int i = 0; i < TIMER_COUNT; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            writer.write(String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%d%n", TIMER_NAMES[i],
+                    histogram.getCount(), histogram.getMeanNanos() / 1000,
+                    histogram.getPercentileNanos(50) / 1000, histogram.getPercentileNanos(95) / 1000,
+                    histogram.getPercentileNanos(99) / 1000, histogram.getMaxNanos() / 1000));
+        }
+    }
+}
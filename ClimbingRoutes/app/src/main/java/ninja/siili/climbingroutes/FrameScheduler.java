@@ -0,0 +1,275 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs per-frame work from Scene's update listener within a time budget.
+ * Tasks are run in priority order until the frame's budget is used, the rest roll over to the
+ * next frame. Tasks past their deadline run first and even if the budget is already used,
+ * every frame until they're done.
+ * Budget used by each task category is tracked for profiling.
+ */
+public class FrameScheduler {
+
+    // Task categories.
+    public static final int CATEGORY_LINES = 0;
+    public static final int CATEGORY_INFO_CARDS = 1;
+    public static final int CATEGORY_RECOLOR = 2;
+    public static final int CATEGORY_LOADING = 3;
+    public static final int CATEGORY_LOD = 4;
+    public static final int CATEGORY_ANCHORS = 5;
+    public static final int CATEGORY_OTHER = 6;
+    private static final String[] CATEGORY_NAMES =
+            {"lines", "info cards", "recolor", "loading", "lod", "anchors", "other"};
+    public static final int CATEGORY_COUNT = CATEGORY_NAMES.length;
+
+    // Common priorities, bigger runs first.
+    public static final int PRIORITY_HIGH = 100;
+    public static final int PRIORITY_NORMAL = 50;
+    public static final int PRIORITY_LOW = 0;
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // Weight of the newest frame in average usage.
+    private static final float AVERAGE_WEIGHT = 0.05f;
+
+    /** Work to be done in a frame. */
+    public interface Task {
+        /**
+         * Do the work, or a slice of it.
+         * @return True if the task is done, false to run it again next frame.
+         */
+        boolean run();
+    }
+
+    private static class Entry {
+        final Task task;
+        final int category;
+        final int priority;
+        final long deadline;
+        final long sequence;
+        boolean overdue = false;
+        boolean pending = true;
+
+        Entry(Task task, int category, int priority, long deadline, long sequence) {
+            this.task = task;
+            this.category = category;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> RUN_ORDER = (a, b) -> {
+        if (a.overdue != b.overdue) return a.overdue ? -1 : 1;
+        if (a.priority != b.priority) return Integer.compare(b.priority, a.priority);
+        if (a.deadline != b.deadline) return Long.compare(a.deadline, b.deadline);
+        return Long.compare(a.sequence, b.sequence);
+    };
+
+    private final LongSupplier mClock;
+    private long mBudgetNanos;
+
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<>(16, RUN_ORDER);
+    private final PriorityQueue<Entry> mDeadlines =
+            new PriorityQueue<>(16, (a, b) -> Long.compare(a.deadline, b.deadline));
+    private final ArrayList<Entry> mRollOver = new ArrayList<>();
+    private long mSequence = 0;
+
+    private final long[] mFrameUsageNanos = new long[CATEGORY_COUNT];
+    private final float[] mAverageUsage = new float[CATEGORY_COUNT];
+    private long mLastFrameNanos = 0;
+    private long mFrameCount = 0;
+    private long mFramesOverBudget = 0;
+
+
+    /**
+     * Constructor for FrameScheduler.
+     * @param budgetMillis Time in milliseconds tasks may use per frame.
+     */
+    public FrameScheduler(float budgetMillis) {
+        this(budgetMillis, System::nanoTime);
+    }
+
+
+    /**
+     * Constructor with a custom clock, for tests.
+     * @param budgetMillis Time in milliseconds tasks may use per frame.
+     * @param clock Clock returning nanoseconds.
+     */
+    FrameScheduler(float budgetMillis, LongSupplier clock) {
+        mClock = clock;
+        setFrameBudgetMillis(budgetMillis);
+    }
+
+
+    /**
+     * Set how much time tasks may use per frame.
+     * @param budgetMillis Budget in milliseconds.
+     */
+    public void setFrameBudgetMillis(float budgetMillis) {
+        mBudgetNanos = (long) (budgetMillis * 1000000.0f);
+    }
+
+
+    /**
+     * Add a task without a deadline.
+     * @param category One of the CATEGORY_ constants.
+     * @param priority Priority, bigger runs first.
+     * @param task Task to run.
+     */
+    public void post(int category, int priority, Task task) {
+        post(category, priority, NO_DEADLINE, task);
+    }
+
+
+    /**
+     * Add a task.
+     * @param category One of the CATEGORY_ constants.
+     * @param priority Priority, bigger runs first.
+     * @param deadlineNanos Time in System.nanoTime() after which the task runs first and
+     *                      regardless of budget, each of its slices until it's done, or
+     *                      NO_DEADLINE.
+     * @param task Task to run.
+     */
+    public void post(int category, int priority, long deadlineNanos, Task task) {
+        if (category < 0 || category >= CATEGORY_COUNT) {
+            throw new IllegalArgumentException("Unknown category " + category);
+        }
+        Entry entry = new Entry(task, category, priority, deadlineNanos, mSequence++);
+        mQueue.add(entry);
+        if (deadlineNanos != NO_DEADLINE) {
+            mDeadlines.add(entry);
+        }
+    }
+
+
+    /**
+     * Run tasks for this frame. Called from Scene's update listener.
+     */
+    public void runFrame() {
+        long frameStart = mClock.getAsLong();
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            mFrameUsageNanos[i] = 0;
+        }
+
+        promoteOverdue(frameStart);
+
+        long now = frameStart;
+        while (!mQueue.isEmpty()) {
+            Entry entry = mQueue.peek();
+            if (now - frameStart >= mBudgetNanos && !entry.overdue) {
+                break;
+            }
+            mQueue.poll();
+
+            boolean done = entry.task.run();
+            long end = mClock.getAsLong();
+            mFrameUsageNanos[entry.category] += end - now;
+            now = end;
+
+            if (done) {
+                entry.pending = false;
+            } else {
+                // Unfinished tasks get their next slice in the next frame, overdue ones stay so.
+                mRollOver.add(entry);
+            }
+        }
+        for (int i = 0; i < mRollOver.size(); i++) {
+            mQueue.add(mRollOver.get(i));
+        }
+        mRollOver.clear();
+
+        mLastFrameNanos = now - frameStart;
+        mFrameCount++;
+        if (mLastFrameNanos > mBudgetNanos) {
+            mFramesOverBudget++;
+        }
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            float fraction = mBudgetNanos > 0 ? (float) mFrameUsageNanos[i] / mBudgetNanos : 0.0f;
+            mAverageUsage[i] += (fraction - mAverageUsage[i]) * AVERAGE_WEIGHT;
+        }
+    }
+
+
+    /**
+     * Move tasks whose deadline has passed to the front of the queue.
+     * @param now Current time.
+     */
+    private void promoteOverdue(long now) {
+        while (!mDeadlines.isEmpty() && mDeadlines.peek().deadline <= now) {
+            Entry entry = mDeadlines.poll();
+            if (entry.pending && mQueue.remove(entry)) {
+                entry.overdue = true;
+                mQueue.add(entry);
+            }
+        }
+    }
+
+
+    /**
+     * Time a category used during the last frame.
+     * @param category One of the CATEGORY_ constants.
+     * @return Nanoseconds.
+     */
+    public long getFrameUsageNanos(int category) {
+        return mFrameUsageNanos[category];
+    }
+
+
+    /**
+     * Average share of the frame budget a category uses.
+     * @param category One of the CATEGORY_ constants.
+     * @return Fraction of the budget, 1.0 is the whole budget.
+     */
+    public float getAverageUsage(int category) {
+        return mAverageUsage[category];
+    }
+
+
+    /**
+     * Time all tasks used during the last frame.
+     * @return Nanoseconds.
+     */
+    public long getLastFrameNanos() {
+        return mLastFrameNanos;
+    }
+
+
+    /**
+     * Number of frames in which the tasks went over budget.
+     * @return Count of frames.
+     */
+    public long getFramesOverBudget() {
+        return mFramesOverBudget;
+    }
+
+
+    /**
+     * Number of tasks waiting to run.
+     * @return Count of tasks.
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+
+    /**
+     * Human readable summary of budget use per category.
+     * @return Report, one category per line.
+     */
+    public String getUsageReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "frames %d, over budget %d, pending %d%n",
+                mFrameCount, mFramesOverBudget, mQueue.size()));
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            report.append(String.format(Locale.US, "%s: %.0f%% (last %.2f ms)%n",
+                    CATEGORY_NAMES[i], mAverageUsage[i] * 100.0f, mFrameUsageNanos[i] / 1000000.0f));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,175 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts difficulty indices to grade labels of different scales and back.
+ * Difficulty index 0..35 is the app's own scale, French grades 5A- to 8C+ in thirds.
+ * Other scales are looked up from tables, the conversions are approximate like any
+ * grade conversion. Labels are shared String constants, nothing is built per call.
+ */
+public final class GradeEngine {
+
+    public static final int FRENCH = 0;
+    public static final int FONT = 1;
+    public static final int V_SCALE = 2;
+    public static final int YDS = 3;
+    public static final int UIAA = 4;
+    public static final int SCALE_COUNT = 5;
+
+    public static final int DIFFICULTY_COUNT = 36;
+
+    // Labels by scale and difficulty index. French labels are padded to three characters
+    // so they line up on the info card.
+    private static final String[][] LABELS = {
+            {
+                    "5A-", "5A ", "5A+", "5B-", "5B ", "5B+", "5C-", "5C ", "5C+",
+                    "6A-", "6A ", "6A+", "6B-", "6B ", "6B+", "6C-", "6C ", "6C+",
+                    "7A-", "7A ", "7A+", "7B-", "7B ", "7B+", "7C-", "7C ", "7C+",
+                    "8A-", "8A ", "8A+", "8B-", "8B ", "8B+", "8C-", "8C ", "8C+"
+            },
+            {
+                    "4", "4+", "4+", "5", "5", "5+", "5+", "6A", "6A",
+                    "6A", "6A+", "6A+", "6B", "6B", "6B+", "6C", "6C", "6C+",
+                    "7A", "7A", "7A+", "7A+", "7B", "7B+", "7C", "7C", "7C+",
+                    "8A", "8A", "8A+", "8A+", "8B", "8B+", "8C", "8C", "8C+"
+            },
+            {
+                    "V0-", "V0-", "V0", "V1", "V1", "V2", "V2", "V3", "V3",
+                    "V3", "V3", "V3", "V4", "V4", "V4", "V5", "V5", "V5",
+                    "V6", "V6", "V7", "V7", "V8", "V8", "V9", "V9", "V10",
+                    "V11", "V11", "V12", "V12", "V13", "V14", "V15", "V15", "V16"
+            },
+            {
+                    "5.7", "5.8", "5.8", "5.9", "5.9", "5.9", "5.10a", "5.10a", "5.10a",
+                    "5.10b", "5.10b", "5.10c", "5.10c", "5.10d", "5.11a", "5.11a", "5.11b", "5.11c",
+                    "5.11c", "5.11d", "5.12a", "5.12a", "5.12b", "5.12c", "5.12c", "5.12d", "5.13a",
+                    "5.13a", "5.13b", "5.13c", "5.13c", "5.13d", "5.14a", "5.14a", "5.14b", "5.14c"
+            },
+            {
+                    "5", "5+", "5+", "6-", "6-", "6", "6", "6", "6+",
+                    "6+", "6+", "7-", "7-", "7", "7+", "7+", "7+", "8-",
+                    "8-", "8", "8", "8+", "8+", "9-", "9-", "9", "9+",
+                    "9+", "9+", "10-", "10-", "10", "10+", "10+", "11-", "11"
+            }
+    };
+
+    // Normalized label -> packed range of difficulty indices, per scale.
+    private static final List<HashMap<String, Integer>> RANGES = buildRanges();
+
+
+    private GradeEngine() {}
+
+
+    private static List<HashMap<String, Integer>> buildRanges() {
+        List<HashMap<String, Integer>> ranges = new ArrayList<>(SCALE_COUNT);
+        for (int scale = 0; scale < SCALE_COUNT; scale++) {
+            HashMap<String, Integer> scaleRanges = new HashMap<>();
+            for (int diff = 0; diff < DIFFICULTY_COUNT; diff++) {
+                addToRange(scaleRanges, normalize(LABELS[scale][diff]), diff);
+            }
+            ranges.add(scaleRanges);
+        }
+        // French grade without a modifier covers all three thirds, "6b" is 6B- to 6B+.
+        for (int diff = 0; diff < DIFFICULTY_COUNT; diff++) {
+            addToRange(ranges.get(FRENCH), normalize(LABELS[FRENCH][diff].substring(0, 2)), diff);
+        }
+        return ranges;
+    }
+
+
+    private static void addToRange(HashMap<String, Integer> ranges, String key, int diff) {
+        Integer range = ranges.get(key);
+        if (range == null) {
+            ranges.put(key, pack(diff, diff));
+        } else {
+            ranges.put(key, pack(Math.min(getMin(range), diff), Math.max(getMax(range), diff)));
+        }
+    }
+
+
+    private static String normalize(String label) {
+        return label.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    private static int pack(int min, int max) {
+        return (min << 8) | max;
+    }
+
+
+    /**
+     * Clamp a difficulty index to the valid range.
+     * @param diff Difficulty index.
+     * @return Index between 0 and DIFFICULTY_COUNT - 1.
+     */
+    public static int clamp(int diff) {
+        return Math.max(0, Math.min(DIFFICULTY_COUNT - 1, diff));
+    }
+
+
+    /**
+     * Get the label of a difficulty in a scale.
+     * @param scale One of the scale constants.
+     * @param diff Difficulty index, clamped to the valid range.
+     * @return Grade label.
+     */
+    public static String getLabel(int scale, int diff) {
+        return LABELS[scale][clamp(diff)];
+    }
+
+
+    /**
+     * Find the difficulty indices a label covers. Case and surrounding spaces don't matter.
+     * @param scale One of the scale constants.
+     * @param label Grade label, e.g. "6b+" or "V4".
+     * @return Packed range, read with getMin() and getMax(). -1 if the label is unknown.
+     */
+    public static int parse(int scale, String label) {
+        if (label == null) {
+            return -1;
+        }
+        Integer range = RANGES.get(scale).get(normalize(label));
+        return range != null ? range : -1;
+    }
+
+
+    /**
+     * Lowest difficulty index of a range from parse().
+     * @param range Packed range.
+     * @return Difficulty index.
+     */
+    public static int getMin(int range) {
+        return range >>> 8;
+    }
+
+
+    /**
+     * Highest difficulty index of a range from parse().
+     * @param range Packed range.
+     * @return Difficulty index.
+     */
+    public static int getMax(int range) {
+        return range & 0xff;
+    }
+
+
+    /**
+     * Convert a label from one scale to another. If the label covers several difficulties,
+     * the easiest one is converted.
+     * @param fromScale Scale of the label.
+     * @param label Grade label.
+     * @param toScale Scale to convert to.
+     * @return Label in toScale, null if the label is unknown.
+     */
+    public static String convert(int fromScale, String label, int toScale) {
+        int range = parse(fromScale, label);
+        if (range == -1) {
+            return null;
+        }
+        return LABELS[toScale][getMin(range)];
+    }
+}
@@ -0,0 +1,76 @@
+package ninja.siili.climbingroutes;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+
+/**
+ * Maps difficulties to grade bands and bands to colors.
+ * Band of each difficulty is precomputed, so lookups are a single array access.
+ */
+public class GradePalette {
+
+    // Difficulties go from 0 to DIFFICULTY_COUNT - 1.
+    public static final int DIFFICULTY_COUNT = 36;
+
+    private final int[] mBandColors;
+    private final int[] mBandOfDifficulty = new int[DIFFICULTY_COUNT];
+
+
+    /**
+     * Constructor for GradePalette.
+     * @param bandColors Colors of the bands, easiest first.
+     */
+    public GradePalette(int[] bandColors) {
+        mBandColors = bandColors.clone();
+        for (int diff = 0; diff < DIFFICULTY_COUNT; diff++) {
+            mBandOfDifficulty[diff] = diff * mBandColors.length / DIFFICULTY_COUNT;
+        }
+    }
+
+
+    /**
+     * Create a palette from the grade_band_colors resource.
+     * @param context App's context.
+     * @return GradePalette.
+     */
+    public static GradePalette fromResources(Context context) {
+        TypedArray colors = context.getResources().obtainTypedArray(R.array.grade_band_colors);
+        int[] bandColors = new int[colors.length()];
+        for (int i = 0; i < bandColors.length; i++) {
+            bandColors[i] = colors.getColor(i, 0);
+        }
+        colors.recycle();
+        return new GradePalette(bandColors);
+    }
+
+
+    /**
+     * Get the number of bands.
+     * @return Band count.
+     */
+    public int getBandCount() {
+        return mBandColors.length;
+    }
+
+
+    /**
+     * Get the band of a difficulty.
+     * @param difficulty Difficulty from 0 to DIFFICULTY_COUNT - 1, out of range values are clamped.
+     * @return Band index.
+     */
+    public int getBand(int difficulty) {
+        if (difficulty < 0) difficulty = 0;
+        if (difficulty >= DIFFICULTY_COUNT) difficulty = DIFFICULTY_COUNT - 1;
+        return mBandOfDifficulty[difficulty];
+    }
+
+
+    /**
+     * Get the color of a band.
+     * @param band Band index.
+     * @return Color as ARGB.
+     */
+    public int getColor(int band) {
+        return mBandColors[band];
+    }
+}
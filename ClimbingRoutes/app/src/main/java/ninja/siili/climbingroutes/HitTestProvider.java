@@ -0,0 +1,26 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * Finds the point on a climbing wall under a screen position. ArActivity uses ARCore's
+ * feature points, tests and simulations can use a plain wall.
+ */
+public interface HitTestProvider {
+
+    /**
+     * Find the nearest hit under a screen position.
+     * @param x Screen x in pixels.
+     * @param y Screen y in pixels.
+     * @param outPosition World position of the hit, 3 floats.
+     * @return True if something was hit.
+     */
+    boolean hitTest(float x, float y, float[] outPosition);
+
+
+    /**
+     * Snap a position to the wall's surface near it, e.g. a Clip the user has dragged.
+     * @param position World position, 3 floats.
+     * @param outPosition Snapped world position, 3 floats.
+     * @return True if there is a surface near, outPosition is untouched otherwise.
+     */
+    boolean snapToSurface(float[] position, float[] outPosition);
+}
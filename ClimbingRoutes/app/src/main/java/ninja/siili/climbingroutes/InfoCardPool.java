@@ -0,0 +1,170 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Hands a fixed number of info cards to the most relevant items, e.g. Routes nearest to the
+ * camera. Cards are made once and rebound between items as relevance changes, nothing is
+ * inflated again. An item keeping its card gets a small advantage, so two Routes at nearly
+ * the same distance don't keep swapping a card.
+ * @param <T> Type of the items cards are bound to.
+ */
+public class InfoCardPool<T> {
+
+    // Score of an item that already has a card is multiplied with this.
+    private static final float KEEP_BONUS = 0.8f;
+
+    /** Moves cards between items. */
+    public interface Binder<T> {
+        /**
+         * Show a card on an item.
+         * @param card Index of the card.
+         * @param item Item to bind to.
+         */
+        void bind(int card, T item);
+
+        /**
+         * Take a card away from an item.
+         * @param card Index of the card.
+         * @param item Item the card was bound to.
+         */
+        void unbind(int card, T item);
+    }
+
+    private final int mCapacity;
+    private final Binder<T> mBinder;
+    private int mCardCount = 0;
+
+    private final ArrayList<T> mBound = new ArrayList<>();
+    private final HashMap<T, Integer> mCards = new HashMap<>();
+
+    // Best items of the current update, sorted by score. Reused.
+    private final ArrayList<T> mChosen = new ArrayList<>();
+    private final float[] mChosenScores;
+
+
+    /**
+     * Constructor for InfoCardPool.
+     * @param capacity Maximum number of cards.
+     * @param binder Binder for moving cards.
+     */
+    public InfoCardPool(int capacity, Binder<T> binder) {
+        mCapacity = capacity;
+        mBinder = binder;
+        mChosenScores = new float[capacity];
+    }
+
+
+    /**
+     * A new card is ready to be used. Cards are made asynchronously, so they are added one by one.
+     * @return Index of the new card, -1 if the pool is full.
+     */
+    public int addCard() {
+        if (mCardCount >= mCapacity) {
+            return -1;
+        }
+        mBound.add(null);
+        return mCardCount++;
+    }
+
+
+    /**
+     * Get the number of cards in the pool.
+     * @return Card count.
+     */
+    public int getCardCount() {
+        return mCardCount;
+    }
+
+
+    /**
+     * Get the card bound to an item.
+     * @param item Item.
+     * @return Index of the card, -1 if none.
+     */
+    public int getCard(T item) {
+        Integer card = mCards.get(item);
+        return card != null ? card : -1;
+    }
+
+
+    /**
+     * Give cards to the items with the lowest scores.
+     * @param items Candidate items.
+     * @param scores Score of each item, lower is more relevant. Infinity means no card.
+     */
+    public void update(List<T> items, float[] scores) {
+        mChosen.clear();
+        for (int i = 0; i < items.size(); i++) {
+            float score = scores[i];
+            if (score == Float.POSITIVE_INFINITY || score != score) {
+                continue;
+            }
+            T item = items.get(i);
+            if (mCards.containsKey(item)) {
+                score *= KEEP_BONUS;
+            }
+            insertChosen(item, score);
+        }
+
+        // Free cards of items no longer chosen.
+        for (int card = 0; card < mCardCount; card++) {
+            T item = mBound.get(card);
+            if (item != null && !mChosen.contains(item)) {
+                mBound.set(card, null);
+                mCards.remove(item);
+                mBinder.unbind(card, item);
+            }
+        }
+
+        // Give freed cards to newly chosen items.
+        int card = 0;
+        for (T item : mChosen) {
+            if (mCards.containsKey(item)) {
+                continue;
+            }
+            while (mBound.get(card) != null) {
+                card++;
+            }
+            mBound.set(card, item);
+            mCards.put(item, card);
+            mBinder.bind(card, item);
+        }
+    }
+
+
+    /**
+     * Keep the best mCardCount items in mChosen, in score order.
+     */
+    private void insertChosen(T item, float score) {
+        int size = mChosen.size();
+        if (size == mCardCount && (size == 0 || score >= mChosenScores[size - 1])) {
+            return;
+        }
+        int i = size == mCardCount ? size - 1 : size;
+        if (size == mCardCount) {
+            mChosen.remove(size - 1);
+        }
+        while (i > 0 && mChosenScores[i - 1] > score) {
+            mChosenScores[i] = mChosenScores[i - 1];
+            i--;
+        }
+        mChosenScores[i] = score;
+        mChosen.add(i, item);
+    }
+
+
+    /**
+     * Take a card away from an item right away, e.g. when the item is removed.
+     * @param item Item.
+     */
+    public void release(T item) {
+        Integer card = mCards.remove(item);
+        if (card != null) {
+            mBound.set(card, null);
+            mBinder.unbind(card, item);
+        }
+    }
+}
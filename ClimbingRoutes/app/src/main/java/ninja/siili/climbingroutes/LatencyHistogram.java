@@ -0,0 +1,133 @@
+package ninja.siili.climbingroutes;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of durations for percentiles, recording never allocates.
+ * Durations are kept in microseconds in log-linear buckets: exact below SUB_BUCKETS µs,
+ * then SUB_BUCKETS buckets per power of two, so a percentile is off by at most ~3 %.
+ * Durations over MAX_MICROS are counted in the last bucket. Not thread safe, record from
+ * one thread.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // About 18 minutes, anything longer isn't a frame time.
+    private static final int MAX_MAGNITUDE = 30;
+    public static final long MAX_MICROS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+    private static final int BUCKET_COUNT = bucketOf(MAX_MICROS) + 1;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount = 0;
+    private long mTotalNanos = 0;
+    private long mMaxNanos = 0;
+
+
+    /**
+     * Record a duration.
+     * @param nanos Duration in nanoseconds, negative counts as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts[bucketOf(Math.min(nanos / 1000L, MAX_MICROS))]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+
+    /**
+     * Get the bucket of a duration.
+     * @param micros Duration in microseconds, 0 to MAX_MICROS.
+     * @return Bucket index.
+     */
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (micros >>> shift);
+    }
+
+
+    /**
+     * Get the largest duration a bucket holds.
+     * @param bucket Bucket index.
+     * @return Duration in microseconds.
+     */
+    private static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket - shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+
+    /**
+     * Get a percentile of the recorded durations.
+     * @param percentile Percentile from 0 to 100.
+     * @return Duration in nanoseconds at or below which the percentile falls, rounded up to
+     * its bucket and never more than the largest recorded. 0 if nothing is recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * mCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                // Last bucket also holds everything longer, its top isn't a bound.
+                return i == BUCKET_COUNT - 1 ? mMaxNanos
+                        : Math.min(highestInBucket(i) * 1000L + 999L, mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+
+    /**
+     * Get the number of recorded durations.
+     * @return Count.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+
+    /**
+     * Get the mean of the recorded durations.
+     * @return Mean in nanoseconds, 0 if nothing is recorded.
+     */
+    public long getMeanNanos() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+
+    /**
+     * Get the largest recorded duration.
+     * @return Duration in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+
+    /**
+     * Forget everything recorded.
+     */
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+}
@@ -0,0 +1,141 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * Allocation free math for placing lines between Clips.
+ * Works on plain float arrays so it can be called every frame without creating garbage.
+ */
+public final class LineMath {
+
+    /** Squared distance (in meters) a clip has to move before its lines are recomputed. */
+    public static final float MOVE_EPSILON_SQUARED = 0.0001f * 0.0001f;
+
+    private static final float PARALLEL_EPSILON = 1e-6f;
+
+
+    private LineMath() {}
+
+
+    /**
+     * Copy a position to the cache if it has moved more than MOVE_EPSILON.
+     * @param cache Cached position, 3 floats. Updated if the position has moved.
+     * @param x New x.
+     * @param y New y.
+     * @param z New z.
+     * @return True if the position had moved.
+     */
+    public static boolean updateIfMoved(float[] cache, float x, float y, float z) {
+        return updateIfMoved(cache, 0, x, y, z);
+    }
+
+
+    /**
+     * Copy a position to the cache if it has moved more than MOVE_EPSILON.
+     * @param cache Array of cached positions. Updated if the position has moved.
+     * @param offset Offset of the position in cache.
+     * @param x New x.
+     * @param y New y.
+     * @param z New z.
+     * @return True if the position had moved.
+     */
+    public static boolean updateIfMoved(float[] cache, int offset, float x, float y, float z) {
+        float dx = x - cache[offset];
+        float dy = y - cache[offset + 1];
+        float dz = z - cache[offset + 2];
+        if (dx * dx + dy * dy + dz * dz <= MOVE_EPSILON_SQUARED) {
+            return false;
+        }
+        cache[offset] = x;
+        cache[offset + 1] = y;
+        cache[offset + 2] = z;
+        return true;
+    }
+
+
+    /**
+     * Distance between two positions.
+     * @param a Position, 3 floats.
+     * @param b Position, 3 floats.
+     * @return Distance from a to b.
+     */
+    public static float distance(float[] a, float[] b) {
+        float dx = a[0] - b[0];
+        float dy = a[1] - b[1];
+        float dz = a[2] - b[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+
+    /**
+     * Same as Sceneform's Quaternion.lookRotation(forward, up) with up being world Y,
+     * but writes the result to out instead of allocating. Node's forward (-Z) will point along
+     * the given direction. Vertical directions fall back to world Z as up.
+     * @param dx Direction x.
+     * @param dy Direction y.
+     * @param dz Direction z.
+     * @param out Quaternion as x, y, z, w.
+     */
+    public static void lookRotation(float dx, float dy, float dz, float[] out) {
+        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (length < PARALLEL_EPSILON) {
+            out[0] = 0.0f;
+            out[1] = 0.0f;
+            out[2] = 0.0f;
+            out[3] = 1.0f;
+            return;
+        }
+
+        // Back vector is local +Z.
+        float bx = -dx / length;
+        float by = -dy / length;
+        float bz = -dz / length;
+
+        // Right = up x back, with up = (0, 1, 0).
+        float rx = bz;
+        float ry = 0.0f;
+        float rz = -bx;
+        float rLength = (float) Math.sqrt(rx * rx + rz * rz);
+        if (rLength < PARALLEL_EPSILON) {
+            // Looking straight up or down, use up = (0, 0, 1) instead.
+            rx = -by;
+            ry = bx;
+            rz = 0.0f;
+            rLength = (float) Math.sqrt(rx * rx + ry * ry);
+        }
+        rx /= rLength;
+        ry /= rLength;
+        rz /= rLength;
+
+        // Up = back x right.
+        float ux = by * rz - bz * ry;
+        float uy = bz * rx - bx * rz;
+        float uz = bx * ry - by * rx;
+
+        // Rotation matrix columns are right, up and back.
+        float trace = rx + uy + bz;
+        if (trace > 0.0f) {
+            float s = (float) Math.sqrt(trace + 1.0f) * 2.0f;
+            out[3] = 0.25f * s;
+            out[0] = (uz - by) / s;
+            out[1] = (bx - rz) / s;
+            out[2] = (ry - ux) / s;
+        } else if (rx > uy && rx > bz) {
+            float s = (float) Math.sqrt(1.0f + rx - uy - bz) * 2.0f;
+            out[3] = (uz - by) / s;
+            out[0] = 0.25f * s;
+            out[1] = (ux + ry) / s;
+            out[2] = (bx + rz) / s;
+        } else if (uy > bz) {
+            float s = (float) Math.sqrt(1.0f + uy - rx - bz) * 2.0f;
+            out[3] = (bx - rz) / s;
+            out[0] = (ux + ry) / s;
+            out[1] = 0.25f * s;
+            out[2] = (by + uz) / s;
+        } else {
+            float s = (float) Math.sqrt(1.0f + bz - rx - uy) * 2.0f;
+            out[3] = (ry - ux) / s;
+            out[0] = (bx + rz) / s;
+            out[1] = (by + uz) / s;
+            out[2] = 0.25f * s;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * Chooses how much of a Route to show based on its distance from the camera and whether it
+ * is in view. Levels change only when the distance is clearly past a threshold, so a Route
+ * near a threshold doesn't pop back and forth while the user holds the phone still.
+ * The view check is a cone around the camera's forward direction, a cheap and slightly
+ * generous stand-in for the real frustum.
+ */
+public class LodPolicy {
+
+    // Levels from most to least detail.
+    public static final int LEVEL_FULL = 0;
+    public static final int LEVEL_SIMPLIFIED = 1;
+    public static final int LEVEL_MARKER = 2;
+    public static final int LEVEL_HIDDEN = 3;
+
+    // Distances in meters where each level ends.
+    private static final float DEFAULT_FULL_DISTANCE = 4.0f;
+    private static final float DEFAULT_SIMPLIFIED_DISTANCE = 8.0f;
+    private static final float DEFAULT_MARKER_DISTANCE = 25.0f;
+    // Fraction of a threshold a distance has to be past before the level changes.
+    private static final float DEFAULT_HYSTERESIS = 0.15f;
+    // Half angle of the view cone, covers the screen's corners on phones.
+    private static final float DEFAULT_HALF_FOV_DEGREES = 45.0f;
+    // Extra angle a visible Route gets before it's hidden.
+    private static final float VIEW_MARGIN_DEGREES = 8.0f;
+
+    private final float[] mThresholds;
+    private final float mHysteresis;
+    private final float mHalfFov;
+    private final float mViewMargin;
+
+
+    /**
+     * Constructor for LodPolicy with default distances.
+     */
+    public LodPolicy() {
+        this(DEFAULT_FULL_DISTANCE, DEFAULT_SIMPLIFIED_DISTANCE, DEFAULT_MARKER_DISTANCE,
+                DEFAULT_HYSTERESIS, DEFAULT_HALF_FOV_DEGREES);
+    }
+
+
+    /**
+     * Constructor for LodPolicy.
+     * @param fullDistance Distance where full detail ends, in meters.
+     * @param simplifiedDistance Distance where the simplified level ends.
+     * @param markerDistance Distance where the marker level ends and Routes are hidden.
+     * @param hysteresis Fraction of a threshold to be past before changing level.
+     * @param halfFovDegrees Half angle of the view cone.
+     */
+    public LodPolicy(float fullDistance, float simplifiedDistance, float markerDistance,
+                     float hysteresis, float halfFovDegrees) {
+        mThresholds = new float[] {fullDistance, simplifiedDistance, markerDistance};
+        mHysteresis = hysteresis;
+        mHalfFov = (float) Math.toRadians(halfFovDegrees);
+        mViewMargin = (float) Math.toRadians(VIEW_MARGIN_DEGREES);
+    }
+
+
+    /**
+     * Choose the level for a Route.
+     * @param current Current level of the Route.
+     * @param distance Distance from the camera to the Route's bounding sphere, 0 if inside it.
+     * @param inView True if the Route is in view, see isInView().
+     * @return New level.
+     */
+    public int chooseLevel(int current, float distance, boolean inView) {
+        if (!inView) {
+            return LEVEL_HIDDEN;
+        }
+        // Hidden because of being off screen, start from the distance alone.
+        int level = current == LEVEL_HIDDEN && distance < mThresholds[LEVEL_MARKER]
+                ? levelForDistance(distance) : current;
+
+        while (level < LEVEL_HIDDEN && distance > mThresholds[level] * (1.0f + mHysteresis)) {
+            level++;
+        }
+        while (level > LEVEL_FULL && distance < mThresholds[level - 1] * (1.0f - mHysteresis)) {
+            level--;
+        }
+        return level;
+    }
+
+
+    private int levelForDistance(float distance) {
+        int level = LEVEL_FULL;
+        while (level < LEVEL_HIDDEN && distance > mThresholds[level]) {
+            level++;
+        }
+        return level;
+    }
+
+
+    /**
+     * Check if a bounding sphere is inside the view cone.
+     * @param cameraPosition Camera's world position, 3 floats.
+     * @param cameraForward Camera's forward direction, unit length.
+     * @param center Center of the bounding sphere.
+     * @param radius Radius of the bounding sphere.
+     * @param visibleNow True if the Route is shown now, it gets some margin before hiding.
+     * @return True if in view.
+     */
+    public boolean isInView(float[] cameraPosition, float[] cameraForward, float[] center,
+                            float radius, boolean visibleNow) {
+        float dx = center[0] - cameraPosition[0];
+        float dy = center[1] - cameraPosition[1];
+        float dz = center[2] - cameraPosition[2];
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance <= radius) {
+            return true;
+        }
+        float cos = (dx * cameraForward[0] + dy * cameraForward[1] + dz * cameraForward[2]) / distance;
+        float angle = (float) Math.acos(Math.max(-1.0f, Math.min(1.0f, cos)));
+        float sphereAngle = (float) Math.asin(radius / distance);
+        float limit = mHalfFov + sphereAngle + (visibleNow ? mViewMargin : 0.0f);
+        return angle <= limit;
+    }
+
+
+    /**
+     * Distance from a point to the surface of a bounding sphere.
+     * @param point Point, 3 floats.
+     * @param center Center of the sphere.
+     * @param radius Radius of the sphere.
+     * @return Distance, 0 if the point is inside.
+     */
+    public static float distanceToSphere(float[] point, float[] center, float radius) {
+        return Math.max(0.0f, LineMath.distance(point, center) - radius);
+    }
+}
@@ -0,0 +1,26 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * Converts positions between world space and an anchor's local space.
+ * Poses are 7 floats laid out like RouteRecord's origin: translation x, y, z and
+ * rotation quaternion x, y, z, w. Kept apart from Sceneform so it runs on a plain JVM.
+ */
+public interface PoseMath {
+
+    /**
+     * Convert a world position to the pose's local space.
+     * @param pose Pose, 7 floats.
+     * @param world World position, 3 floats.
+     * @param out Local position, 3 floats. May be the same array as world.
+     */
+    void toLocal(float[] pose, float[] world, float[] out);
+
+
+    /**
+     * Convert a position in the pose's local space to world space.
+     * @param pose Pose, 7 floats.
+     * @param local Local position, 3 floats.
+     * @param out World position, 3 floats. May be the same array as local.
+     */
+    void toWorld(float[] pose, float[] local, float[] out);
+}
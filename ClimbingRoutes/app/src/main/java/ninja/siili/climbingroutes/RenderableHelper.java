@@ -3,39 +3,110 @@ package ninja.siili.climbingroutes;
 import android.content.Context;
 
 import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Color;
+import com.google.ar.sceneform.rendering.Material;
 import com.google.ar.sceneform.rendering.ModelRenderable;
-
-/** Stores Renderables for clips and lines. */
+import com.google.ar.sceneform.rendering.ShapeFactory;
+
+/**
+ * Stores Renderables for clips and lines.
+ * Only one clip and one line model is loaded, colored copies for each grade band are made
+ * when first needed. Copies are cached by band index and least recently used bands are
+ * dropped when there are more than MAX_CACHED_BANDS of them.
+ * Until the models have loaded, simple shapes are used as placeholders.
+ */
 public class RenderableHelper {
 
+    // Material parameter multiplied with the model's color.
+    private static final String COLOR_PARAMETER = "baseColorTint";
+    // Color parameter of MaterialFactory's materials.
+    private static final String PLACEHOLDER_COLOR_PARAMETER = "color";
+    private static final int MAX_CACHED_BANDS = 16;
+
     private Context mContext;
     private Scene mScene;
+    private GradePalette mPalette;
+
+    // Models, placeholders until the real ones have loaded.
+    private ModelRenderable mClipRenderable;
+    private ModelRenderable mLineRenderable;
+    private boolean mClipIsPlaceholder = true;
+    private boolean mLineIsPlaceholder = true;
+    private Runnable mOnModelsChangedListener;
+
+    // Colored copies by band index, null if not made or evicted.
+    private ModelRenderable[] mClipRenderables;
+    private ModelRenderable[] mLineRenderables;
+    private boolean[] mCached;
+    private long[] mLastUsed;
+    private long mUseCounter = 0;
+    private int mCachedBandCount = 0;
 
-    private ModelRenderable mClipRenderableGreen;
-    private ModelRenderable mClipRenderableYellow;
-    private ModelRenderable mClipRenderableOrange;
-    private ModelRenderable mClipRenderableRed;
-    private ModelRenderable mLineRenderableGreen;
-    private ModelRenderable mLineRenderableYellow;
-    private ModelRenderable mLineRenderableOrange;
-    private ModelRenderable mLineRenderableRed;
-
-
-    public RenderableHelper(Context context, Scene scene,
-                            ModelRenderable greenclip, ModelRenderable yellowclip,
-                            ModelRenderable orangeclip, ModelRenderable redclip,
-                            ModelRenderable greenline, ModelRenderable yellowline,
-                            ModelRenderable orangeline, ModelRenderable redline) {
+
+    /**
+     * Constructor for RenderableHelper. Starts with placeholder shapes.
+     * @param context App's context.
+     * @param scene Scene.
+     * @param palette GradePalette for the band colors.
+     * @param placeholderMaterial Material from MaterialFactory for the placeholders.
+     */
+    public RenderableHelper(Context context, Scene scene, GradePalette palette,
+                            Material placeholderMaterial) {
         mContext = context;
         mScene = scene;
-        mClipRenderableGreen = greenclip;
-        mClipRenderableYellow = yellowclip;
-        mClipRenderableOrange = orangeclip;
-        mClipRenderableRed = redclip;
-        mLineRenderableGreen = greenline;
-        mLineRenderableYellow = yellowline;
-        mLineRenderableOrange = orangeline;
-        mLineRenderableRed = redline;
+        mPalette = palette;
+        mClipRenderables = new ModelRenderable[palette.getBandCount()];
+        mLineRenderables = new ModelRenderable[palette.getBandCount()];
+        mCached = new boolean[palette.getBandCount()];
+        mLastUsed = new long[palette.getBandCount()];
+
+        // Same size as the models: sphere of radius 0.5 and a line from 0 to 1 along Z.
+        mClipRenderable = ShapeFactory.makeSphere(0.5f, new Vector3(0.0f, 0.0f, 0.0f), placeholderMaterial);
+        mLineRenderable = ShapeFactory.makeCube(
+                new Vector3(1.0f, 1.0f, 1.0f), new Vector3(0.0f, 0.0f, 0.5f), placeholderMaterial);
+    }
+
+
+    /**
+     * Set a listener called when a model replaces a placeholder. Renderables got
+     * before that are placeholders and should be fetched again.
+     * @param listener Runnable to call.
+     */
+    public void setOnModelsChangedListener(Runnable listener) {
+        mOnModelsChangedListener = listener;
+    }
+
+
+    /**
+     * Replace the clip placeholder with the loaded model.
+     * @param clip Model of a clip.
+     */
+    public void setClipModel(ModelRenderable clip) {
+        mClipRenderable = clip;
+        mClipIsPlaceholder = false;
+        for (int i = 0; i < mClipRenderables.length; i++) {
+            mClipRenderables[i] = null;
+        }
+        if (mOnModelsChangedListener != null) {
+            mOnModelsChangedListener.run();
+        }
+    }
+
+
+    /**
+     * Replace the line placeholder with the loaded model.
+     * @param line Model of a line.
+     */
+    public void setLineModel(ModelRenderable line) {
+        mLineRenderable = line;
+        mLineIsPlaceholder = false;
+        for (int i = 0; i < mLineRenderables.length; i++) {
+            mLineRenderables[i] = null;
+        }
+        if (mOnModelsChangedListener != null) {
+            mOnModelsChangedListener.run();
+        }
     }
 
 
@@ -58,38 +129,98 @@ public class RenderableHelper {
 
 
     /**
-     * Get correctrly colored clip renderable for Route.
-     * @param color The color needed.
+     * Get the palette used for coloring.
+     * @return GradePalette.
+     */
+    public GradePalette getPalette() {
+        return mPalette;
+    }
+
+
+    /**
+     * Get correctly colored clip renderable for Route.
+     * @param band Grade band of the Route.
      * @return ModelRenderable of a colored clip.
      */
-    public ModelRenderable getColoredClipRenderable(int color) {
-        if (color == mContext.getColor(R.color.green)) {
-            return mClipRenderableGreen;
-        } else if (color == mContext.getColor(R.color.yellow)) {
-            return mClipRenderableYellow;
-        } else if (color == mContext.getColor(R.color.orange)) {
-            return mClipRenderableOrange;
-        } else {
-            return mClipRenderableRed;
+    public ModelRenderable getClipRenderable(int band) {
+        touchBand(band);
+        if (mClipRenderables[band] == null) {
+            mClipRenderables[band] = makeColoredCopy(mClipRenderable, band, mClipIsPlaceholder);
         }
+        return mClipRenderables[band];
     }
 
 
     /**
      * Get correctly colored line renderable for Route.
-     * @param color The color needed.
+     * @param band Grade band of the Route.
      * @return ModelRenderable of a colored line.
      */
-    public ModelRenderable getColoredLineRenderable(int color) {
-        if (color == mContext.getColor(R.color.green)) {
-            return mLineRenderableGreen;
-        } else if (color == mContext.getColor(R.color.yellow)) {
-            return mLineRenderableYellow;
-        } else if (color == mContext.getColor(R.color.orange)) {
-            return mLineRenderableOrange;
+    public ModelRenderable getLineRenderable(int band) {
+        touchBand(band);
+        if (mLineRenderables[band] == null) {
+            mLineRenderables[band] = makeColoredCopy(mLineRenderable, band, mLineIsPlaceholder);
+        }
+        return mLineRenderables[band];
+    }
+
+
+    /**
+     * Mark a band used, making room in the cache if it's a new one.
+     * @param band Grade band.
+     */
+    private void touchBand(int band) {
+        mLastUsed[band] = ++mUseCounter;
+        if (mCached[band]) {
+            return;
+        }
+        if (mCachedBandCount >= MAX_CACHED_BANDS) {
+            evictLeastRecentlyUsed(band);
+        }
+        mCached[band] = true;
+        mCachedBandCount++;
+    }
+
+
+    /**
+     * Drop the least recently used band from the cache.
+     * Nodes still using its renderables keep them, the cache just lets go.
+     * @param keep Band that must not be dropped.
+     */
+    private void evictLeastRecentlyUsed(int keep) {
+        int oldest = -1;
+        for (int i = 0; i < mClipRenderables.length; i++) {
+            if (i != keep && mCached[i]
+                    && (oldest == -1 || mLastUsed[i] < mLastUsed[oldest])) {
+                oldest = i;
+            }
+        }
+        if (oldest != -1) {
+            mClipRenderables[oldest] = null;
+            mLineRenderables[oldest] = null;
+            mCached[oldest] = false;
+            mCachedBandCount--;
+        }
+    }
+
+
+    /**
+     * Copy a renderable with its own material instance in a band's color.
+     * @param renderable Renderable to copy.
+     * @param band Grade band.
+     * @param placeholder True if the renderable is a placeholder shape.
+     * @return Colored copy.
+     */
+    private ModelRenderable makeColoredCopy(ModelRenderable renderable, int band, boolean placeholder) {
+        Color color = new Color(mPalette.getColor(band));
+        ModelRenderable copy = renderable.makeCopy();
+        Material material = renderable.getMaterial().makeCopy();
+        if (placeholder) {
+            material.setFloat3(PLACEHOLDER_COLOR_PARAMETER, color);
         } else {
-            return mLineRenderableRed;
+            material.setFloat4(COLOR_PARAMETER, color);
         }
+        copy.setMaterial(material);
+        return copy;
     }
 }
-
@@ -0,0 +1,40 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * PoseMath for rigid poses, rotation by a unit quaternion followed by translation.
+ * Matches how ARCore anchors and Sceneform nodes without scale transform points.
+ */
+public class RigidPoseMath implements PoseMath {
+
+    @Override
+    public void toLocal(float[] pose, float[] world, float[] out) {
+        float x = world[0] - pose[0];
+        float y = world[1] - pose[1];
+        float z = world[2] - pose[2];
+        // Inverse of a unit quaternion is its conjugate.
+        rotate(-pose[3], -pose[4], -pose[5], pose[6], x, y, z, out);
+    }
+
+
+    @Override
+    public void toWorld(float[] pose, float[] local, float[] out) {
+        rotate(pose[3], pose[4], pose[5], pose[6], local[0], local[1], local[2], out);
+        out[0] += pose[0];
+        out[1] += pose[1];
+        out[2] += pose[2];
+    }
+
+
+    /**
+     * Rotate a vector by a unit quaternion, v' = v + 2w(q x v) + 2q x (q x v).
+     */
+    private static void rotate(float qx, float qy, float qz, float qw,
+                               float x, float y, float z, float[] out) {
+        float tx = 2.0f * (qy * z - qz * y);
+        float ty = 2.0f * (qz * x - qx * z);
+        float tz = 2.0f * (qx * y - qy * x);
+        out[0] = x + qw * tx + (qy * tz - qz * ty);
+        out[1] = y + qw * ty + (qz * tx - qx * tz);
+        out[2] = z + qw * tz + (qx * ty - qy * tx);
+    }
+}
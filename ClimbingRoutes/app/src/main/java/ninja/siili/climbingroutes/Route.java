@@ -3,96 +3,673 @@ package ninja.siili.climbingroutes;
 import android.content.Context;
 import android.view.View;
 
-import com.google.ar.core.HitResult;
-import com.google.ar.sceneform.ux.TransformationSystem;
-
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
 
 /**
  * Route is an entity that consists of multiple Clips and a RouteInfo.
+ * Clip transforms, anchor poses, picking, level of detail and recording edits are in RouteModel.
+ * Route places the Clips' nodes from it through a RouteScene, and feeds it the anchors' poses
+ * and the user's gestures.
  */
 public class Route {
 
+    // Clips closer than this to one of Route's anchors share it, in meters. ARCore keeps
+    // poses accurate near an anchor, so a long Route gets a few.
+    private static final float ANCHOR_SPAN = 1.5f;
+
+    // Scratch positions, Routes are only touched from the UI thread.
+    private static final float[] sScratchStart = new float[3];
+    private static final float[] sScratchLocal = new float[3];
+    private static final float[] sScratchPose = new float[7];
+    private static final float[] sScratchGroupPose = new float[7];
+    private static final float[] sScratchRotation = new float[4];
+    private static final float[] sScratchSnapped = new float[3];
+
     private Context mContext;
-    TransformationSystem mTransformationSystem;
-    RenderableHelper mRenderableHelper;
+    private final RouteScene mScene;
 
-    private ArrayList<Clip> mClips = new ArrayList<>();
-    private int mSelectedClipPosition = 0;
+    private ArrayList<RouteScene.ClipHandle> mClips = new ArrayList<>();
+    // Anchor each Clip belongs to, it may be parented to another while merged.
+    private int[] mClipGroups = new int[8];
+    private final RouteModel<Route> mModel;
 
     private RouteInfo mRouteInfo;
 
+    // Route's anchors, Clips are children of these at local offsets.
+    private final ArrayList<RouteScene.AnchorHandle> mAnchors = new ArrayList<>();
+    // Anchors from this on are merged to the nearest kept one, see setAnchorLimit().
+    private int mAnchorLimit = Integer.MAX_VALUE;
+    private final PoseMath mPoseMath = new RigidPoseMath();
+
+    // Whole Route as one mesh, used instead of per Clip Nodes when not editing.
+    private final RouteScene.MeshHandle mMesh;
+
+    // View of the pooled info card, null if the Route has no card now.
+    private View mInfoCardView;
+    // Pool the card comes from, cards are released to it when there's no Clip to show them on.
+    private InfoCardPool<Route> mInfoCardPool;
+
+    // Dragged Clips are snapped to this when let go, null to leave them where they are.
+    private HitTestProvider mSnapSurface;
+
+    // Recolors are queued here and merged, null to recolor right away.
+    private SceneMutationQueue mMutations;
+    private final Runnable mApplyRouteColor = this::applyRouteColor;
+
 
     /**
      * Constructor for Route.
      * @param context App's context.
-     * @param transformationSystem TransformationSystem for TransformableNodes.
-     * @param renderableHelper RenderableHelper to provide correct Renderables.
+     * @param scene RouteScene the Route's nodes are made in.
+     * @param palette GradePalette for the Route's colors.
+     * @param clipBvh ClipBvh shared by all Routes, for picking by tap.
      */
-    public Route(Context context,
-                 TransformationSystem transformationSystem, RenderableHelper renderableHelper) {
+    public Route(Context context, RouteScene scene, GradePalette palette, ClipBvh<Route> clipBvh) {
         mContext = context;
-        mTransformationSystem = transformationSystem;
-        mRenderableHelper = renderableHelper;
-        mRouteInfo = new RouteInfo(context);
+        mScene = scene;
+        mRouteInfo = new RouteInfo(context, palette);
+        mRouteInfo.setOnChangeListener(this::onRouteInfoChanged);
+        RouteRecord info = new RouteRecord();
+        mRouteInfo.writeTo(info);
+        mModel = new RouteModel<>(UUID.randomUUID().getMostSignificantBits(), this, clipBvh, info);
+        mMesh = scene.createMesh(this::applyDetailToAll);
+    }
 
+
+    /**
+     * Get Route's id, unique across devices.
+     * @return Id of the Route.
+     */
+    public long getId() {
+        return mModel.getId();
     }
 
 
     /**
-     * Add new Clip to the route.
-     * @param hit HitResult for the spot the user tapped.
+     * Set the journal edits are recorded to.
+     * @param journal EditJournal, null to stop recording.
+     */
+    public void setEditJournal(EditJournal journal) {
+        mModel.setEditJournal(journal);
+    }
+
+
+    /**
+     * Set the surface dragged Clips are snapped to.
+     * @param surface HitTestProvider to snap with, null to not snap.
+     */
+    public void setSnapSurface(HitTestProvider surface) {
+        mSnapSurface = surface;
+    }
+
+
+    /**
+     * Set the queue changes to the Route's Nodes go through.
+     * @param mutations SceneMutationQueue to post to, null to change Nodes right away.
+     */
+    public void setMutationQueue(SceneMutationQueue mutations) {
+        mMutations = mutations;
+    }
+
+
+    /**
+     * Set the pool the Route's info card comes from.
+     * @param pool InfoCardPool the card is released to when the start Clip is removed, null
+     *             if cards aren't pooled.
+     */
+    public void setInfoCardPool(InfoCardPool<Route> pool) {
+        mInfoCardPool = pool;
+    }
+
+
+    /**
+     * Get the Route's state without Sceneform.
+     * @return RouteModel of the Route.
      */
-    public void addClip(HitResult hit) {
+    public RouteModel<Route> getModel() {
+        return mModel;
+    }
+
 
-        // If no previous clip, pass null.
-        Clip previousClip = null;
-        if (mClips.size() > 0) {
-            previousClip = mClips.get(mClips.size()-1);
+    /**
+     * Add new Clip to the route.
+     * @param position World position of the spot the user tapped, 3 floats. If no anchor of
+     *                 the Route is close enough to share, one is made at the last hit test.
+     */
+    public void addClip(float[] position) {
+        int group = findAnchorGroup(position);
+        if (group == -1) {
+            group = addAnchor(position, true);
         }
+        addClip(group, position, Clip.MAX_SCALE);
+    }
+
 
-        mClips.add(new Clip(mTransformationSystem, mRenderableHelper, hit,
-                mRouteInfo.getDifficultyColor(), previousClip));
+    /**
+     * Add new Clip to the end of the route.
+     * @param group Index of the anchor the Clip belongs to.
+     * @param position World position of the Clip, 3 floats.
+     * @param scale Scale of the Clip.
+     */
+    private void addClip(int group, float[] position, float scale) {
+
+        // First Clip has no line, it gets an info card instead.
+        int kept = getKeptGroup(group);
+        RouteScene.ClipHandle clip = mScene.createClip(mAnchors.get(kept),
+                mRouteInfo.getDifficultyBand(), !mClips.isEmpty());
+        mClips.add(clip);
+        // Clips are only added and removed at the end, so the position stays valid
+        // for the Clip's lifetime.
+        final int last = mModel.addClip(position, scale);
+        if (mClipGroups.length <= last) {
+            mClipGroups = Arrays.copyOf(mClipGroups, mClipGroups.length * 2);
+        }
+        mClipGroups[last] = group;
+        mModel.setClipAnchor(last, kept);
+        writeClip(last);
+        clip.setOnTransformListener(() -> mModel.onClipTransformed(last));
+        placeDirtyLines();
+        if (!mModel.isForceFullDetail()) {
+            clip.enableTransforming(false);
+        }
+        if (last > 0) {
+            // Last clip's sphere shows on the simplified level too.
+            applyDetail(last - 1);
+        }
+        applyDetail(last);
     }
 
 
     /**
-     * Find selected Clip and move the lines adjacent to it.
-     * Recursion <3
+     * Remove the last Clip of the route, e.g. when undoing adding it.
      */
-    public void moveLinesIfNeeded() {
-        if (mClips.get(mSelectedClipPosition).isClipSelected()) {
-            // Selected Clip hasn't changed, move lines adjacent to it if the Clip is transforming.
-            if (mClips.get(mSelectedClipPosition).isClipTransforming()) {
+    private void removeLastClip() {
+        int last = mClips.size() - 1;
+        if (last == 0) {
+            // Start Clip carries the card, the pool can give it to another Route.
+            releaseInfoCard();
+        }
+        RouteScene.ClipHandle clip = mClips.remove(last);
+        mModel.removeLastClip();
+        clip.destroy();
+        releaseUnusedAnchors();
+        if (last > 0) {
+            applyDetail(last - 1);
+        }
+    }
 
-                // Move the line below Clip.
-                if (mSelectedClipPosition != 0) {
-                    mClips.get(mSelectedClipPosition).moveLine(mClips.get(mSelectedClipPosition - 1));
+
+    /**
+     * Apply an edit from the journal's undo or redo. The edit itself isn't recorded again.
+     * @param command Command whose after state is applied.
+     */
+    public void applyEdit(EditCommand command) {
+        mModel.setApplyingEdit(true);
+        switch (command.type) {
+            case EditCommand.ADD_CLIP:
+                if (command.clipIndex == mClips.size()) {
+                    // Without a hit there's no anchor yet, the next budget update makes one.
+                    int group = findAnchorGroup(command.after);
+                    if (group == -1) {
+                        group = addAnchor(command.after, false);
+                    }
+                    addClip(group, command.after, command.after[3]);
+                }
+                break;
+            case EditCommand.REMOVE_CLIP:
+                if (command.clipIndex == mClips.size() - 1) {
+                    removeLastClip();
                 }
-                // Move the line above Clip.
-                if (mSelectedClipPosition != mClips.size()-1) {
-                    mClips.get(mSelectedClipPosition + 1).moveLine(mClips.get(mSelectedClipPosition));
+                break;
+            case EditCommand.MOVE_CLIP:
+                if (command.clipIndex < mClips.size()) {
+                    mModel.setClipPosition(command.clipIndex, command.after, false);
+                    writeClip(command.clipIndex);
+                    placeDirtyLines();
                 }
+                break;
+            case EditCommand.SET_INFO:
+                mRouteInfo.readFrom(command.afterInfo);
+                break;
+        }
+        mModel.setApplyingEdit(false);
+        if (!mModel.isForceFullDetail()) {
+            rebuildMesh();
+        }
+    }
+
+
+    /**
+     * Add an anchor to the Route.
+     * @param position World position of the anchor, 3 floats.
+     * @param atHit True to track it at the last hit test, false to leave it where it's put
+     *              until the anchor budget tracks it.
+     * @return Index of the anchor.
+     */
+    private int addAnchor(float[] position, boolean atHit) {
+        RouteScene.AnchorHandle anchor = mScene.createAnchor(this, position, atHit);
+        mAnchors.add(anchor);
+        anchor.readPose(sScratchPose);
+        return mModel.addAnchor(sScratchPose);
+    }
+
+
+    /**
+     * ARCore has updated some of the Route's anchors this frame. Their poses are read into
+     * RouteModel, and the lines of Clips that moved are placed again. The merged mesh follows
+     * its anchor by itself, only Clips under other anchors can have moved in it.
+     */
+    public void onAnchorsUpdated() {
+        if (updateAnchorPoses()) {
+            followMovedClips();
+        }
+    }
+
+
+    /**
+     * Read the poses of the anchors ARCore tracks into RouteModel, the Clips relative to
+     * them follow. Their lines need placing afterwards.
+     * @return True if any Clip moved.
+     */
+    private boolean updateAnchorPoses() {
+        boolean moved = false;
+        for (int i = 0; i < mAnchors.size(); i++) {
+            RouteScene.AnchorHandle anchor = mAnchors.get(i);
+            if (anchor.isAnchored()) {
+                anchor.readPose(sScratchPose);
+                moved |= mModel.setAnchorPose(i, sScratchPose);
             }
-        } else {
-            // Selected Clip has changed, find the new one and do recursion.
+        }
+        return moved;
+    }
+
+
+    /**
+     * Find the nearest anchor within ANCHOR_SPAN of a position.
+     * @param position World position, 3 floats.
+     * @return Index of the anchor, -1 if none is close enough.
+     */
+    private int findAnchorGroup(float[] position) {
+        int nearest = -1;
+        float nearestDistance = ANCHOR_SPAN;
+        for (int i = 0; i < mModel.getAnchorCount(); i++) {
+            mModel.getAnchorPose(i, sScratchPose);
+            float distance = LineMath.distance(sScratchPose, position);
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+
+    /**
+     * Find the anchor Clips of a group are parented to under the current limit.
+     * @param group Index of the anchor.
+     * @return The group itself if it's kept, otherwise the nearest kept anchor.
+     */
+    private int getKeptGroup(int group) {
+        if (mAnchorLimit == 0 || group < mAnchorLimit) {
+            return group;
+        }
+        mModel.getAnchorPose(group, sScratchGroupPose);
+        int nearest = 0;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < mAnchorLimit && i < mModel.getAnchorCount(); i++) {
+            mModel.getAnchorPose(i, sScratchPose);
+            float distance = LineMath.distance(sScratchPose, sScratchGroupPose);
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+
+    /**
+     * Get the number of anchors the Route uses when the budget doesn't limit it.
+     * @return Anchor count.
+     */
+    public int getWantedAnchorCount() {
+        return mAnchors.size();
+    }
+
+
+    /**
+     * Limit the Route's ARCore anchors, called by the anchor budget. Clips of anchors over
+     * the limit are re-parented to the nearest kept anchor, and released anchors leave their
+     * nodes where they are. Anchors within the limit that have been released are made again.
+     * A Clip the user is moving is re-parented when let go.
+     * @param limit Anchors to keep, 0 to release all.
+     */
+    public void setAnchorLimit(int limit) {
+        mAnchorLimit = limit;
+        for (int i = 0; i < mAnchors.size(); i++) {
+            RouteScene.AnchorHandle anchor = mAnchors.get(i);
+            if (i < limit && !anchor.isAnchored()) {
+                anchor.setAnchored(true);
+            } else if (i >= limit && anchor.isAnchored()) {
+                anchor.setAnchored(false);
+            }
+        }
+
+        int transforming = mModel.isTransforming() ? mModel.getSelectedClip() : -1;
+        for (int i = 0; i < mClips.size(); i++) {
+            if (i != transforming) {
+                parentClip(i);
+            }
+        }
+    }
+
+
+    /**
+     * Move a Clip under the anchor its group is kept as, if it isn't there already.
+     * It stays where it is in the world.
+     * @param position Position of the Clip in Route.
+     */
+    private void parentClip(int position) {
+        int kept = getKeptGroup(mClipGroups[position]);
+        if (mModel.getClipAnchor(position) == kept) {
+            return;
+        }
+        mModel.setClipAnchor(position, kept);
+        mClips.get(position).setParent(mAnchors.get(kept));
+        writeClip(position);
+    }
+
+
+    /**
+     * Place a Clip's nodes from RouteModel.
+     * @param position Position of the Clip in Route.
+     */
+    private void writeClip(int position) {
+        mModel.getClipLocalPosition(position, sScratchLocal);
+        mModel.getGeometry().getRotation(position, sScratchRotation);
+        mClips.get(position).setTransform(sScratchLocal, sScratchRotation, mModel.getClipScale(position));
+    }
+
+
+    /**
+     * Remove anchors at the end of the list that no Clip belongs to any more.
+     */
+    private void releaseUnusedAnchors() {
+        while (!mAnchors.isEmpty()) {
+            int last = mAnchors.size() - 1;
             for (int i = 0; i < mClips.size(); i++) {
-                if (mClips.get(i).isClipSelected()) {
-                    mSelectedClipPosition = i;
-                    moveLinesIfNeeded();
-                    break;
+                if (mClipGroups[i] == last) {
+                    return;
                 }
             }
+            mAnchors.remove(last).destroy();
+            mModel.removeLastAnchor();
+        }
+    }
+
+
+    /**
+     * Get the position of the Clip the user last selected or moved.
+     * @return Position in Route, -1 if the Route has no Clips.
+     */
+    public int getSelectedClipPosition() {
+        return mModel.getSelectedClip();
+    }
+
+
+    /**
+     * Move the lines adjacent to a transforming Clip.
+     * Lines are only recomputed when one of their ends has actually moved.
+     */
+    public void moveLinesIfNeeded() {
+        if (mClips.isEmpty()) {
+            return;
         }
+
+        int selected = mModel.getSelectedClip();
+        if (mModel.isTransforming()) {
+            readGesture(selected);
+        }
+        placeDirtyLines();
+
+        // Transform ended, the read above was its last. The gesture's offset is folded back
+        // into the Clip's place under its anchor.
+        if (mModel.isTransforming() && !mClips.get(selected).isTransforming()) {
+            mModel.onTransformEnded();
+            snapToSurface(selected);
+            parentClip(selected);
+            writeClip(selected);
+            placeDirtyLines();
+        }
+    }
+
+
+    /**
+     * Snap a Clip the user has let go to the wall's surface near it. The snap is part of
+     * the drag, so undo takes the Clip back to where the drag started.
+     * @param position Position of the Clip in Route.
+     */
+    private void snapToSurface(int position) {
+        if (mSnapSurface == null) {
+            return;
+        }
+        mModel.getClipPosition(position, sScratchStart);
+        if (!mSnapSurface.snapToSurface(sScratchStart, sScratchSnapped)) {
+            return;
+        }
+        mModel.setClipPosition(position, sScratchSnapped, true);
+    }
+
+
+    /**
+     * Recompute the segments and spline pieces whose Clips have moved in one batch, and place
+     * their lines.
+     */
+    private void placeDirtyLines() {
+        mModel.updateLines();
+        RouteSpline spline = mModel.getSpline();
+        int end = Math.min(spline.getChangedEnd(), mClips.size());
+        for (int i = Math.max(1, spline.getChangedStart()); i < end; i++) {
+            mClips.get(i).placeLine(spline, i);
+        }
+    }
+
+
+    /**
+     * Read where the user's gesture has moved a Clip into RouteModel, as an edit. Lines on
+     * both sides become dirty if it has moved.
+     * @param position Position of the Clip in Route.
+     */
+    private void readGesture(int position) {
+        float scale = mClips.get(position).readGesture(sScratchStart, sScratchRotation);
+        mModel.setClipPosition(position, sScratchStart, true);
+        mModel.getGeometry().setRotation(position, sScratchRotation[0], sScratchRotation[1],
+                sScratchRotation[2], sScratchRotation[3]);
+        mModel.setClipScale(position, scale);
+    }
+
+
+    /**
+     * Choose the level of detail from the camera's position and show only what it needs.
+     * @param policy LodPolicy to choose with.
+     * @param cameraPosition Camera's world position, 3 floats.
+     * @param cameraForward Camera's forward direction, unit length.
+     * @return True if the level changed.
+     */
+    public boolean updateLod(LodPolicy policy, float[] cameraPosition, float[] cameraForward) {
+        boolean levelChanged = mModel.updateLod(policy, cameraPosition, cameraForward);
+        if (mModel.getSpline().isDirty()) {
+            // Distance has changed enough for the lines to be tessellated again, the old mesh
+            // stays shown until the new one is set.
+            followMovedClips();
+        }
+        if (!levelChanged) {
+            return false;
+        }
+        applyDetailToAll();
+        return true;
+    }
+
+
+    /**
+     * Get the current level of detail.
+     * @return One of LodPolicy's levels.
+     */
+    public int getLodLevel() {
+        return mModel.getLodLevel();
+    }
+
+
+    /**
+     * Check if the merged mesh is drawn instead of per Clip Nodes.
+     * @return True if the mesh is in use.
+     */
+    private boolean isMeshInUse() {
+        return mModel.getLodLevel() == LodPolicy.LEVEL_FULL && !mModel.isForceFullDetail()
+                && mMesh.isReady();
+    }
+
+
+    /**
+     * Show the parts of every Clip the current level needs.
+     */
+    private void applyDetailToAll() {
+        mMesh.setVisible(isMeshInUse());
+        for (int i = 0; i < mClips.size(); i++) {
+            applyDetail(i);
+        }
+    }
+
+
+    /**
+     * Show the parts of a Clip the current level needs. Full shows everything, simplified
+     * shows lines and the end clips, marker shows only the start clip. When the merged mesh
+     * is in use it draws spheres and lines, only the info card is left on the Clip.
+     * @param position Position of the Clip in Route.
+     */
+    private void applyDetail(int position) {
+        boolean isEnd = position == 0 || position == mClips.size() - 1;
+        boolean meshInUse = isMeshInUse();
+        int level = mModel.getLodLevel();
+        mClips.get(position).setDetail(
+                level != LodPolicy.LEVEL_HIDDEN,
+                !meshInUse && (level == LodPolicy.LEVEL_FULL
+                        || (level == LodPolicy.LEVEL_SIMPLIFIED && isEnd)
+                        || (level == LodPolicy.LEVEL_MARKER && position == 0)),
+                !meshInUse && level <= LodPolicy.LEVEL_SIMPLIFIED,
+                level == LodPolicy.LEVEL_FULL);
+    }
+
+
+    /**
+     * Rebuild the parts of the merged mesh whose Clips have changed.
+     */
+    private void rebuildMesh() {
+        placeDirtyLines();
+        updateMesh();
+        applyDetailToAll();
+    }
+
+
+    /**
+     * Place lines and rebuild the merged mesh after Clips or the tolerance changed without
+     * a change of level. Clips' detail is only applied again if the mesh stopped or started
+     * being used, the old mesh stays shown e.g. while it's tessellated again.
+     */
+    private void followMovedClips() {
+        placeDirtyLines();
+        if (mModel.isForceFullDetail()) {
+            return;
+        }
+        boolean meshInUse = isMeshInUse();
+        updateMesh();
+        if (isMeshInUse() != meshInUse) {
+            applyDetailToAll();
+        }
+    }
+
+
+    /**
+     * Set the merged mesh's clips and rebuild it, under the first Clip's anchor.
+     */
+    private void updateMesh() {
+        int anchor = mClips.isEmpty() ? -1 : mModel.getClipAnchor(0);
+        mMesh.setClips(mModel, anchor, anchor != -1 ? mAnchors.get(anchor) : null);
+        mMesh.rebuild(mRouteInfo.getDifficultyBand());
     }
 
 
     /**
-     * Change every clip's color.
+     * Make a record of the Route for saving. Clip poses are relative to the first Clip's pose.
+     * @return RouteRecord of the Route.
+     */
+    public RouteRecord toRecord() {
+        RouteRecord record = new RouteRecord();
+        record.id = getId();
+        mRouteInfo.writeTo(record);
+
+        record.clips = new float[mClips.size() * RouteRecord.CLIP_FLOATS];
+        if (!mClips.isEmpty()) {
+            mModel.getGeometry().getPose(0, record.origin);
+            mModel.getGeometry().writePoses(record.origin, mPoseMath, record.clips);
+        }
+        return record;
+    }
+
+
+    /**
+     * Get the difficulty index of the route.
+     * @return Difficulty index.
+     */
+    public int getDifficulty() {
+        return mRouteInfo.getDifficulty();
+    }
+
+
+    /**
+     * Copy RouteInfo's values to a record without touching the clips.
+     * @param record RouteRecord to write to.
+     */
+    public void writeInfoTo(RouteRecord record) {
+        mRouteInfo.writeTo(record);
+    }
+
+
+    /**
+     * Change every clip's color. Can be called from any thread if the Route has a mutation
+     * queue, repeated calls before the next frame only recolor once.
      */
     public void changeRouteColor() {
-        for (Clip clip : mClips) {
-            clip.changeColor(mRouteInfo.getDifficultyColor());
+        if (mMutations != null) {
+            mMutations.post(this, SceneMutationQueue.KIND_RECOLOR, mApplyRouteColor);
+        } else {
+            applyRouteColor();
+        }
+    }
+
+
+    private void applyRouteColor() {
+        for (RouteScene.ClipHandle clip : mClips) {
+            clip.changeColor(mRouteInfo.getDifficultyBand());
+        }
+        if (!mModel.isForceFullDetail()) {
+            rebuildMesh();
+        }
+    }
+
+
+    /**
+     * Fetch renderables again for every clip, used when placeholders have been replaced.
+     */
+    public void refreshRenderables() {
+        for (RouteScene.ClipHandle clip : mClips) {
+            clip.refreshRenderables();
+        }
+        mMesh.invalidateMaterial();
+        if (!mModel.isForceFullDetail()) {
+            rebuildMesh();
         }
     }
 
@@ -102,9 +679,24 @@ public class Route {
      * @param infoView View.
      */
     public void updateRouteInfo(View infoView) {
-        if (mRouteInfo.updateAll(infoView)) {
+        mRouteInfo.updateAll(infoView);
+    }
+
+
+    /**
+     * RouteInfo's values have changed, recolor only if the grade band changed and
+     * update only the changed fields of the info card.
+     * @param changes RouteInfo.FIELD_ bits of the changed values.
+     */
+    private void onRouteInfoChanged(int changes) {
+        RouteRecord info = new RouteRecord();
+        mRouteInfo.writeTo(info);
+        mModel.recordInfo(info);
+        if ((changes & RouteInfo.FIELD_BAND) != 0) {
             changeRouteColor();
-            updateInfoCard();
+        }
+        if (mInfoCardView != null) {
+            mRouteInfo.updateInfoCardView(mInfoCardView, changes);
         }
     }
 
@@ -128,10 +720,65 @@ public class Route {
 
 
     /**
-     * Update the info card.
+     * Update the info card, if the Route has one.
      */
     public void updateInfoCard() {
-        mRouteInfo.updateInfoCardView(mClips.get(0).getInfoCardView());
+        if (mInfoCardView != null) {
+            mRouteInfo.updateInfoCardView(mInfoCardView);
+        }
+    }
+
+
+    /**
+     * Show a pooled info card on the start Clip and fill it with RouteInfo's values.
+     * @param card Index of the card in the RouteScene.
+     */
+    public void bindInfoCard(int card) {
+        if (mClips.isEmpty()) {
+            // Nothing to show it on, the pool has already marked the card as this Route's.
+            releaseInfoCard();
+            return;
+        }
+        mClips.get(0).attachInfoCard(card);
+        mInfoCardView = mScene.getInfoCardView(card);
+        updateInfoCard();
+    }
+
+
+    /**
+     * Give the info card back to the pool.
+     */
+    public void unbindInfoCard() {
+        if (!mClips.isEmpty()) {
+            mClips.get(0).detachInfoCard();
+        }
+        mInfoCardView = null;
+    }
+
+
+    /**
+     * Give the info card back to the pool right away. The pool unbinds it.
+     */
+    private void releaseInfoCard() {
+        if (mInfoCardPool != null) {
+            mInfoCardPool.release(this);
+        } else {
+            unbindInfoCard();
+        }
+    }
+
+
+    /**
+     * Get the world position of the start Clip.
+     * @param out Array of 3 floats to write to.
+     * @return False if the Route has no Clips.
+     */
+    public boolean getStartPosition(float[] out) {
+        if (mClips.isEmpty()) {
+            return false;
+        }
+        mModel.getClipPosition(0, out);
+        return true;
     }
 
 
@@ -140,8 +787,16 @@ public class Route {
      * @param enable True if enable transforming, false if disable.
      */
     public void enableClipTransforming(boolean enable) {
-        for (Clip clip : mClips) {
+        for (RouteScene.ClipHandle clip : mClips) {
             clip.enableTransforming(enable);
         }
+
+        // Route being edited is always shown in full with per Clip Nodes.
+        mModel.setForceFullDetail(enable);
+        if (enable) {
+            applyDetailToAll();
+        } else {
+            rebuildMesh();
+        }
     }
 }
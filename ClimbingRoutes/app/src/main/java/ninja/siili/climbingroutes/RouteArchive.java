@@ -0,0 +1,364 @@
+package ninja.siili.climbingroutes;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming format for moving a whole gym of routes between devices.
+ *
+ * Stream layout, gzipped: header (magic, version), then chunks of
+ * [int length][long id][RouteRecord bytes], ended by a chunk of length -1 followed by
+ * [int route count]. Routes are written and read one at a time, so memory use doesn't depend
+ * on how many there are, and a cut off stream is noticed by the missing end chunk.
+ */
+public class RouteArchive {
+
+    private static final int MAGIC = 0x43525441; // "CRTA"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2;
+    // length + id
+    private static final int CHUNK_HEADER_SIZE = 4 + 8;
+    private static final int END_OF_ROUTES = -1;
+    // Largest record RouteRecord can encode: two full strings and 65535 clips.
+    private static final int MAX_RECORD_SIZE = 2 * (2 + 0xffff) + 3 + 4 * RouteRecord.ORIGIN_FLOATS
+            + 2 + 4 * 0xffff * RouteRecord.CLIP_FLOATS;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+
+    /**
+     * Progress of a long import or export.
+     */
+    public interface Listener {
+        /**
+         * Called every few routes, and once more when done.
+         * @param routes Routes written or read so far.
+         * @param bytes Compressed bytes written or read so far.
+         */
+        void onProgress(int routes, long bytes);
+    }
+
+
+    /**
+     * Grow a scratch buffer to fit a record, keeping it little endian.
+     * @param buffer Current buffer.
+     * @param size Bytes needed.
+     * @return Buffer with a capacity of at least size, cleared.
+     */
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+        if (buffer.capacity() < size) {
+            int capacity = Math.max(size, buffer.capacity() * 2);
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+
+    /**
+     * Writes routes to a stream one at a time.
+     */
+    public static class Writer implements Closeable {
+
+        private final CountingOutputStream mCounter;
+        private final GZIPOutputStream mOut;
+        private final Listener mListener;
+        private final int mProgressInterval;
+        private ByteBuffer mBuffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        private int mCount = 0;
+        private boolean mFinished = false;
+
+
+        /**
+         * Start an archive, the header is written right away.
+         * @param out Stream to write to, closed with the Writer.
+         * @param listener Listener for progress, or null.
+         * @param progressInterval Routes between progress calls.
+         * @throws IOException If writing fails.
+         */
+        public Writer(OutputStream out, Listener listener, int progressInterval) throws IOException {
+            mCounter = new CountingOutputStream(out);
+            mOut = new GZIPOutputStream(mCounter, STREAM_BUFFER_SIZE);
+            mListener = listener;
+            mProgressInterval = Math.max(1, progressInterval);
+
+            mBuffer.putInt(MAGIC).putShort(VERSION);
+            mOut.write(mBuffer.array(), 0, mBuffer.position());
+        }
+
+
+        /**
+         * Write a route.
+         * @param record Record of the route.
+         * @throws IOException If writing fails.
+         */
+        public void write(RouteRecord record) throws IOException {
+            int length = record.encodedSize();
+            mBuffer = ensureCapacity(mBuffer, CHUNK_HEADER_SIZE + length);
+            mBuffer.putInt(length).putLong(record.id);
+            record.writeTo(mBuffer);
+            mOut.write(mBuffer.array(), 0, mBuffer.position());
+
+            mCount++;
+            if (mListener != null && mCount % mProgressInterval == 0) {
+                mListener.onProgress(mCount, mCounter.mCount);
+            }
+        }
+
+
+        /**
+         * Get the number of routes written.
+         * @return Route count.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+
+        /**
+         * Write the end chunk and flush. Without this the archive reads as cut off.
+         * @throws IOException If writing fails.
+         */
+        public void finish() throws IOException {
+            if (mFinished) {
+                return;
+            }
+            mBuffer.clear();
+            mBuffer.putInt(END_OF_ROUTES).putInt(mCount);
+            mOut.write(mBuffer.array(), 0, mBuffer.position());
+            mOut.finish();
+            mOut.flush();
+            mFinished = true;
+            if (mListener != null) {
+                mListener.onProgress(mCount, mCounter.mCount);
+            }
+        }
+
+
+        /**
+         * Close the stream. Call finish() first for a complete archive.
+         * @throws IOException If closing fails.
+         */
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+
+    /**
+     * Reads routes from a stream one at a time.
+     */
+    public static class Reader implements Closeable {
+
+        private final CountingInputStream mCounter;
+        private final InputStream mIn;
+        private final Listener mListener;
+        private final int mProgressInterval;
+        private ByteBuffer mBuffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        private int mCount = 0;
+        private boolean mEnded = false;
+
+
+        /**
+         * Open an archive, the header is read and checked right away.
+         * @param in Stream to read from, closed with the Reader.
+         * @param listener Listener for progress, or null.
+         * @param progressInterval Routes between progress calls.
+         * @throws IOException If reading fails or the stream is not a route archive.
+         */
+        public Reader(InputStream in, Listener listener, int progressInterval) throws IOException {
+            mCounter = new CountingInputStream(in);
+            try {
+                mIn = new GZIPInputStream(mCounter, STREAM_BUFFER_SIZE);
+            } catch (IOException e) {
+                throw new IOException("Not a route archive", e);
+            }
+            mListener = listener;
+            mProgressInterval = Math.max(1, progressInterval);
+
+            readFully(HEADER_SIZE);
+            if (mBuffer.getInt() != MAGIC) {
+                throw new IOException("Not a route archive");
+            }
+            short version = mBuffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported route archive version " + version);
+            }
+        }
+
+
+        /**
+         * Read the next route.
+         * @return Record of the route, null after the last one.
+         * @throws IOException If reading fails, or the archive is corrupt or cut off.
+         */
+        public RouteRecord next() throws IOException {
+            if (mEnded) {
+                return null;
+            }
+            readFully(4);
+            int length = mBuffer.getInt();
+            if (length == END_OF_ROUTES) {
+                readFully(4);
+                int count = mBuffer.getInt();
+                if (count != mCount) {
+                    throw new IOException("Route archive should have " + count + " routes, read " + mCount);
+                }
+                mEnded = true;
+                if (mListener != null) {
+                    mListener.onProgress(mCount, mCounter.mCount);
+                }
+                return null;
+            }
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                throw new IOException("Corrupt route archive, record of " + length + " bytes");
+            }
+
+            readFully(8 + length);
+            long id = mBuffer.getLong();
+            RouteRecord record;
+            try {
+                record = RouteRecord.readFrom(id, mBuffer);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupt route archive, record " + id + " is cut short");
+            }
+
+            mCount++;
+            if (mListener != null && mCount % mProgressInterval == 0) {
+                mListener.onProgress(mCount, mCounter.mCount);
+            }
+            return record;
+        }
+
+
+        /**
+         * Get the number of routes read.
+         * @return Route count.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+
+        /**
+         * Read bytes into the scratch buffer.
+         * @param size Byte count, the buffer's limit after reading.
+         * @throws IOException If reading fails or the stream ends first.
+         */
+        private void readFully(int size) throws IOException {
+            mBuffer = ensureCapacity(mBuffer, size);
+            byte[] bytes = mBuffer.array();
+            int read = 0;
+            while (read < size) {
+                int n = mIn.read(bytes, read, size - read);
+                if (n < 0) {
+                    throw new EOFException("Route archive is cut off after " + mCount + " routes");
+                }
+                read += n;
+            }
+            mBuffer.limit(size);
+        }
+
+
+        /**
+         * Close the stream.
+         * @throws IOException If closing fails.
+         */
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+
+
+    /**
+     * Counts bytes going through, for progress.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private final OutputStream mOut;
+        private long mCount = 0;
+
+
+        CountingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+
+    /**
+     * Counts bytes going through, for progress.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount = 0;
+
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mCount++;
+            }
+            return b;
+        }
+
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -8,15 +8,62 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-
-/** Stores information about the route. */
+/**
+ * Stores information about the route.
+ * Every change is reported to a listener as a set of FIELD_ bits, so views and Clips
+ * only update what actually changed.
+ */
 public class RouteInfo {
 
+    // Bits of a change set.
+    public static final int FIELD_NAME = 1;
+    public static final int FIELD_DIFFICULTY = 1 << 1;
+    public static final int FIELD_BAND = 1 << 2;
+    public static final int FIELD_TYPE = 1 << 3;
+    public static final int FIELD_SITSTART = 1 << 4;
+    public static final int FIELD_START_HOLDS = 1 << 5;
+    public static final int FIELD_TOP_OUT = 1 << 6;
+    public static final int FIELD_NOTES = 1 << 7;
+    public static final int FIELD_ALL = (1 << 8) - 1;
+
+    /** Listener for changes in RouteInfo's values. */
+    public interface OnChangeListener {
+        /**
+         * Values have changed.
+         * @param changes FIELD_ bits of the changed values.
+         */
+        void onRouteInfoChanged(int changes);
+    }
+
+    // Views of the info view and info card, found once per view and kept in its tag.
+    private static class InfoViewHolder {
+        TextView name;
+        SeekBar diff;
+        RadioButton boulder;
+        RadioButton sport;
+        RadioButton trad;
+        CheckBox sitstart;
+        CheckBox topout;
+        TextView notes;
+    }
+
+    private static class CardViewHolder {
+        TextView name;
+        TextView diff;
+        TextView type;
+        TextView sitstart;
+        TextView startHoldCount;
+        TextView topout;
+        TextView notes;
+    }
+
     private Context mContext;
+    private GradePalette mPalette;
+    private OnChangeListener mOnChangeListener;
 
     private String mName;
     private int mDiff;
+    private int mDiffBand;
     private int mDiffColor;
     private boolean mIsBoulder;
     private boolean mIsSport;
@@ -30,9 +77,11 @@ public class RouteInfo {
     /**
      * Constructor for RouteInfo, sets default values.
      * @param context Context of the app
+     * @param palette GradePalette for difficulty colors.
      */
-    public RouteInfo(Context context) {
+    public RouteInfo(Context context, GradePalette palette) {
         mContext = context;
+        mPalette = palette;
         mName = "";
         mIsBoulder = true;
         mIsSport = false;
@@ -41,6 +90,7 @@ public class RouteInfo {
         mIsSitstart = false;
         mIsTopOut = false;
         mNotes = "";
+        mDiff = -1;
         setDifficulty(10);
     }
 
@@ -50,21 +100,44 @@ public class RouteInfo {
     }
 
 
+    /**
+     * Set a listener for value changes.
+     * @param listener Listener, null to remove.
+     */
+    public void setOnChangeListener(OnChangeListener listener) {
+        mOnChangeListener = listener;
+    }
+
+
+    private void notifyChanged(int changes) {
+        if (changes != 0 && mOnChangeListener != null) {
+            mOnChangeListener.onRouteInfoChanged(changes);
+        }
+    }
+
+
 
     /**
-     * Set and get difficulty color based on difficulty.
+     * Set and get difficulty band and color based on difficulty.
+     * @return FIELD_ bits of what changed.
      */
-    private void setDifficulty(int diff) {
-        mDiff = diff;
-        if (mDiff < 9) {
-            mDiffColor = mContext.getColor(R.color.green);
-        } else if (mDiff < 18) {
-            mDiffColor = mContext.getColor(R.color.yellow);
-        } else if (mDiff < 27) {
-            mDiffColor = mContext.getColor(R.color.orange);
-        } else {
-            mDiffColor = mContext.getColor(R.color.red);
+    private int setDifficulty(int diff) {
+        if (diff == mDiff) {
+            return 0;
         }
+        int oldBand = mDiffBand;
+        mDiff = diff;
+        mDiffBand = mPalette.getBand(diff);
+        mDiffColor = mPalette.getColor(mDiffBand);
+        return FIELD_DIFFICULTY | (mDiffBand != oldBand ? FIELD_BAND : 0);
+    }
+
+    public int getDifficulty() {
+        return mDiff;
+    }
+
+    public int getDifficultyBand() {
+        return mDiffBand;
     }
 
     public int getDifficultyColor() {
@@ -99,6 +172,7 @@ public class RouteInfo {
             Toast.makeText(mContext, "Too many start holds.", Toast.LENGTH_SHORT).show();
         } else if (mName.equals("")) {
             mName = "Nameless Route";
+            notifyChanged(FIELD_NAME);
         }
         return true;
     }
@@ -109,93 +183,110 @@ public class RouteInfo {
      * @return String of the grade
      */
     private String getDifficultyText() {
-        int value = mDiff;
-        String number;
-        String letter = "";
-
-        // TODO more grades
-        if (value < 9) {
-            number = "5";
-        } else if (value < 18) {
-            number = "6";
-        } else if (value < 27) {
-            number = "7";
-        } else {
-            number = "8";
-        }
+        return GradeEngine.getLabel(GradeEngine.FRENCH, mDiff);
+    }
 
-        switch(value) {
-            case 0: case 9: case 18: case 27:
-                letter = "A-";
-                break;
-            case 1: case 10: case 19: case 28:
-                letter = "A ";
-                break;
-            case 2: case 11: case 20: case 29:
-                letter = "A+";
-                break;
-            case 3: case 12: case 21: case 30:
-                letter = "B-";
-                break;
-            case 4: case 13: case 22: case 31:
-                letter = "B ";
-                break;
-            case 5: case 14: case 23: case 32:
-                letter = "B+";
-                break;
-            case 6: case 15: case 24: case 33:
-                letter = "C-";
-                break;
-            case 7: case 16: case 25: case 34:
-                letter = "C ";
-                break;
-            case 8: case 17: case 26: case 35:
-                letter = "C+";
-                break;
-        }
 
-        /*
-        A:  0 1 2    9 10 11   18 19 20   27 28 29
-        B:  3 4 5   12 13 14   21 22 23   30 31 32
-        C:  6 7 8   15 16 17   24 25 26   33 34 35
+    /**
+     * Get the grade of the route in some scale.
+     * @param scale One of GradeEngine's scale constants.
+     * @return String of the grade.
+     */
+    public String getDifficultyText(int scale) {
+        return GradeEngine.getLabel(scale, mDiff);
+    }
 
-        +:  2 5 8   11 14 17   20 13 16   29 32 35
-         :  1 4 7   10 13 16   19 22 25   28 31 34
-        -:  0 3 6    9 12 15   18 21 24   27 30 33
-         */
 
-        return number + letter;
+    /**
+     * Copy values to a record for saving.
+     * @param record RouteRecord to write to.
+     */
+    public void writeTo(RouteRecord record) {
+        record.name = mName;
+        record.difficulty = mDiff;
+        record.startHoldCount = mStartHoldCount;
+        record.notes = mNotes;
+        record.flags = 0;
+        record.setFlag(RouteRecord.FLAG_BOULDER, mIsBoulder);
+        record.setFlag(RouteRecord.FLAG_SPORT, mIsSport);
+        record.setFlag(RouteRecord.FLAG_TRAD, mIsTrad);
+        record.setFlag(RouteRecord.FLAG_SITSTART, mIsSitstart);
+        record.setFlag(RouteRecord.FLAG_TOP_OUT, mIsTopOut);
     }
 
 
     /**
-     * Update all values in RouteInfo.
-     * @param infoView baabaa
+     * Copy values from a saved record.
+     * @param record RouteRecord to read from.
+     */
+    public void readFrom(RouteRecord record) {
+        mName = record.name;
+        mStartHoldCount = record.startHoldCount;
+        mNotes = record.notes;
+        mIsBoulder = record.hasFlag(RouteRecord.FLAG_BOULDER);
+        mIsSport = record.hasFlag(RouteRecord.FLAG_SPORT);
+        mIsTrad = record.hasFlag(RouteRecord.FLAG_TRAD);
+        mIsSitstart = record.hasFlag(RouteRecord.FLAG_SITSTART);
+        mIsTopOut = record.hasFlag(RouteRecord.FLAG_TOP_OUT);
+        setDifficulty(record.difficulty);
+        notifyChanged(FIELD_ALL);
+    }
+
+
+    /**
+     * Update all values in RouteInfo from the info view. Only changed values are reported.
+     * @param infoView View of the info view.
      * @return True if succeeded.
      */
     public boolean updateAll(View infoView) {
-        ArrayList<View> views = findAllViews(infoView);
-
-        if (views != null && views.size() == 8) {
-            mName = ((TextView) views.get(0)).getText().toString();
-            mIsBoulder = ((RadioButton) views.get(2)).isChecked();
-            mIsSport = ((RadioButton) views.get(3)).isChecked();
-            mIsTrad = ((RadioButton) views.get(4)).isChecked();
-            mIsSitstart = ((CheckBox) views.get(5)).isChecked();
-            mIsTopOut = ((CheckBox) views.get(6)).isChecked();
-            mStartHoldCount = 1;
-            mNotes = ((TextView) views.get(7)).getText().toString();
+        InfoViewHolder views = getInfoViewHolder(infoView);
+        if (views == null) {
+            Toast.makeText(mContext, "Failed to update RouteInfo.", Toast.LENGTH_SHORT).show();
+            return false;
+        }
 
-            setDifficulty(((SeekBar) views.get(1)).getProgress());
-            return true;
+        int changes = 0;
+        String name = views.name.getText().toString();
+        if (!name.equals(mName)) {
+            mName = name;
+            changes |= FIELD_NAME;
+        }
+        boolean isBoulder = views.boulder.isChecked();
+        boolean isSport = views.sport.isChecked();
+        boolean isTrad = views.trad.isChecked();
+        if (isBoulder != mIsBoulder || isSport != mIsSport || isTrad != mIsTrad) {
+            mIsBoulder = isBoulder;
+            mIsSport = isSport;
+            mIsTrad = isTrad;
+            changes |= FIELD_TYPE;
+        }
+        if (views.sitstart.isChecked() != mIsSitstart) {
+            mIsSitstart = !mIsSitstart;
+            changes |= FIELD_SITSTART;
         }
-        Toast.makeText(mContext, "Failed to update RouteInfo.", Toast.LENGTH_SHORT).show();
-        return false;
+        if (views.topout.isChecked() != mIsTopOut) {
+            mIsTopOut = !mIsTopOut;
+            changes |= FIELD_TOP_OUT;
+        }
+        if (mStartHoldCount != 1) {
+            mStartHoldCount = 1;
+            changes |= FIELD_START_HOLDS;
+        }
+        String notes = views.notes.getText().toString();
+        if (!notes.equals(mNotes)) {
+            mNotes = notes;
+            changes |= FIELD_NOTES;
+        }
+        changes |= setDifficulty(views.diff.getProgress());
+
+        notifyChanged(changes);
+        return true;
     }
 
 
     /**
      * Setup listener for difficulty seekbar in info view.
+     * Moving the seekbar only previews the grade, values change in updateAll().
      * @param infoView View of the info view.
      */
     public void setupInfoView(View infoView) {
@@ -206,9 +297,8 @@ public class RouteInfo {
         diffSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                setDifficulty(progress);
-                diffTextView.setText(getDifficultyText());
-                diffTextView.setTextColor(getDifficultyColor());
+                diffTextView.setText(GradeEngine.getLabel(GradeEngine.FRENCH, progress));
+                diffTextView.setTextColor(mPalette.getColor(mPalette.getBand(progress)));
             }
 
             @Override
@@ -225,86 +315,124 @@ public class RouteInfo {
      * @param infoView the infoview.
      */
     public void updateInfoView(View infoView) {
-        ArrayList<View> views = findAllViews(infoView);
-
-        if (views != null && views.size() == 8) {
-            ((TextView) views.get(0)).setText(mName);
-            ((SeekBar) views.get(1)).setProgress(mDiff);
-            ((RadioButton) views.get(2)).setChecked(mIsBoulder);
-            ((RadioButton) views.get(3)).setChecked(mIsSport);
-            ((RadioButton) views.get(4)).setChecked(mIsTrad);
-            ((CheckBox) views.get(5)).setChecked(mIsSitstart);
-            ((CheckBox) views.get(6)).setChecked(mIsTopOut);
-            ((TextView) views.get(7)).setText(mNotes);
+        InfoViewHolder views = getInfoViewHolder(infoView);
+        if (views == null) {
+            Toast.makeText(mContext, "Failed to update info view.", Toast.LENGTH_SHORT).show();
+            return;
         }
-        Toast.makeText(mContext, "Failed to update info view.", Toast.LENGTH_SHORT).show();
+        views.name.setText(mName);
+        views.diff.setProgress(mDiff);
+        views.boulder.setChecked(mIsBoulder);
+        views.sport.setChecked(mIsSport);
+        views.trad.setChecked(mIsTrad);
+        views.sitstart.setChecked(mIsSitstart);
+        views.topout.setChecked(mIsTopOut);
+        views.notes.setText(mNotes);
     }
 
 
     /**
-     * Update the info card with RouteInfo's values.
+     * Update the info card with all of RouteInfo's values, e.g. when a pooled card is bound.
      * @param infoCardView the info card.
      */
     public void updateInfoCardView(View infoCardView) {
-        if (infoCardView != null) {
-            TextView nameTV = infoCardView.findViewById(R.id.name);
-            TextView diffTV = infoCardView.findViewById(R.id.diff_number);
-            TextView typeTV = infoCardView.findViewById(R.id.type);
-            TextView sitstartIC = infoCardView.findViewById(R.id.sitstart);
-            TextView holdcountIC = infoCardView.findViewById(R.id.start_hold_count);
-            TextView topoutIC = infoCardView.findViewById(R.id.topout);
-            TextView notesTV = infoCardView.findViewById(R.id.notes);
-
-            if (nameTV == null || diffTV == null || typeTV == null || sitstartIC == null
-                    || holdcountIC == null || topoutIC == null || notesTV == null)  {
-                Toast.makeText(mContext, "Null field in info card.", Toast.LENGTH_SHORT).show();
-                return;
-            }
+        updateInfoCardView(infoCardView, FIELD_ALL);
+    }
 
-            nameTV.setText(getName());
-            diffTV.setText(getDifficultyText());
-            diffTV.setTextColor(mDiffColor);
-            typeTV.setText(getTypeString());
 
-            if (mIsSitstart) sitstartIC.setVisibility(View.VISIBLE);
-            else sitstartIC.setVisibility(View.INVISIBLE);
+    /**
+     * Update only the info card fields that have changed.
+     * @param infoCardView the info card.
+     * @param changes FIELD_ bits of the changed values.
+     */
+    public void updateInfoCardView(View infoCardView, int changes) {
+        if (infoCardView == null) {
+            Toast.makeText(mContext, "Null info card.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        CardViewHolder views = getCardViewHolder(infoCardView);
+        if (views == null) {
+            Toast.makeText(mContext, "Null field in info card.", Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-            if (mStartHoldCount == 2) holdcountIC.setVisibility(View.VISIBLE);
-            if (mStartHoldCount == 1) holdcountIC.setVisibility(View.VISIBLE);
-            else holdcountIC.setVisibility(View.INVISIBLE);
+        if ((changes & FIELD_NAME) != 0) {
+            views.name.setText(getName());
+        }
+        if ((changes & (FIELD_DIFFICULTY | FIELD_BAND)) != 0) {
+            views.diff.setText(getDifficultyText());
+            views.diff.setTextColor(mDiffColor);
+        }
+        if ((changes & FIELD_TYPE) != 0) {
+            views.type.setText(getTypeString());
+        }
+        if ((changes & FIELD_SITSTART) != 0) {
+            views.sitstart.setVisibility(mIsSitstart ? View.VISIBLE : View.INVISIBLE);
+        }
+        if ((changes & FIELD_START_HOLDS) != 0) {
+            views.startHoldCount.setVisibility(mStartHoldCount == 1 ? View.VISIBLE : View.INVISIBLE);
+        }
+        if ((changes & FIELD_TOP_OUT) != 0) {
+            views.topout.setVisibility(mIsTopOut ? View.VISIBLE : View.INVISIBLE);
+        }
+        if ((changes & FIELD_NOTES) != 0) {
+            views.notes.setText(mNotes);
+        }
+    }
 
-            if (mIsTopOut) topoutIC.setVisibility(View.VISIBLE);
-            else topoutIC.setVisibility(View.INVISIBLE);
 
-            notesTV.setText(mNotes);
-        } else {
-            Toast.makeText(mContext, "Null info card.", Toast.LENGTH_SHORT).show();
+    /**
+     * Find the views of the info view, once per view.
+     * @param infoView the info view.
+     * @return Holder of the views, null if some view is missing.
+     */
+    private static InfoViewHolder getInfoViewHolder(View infoView) {
+        if (infoView.getTag() instanceof InfoViewHolder) {
+            return (InfoViewHolder) infoView.getTag();
         }
+        InfoViewHolder views = new InfoViewHolder();
+        views.name = infoView.findViewById(R.id.name);
+        views.diff = infoView.findViewById(R.id.diff_seekbar);
+        views.boulder = infoView.findViewById(R.id.boulder);
+        views.sport = infoView.findViewById(R.id.sport);
+        views.trad = infoView.findViewById(R.id.trad);
+        views.sitstart = infoView.findViewById(R.id.sitstart);
+        views.topout = infoView.findViewById(R.id.topout);
+        views.notes = infoView.findViewById(R.id.notes);
+
+        if (views.name == null || views.diff == null || views.boulder == null || views.sport == null
+                || views.trad == null || views.sitstart == null || views.topout == null
+                || views.notes == null) {
+            return null;
+        }
+        infoView.setTag(views);
+        return views;
     }
 
 
     /**
-     * Find all Views from the info view.
-     * @param infoView the info view.
-     * @return ListArray of the views.
+     * Find the views of an info card, once per card.
+     * @param infoCardView the info card.
+     * @return Holder of the views, null if some view is missing.
      */
-    private ArrayList<View> findAllViews(View infoView) {
-        ArrayList<View> views = new ArrayList<>();
-        
-        views.add(infoView.findViewById(R.id.name));
-        views.add(infoView.findViewById(R.id.diff_seekbar));
-        views.add(infoView.findViewById(R.id.boulder));
-        views.add(infoView.findViewById(R.id.sport));
-        views.add(infoView.findViewById(R.id.trad));
-        views.add(infoView.findViewById(R.id.sitstart));
-        views.add(infoView.findViewById(R.id.topout));
-        views.add(infoView.findViewById(R.id.notes));
-
-        for (View view : views) {
-            if (view == null) {
-                return null;
-            }
+    private static CardViewHolder getCardViewHolder(View infoCardView) {
+        if (infoCardView.getTag() instanceof CardViewHolder) {
+            return (CardViewHolder) infoCardView.getTag();
+        }
+        CardViewHolder views = new CardViewHolder();
+        views.name = infoCardView.findViewById(R.id.name);
+        views.diff = infoCardView.findViewById(R.id.diff_number);
+        views.type = infoCardView.findViewById(R.id.type);
+        views.sitstart = infoCardView.findViewById(R.id.sitstart);
+        views.startHoldCount = infoCardView.findViewById(R.id.start_hold_count);
+        views.topout = infoCardView.findViewById(R.id.topout);
+        views.notes = infoCardView.findViewById(R.id.notes);
+
+        if (views.name == null || views.diff == null || views.type == null || views.sitstart == null
+                || views.startHoldCount == null || views.topout == null || views.notes == null) {
+            return null;
         }
+        infoCardView.setTag(views);
         return views;
     }
 }
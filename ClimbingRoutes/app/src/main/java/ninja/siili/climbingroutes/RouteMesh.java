@@ -0,0 +1,223 @@
+package ninja.siili.climbingroutes;
+
+import android.util.Log;
+
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Material;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.rendering.RenderableDefinition;
+import com.google.ar.sceneform.rendering.Vertex;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.RandomAccess;
+
+/**
+ * Draws a whole Route with one Node and one mesh built by RouteMeshBuilder, instead of
+ * a Node per clip and line. Only vertices of clips that have moved are replaced.
+ * The Node is under one of the Route's anchors with vertices in its space, so the mesh
+ * follows the anchor like the Clips do.
+ * Building the renderable is asynchronous. While clips have moved, Route uses its per clip
+ * Nodes until the mesh is ready, other rebuilds keep the old mesh shown until then.
+ */
+public class RouteMesh implements RouteScene.MeshHandle {
+
+    private static final String TAG = RouteMesh.class.getSimpleName();
+    // Lines are Clip.LINE_THICKNESS wide.
+    private static final float TUBE_RADIUS = 0.015f;
+
+    private final RenderableHelper mRenderableHelper;
+    private final Runnable mOnReady;
+    private final RouteMeshBuilder mBuilder = new RouteMeshBuilder(TUBE_RADIUS);
+    private final Node mNode = new Node();
+
+    private final ArrayList<Vertex> mVertices = new ArrayList<>();
+    private final IndexList mIndices = new IndexList();
+    // Anchor's Node the vertices are relative to, the mesh moves there with the next renderable.
+    private Node mParent;
+
+    private int mBand = -1;
+    private boolean mMaterialDirty = true;
+    private int mGeneration = 0;
+    private boolean mReady = false;
+    private boolean mVisible = false;
+
+
+    /**
+     * Constructor for RouteMesh.
+     * @param renderableHelper RenderableHelper for the material and Scene.
+     * @param onReady Called on the UI thread when a new mesh has been set.
+     */
+    public RouteMesh(RenderableHelper renderableHelper, Runnable onReady) {
+        mRenderableHelper = renderableHelper;
+        mOnReady = onReady;
+        mNode.setEnabled(false);
+    }
+
+
+    /** Builder's index array as the List Sceneform takes, without boxing a copy of it. */
+    private static class IndexList extends AbstractList<Integer> implements RandomAccess {
+        private int[] mArray = new int[0];
+
+        void setArray(int[] array) {
+            mArray = array;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return mArray[index];
+        }
+
+        @Override
+        public int size() {
+            return mArray.length;
+        }
+    }
+
+
+    /**
+     * Set clips from the Route's positions and scales, relative to an anchor. Only moved
+     * clips are regenerated on the next rebuild().
+     * @param model RouteModel of the Route.
+     * @param anchor Index of the anchor in RouteModel, -1 if Route has no Clips.
+     * @param parent The anchor's handle, null if Route has no Clips.
+     */
+    @Override
+    public void setClips(RouteModel<?> model, int anchor, RouteScene.AnchorHandle parent) {
+        if (parent != null) {
+            mParent = SceneformRouteScene.getNode(parent);
+        }
+        model.fillMesh(mBuilder, anchor, Clip.MODEL_RADIUS);
+    }
+
+
+    /**
+     * Material has to be fetched again, e.g. after placeholders were replaced by models.
+     */
+    @Override
+    public void invalidateMaterial() {
+        mMaterialDirty = true;
+    }
+
+
+    /**
+     * Regenerate changed parts of the mesh and start building a renderable if anything changed.
+     * If clips have moved, the old mesh is not ready until the new one is, otherwise it's
+     * kept shown.
+     * @param band Grade band of the Route.
+     */
+    @Override
+    public void rebuild(int band) {
+        int vertexCount = mBuilder.getVertexCount();
+        boolean resized = vertexCount != mVertices.size();
+        boolean moved = mBuilder.hasChangedClips();
+        boolean changed = mBuilder.update();
+        if (!changed && !resized && !mMaterialDirty && band == mBand) {
+            return;
+        }
+        mBand = band;
+        mMaterialDirty = false;
+
+        if (resized) {
+            syncVertices(0, vertexCount);
+            mIndices.setArray(mBuilder.getIndices());
+        } else if (changed) {
+            syncVertices(mBuilder.getChangedStart(), mBuilder.getChangedEnd());
+        }
+
+        if (vertexCount == 0) {
+            setReady(false);
+            return;
+        }
+
+        Material material = mRenderableHelper.getLineRenderable(band).getMaterial();
+        RenderableDefinition definition = RenderableDefinition.builder()
+                .setVertices(mVertices)
+                .setSubmeshes(Collections.singletonList(RenderableDefinition.Submesh.builder()
+                        .setTriangleIndices(mIndices)
+                        .setMaterial(material)
+                        .build()))
+                .build();
+
+        int generation = ++mGeneration;
+        if (moved || resized) {
+            setReady(false);
+        }
+        Node parent = mParent;
+        ModelRenderable.builder()
+                .setSource(definition)
+                .build()
+                .thenAccept(renderable -> {
+                    // A newer build has started, this one is already out of date.
+                    if (generation != mGeneration) {
+                        return;
+                    }
+                    // Moved together with the renderable made relative to the new parent.
+                    mNode.setParent(parent);
+                    mNode.setRenderable(renderable);
+                    setReady(true);
+                    mOnReady.run();
+                })
+                .exceptionally(throwable -> {
+                    Log.e(TAG, "Failed to build route mesh", throwable);
+                    return null;
+                });
+    }
+
+
+    /**
+     * Copy vertices from the builder to Sceneform's Vertex list.
+     * @param start First vertex to copy.
+     * @param end One past the last vertex to copy.
+     */
+    private void syncVertices(int start, int end) {
+        float[] positions = mBuilder.getPositions();
+        float[] normals = mBuilder.getNormals();
+        Vertex.UvCoordinate uv = new Vertex.UvCoordinate(0.0f, 0.0f);
+        while (mVertices.size() > end) {
+            mVertices.remove(mVertices.size() - 1);
+        }
+        for (int i = start; i < end; i++) {
+            int f = i * 3;
+            Vertex vertex = Vertex.builder()
+                    .setPosition(new Vector3(positions[f], positions[f + 1], positions[f + 2]))
+                    .setNormal(new Vector3(normals[f], normals[f + 1], normals[f + 2]))
+                    .setUvCoordinate(uv)
+                    .build();
+            if (i < mVertices.size()) {
+                mVertices.set(i, vertex);
+            } else {
+                mVertices.add(vertex);
+            }
+        }
+    }
+
+
+    private void setReady(boolean ready) {
+        mReady = ready;
+        mNode.setEnabled(mReady && mVisible);
+    }
+
+
+    /**
+     * Check if a mesh with the clips where they are now is set.
+     * @return True if ready to be shown.
+     */
+    @Override
+    public boolean isReady() {
+        return mReady;
+    }
+
+
+    /**
+     * Show or hide the mesh. It's only shown once ready.
+     * @param visible True to show.
+     */
+    @Override
+    public void setVisible(boolean visible) {
+        mVisible = visible;
+        mNode.setEnabled(mReady && mVisible);
+    }
+}
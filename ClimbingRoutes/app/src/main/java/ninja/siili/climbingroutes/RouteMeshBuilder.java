@@ -0,0 +1,412 @@
+package ninja.siili.climbingroutes;
+
+import java.util.Arrays;
+
+/**
+ * Builds one triangle mesh for a whole Route: a sphere for each clip and a tube for each line.
+ * Tubes follow a RouteSpline through the clips, a ring of vertices at each of its samples.
+ * Every clip and line has a fixed slot in the vertex arrays, room for the most rings a tube
+ * can have, so when a clip moves only its sphere and the tubes it shapes are regenerated.
+ * Rings a tube doesn't use sit on its last ring. Triangle indices only depend on the clip
+ * count and are rebuilt when it changes.
+ *
+ * Vertex layout: spheres of all clips first, then tubes. Tube k goes from clip k - 1 to clip k.
+ */
+public class RouteMeshBuilder {
+
+    public static final int SPHERE_RINGS = 6;
+    public static final int SPHERE_SECTORS = 8;
+    public static final int TUBE_SIDES = 6;
+    public static final int TUBE_RINGS = RouteSpline.MAX_SAMPLES;
+
+    public static final int SPHERE_VERTICES = (SPHERE_RINGS + 1) * SPHERE_SECTORS;
+    public static final int SPHERE_INDICES = SPHERE_RINGS * SPHERE_SECTORS * 6;
+    public static final int TUBE_VERTICES = TUBE_SIDES * TUBE_RINGS;
+    public static final int TUBE_INDICES = TUBE_SIDES * (TUBE_RINGS - 1) * 6;
+
+    // Floats per clip: position x, y, z and sphere radius.
+    private static final int CLIP_FLOATS = 4;
+
+    // Unit sphere directions, shared by all spheres.
+    private static final float[] SPHERE_TEMPLATE = makeSphereTemplate();
+
+    private final float mTubeRadius;
+    private final RouteSpline mSpline = new RouteSpline();
+    // Ring's unit vectors perpendicular to the tube, carried from ring to ring.
+    private final float[] mRingU = new float[3];
+    private final float[] mRingV = new float[3];
+
+    private int mClipCount = 0;
+    private float[] mClips = new float[0];
+    private boolean[] mDirty = new boolean[0];
+    private boolean mAnyDirty = false;
+
+    private float[] mPositions = new float[0];
+    private float[] mNormals = new float[0];
+    private int[] mIndices = new int[0];
+
+    // Vertices changed by the last update(), end exclusive.
+    private int mChangedStart = 0;
+    private int mChangedEnd = 0;
+    private int mRegeneratedTubes = 0;
+
+
+    /**
+     * Constructor for RouteMeshBuilder.
+     * @param tubeRadius Radius of the lines.
+     */
+    public RouteMeshBuilder(float tubeRadius) {
+        mTubeRadius = tubeRadius;
+    }
+
+
+    private static float[] makeSphereTemplate() {
+        float[] template = new float[SPHERE_VERTICES * 3];
+        int v = 0;
+        for (int ring = 0; ring <= SPHERE_RINGS; ring++) {
+            double polar = Math.PI * ring / SPHERE_RINGS;
+            for (int sector = 0; sector < SPHERE_SECTORS; sector++) {
+                double azimuth = 2.0 * Math.PI * sector / SPHERE_SECTORS;
+                template[v++] = (float) (Math.sin(polar) * Math.cos(azimuth));
+                template[v++] = (float) Math.cos(polar);
+                template[v++] = (float) (Math.sin(polar) * Math.sin(azimuth));
+            }
+        }
+        return template;
+    }
+
+
+    /**
+     * Set the number of clips. Keeps existing clips, new ones start at the origin.
+     * @param count Clip count.
+     */
+    public void setClipCount(int count) {
+        if (count == mClipCount) {
+            return;
+        }
+        mClips = Arrays.copyOf(mClips, count * CLIP_FLOATS);
+        mSpline.setPointCount(count);
+        mDirty = new boolean[count];
+        Arrays.fill(mDirty, true);
+        mAnyDirty = true;
+        mClipCount = count;
+
+        int vertexCount = getVertexCount();
+        mPositions = new float[vertexCount * 3];
+        mNormals = new float[vertexCount * 3];
+        buildIndices();
+    }
+
+
+    /**
+     * Set a clip's position and size. Marks it for regeneration if it has changed.
+     * @param position Position of the clip in Route.
+     * @param x X in the mesh's space.
+     * @param y Y in the mesh's space.
+     * @param z Z in the mesh's space.
+     * @param radius Radius of the clip's sphere.
+     */
+    public void setClip(int position, float x, float y, float z, float radius) {
+        int i = position * CLIP_FLOATS;
+        if (LineMath.updateIfMoved(mClips, i, x, y, z) || mClips[i + 3] != radius) {
+            mClips[i + 3] = radius;
+            mDirty[position] = true;
+            mAnyDirty = true;
+        }
+        mSpline.setPoint(position, x, y, z);
+    }
+
+
+    /**
+     * Set how closely tubes follow the spline, e.g. RouteSpline.toleranceAt() the Route's
+     * distance. All tubes are regenerated if it has changed.
+     * @param tolerance Tolerance in meters.
+     */
+    public void setTolerance(float tolerance) {
+        mSpline.setTolerance(tolerance);
+    }
+
+
+    /**
+     * Regenerate the spheres and tubes of changed clips.
+     * @return True if any vertices changed.
+     */
+    public boolean update() {
+        mChangedStart = Integer.MAX_VALUE;
+        mChangedEnd = 0;
+        mRegeneratedTubes = 0;
+        if (!mAnyDirty && !mSpline.isDirty()) {
+            mChangedStart = 0;
+            return false;
+        }
+
+        for (int i = 0; i < mClipCount && mAnyDirty; i++) {
+            if (!mDirty[i]) {
+                continue;
+            }
+            buildSphere(i);
+            markChanged(i * SPHERE_VERTICES, SPHERE_VERTICES);
+            mDirty[i] = false;
+        }
+        mAnyDirty = false;
+        mSpline.update();
+        for (int tube = mSpline.getChangedStart(); tube < mSpline.getChangedEnd(); tube++) {
+            buildTube(tube);
+            markChanged(getTubeVertexStart(tube), TUBE_VERTICES);
+            mRegeneratedTubes++;
+        }
+        return true;
+    }
+
+
+    private void markChanged(int start, int count) {
+        mChangedStart = Math.min(mChangedStart, start);
+        mChangedEnd = Math.max(mChangedEnd, start + count);
+    }
+
+
+    private int getTubeVertexStart(int tube) {
+        return mClipCount * SPHERE_VERTICES + (tube - 1) * TUBE_VERTICES;
+    }
+
+
+    private void buildSphere(int position) {
+        int c = position * CLIP_FLOATS;
+        float radius = mClips[c + 3];
+        int v = position * SPHERE_VERTICES * 3;
+        for (int t = 0; t < SPHERE_TEMPLATE.length; t += 3, v += 3) {
+            mNormals[v] = SPHERE_TEMPLATE[t];
+            mNormals[v + 1] = SPHERE_TEMPLATE[t + 1];
+            mNormals[v + 2] = SPHERE_TEMPLATE[t + 2];
+            mPositions[v] = mClips[c] + SPHERE_TEMPLATE[t] * radius;
+            mPositions[v + 1] = mClips[c + 1] + SPHERE_TEMPLATE[t + 1] * radius;
+            mPositions[v + 2] = mClips[c + 2] + SPHERE_TEMPLATE[t + 2] * radius;
+        }
+    }
+
+
+    /**
+     * Build a tube's rings along its spline samples. Each ring's frame is the previous one
+     * turned to the new direction, so the tube doesn't twist around bends.
+     * @param tube Index of the clip the tube ends at.
+     */
+    private void buildTube(int tube) {
+        float[] samples = mSpline.getSamples();
+        int count = mSpline.getSampleCount(tube);
+        int first = tube * RouteSpline.MAX_SAMPLES * 3;
+        int v = getTubeVertexStart(tube) * 3;
+        for (int ring = 0; ring < count; ring++) {
+            // Direction from the neighbouring samples, the ends use their only neighbour.
+            int previous = first + Math.max(0, ring - 1) * 3;
+            int next = first + Math.min(count - 1, ring + 1) * 3;
+            float dx = samples[next] - samples[previous];
+            float dy = samples[next + 1] - samples[previous + 1];
+            float dz = samples[next + 2] - samples[previous + 2];
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (length < 1e-6f) {
+                dx = 0.0f;
+                dy = 1.0f;
+                dz = 0.0f;
+            } else {
+                dx /= length;
+                dy /= length;
+                dz /= length;
+            }
+            if (ring == 0 || !transportFrame(dx, dy, dz)) {
+                startFrame(dx, dy, dz);
+            }
+
+            int c = first + ring * 3;
+            for (int side = 0; side < TUBE_SIDES; side++, v += 3) {
+                double angle = 2.0 * Math.PI * side / TUBE_SIDES;
+                float cos = (float) Math.cos(angle);
+                float sin = (float) Math.sin(angle);
+                float nx = mRingU[0] * cos + mRingV[0] * sin;
+                float ny = mRingU[1] * cos + mRingV[1] * sin;
+                float nz = mRingU[2] * cos + mRingV[2] * sin;
+                mNormals[v] = nx;
+                mNormals[v + 1] = ny;
+                mNormals[v + 2] = nz;
+                mPositions[v] = samples[c] + nx * mTubeRadius;
+                mPositions[v + 1] = samples[c + 1] + ny * mTubeRadius;
+                mPositions[v + 2] = samples[c + 2] + nz * mTubeRadius;
+            }
+        }
+        // Unused rings collapse onto the last one, their triangles have no area.
+        int ringFloats = TUBE_SIDES * 3;
+        for (int ring = count; ring < TUBE_RINGS; ring++, v += ringFloats) {
+            System.arraycopy(mPositions, v - ringFloats, mPositions, v, ringFloats);
+            System.arraycopy(mNormals, v - ringFloats, mNormals, v, ringFloats);
+        }
+    }
+
+
+    /**
+     * Start a ring frame for a direction, using the axis the tube is least along.
+     */
+    private void startFrame(float dx, float dy, float dz) {
+        float ux, uy, uz;
+        if (Math.abs(dy) < 0.9f) {
+            ux = dz; uy = 0.0f; uz = -dx;       // up x dir
+        } else {
+            ux = 0.0f; uy = -dz; uz = dy;       // right x dir
+        }
+        float uLength = (float) Math.sqrt(ux * ux + uy * uy + uz * uz);
+        mRingU[0] = ux / uLength;
+        mRingU[1] = uy / uLength;
+        mRingU[2] = uz / uLength;
+        crossRingV(dx, dy, dz);
+    }
+
+
+    /**
+     * Turn the previous ring's frame to a new direction.
+     * @return False if the tube turned back on itself and a new frame is needed.
+     */
+    private boolean transportFrame(float dx, float dy, float dz) {
+        float along = mRingU[0] * dx + mRingU[1] * dy + mRingU[2] * dz;
+        float ux = mRingU[0] - dx * along;
+        float uy = mRingU[1] - dy * along;
+        float uz = mRingU[2] - dz * along;
+        float uLength = (float) Math.sqrt(ux * ux + uy * uy + uz * uz);
+        if (uLength < 1e-3f) {
+            return false;
+        }
+        mRingU[0] = ux / uLength;
+        mRingU[1] = uy / uLength;
+        mRingU[2] = uz / uLength;
+        crossRingV(dx, dy, dz);
+        return true;
+    }
+
+
+    private void crossRingV(float dx, float dy, float dz) {
+        mRingV[0] = dy * mRingU[2] - dz * mRingU[1];
+        mRingV[1] = dz * mRingU[0] - dx * mRingU[2];
+        mRingV[2] = dx * mRingU[1] - dy * mRingU[0];
+    }
+
+
+    private void buildIndices() {
+        int tubeCount = Math.max(0, mClipCount - 1);
+        mIndices = new int[mClipCount * SPHERE_INDICES + tubeCount * TUBE_INDICES];
+        int i = 0;
+        for (int clip = 0; clip < mClipCount; clip++) {
+            int base = clip * SPHERE_VERTICES;
+            for (int ring = 0; ring < SPHERE_RINGS; ring++) {
+                for (int sector = 0; sector < SPHERE_SECTORS; sector++) {
+                    int next = (sector + 1) % SPHERE_SECTORS;
+                    int a = base + ring * SPHERE_SECTORS + sector;
+                    int b = base + ring * SPHERE_SECTORS + next;
+                    int c = base + (ring + 1) * SPHERE_SECTORS + sector;
+                    int d = base + (ring + 1) * SPHERE_SECTORS + next;
+                    i = putQuad(i, a, b, c, d);
+                }
+            }
+        }
+        for (int tube = 1; tube < mClipCount; tube++) {
+            for (int ring = 0; ring < TUBE_RINGS - 1; ring++) {
+                int base = getTubeVertexStart(tube) + ring * TUBE_SIDES;
+                for (int side = 0; side < TUBE_SIDES; side++) {
+                    int next = (side + 1) % TUBE_SIDES;
+                    i = putQuad(i, base + side, base + TUBE_SIDES + side,
+                            base + next, base + TUBE_SIDES + next);
+                }
+            }
+        }
+    }
+
+
+    // Two counter-clockwise triangles a-c-b and b-c-d.
+    private int putQuad(int i, int a, int b, int c, int d) {
+        mIndices[i++] = a;
+        mIndices[i++] = c;
+        mIndices[i++] = b;
+        mIndices[i++] = b;
+        mIndices[i++] = c;
+        mIndices[i++] = d;
+        return i;
+    }
+
+
+    /**
+     * Check if any clip has been added, moved or resized since the last update(). Otherwise
+     * the next update() only follows a new tolerance.
+     * @return True if clips have changed.
+     */
+    public boolean hasChangedClips() {
+        return mAnyDirty;
+    }
+
+
+    /**
+     * Get the number of clips.
+     * @return Clip count.
+     */
+    public int getClipCount() {
+        return mClipCount;
+    }
+
+
+    /**
+     * Get the number of vertices.
+     * @return Vertex count.
+     */
+    public int getVertexCount() {
+        return mClipCount * SPHERE_VERTICES + Math.max(0, mClipCount - 1) * TUBE_VERTICES;
+    }
+
+
+    /**
+     * Vertex positions, 3 floats per vertex. Owned by the builder, don't modify.
+     * @return Positions.
+     */
+    public float[] getPositions() {
+        return mPositions;
+    }
+
+
+    /**
+     * Vertex normals, 3 floats per vertex. Owned by the builder, don't modify.
+     * @return Normals.
+     */
+    public float[] getNormals() {
+        return mNormals;
+    }
+
+
+    /**
+     * Triangle indices, three per triangle. Owned by the builder, don't modify.
+     * @return Indices.
+     */
+    public int[] getIndices() {
+        return mIndices;
+    }
+
+
+    /**
+     * First vertex changed by the last update().
+     * @return Vertex index.
+     */
+    public int getChangedStart() {
+        return mChangedStart;
+    }
+
+
+    /**
+     * One past the last vertex changed by the last update().
+     * @return Vertex index.
+     */
+    public int getChangedEnd() {
+        return mChangedEnd;
+    }
+
+
+    /**
+     * Number of tubes regenerated by the last update().
+     * @return Tube count.
+     */
+    public int getRegeneratedTubeCount() {
+        return mRegeneratedTubes;
+    }
+}
@@ -0,0 +1,559 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * State of a Route that doesn't need Sceneform: Clip transforms, the poses of the anchors they
+ * are relative to, picking proxies, bounding sphere, level of detail, selection and recording
+ * edits. Route places its Nodes from this and only reads the user's gestures back in, and a
+ * headless harness can drive it directly on a plain JVM.
+ * @param <T> Owner of the picking proxies, a Route in the app.
+ */
+public class RouteModel<T> {
+
+    // Sizes used for picking Routes by tap, in meters.
+    private static final float CLIP_PICK_RADIUS = 0.05f;
+    private static final float LINE_PICK_RADIUS = 0.02f;
+    // Added to the bounding sphere to cover the clip spheres and the info card.
+    private static final float BOUNDS_PADDING = 0.3f;
+
+    // Scratch positions, models are only touched from one thread.
+    private static final float[] sScratchStart = new float[3];
+    private static final float[] sScratchEnd = new float[3];
+    private static final float[] sScratchLocal = new float[3];
+
+    private final long mId;
+    private final T mOwner;
+    private final ClipBvh<T> mClipBvh;
+
+    // World transforms of the Clips, and the path the lines follow through them.
+    private final ClipGeometry mGeometry = new ClipGeometry();
+    // World poses of the Route's anchors, 7 floats each as in PoseMath.
+    private final ArrayList<float[]> mAnchorPoses = new ArrayList<>();
+    private final PoseMath mPoseMath = new RigidPoseMath();
+    private final RouteSpline mSpline = new RouteSpline();
+    // Proxy ids in ClipBvh: sphere of each Clip and line from the previous Clip, -1 if none.
+    private int[] mSpherePickIds = new int[8];
+    private int[] mLinePickIds = new int[8];
+
+    // Clip the user last selected or moved, and whether a transform is in progress.
+    private int mSelectedClip = 0;
+    private boolean mTransforming = false;
+
+    // Level of detail, and bounding sphere of the Clip positions: x, y, z, radius.
+    // Two more floats are room for ClipGeometry's bounding box.
+    private int mLodLevel = LodPolicy.LEVEL_FULL;
+    private boolean mForceFullDetail = true;
+    private final float[] mBounds = new float[6];
+    private boolean mBoundsDirty = true;
+
+    // Edits are recorded here, null if not recording.
+    private EditJournal mJournal;
+    private boolean mApplyingEdit = false;
+    // Info as last recorded, the before state of the next info edit.
+    private RouteRecord mInfoSnapshot;
+
+
+    /**
+     * Constructor for RouteModel.
+     * @param id Id of the Route.
+     * @param owner Owner of the picking proxies.
+     * @param clipBvh ClipBvh shared by all Routes.
+     * @param info Route's info at the start, for recording info edits.
+     */
+    public RouteModel(long id, T owner, ClipBvh<T> clipBvh, RouteRecord info) {
+        mId = id;
+        mOwner = owner;
+        mClipBvh = clipBvh;
+        mInfoSnapshot = info;
+    }
+
+
+    /**
+     * Get Route's id.
+     * @return Id of the Route.
+     */
+    public long getId() {
+        return mId;
+    }
+
+
+    /**
+     * Set the journal edits are recorded to.
+     * @param journal EditJournal, null to stop recording.
+     */
+    public void setEditJournal(EditJournal journal) {
+        mJournal = journal;
+    }
+
+
+    /**
+     * While applying an edit from undo or redo, changes aren't recorded again.
+     * @param applying True when starting to apply, false when done.
+     */
+    public void setApplyingEdit(boolean applying) {
+        mApplyingEdit = applying;
+    }
+
+
+    /**
+     * Get the number of Clips.
+     * @return Clip count.
+     */
+    public int getClipCount() {
+        return mGeometry.getCount();
+    }
+
+
+    /**
+     * Get the transforms of the Clips, Route places its Nodes from these.
+     * @return ClipGeometry of the Route.
+     */
+    public ClipGeometry getGeometry() {
+        return mGeometry;
+    }
+
+
+    /**
+     * Get the path the lines follow, as of the last updateLines().
+     * @return RouteSpline of the Route.
+     */
+    public RouteSpline getSpline() {
+        return mSpline;
+    }
+
+
+    /**
+     * Bring the segments and the spline up to date with the Clips that have moved. The lines
+     * of the spline's changed segments need placing afterwards.
+     */
+    public void updateLines() {
+        int count = mGeometry.getCount();
+        mSpline.setPointCount(count);
+        int end = Math.min(mGeometry.getDirtyEnd(), count);
+        for (int i = mGeometry.getDirtyStart(); i < end; i++) {
+            mSpline.setPoint(i, mGeometry.getX(i), mGeometry.getY(i), mGeometry.getZ(i));
+        }
+        mGeometry.updateSegments();
+        mSpline.update();
+    }
+
+
+    /**
+     * Add a Clip to the end. It becomes the selected Clip.
+     * @param position World position, 3 floats.
+     * @param scale Scale of the Clip.
+     * @return Position of the new Clip in Route.
+     */
+    public int addClip(float[] position, float scale) {
+        if (mJournal != null && !mApplyingEdit && mGeometry.getCount() == 0) {
+            // Replaying a new Route needs its info too.
+            mJournal.log(EditCommand.setInfo(mId, null, mInfoSnapshot));
+        }
+        int index = mGeometry.add(position, scale);
+        ensureCapacity(index + 1);
+
+        mSpherePickIds[index] = mClipBvh.addSphere(mOwner, index, position, CLIP_PICK_RADIUS);
+        if (index > 0) {
+            getClipPosition(index - 1, sScratchStart);
+            mLinePickIds[index] = mClipBvh.addSegment(mOwner, index, sScratchStart, position, LINE_PICK_RADIUS);
+        } else {
+            mLinePickIds[index] = -1;
+        }
+
+        mSelectedClip = index;
+        mBoundsDirty = true;
+        if (mJournal != null && !mApplyingEdit) {
+            mJournal.record(EditCommand.addClip(mId, index, position, scale));
+        }
+        return index;
+    }
+
+
+    private void ensureCapacity(int count) {
+        if (mSpherePickIds.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, mSpherePickIds.length * 2);
+        mSpherePickIds = Arrays.copyOf(mSpherePickIds, capacity);
+        mLinePickIds = Arrays.copyOf(mLinePickIds, capacity);
+    }
+
+
+    /**
+     * Add an anchor Clips can be placed relative to.
+     * @param pose World pose of the anchor, 7 floats.
+     * @return Index of the anchor.
+     */
+    public int addAnchor(float[] pose) {
+        mAnchorPoses.add(Arrays.copyOf(pose, 7));
+        return mAnchorPoses.size() - 1;
+    }
+
+
+    /**
+     * Remove the last anchor. No Clip may be relative to it any more.
+     */
+    public void removeLastAnchor() {
+        if (!mAnchorPoses.isEmpty()) {
+            mAnchorPoses.remove(mAnchorPoses.size() - 1);
+        }
+    }
+
+
+    /**
+     * Get the number of anchors.
+     * @return Anchor count.
+     */
+    public int getAnchorCount() {
+        return mAnchorPoses.size();
+    }
+
+
+    /**
+     * Get an anchor's world pose.
+     * @param anchor Index of the anchor.
+     * @param out Pose, 7 floats as in PoseMath.
+     */
+    public void getAnchorPose(int anchor, float[] out) {
+        System.arraycopy(mAnchorPoses.get(anchor), 0, out, 0, 7);
+    }
+
+
+    /**
+     * Set an anchor's world pose, e.g. when ARCore has updated it. The Clips relative to it
+     * move with it, keeping their offsets. Anchors drifting isn't recorded as an edit.
+     * @param anchor Index of the anchor.
+     * @param pose World pose, 7 floats as in PoseMath.
+     * @return True if any Clip moved.
+     */
+    public boolean setAnchorPose(int anchor, float[] pose) {
+        System.arraycopy(pose, 0, mAnchorPoses.get(anchor), 0, 7);
+        boolean moved = false;
+        for (int i = 0; i < mGeometry.getCount(); i++) {
+            if (mGeometry.getAnchor(i) == anchor) {
+                mGeometry.getLocalPosition(i, sScratchLocal);
+                mPoseMath.toWorld(pose, sScratchLocal, sScratchEnd);
+                moved |= moveClip(i, sScratchEnd, false);
+            }
+        }
+        return moved;
+    }
+
+
+    /**
+     * Place a Clip relative to an anchor without moving it in the world, its offset is
+     * computed from the anchor's current pose.
+     * @param index Position of the Clip in Route.
+     * @param anchor Index of the anchor, -1 for none.
+     */
+    public void setClipAnchor(int index, int anchor) {
+        if (anchor != -1) {
+            mGeometry.getPosition(index, sScratchEnd);
+            mPoseMath.toLocal(mAnchorPoses.get(anchor), sScratchEnd, sScratchLocal);
+        }
+        mGeometry.setAnchor(index, anchor, sScratchLocal);
+    }
+
+
+    /**
+     * Get the anchor a Clip is relative to.
+     * @param index Position of the Clip in Route.
+     * @return Index of the anchor, -1 if none.
+     */
+    public int getClipAnchor(int index) {
+        return mGeometry.getAnchor(index);
+    }
+
+
+    /**
+     * Get a Clip's offset from its anchor, where its Node is placed under the anchor's Node.
+     * @param index Position of the Clip in Route.
+     * @param out Array of 3 floats to write to.
+     */
+    public void getClipLocalPosition(int index, float[] out) {
+        mGeometry.getLocalPosition(index, out);
+    }
+
+
+    /**
+     * Remove the last Clip, e.g. when undoing adding it.
+     */
+    public void removeLastClip() {
+        if (mGeometry.getCount() == 0) {
+            return;
+        }
+        mGeometry.removeLast();
+        int last = mGeometry.getCount();
+        mClipBvh.remove(mSpherePickIds[last]);
+        if (mLinePickIds[last] != -1) {
+            mClipBvh.remove(mLinePickIds[last]);
+        }
+        if (mSelectedClip >= last) {
+            mSelectedClip = Math.max(0, last - 1);
+            mTransforming = false;
+        }
+        mBoundsDirty = true;
+    }
+
+
+    /**
+     * Set a Clip's position. Its offset from its anchor follows, its picking proxies move, and
+     * a move is recorded if the user moved it. Movements under LineMath.MOVE_EPSILON_SQUARED
+     * are ignored.
+     * @param index Position of the Clip in Route.
+     * @param position World position, 3 floats.
+     * @param byUser True if the user moved the Clip, false if e.g. undo moved it.
+     * @return True if the Clip moved.
+     */
+    public boolean setClipPosition(int index, float[] position, boolean byUser) {
+        if (!moveClip(index, position, byUser)) {
+            return false;
+        }
+        int anchor = mGeometry.getAnchor(index);
+        if (anchor != -1) {
+            mPoseMath.toLocal(mAnchorPoses.get(anchor), position, sScratchLocal);
+            mGeometry.setAnchor(index, anchor, sScratchLocal);
+        }
+        return true;
+    }
+
+
+    /**
+     * Move a Clip in the world, leaving its offset from its anchor as it is.
+     * @param index Position of the Clip in Route.
+     * @param position World position, 3 floats.
+     * @param byUser True to record the move.
+     * @return True if the Clip moved.
+     */
+    private boolean moveClip(int index, float[] position, boolean byUser) {
+        mGeometry.getPosition(index, sScratchStart);
+        if (!mGeometry.setPosition(index, position[0], position[1], position[2])) {
+            return false;
+        }
+        if (mJournal != null && !mApplyingEdit && byUser) {
+            mJournal.record(EditCommand.moveClip(mId, index, sScratchStart, position,
+                    mGeometry.getScale(index)));
+        }
+        movePickProxies(index);
+        mBoundsDirty = true;
+        return true;
+    }
+
+
+    /**
+     * Update ClipBvh after a Clip has moved: its sphere and the lines on both sides.
+     * @param index Position of the Clip in Route.
+     */
+    private void movePickProxies(int index) {
+        getClipPosition(index, sScratchEnd);
+        mClipBvh.moveSphere(mSpherePickIds[index], sScratchEnd);
+        if (index > 0) {
+            getClipPosition(index - 1, sScratchStart);
+            mClipBvh.moveSegment(mLinePickIds[index], sScratchStart, sScratchEnd);
+        }
+        if (index < mGeometry.getCount() - 1) {
+            getClipPosition(index + 1, sScratchStart);
+            mClipBvh.moveSegment(mLinePickIds[index + 1], sScratchEnd, sScratchStart);
+        }
+    }
+
+
+    /**
+     * Get a Clip's world position.
+     * @param index Position of the Clip in Route.
+     * @param out Array of 3 floats to write to.
+     */
+    public void getClipPosition(int index, float[] out) {
+        mGeometry.getPosition(index, out);
+    }
+
+
+    /**
+     * Get a Clip's scale.
+     * @param index Position of the Clip in Route.
+     * @return Scale.
+     */
+    public float getClipScale(int index) {
+        return mGeometry.getScale(index);
+    }
+
+
+    /**
+     * Set a Clip's scale.
+     * @param index Position of the Clip in Route.
+     * @param scale Scale.
+     */
+    public void setClipScale(int index, float scale) {
+        mGeometry.setScale(index, scale);
+    }
+
+
+    /**
+     * Get the length of the Route along its lines, as of the last line update.
+     * @return Length in meters.
+     */
+    public float getLength() {
+        return mGeometry.getLength();
+    }
+
+
+    /**
+     * A Clip is being transformed by the user.
+     * @param index Position of the Clip in Route.
+     */
+    public void onClipTransformed(int index) {
+        mSelectedClip = index;
+        mTransforming = true;
+    }
+
+
+    /**
+     * The transform in progress has ended.
+     */
+    public void onTransformEnded() {
+        mTransforming = false;
+    }
+
+
+    /**
+     * Check if the user is transforming a Clip.
+     * @return True if a transform is in progress.
+     */
+    public boolean isTransforming() {
+        return mTransforming;
+    }
+
+
+    /**
+     * Get the position of the Clip the user last selected or moved.
+     * @return Position in Route, -1 if the Route has no Clips.
+     */
+    public int getSelectedClip() {
+        return mGeometry.getCount() == 0 ? -1 : mSelectedClip;
+    }
+
+
+    /**
+     * Record RouteInfo's new values.
+     * @param info Info after the change, only the info fields are used.
+     */
+    public void recordInfo(RouteRecord info) {
+        if (mJournal != null && !mApplyingEdit) {
+            mJournal.record(EditCommand.setInfo(mId, mInfoSnapshot, info));
+        }
+        mInfoSnapshot = info;
+    }
+
+
+    /**
+     * Route being edited is always shown in full.
+     * @param force True to force full detail.
+     */
+    public void setForceFullDetail(boolean force) {
+        mForceFullDetail = force;
+        if (force) {
+            mLodLevel = LodPolicy.LEVEL_FULL;
+        }
+    }
+
+
+    /**
+     * Check if full detail is forced.
+     * @return True while the Route is being edited.
+     */
+    public boolean isForceFullDetail() {
+        return mForceFullDetail;
+    }
+
+
+    /**
+     * Choose the level of detail from the camera's position.
+     * @param policy LodPolicy to choose with.
+     * @param cameraPosition Camera's world position, 3 floats.
+     * @param cameraForward Camera's forward direction, unit length.
+     * @return True if the level changed.
+     */
+    public boolean updateLod(LodPolicy policy, float[] cameraPosition, float[] cameraForward) {
+        int level;
+        if (mGeometry.getCount() == 0) {
+            level = LodPolicy.LEVEL_FULL;
+        } else {
+            if (mBoundsDirty) {
+                updateBounds();
+            }
+            // Lines are tessellated for the distance even when editing forces full detail.
+            float distance = LodPolicy.distanceToSphere(cameraPosition, mBounds, mBounds[3]);
+            mSpline.setTolerance(RouteSpline.toleranceAt(distance));
+            if (mForceFullDetail) {
+                level = LodPolicy.LEVEL_FULL;
+            } else {
+                boolean inView = policy.isInView(cameraPosition, cameraForward, mBounds, mBounds[3],
+                        mLodLevel != LodPolicy.LEVEL_HIDDEN);
+                level = policy.chooseLevel(mLodLevel, distance, inView);
+            }
+        }
+        if (level == mLodLevel) {
+            return false;
+        }
+        mLodLevel = level;
+        return true;
+    }
+
+
+    /**
+     * Get the current level of detail.
+     * @return One of LodPolicy's levels.
+     */
+    public int getLodLevel() {
+        return mLodLevel;
+    }
+
+
+    /**
+     * Get the bounding sphere of the Clip positions.
+     * @param out Array of 4 floats to write to: x, y, z, radius.
+     */
+    public void getBounds(float[] out) {
+        if (mBoundsDirty) {
+            updateBounds();
+        }
+        System.arraycopy(mBounds, 0, out, 0, 4);
+    }
+
+
+    /**
+     * Recompute the bounding sphere from the Clip positions.
+     */
+    private void updateBounds() {
+        mGeometry.getBoundingSphere(mBounds);
+        mBounds[3] += BOUNDS_PADDING;
+        mBoundsDirty = false;
+    }
+
+
+    /**
+     * Set a mesh builder's clips from the Clip positions, in the space of an anchor so the
+     * mesh can be placed under it. Clips of that anchor use their offsets as they are, so
+     * the anchor moving doesn't change them.
+     * @param builder RouteMeshBuilder to fill.
+     * @param anchor Index of the anchor the mesh is relative to, unused if there are no Clips.
+     * @param sphereRadius Radius of a sphere at scale 1.
+     */
+    public void fillMesh(RouteMeshBuilder builder, int anchor, float sphereRadius) {
+        int count = mGeometry.getCount();
+        builder.setClipCount(count);
+        builder.setTolerance(mSpline.getTolerance());
+        for (int i = 0; i < count; i++) {
+            if (mGeometry.getAnchor(i) == anchor) {
+                mGeometry.getLocalPosition(i, sScratchLocal);
+            } else {
+                mGeometry.getPosition(i, sScratchStart);
+                mPoseMath.toLocal(mAnchorPoses.get(anchor), sScratchStart, sScratchLocal);
+            }
+            builder.setClip(i, sScratchLocal[0], sScratchLocal[1], sScratchLocal[2],
+                    sphereRadius * mGeometry.getScale(i));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ninja.siili.climbingroutes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Plain data copy of a Route: RouteInfo's values and Clip poses relative to the Route's origin.
+ * Used for saving routes, knows its own compact binary encoding.
+ */
+public class RouteRecord {
+
+    // Floats per Clip: position x, y, z, rotation x, y, z, w and scale.
+    public static final int CLIP_FLOATS = 8;
+    // Floats for origin: position x, y, z and rotation x, y, z, w.
+    public static final int ORIGIN_FLOATS = 7;
+
+    // Bits of the flags byte.
+    public static final int FLAG_BOULDER = 1;
+    public static final int FLAG_SPORT = 1 << 1;
+    public static final int FLAG_TRAD = 1 << 2;
+    public static final int FLAG_SITSTART = 1 << 3;
+    public static final int FLAG_TOP_OUT = 1 << 4;
+
+    // Strings are stored with an unsigned short length.
+    private static final int MAX_STRING_BYTES = 0xffff;
+
+    public long id;
+    public String name = "";
+    public int difficulty;
+    public int flags;
+    public int startHoldCount = 1;
+    public String notes = "";
+    public final float[] origin = {0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f};
+    public float[] clips = new float[0];
+
+
+    /**
+     * Get the number of Clips in the record.
+     * @return Clip count.
+     */
+    public int getClipCount() {
+        return clips.length / CLIP_FLOATS;
+    }
+
+
+    /**
+     * Check a flag.
+     * @param flag One of the FLAG_ constants.
+     * @return True if set.
+     */
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+
+    /**
+     * Set or clear a flag.
+     * @param flag One of the FLAG_ constants.
+     * @param value True to set.
+     */
+    public void setFlag(int flag, boolean value) {
+        if (value) flags |= flag;
+        else flags &= ~flag;
+    }
+
+
+    /**
+     * Size of the encoded record in bytes, not counting the id.
+     * @return Byte count.
+     */
+    public int encodedSize() {
+        return 2 + utf8Length(name) + 1 + 1 + 1 + 2 + utf8Length(notes)
+                + 4 * ORIGIN_FLOATS + 2 + 4 * clips.length;
+    }
+
+
+    /**
+     * Encode the record, not including the id.
+     * @param buffer Buffer with at least encodedSize() bytes remaining.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        writeString(buffer, name);
+        buffer.put((byte) difficulty);
+        buffer.put((byte) flags);
+        buffer.put((byte) startHoldCount);
+        writeString(buffer, notes);
+        for (float f : origin) {
+            buffer.putFloat(f);
+        }
+        buffer.putShort((short) getClipCount());
+        for (float f : clips) {
+            buffer.putFloat(f);
+        }
+    }
+
+
+    /**
+     * Decode a record written with writeTo().
+     * @param id Id of the route.
+     * @param buffer Buffer positioned at the start of the record.
+     * @return The record.
+     */
+    public static RouteRecord readFrom(long id, ByteBuffer buffer) {
+        RouteRecord record = readInfoFrom(id, buffer);
+        for (int i = 0; i < ORIGIN_FLOATS; i++) {
+            record.origin[i] = buffer.getFloat();
+        }
+        int clipCount = buffer.getShort() & 0xffff;
+        record.clips = new float[clipCount * CLIP_FLOATS];
+        for (int i = 0; i < record.clips.length; i++) {
+            record.clips[i] = buffer.getFloat();
+        }
+        return record;
+    }
+
+
+    /**
+     * Decode only the info fields of a record written with writeTo(), origin and clips are
+     * skipped and left empty.
+     * @param id Id of the route.
+     * @param buffer Buffer positioned at the start of the record, left after the notes.
+     * @return The record without clips.
+     */
+    public static RouteRecord readInfoFrom(long id, ByteBuffer buffer) {
+        RouteRecord record = new RouteRecord();
+        record.id = id;
+        record.name = readString(buffer);
+        record.difficulty = buffer.get();
+        record.flags = buffer.get();
+        record.startHoldCount = buffer.get();
+        record.notes = readString(buffer);
+        return record;
+    }
+
+
+    // Encode, cutting strings over MAX_STRING_BYTES before the character that doesn't fit.
+    private static byte[] utf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            int end = MAX_STRING_BYTES;
+            // Back up while the first cut off byte continues a character.
+            while ((bytes[end] & 0xc0) == 0x80) {
+                end--;
+            }
+            return Arrays.copyOf(bytes, end);
+        }
+        return bytes;
+    }
+
+
+    // Length of utf8(s) counted from the chars, without encoding.
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int bytes;
+            if (c < 0x80) {
+                bytes = 1;
+            } else if (c < 0x800) {
+                bytes = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes = 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are encoded as '?'.
+                bytes = 1;
+            } else {
+                bytes = 3;
+            }
+            if (length + bytes > MAX_STRING_BYTES) {
+                break;
+            }
+            length += bytes;
+        }
+        return length;
+    }
+
+
+    private static void writeString(ByteBuffer buffer, String s) {
+        byte[] bytes = utf8(s);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
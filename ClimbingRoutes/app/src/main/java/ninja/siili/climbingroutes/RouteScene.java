@@ -0,0 +1,220 @@
+package ninja.siili.climbingroutes;
+
+import android.view.View;
+
+/**
+ * What Route needs from the Scene: anchors, Clips' nodes, the merged mesh and pooled info
+ * cards, behind handles. SceneformRouteScene makes them from Sceneform and ARCore, a headless
+ * harness can make its own and drive the real Route logic on a plain JVM.
+ */
+public interface RouteScene {
+
+    /** One of a Route's anchors, Clips sit at local offsets under it. */
+    interface AnchorHandle {
+
+        /**
+         * Read the anchor's world pose.
+         * @param out Pose, 7 floats as in PoseMath.
+         */
+        void readPose(float[] out);
+
+
+        /**
+         * Check if the anchor is tracked, an untracked one stays where it was put.
+         * @return True if tracked.
+         */
+        boolean isAnchored();
+
+
+        /**
+         * Start tracking at the current pose, or stop tracking and stay where it is.
+         * @param anchored True to track.
+         */
+        void setAnchored(boolean anchored);
+
+
+        /**
+         * Release the anchor and remove it from the Scene.
+         */
+        void destroy();
+    }
+
+
+    /** Nodes of one Clip: its sphere, the line from the previous Clip and the info card. */
+    interface ClipHandle {
+
+        /**
+         * Move the Clip under another anchor. It's placed again with setTransform().
+         * @param anchor New parent.
+         */
+        void setParent(AnchorHandle anchor);
+
+
+        /**
+         * Place the Clip under its anchor.
+         * @param localPosition Position relative to the anchor, 3 floats.
+         * @param rotation World rotation, quaternion as x, y, z, w.
+         * @param scale Uniform scale of the sphere.
+         */
+        void setTransform(float[] localPosition, float[] rotation, float scale);
+
+
+        /**
+         * Read where the user's gesture has moved the Clip.
+         * @param worldPosition World position, 3 floats.
+         * @param rotation World rotation, quaternion as x, y, z, w.
+         * @return Uniform scale of the sphere.
+         */
+        float readGesture(float[] worldPosition, float[] rotation);
+
+
+        /**
+         * Check if the user's gesture is moving the Clip.
+         * @return True if transforming.
+         */
+        boolean isTransforming();
+
+
+        /**
+         * Set a listener for the user's gesture moving the Clip, anchor updates don't call it.
+         * @param listener Called on the UI thread, null to remove.
+         */
+        void setOnTransformListener(Runnable listener);
+
+
+        /**
+         * Place the line from the previous Clip along Route's spline.
+         * @param spline RouteSpline with updated samples.
+         * @param index Position of this Clip in Route.
+         */
+        void placeLine(RouteSpline spline, int index);
+
+
+        /**
+         * Choose which parts of the Clip are shown.
+         * @param visible False to hide the whole Clip.
+         * @param sphere True to show the sphere.
+         * @param line True to show the line to previous Clip.
+         * @param card True to show the info card.
+         */
+        void setDetail(boolean visible, boolean sphere, boolean line, boolean card);
+
+
+        /**
+         * Enable or disable the user's gestures.
+         * @param enable True to enable.
+         */
+        void enableTransforming(boolean enable);
+
+
+        /**
+         * Change the color of the sphere and the line.
+         * @param band Grade band of the new color.
+         */
+        void changeColor(int band);
+
+
+        /**
+         * Fetch renderables again, used when placeholders have been replaced by models.
+         */
+        void refreshRenderables();
+
+
+        /**
+         * Attach a pooled info card above the Clip.
+         * @param card Index of the card.
+         */
+        void attachInfoCard(int card);
+
+
+        /**
+         * Detach the info card so it can be given to another Clip.
+         */
+        void detachInfoCard();
+
+
+        /**
+         * Remove the Clip from the Scene.
+         */
+        void destroy();
+    }
+
+
+    /** Whole Route drawn as one mesh. */
+    interface MeshHandle {
+
+        /**
+         * Set clips from the Route's positions and scales. The mesh is placed under an anchor
+         * and follows it like the Clips do.
+         * @param model RouteModel of the Route.
+         * @param anchor Index of the anchor in RouteModel, -1 if Route has no Clips.
+         * @param parent The anchor's handle, null if Route has no Clips.
+         */
+        void setClips(RouteModel<?> model, int anchor, AnchorHandle parent);
+
+
+        /**
+         * Regenerate changed parts of the mesh, the new mesh is set when ready.
+         * @param band Grade band of the Route.
+         */
+        void rebuild(int band);
+
+
+        /**
+         * Check if a mesh with the Clips where they are now is set. A rebuild for a new
+         * tolerance or color keeps the old mesh shown until the new one is set.
+         * @return True if ready to be shown.
+         */
+        boolean isReady();
+
+
+        /**
+         * Show or hide the mesh. It's only shown once ready.
+         * @param visible True to show.
+         */
+        void setVisible(boolean visible);
+
+
+        /**
+         * Material has to be fetched again, e.g. after placeholders were replaced by models.
+         */
+        void invalidateMaterial();
+    }
+
+
+    /**
+     * Make an anchor.
+     * @param route Route the anchor is for, it's told when the anchor is updated.
+     * @param position World position, 3 floats.
+     * @param atHit True to track it on the surface of the last hit test, false to leave it
+     *              untracked until setAnchored().
+     * @return New AnchorHandle.
+     */
+    AnchorHandle createAnchor(Route route, float[] position, boolean atHit);
+
+
+    /**
+     * Make a Clip's nodes under an anchor.
+     * @param anchor Anchor to place the Clip under.
+     * @param band Grade band of the Route, sets the color.
+     * @param withLine True if the Clip has a line from a previous Clip.
+     * @return New ClipHandle.
+     */
+    ClipHandle createClip(AnchorHandle anchor, int band, boolean withLine);
+
+
+    /**
+     * Make a merged mesh for a Route.
+     * @param onReady Called on the UI thread when a new mesh has been set.
+     * @return New MeshHandle.
+     */
+    MeshHandle createMesh(Runnable onReady);
+
+
+    /**
+     * Get the View of a pooled info card.
+     * @param card Index of the card.
+     * @return View of the card, null if the Scene has no Views.
+     */
+    View getInfoCardView(int card);
+}
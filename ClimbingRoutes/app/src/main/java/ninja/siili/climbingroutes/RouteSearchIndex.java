@@ -0,0 +1,332 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory search index over route metadata.
+ * Each indexed item gets a slot number. Flags and difficulties have a BitSet of slots each,
+ * words of the name and notes have an inverted index from word to BitSet. A query is a few
+ * BitSet ands and ors, so it never looks at the routes themselves.
+ * The difficulty BitSets double as a sorted grade index: a range like 6b to 7a only visits the
+ * sets inside the range, in order.
+ * Indexed values are read from RouteRecords, only the info fields are used.
+ * @param <T> Type of the indexed items.
+ */
+public class RouteSearchIndex<T> {
+
+    private static final int FLAG_COUNT = 5;
+
+    private final HashMap<T, Integer> mSlots = new HashMap<>();
+    private final ArrayList<T> mItems = new ArrayList<>();
+    private final ArrayList<String[]> mWords = new ArrayList<>();
+    private int[] mDiffs = new int[16];
+    private final BitSet mLive = new BitSet();
+    private final BitSet mFree = new BitSet();
+
+    private final BitSet[] mFlagSets = new BitSet[FLAG_COUNT];
+    private final BitSet[] mDiffSets = new BitSet[GradeEngine.DIFFICULTY_COUNT];
+    // Sorted so a prefix matches a contiguous range of words.
+    private final TreeMap<String, BitSet> mWordSets = new TreeMap<>();
+
+    // Reused between queries.
+    private final BitSet mResult = new BitSet();
+    private final BitSet mTerm = new BitSet();
+
+
+    /**
+     * A combined query. Every condition that is set must match. Reuse instances freely.
+     */
+    public static class Query {
+        private int mRequiredFlags = 0;
+        private int mExcludedFlags = 0;
+        private int mMinDiff = 0;
+        private int mMaxDiff = GradeEngine.DIFFICULTY_COUNT - 1;
+        private String[] mPrefixes = new String[0];
+
+
+        /**
+         * Require flags to be set.
+         * @param flags RouteRecord FLAG_ constants or'ed together.
+         * @return This query.
+         */
+        public Query withFlags(int flags) {
+            mRequiredFlags |= flags;
+            return this;
+        }
+
+
+        /**
+         * Require flags to be clear.
+         * @param flags RouteRecord FLAG_ constants or'ed together.
+         * @return This query.
+         */
+        public Query withoutFlags(int flags) {
+            mExcludedFlags |= flags;
+            return this;
+        }
+
+
+        /**
+         * Limit difficulty to a range of indices.
+         * @param minDiff Lowest difficulty index, inclusive.
+         * @param maxDiff Highest difficulty index, inclusive.
+         * @return This query.
+         */
+        public Query grades(int minDiff, int maxDiff) {
+            mMinDiff = GradeEngine.clamp(minDiff);
+            mMaxDiff = GradeEngine.clamp(maxDiff);
+            return this;
+        }
+
+
+        /**
+         * Limit difficulty to a range of grade labels, e.g. "6a" to "6c".
+         * Unknown labels leave that end of the range open.
+         * @param scale One of GradeEngine's scale constants.
+         * @param fromLabel Easiest grade, inclusive.
+         * @param toLabel Hardest grade, inclusive.
+         * @return This query.
+         */
+        public Query grades(int scale, String fromLabel, String toLabel) {
+            int from = GradeEngine.parse(scale, fromLabel);
+            int to = GradeEngine.parse(scale, toLabel);
+            return grades(from != -1 ? GradeEngine.getMin(from) : 0,
+                    to != -1 ? GradeEngine.getMax(to) : GradeEngine.DIFFICULTY_COUNT - 1);
+        }
+
+
+        /**
+         * Require words in the name or notes. Every word must match the start of some word,
+         * so "crimp" finds "crimpy".
+         * @param text Words to search for.
+         * @return This query.
+         */
+        public Query text(String text) {
+            mPrefixes = tokenize(text);
+            return this;
+        }
+
+
+        /**
+         * Set conditions from what the user typed, e.g. "crimp 6a-6c". A grade or a range of
+         * two grades limits difficulty, other words are searched in the name and notes.
+         * @param scale One of GradeEngine's scale constants the grades are typed in.
+         * @param input Typed text.
+         * @return This query, cleared first.
+         */
+        public Query parse(int scale, String input) {
+            clear();
+            StringBuilder words = new StringBuilder();
+            for (String token : input.trim().split("\\s+")) {
+                int dash = token.indexOf('-', 1);
+                if (GradeEngine.parse(scale, token) != -1) {
+                    grades(scale, token, token);
+                } else if (dash != -1 && GradeEngine.parse(scale, token.substring(0, dash)) != -1
+                        && GradeEngine.parse(scale, token.substring(dash + 1)) != -1) {
+                    grades(scale, token.substring(0, dash), token.substring(dash + 1));
+                } else {
+                    words.append(token).append(' ');
+                }
+            }
+            return text(words.toString());
+        }
+
+
+        /**
+         * Clear all conditions.
+         * @return This query.
+         */
+        public Query clear() {
+            mRequiredFlags = 0;
+            mExcludedFlags = 0;
+            mMinDiff = 0;
+            mMaxDiff = GradeEngine.DIFFICULTY_COUNT - 1;
+            mPrefixes = new String[0];
+            return this;
+        }
+    }
+
+
+    /**
+     * Constructor for RouteSearchIndex, starts empty.
+     */
+    public RouteSearchIndex() {
+        for (int i = 0; i < FLAG_COUNT; i++) {
+            mFlagSets[i] = new BitSet();
+        }
+        for (int i = 0; i < mDiffSets.length; i++) {
+            mDiffSets[i] = new BitSet();
+        }
+    }
+
+
+    /**
+     * Split text into lower case words.
+     * @param text Text to split, may be null.
+     * @return Words, without duplicates.
+     */
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        ArrayList<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && !words.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+
+    /**
+     * Add an item or update its indexed values. Only what changed is touched.
+     * @param item Item to index.
+     * @param record Info of the item, only name, notes, flags and difficulty are read.
+     */
+    public void put(T item, RouteRecord record) {
+        Integer slot = mSlots.get(item);
+        if (slot == null) {
+            slot = mFree.isEmpty() ? mItems.size() : mFree.nextSetBit(0);
+            mFree.clear(slot);
+            mSlots.put(item, slot);
+            if (slot == mItems.size()) {
+                mItems.add(item);
+                mWords.add(new String[0]);
+                if (slot == mDiffs.length) {
+                    mDiffs = Arrays.copyOf(mDiffs, slot * 2);
+                }
+            } else {
+                mItems.set(slot, item);
+            }
+            mLive.set(slot);
+        } else {
+            mDiffSets[mDiffs[slot]].clear(slot);
+        }
+
+        for (int i = 0; i < FLAG_COUNT; i++) {
+            mFlagSets[i].set(slot, record.hasFlag(1 << i));
+        }
+        int diff = GradeEngine.clamp(record.difficulty);
+        mDiffSets[diff].set(slot);
+        mDiffs[slot] = diff;
+
+        String[] oldWords = mWords.get(slot);
+        String[] newWords = tokenize(record.name + " " + record.notes);
+        for (String word : oldWords) {
+            if (!contains(newWords, word)) {
+                BitSet set = mWordSets.get(word);
+                set.clear(slot);
+                if (set.isEmpty()) {
+                    mWordSets.remove(word);
+                }
+            }
+        }
+        for (String word : newWords) {
+            BitSet set = mWordSets.get(word);
+            if (set == null) {
+                set = new BitSet();
+                mWordSets.put(word, set);
+            }
+            set.set(slot);
+        }
+        mWords.set(slot, newWords);
+    }
+
+
+    /**
+     * Remove an item.
+     * @param item Item to remove.
+     */
+    public void remove(T item) {
+        Integer slot = mSlots.remove(item);
+        if (slot == null) {
+            return;
+        }
+        for (BitSet set : mFlagSets) {
+            set.clear(slot);
+        }
+        mDiffSets[mDiffs[slot]].clear(slot);
+        for (String word : mWords.get(slot)) {
+            BitSet set = mWordSets.get(word);
+            set.clear(slot);
+            if (set.isEmpty()) {
+                mWordSets.remove(word);
+            }
+        }
+        mWords.set(slot, new String[0]);
+        mItems.set(slot, null);
+        mLive.clear(slot);
+        mFree.set(slot);
+    }
+
+
+    /**
+     * Get the number of indexed items.
+     * @return Item count.
+     */
+    public int size() {
+        return mSlots.size();
+    }
+
+
+    /**
+     * Find items matching a query, easiest first.
+     * @param query Conditions to match.
+     * @param out List the items are added to.
+     * @return The out list.
+     */
+    public List<T> search(Query query, List<T> out) {
+        mResult.clear();
+        mResult.or(mLive);
+
+        for (int i = 0; i < FLAG_COUNT; i++) {
+            if ((query.mRequiredFlags & (1 << i)) != 0) {
+                mResult.and(mFlagSets[i]);
+            }
+            if ((query.mExcludedFlags & (1 << i)) != 0) {
+                mResult.andNot(mFlagSets[i]);
+            }
+        }
+
+        for (String prefix : query.mPrefixes) {
+            mTerm.clear();
+            for (Map.Entry<String, BitSet> entry
+                    : mWordSets.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+                mTerm.or(entry.getValue());
+            }
+            mResult.and(mTerm);
+        }
+
+        // Walking the difficulty sets in order both filters the range and sorts the result.
+        if (mResult.isEmpty()) {
+            return out;
+        }
+        for (int diff = query.mMinDiff; diff <= query.mMaxDiff; diff++) {
+            mTerm.clear();
+            mTerm.or(mDiffSets[diff]);
+            mTerm.and(mResult);
+            for (int slot = mTerm.nextSetBit(0); slot >= 0; slot = mTerm.nextSetBit(slot + 1)) {
+                out.add(mItems.get(slot));
+            }
+        }
+        return out;
+    }
+
+
+    private static boolean contains(String[] words, String word) {
+        for (String w : words) {
+            if (w.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,352 @@
+package ninja.siili.climbingroutes;
+
+import java.util.Arrays;
+
+/**
+ * Smooth path through a Route's Clips: a centripetal Catmull-Rom spline, which doesn't loop
+ * or overshoot where Clips are unevenly spaced, as they are on traverses.
+ * Segment i goes from Clip i - 1 to Clip i, like ClipGeometry's segments.
+ *
+ * Each segment is tessellated into as few pieces as keep the curve within a tolerance, so
+ * straight stretches are one piece and bends get more. The samples are cached per segment.
+ * A Clip's position shapes the four segments around it, so moving one Clip only tessellates
+ * those again. The tolerance grows with the camera's distance in steps, and a step change
+ * tessellates the whole Route again.
+ */
+public class RouteSpline {
+
+    // Most pieces a segment is split into, a power of two.
+    public static final int MAX_PIECES = 16;
+    public static final int MAX_SAMPLES = MAX_PIECES + 1;
+    // Chord error allowed closer than 2 m to the camera, doubled at 2, 4, 8 and 16 m.
+    private static final float BASE_TOLERANCE = 0.002f;
+    private static final int MAX_TOLERANCE_STEP = 4;
+    // Segments shorter than this are always one piece.
+    private static final float MIN_CURVED_LENGTH = 0.01f;
+    // Knots of coincident Clips are kept this far apart to avoid dividing by zero.
+    private static final float MIN_KNOT_STEP = 1e-3f;
+
+    private int mCount = 0;
+    // Control points, 3 floats per Clip.
+    private float[] mPoints = new float[0];
+    // Samples, MAX_SAMPLES * 3 floats per segment, and the number used by each segment.
+    private float[] mSamples = new float[0];
+    private int[] mSampleCounts = new int[0];
+    private float mTolerance = BASE_TOLERANCE;
+
+    // Segments to tessellate on the next update(), end exclusive.
+    private int mDirtyStart = Integer.MAX_VALUE;
+    private int mDirtyEnd = 0;
+    // Segments tessellated by the last update(), end exclusive.
+    private int mChangedStart = 0;
+    private int mChangedEnd = 0;
+
+    // Knots, control points and evenly spaced points of the segment being tessellated.
+    private final float[] mKnots = new float[4];
+    private final float[] mControl = new float[12];
+    private final float[] mGrid = new float[MAX_SAMPLES * 3];
+
+
+    /**
+     * Get the tolerance for a Route at a distance. It changes in steps, so a moving camera
+     * doesn't keep tessellating Routes again.
+     * @param distance Distance from the camera in meters.
+     * @return Tolerance in meters.
+     */
+    public static float toleranceAt(float distance) {
+        int step = 0;
+        while (step < MAX_TOLERANCE_STEP && distance >= (2 << step)) {
+            step++;
+        }
+        return BASE_TOLERANCE * (1 << step);
+    }
+
+
+    /**
+     * Set the number of Clips. Keeps existing Clips, the segments at the end are tessellated
+     * again.
+     * @param count Clip count.
+     */
+    public void setPointCount(int count) {
+        if (count == mCount) {
+            return;
+        }
+        if (count * 3 > mPoints.length) {
+            int capacity = Math.max(count, mCount * 2);
+            mPoints = Arrays.copyOf(mPoints, capacity * 3);
+            mSamples = Arrays.copyOf(mSamples, capacity * MAX_SAMPLES * 3);
+            mSampleCounts = Arrays.copyOf(mSampleCounts, capacity);
+        }
+        // The old last Clip's tangent depended on it being last.
+        markDirty(Math.min(count, mCount) - 1, count);
+        mCount = count;
+    }
+
+
+    /**
+     * Set a Clip's position. The segments it shapes are tessellated on the next update()
+     * if it has moved.
+     * @param index Position of the Clip in Route.
+     * @param x World x.
+     * @param y World y.
+     * @param z World z.
+     */
+    public void setPoint(int index, float x, float y, float z) {
+        if (LineMath.updateIfMoved(mPoints, index * 3, x, y, z)) {
+            markDirty(index - 1, index + 3);
+        }
+    }
+
+
+    /**
+     * Set the tolerance, e.g. from toleranceAt(). All segments are tessellated again if it
+     * has changed.
+     * @param tolerance Largest distance of the pieces from the curve, in meters.
+     */
+    public void setTolerance(float tolerance) {
+        if (tolerance != mTolerance) {
+            mTolerance = tolerance;
+            markDirty(1, mCount);
+        }
+    }
+
+
+    /**
+     * Get the tolerance.
+     * @return Tolerance in meters.
+     */
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+
+    private void markDirty(int start, int end) {
+        mDirtyStart = Math.min(mDirtyStart, Math.max(1, start));
+        mDirtyEnd = Math.max(mDirtyEnd, end);
+    }
+
+
+    /**
+     * Check if any segment waits for tessellating.
+     * @return True if update() has work to do.
+     */
+    public boolean isDirty() {
+        return mDirtyStart < Math.min(mDirtyEnd, mCount);
+    }
+
+
+    /**
+     * Tessellate the segments changed since the last update.
+     * @return Number of segments tessellated.
+     */
+    public int update() {
+        int start = mDirtyStart;
+        int end = Math.min(mDirtyEnd, mCount);
+        mDirtyStart = Integer.MAX_VALUE;
+        mDirtyEnd = 0;
+        if (start >= end) {
+            mChangedStart = 0;
+            mChangedEnd = 0;
+            return 0;
+        }
+        for (int segment = start; segment < end; segment++) {
+            tessellate(segment);
+        }
+        mChangedStart = start;
+        mChangedEnd = end;
+        return end - start;
+    }
+
+
+    /**
+     * First segment tessellated by the last update().
+     * @return Segment index.
+     */
+    public int getChangedStart() {
+        return mChangedStart;
+    }
+
+
+    /**
+     * One past the last segment tessellated by the last update().
+     * @return Segment index.
+     */
+    public int getChangedEnd() {
+        return mChangedEnd;
+    }
+
+
+    /**
+     * Get the number of samples of a segment, as of the last update().
+     * @param segment Index of the Clip the segment ends at, 1 or more.
+     * @return Sample count, from 2 for a straight segment to MAX_SAMPLES.
+     */
+    public int getSampleCount(int segment) {
+        return mSampleCounts[segment];
+    }
+
+
+    /**
+     * Get a sample of a segment. The first is the previous Clip, the last is the Clip.
+     * @param segment Index of the Clip the segment ends at, 1 or more.
+     * @param sample Index of the sample.
+     * @param out Array of 3 floats to write to.
+     */
+    public void getSample(int segment, int sample, float[] out) {
+        System.arraycopy(mSamples, (segment * MAX_SAMPLES + sample) * 3, out, 0, 3);
+    }
+
+
+    /**
+     * Samples of all segments, MAX_SAMPLES * 3 floats per segment from segment 0, which is
+     * unused. Owned by the spline, don't modify.
+     * @return Samples.
+     */
+    public float[] getSamples() {
+        return mSamples;
+    }
+
+
+    /**
+     * Split a segment into pieces: the curve is evaluated at MAX_SAMPLES even steps, and
+     * pieces are halved while the curve within them is farther than the tolerance from their
+     * chord, so only the samples a bend needs are kept.
+     * @param segment Index of the Clip the segment ends at.
+     */
+    private void tessellate(int segment) {
+        setUpSegment(segment);
+        int p1 = (segment - 1) * 3;
+        int p2 = segment * 3;
+        float dx = mPoints[p2] - mPoints[p1];
+        float dy = mPoints[p2 + 1] - mPoints[p1 + 1];
+        float dz = mPoints[p2 + 2] - mPoints[p1 + 2];
+        boolean curved = dx * dx + dy * dy + dz * dz >= MIN_CURVED_LENGTH * MIN_CURVED_LENGTH;
+        if (curved) {
+            for (int i = 1; i < MAX_PIECES; i++) {
+                evaluate((float) i / MAX_PIECES, mGrid, i * 3);
+            }
+        }
+        System.arraycopy(mPoints, p1, mGrid, 0, 3);
+        System.arraycopy(mPoints, p2, mGrid, MAX_PIECES * 3, 3);
+
+        int base = segment * MAX_SAMPLES * 3;
+        System.arraycopy(mGrid, 0, mSamples, base, 3);
+        int count = 1;
+        if (curved) {
+            count = subdivide(base, count, 0, MAX_PIECES);
+        }
+        System.arraycopy(mGrid, MAX_PIECES * 3, mSamples, base + count * 3, 3);
+        mSampleCounts[segment] = count + 1;
+    }
+
+
+    /**
+     * Add the samples inside a piece of the grid, depth first so they come out in order.
+     * @param base Offset of the segment's samples.
+     * @param count Samples written so far.
+     * @param from Grid index of the piece's start.
+     * @param to Grid index of the piece's end.
+     * @return Samples written, the piece's end not included.
+     */
+    private int subdivide(int base, int count, int from, int to) {
+        if (to - from < 2) {
+            return count;
+        }
+        int middle = (from + to) / 2;
+        if (isFlat(from, to)) {
+            return count;
+        }
+        count = subdivide(base, count, from, middle);
+        System.arraycopy(mGrid, middle * 3, mSamples, base + count * 3, 3);
+        count++;
+        return subdivide(base, count, middle, to);
+    }
+
+
+    /**
+     * Check if the grid points within a piece are all within the tolerance of its chord.
+     * The middle alone isn't enough, an S bend crosses the chord there.
+     */
+    private boolean isFlat(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (distanceToChord(i * 3, from * 3, to * 3) > mTolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Distance of a grid point from the chord between two others.
+     */
+    private float distanceToChord(int point, int a, int b) {
+        float cx = mGrid[b] - mGrid[a];
+        float cy = mGrid[b + 1] - mGrid[a + 1];
+        float cz = mGrid[b + 2] - mGrid[a + 2];
+        float px = mGrid[point] - mGrid[a];
+        float py = mGrid[point + 1] - mGrid[a + 1];
+        float pz = mGrid[point + 2] - mGrid[a + 2];
+        float lengthSquared = cx * cx + cy * cy + cz * cz;
+        float t = lengthSquared > 0.0f ? (px * cx + py * cy + pz * cz) / lengthSquared : 0.0f;
+        float ex = px - cx * t;
+        float ey = py - cy * t;
+        float ez = pz - cz * t;
+        return (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+    }
+
+
+    /**
+     * Gather the four control points of a segment and their centripetal knots. The ends of
+     * the Route get mirrored points, so the curve leaves the first Clip and reaches the last
+     * one along their segments.
+     * @param segment Index of the Clip the segment ends at.
+     */
+    private void setUpSegment(int segment) {
+        int p1 = (segment - 1) * 3;
+        int p2 = segment * 3;
+        for (int k = 0; k < 3; k++) {
+            mControl[3 + k] = mPoints[p1 + k];
+            mControl[6 + k] = mPoints[p2 + k];
+            mControl[k] = segment >= 2 ? mPoints[p1 - 3 + k] : 2.0f * mPoints[p1 + k] - mPoints[p2 + k];
+            mControl[9 + k] = segment + 1 < mCount
+                    ? mPoints[p2 + 3 + k] : 2.0f * mPoints[p2 + k] - mPoints[p1 + k];
+        }
+        mKnots[0] = 0.0f;
+        for (int i = 1; i < 4; i++) {
+            float dx = mControl[i * 3] - mControl[i * 3 - 3];
+            float dy = mControl[i * 3 + 1] - mControl[i * 3 - 2];
+            float dz = mControl[i * 3 + 2] - mControl[i * 3 - 1];
+            // Square root of the distance is the centripetal parametrization.
+            float step = (float) Math.sqrt(Math.sqrt(dx * dx + dy * dy + dz * dz));
+            mKnots[i] = mKnots[i - 1] + Math.max(step, MIN_KNOT_STEP);
+        }
+    }
+
+
+    /**
+     * Evaluate the set up segment with Barry and Goldman's pyramid.
+     * @param u Parameter along the segment, 0 at the previous Clip and 1 at the Clip.
+     * @param out Array to write 3 floats to.
+     * @param offset Offset in out.
+     */
+    private void evaluate(float u, float[] out, int offset) {
+        float t0 = mKnots[0];
+        float t1 = mKnots[1];
+        float t2 = mKnots[2];
+        float t3 = mKnots[3];
+        float t = t1 + (t2 - t1) * u;
+        for (int k = 0; k < 3; k++) {
+            float p0 = mControl[k];
+            float p1 = mControl[3 + k];
+            float p2 = mControl[6 + k];
+            float p3 = mControl[9 + k];
+            float a1 = ((t1 - t) * p0 + (t - t0) * p1) / (t1 - t0);
+            float a2 = ((t2 - t) * p1 + (t - t1) * p2) / (t2 - t1);
+            float a3 = ((t3 - t) * p2 + (t - t2) * p3) / (t3 - t2);
+            float b1 = ((t2 - t) * a1 + (t - t0) * a2) / (t2 - t0);
+            float b2 = ((t3 - t) * a2 + (t - t1) * a3) / (t3 - t1);
+            out[offset + k] = ((t2 - t) * b1 + (t - t1) * b2) / (t2 - t1);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package ninja.siili.climbingroutes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store for RouteRecords in a single append-only file.
+ *
+ * File layout: header (magic, version), then records of
+ * [int length][int crc][byte type][long id][RouteRecord bytes], the CRC-32 covers everything
+ * after it. Saving a route appends a new record, deleting appends a tombstone. Opening the store
+ * maps the file and checks the records to build an id -> offset index, routes are decoded
+ * when asked for. Superseded records are garbage until compact() rewrites the file.
+ * The file grows in doubling steps so appends don't remap it every time, the unused tail
+ * is cut off on close.
+ *
+ * Not thread safe, use from a single background thread.
+ */
+public class RouteStore {
+
+    private static final int MAGIC = 0x43525453; // "CRTS"
+    private static final short VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 4 + 2;
+    // length + crc + type + id
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 1 + 8;
+    // Start of the bytes covered by the CRC.
+    private static final int CRC_START = 4 + 4;
+    private static final int MIN_MAPPED_SIZE = 64 * 1024;
+
+    private static final byte TYPE_ROUTE = 1;
+    private static final byte TYPE_DELETE = 2;
+
+    // Compact when garbage is over half of the file and at least this big.
+    private static final long MIN_COMPACT_GARBAGE = 64 * 1024;
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mMapped;
+    private final CRC32 mCrc = new CRC32();
+
+    private final HashMap<Long, Integer> mOffsets = new HashMap<>();
+    // End of the last record, the file and mapping may be longer.
+    private long mFileSize;
+    private long mMappedSize;
+    private long mGarbageBytes;
+
+
+    /**
+     * Open the store, creating the file if needed. Only record headers are read.
+     * @param file File of the store.
+     * @throws IOException If the file can't be read or is not a route store.
+     */
+    public RouteStore(File file) throws IOException {
+        mFile = file;
+        open();
+    }
+
+
+    private void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mOffsets.clear();
+        mGarbageBytes = 0;
+
+        if (mChannel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putShort(VERSION).flip();
+            writeFully(header, 0);
+        }
+        mFileSize = mChannel.size();
+        remap(mFileSize);
+
+        if (mFileSize < FILE_HEADER_SIZE || mMapped.getInt(0) != MAGIC) {
+            close();
+            throw new IOException("Not a route store: " + mFile);
+        }
+        if (mMapped.getShort(4) != VERSION) {
+            close();
+            throw new IOException("Unsupported route store version " + mMapped.getShort(4));
+        }
+
+        scan();
+    }
+
+
+    /**
+     * Build the index from the records. Everything from the first record that is cut short,
+     * has an unknown type or fails its CRC is cut off, e.g. a record torn by a crash during
+     * save or the zero filled tail of a grown file.
+     */
+    private void scan() throws IOException {
+        ByteBuffer records = mMapped.duplicate();
+        byte[] bytes = new byte[0];
+        int offset = FILE_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= mFileSize) {
+            int length = mMapped.getInt(offset);
+            if (length < 0 || offset + RECORD_HEADER_SIZE + (long) length > mFileSize) {
+                break;
+            }
+            byte type = mMapped.get(offset + CRC_START);
+            if (type != TYPE_ROUTE && type != TYPE_DELETE) {
+                break;
+            }
+            int checked = RECORD_HEADER_SIZE - CRC_START + length;
+            if (bytes.length < checked) {
+                bytes = new byte[Math.max(checked, bytes.length * 2)];
+            }
+            records.position(offset + CRC_START);
+            records.get(bytes, 0, checked);
+            mCrc.reset();
+            mCrc.update(bytes, 0, checked);
+            if ((int) mCrc.getValue() != mMapped.getInt(offset + 4)) {
+                break;
+            }
+            long id = mMapped.getLong(offset + CRC_START + 1);
+
+            Integer previous;
+            if (type == TYPE_ROUTE) {
+                previous = mOffsets.put(id, offset);
+            } else {
+                previous = mOffsets.remove(id);
+                mGarbageBytes += RECORD_HEADER_SIZE + length;
+            }
+            if (previous != null) {
+                mGarbageBytes += RECORD_HEADER_SIZE + mMapped.getInt(previous);
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+
+        if (offset != mFileSize) {
+            mChannel.truncate(offset);
+            mFileSize = offset;
+            remap(mFileSize);
+        }
+    }
+
+
+    private void remap(long size) throws IOException {
+        mMapped = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        mMapped.order(ByteOrder.LITTLE_ENDIAN);
+        mMappedSize = size;
+    }
+
+
+    /**
+     * Write a record's header and body to a buffer, with the CRC of both.
+     * @param buffer Heap buffer with room for the record.
+     * @param type TYPE_ROUTE or TYPE_DELETE.
+     * @param id Id of the route.
+     * @param record Record to write, null for a tombstone.
+     * @param length Encoded size of the record, 0 for a tombstone.
+     */
+    private void putRecord(ByteBuffer buffer, byte type, long id, RouteRecord record, int length) {
+        int start = buffer.position();
+        buffer.putInt(length).putInt(0).put(type).putLong(id);
+        if (record != null) {
+            record.writeTo(buffer);
+        }
+        mCrc.reset();
+        mCrc.update(buffer.array(), buffer.arrayOffset() + start + CRC_START,
+                RECORD_HEADER_SIZE - CRC_START + length);
+        buffer.putInt(start + 4, (int) mCrc.getValue());
+    }
+
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += mChannel.write(buffer, position);
+        }
+    }
+
+
+    /**
+     * Check if a route is in the store.
+     * @param id Id of the route.
+     * @return True if stored.
+     */
+    public boolean contains(long id) {
+        return mOffsets.containsKey(id);
+    }
+
+
+    /**
+     * Get ids of all stored routes without loading them.
+     * @return List of ids.
+     */
+    public List<Long> getIds() {
+        return new ArrayList<>(mOffsets.keySet());
+    }
+
+
+    /**
+     * Get the number of stored routes.
+     * @return Route count.
+     */
+    public int size() {
+        return mOffsets.size();
+    }
+
+
+    /**
+     * Load a single route. Only this route's record is decoded.
+     * @param id Id of the route.
+     * @return The record, null if not stored.
+     */
+    public RouteRecord load(long id) {
+        Integer offset = mOffsets.get(id);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer record = mMapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        record.position(offset + RECORD_HEADER_SIZE);
+        return RouteRecord.readFrom(id, record);
+    }
+
+
+    /**
+     * Load a route's name, notes, flags and difficulty without decoding its clips.
+     * @param id Id of the route.
+     * @return The record without clips, null if not stored.
+     */
+    public RouteRecord loadInfo(long id) {
+        Integer offset = mOffsets.get(id);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer record = mMapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        record.position(offset + RECORD_HEADER_SIZE);
+        return RouteRecord.readInfoFrom(id, record);
+    }
+
+
+    /**
+     * Save a route by appending its record. Previous record of the same route becomes garbage.
+     * @param record Record to save.
+     * @throws IOException If writing fails.
+     */
+    public void save(RouteRecord record) throws IOException {
+        int length = record.encodedSize();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + length).order(ByteOrder.LITTLE_ENDIAN);
+        putRecord(buffer, TYPE_ROUTE, record.id, record, length);
+        buffer.flip();
+
+        Integer previous = mOffsets.get(record.id);
+        if (previous != null) {
+            mGarbageBytes += RECORD_HEADER_SIZE + mMapped.getInt(previous);
+        }
+        int offset = append(buffer);
+        mOffsets.put(record.id, offset);
+    }
+
+
+    /**
+     * Save several routes with a single append, e.g. a batch of an import.
+     * @param records Records to save, later ones win if an id repeats.
+     * @throws IOException If writing fails.
+     */
+    public void saveAll(List<RouteRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        int[] lengths = new int[records.size()];
+        int size = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = records.get(i).encodedSize();
+            size += RECORD_HEADER_SIZE + lengths[i];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < lengths.length; i++) {
+            RouteRecord record = records.get(i);
+            putRecord(buffer, TYPE_ROUTE, record.id, record, lengths[i]);
+        }
+        buffer.flip();
+
+        int offset = append(buffer);
+        for (int i = 0; i < lengths.length; i++) {
+            Integer previous = mOffsets.put(records.get(i).id, offset);
+            if (previous != null) {
+                mGarbageBytes += RECORD_HEADER_SIZE + mMapped.getInt(previous);
+            }
+            offset += RECORD_HEADER_SIZE + lengths[i];
+        }
+    }
+
+
+    /**
+     * Delete a route by appending a tombstone.
+     * @param id Id of the route.
+     * @throws IOException If writing fails.
+     */
+    public void delete(long id) throws IOException {
+        Integer previous = mOffsets.remove(id);
+        if (previous == null) {
+            return;
+        }
+        mGarbageBytes += RECORD_HEADER_SIZE + mMapped.getInt(previous) + RECORD_HEADER_SIZE;
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putRecord(buffer, TYPE_DELETE, id, null, 0);
+        buffer.flip();
+        append(buffer);
+    }
+
+
+    private int append(ByteBuffer buffer) throws IOException {
+        long offset = mFileSize;
+        long end = offset + buffer.remaining();
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Route store is full");
+        }
+        if (end > mMappedSize) {
+            long size = Math.min(Integer.MAX_VALUE,
+                    Math.max(end, Math.max(MIN_MAPPED_SIZE, mMappedSize * 2)));
+            mRandomAccessFile.setLength(size);
+            remap(size);
+        }
+        writeFully(buffer, offset);
+        mFileSize = end;
+        return (int) offset;
+    }
+
+
+    /**
+     * Bytes in the file taken by superseded and deleted records.
+     * @return Byte count.
+     */
+    public long getGarbageBytes() {
+        return mGarbageBytes;
+    }
+
+
+    /**
+     * Check if compacting would be worth it.
+     * @return True if over half of the file is garbage.
+     */
+    public boolean shouldCompact() {
+        return mGarbageBytes >= MIN_COMPACT_GARBAGE && mGarbageBytes * 2 > mFileSize;
+    }
+
+
+    /**
+     * Rewrite the file with only the latest record of each route.
+     * The new file is written next to the old one and renamed over it.
+     * @throws IOException If writing fails. The old file stays intact then.
+     */
+    public void compact() throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putShort(VERSION).flip();
+            while (header.hasRemaining()) {
+                outChannel.write(header);
+            }
+
+            // Records are copied as they are, no decoding needed.
+            for (int offset : mOffsets.values()) {
+                ByteBuffer record = mMapped.duplicate();
+                record.position(offset);
+                record.limit(offset + RECORD_HEADER_SIZE + mMapped.getInt(offset));
+                while (record.hasRemaining()) {
+                    outChannel.write(record);
+                }
+            }
+            outChannel.force(true);
+        }
+
+        close();
+        if (!tmp.renameTo(mFile)) {
+            open();
+            throw new IOException("Could not replace " + mFile);
+        }
+        open();
+    }
+
+
+    /**
+     * Close the file, cutting off the unused tail.
+     */
+    public void close() throws IOException {
+        mMapped = null;
+        if (mChannel.isOpen() && mChannel.size() > mFileSize) {
+            mChannel.truncate(mFileSize);
+        }
+        mChannel.close();
+        mRandomAccessFile.close();
+    }
+}
@@ -0,0 +1,202 @@
+package ninja.siili.climbingroutes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the route store in sync with the gym's sync server. Each round pushes a batch of
+ * routes changed on this phone and pulls routes changed elsewhere since the last round, in
+ * one request. Rounds follow each other until both sides are up to date.
+ *
+ * Not thread safe, use from the route store's thread. Network work happens on the
+ * RouteSyncClient's executor and the results come back through the store's executor.
+ */
+public class RouteSync {
+
+    // Routes pushed per request, keeps payloads small enough for poor Wi-Fi.
+    static final int ROUTES_PER_PUSH = 250;
+    // A sync stops after this many rounds and carries on with the next one.
+    private static final int MAX_ROUNDS = 64;
+
+    private final RouteStore mStore;
+    private final SyncState mState;
+    private final File mStateFile;
+    private final RouteSyncClient mClient;
+    private final Executor mStoreExecutor;
+    private final Listener mListener;
+    private boolean mInFlight = false;
+    private int mRound = 0;
+    private int mPushed = 0;
+    private int mPulled = 0;
+
+
+    /**
+     * Results of a sync, called on the store's thread.
+     */
+    public interface Listener {
+        /**
+         * Sync is done.
+         * @param pushed Routes pushed.
+         * @param pulled Routes pulled and stored.
+         */
+        void onSynced(int pushed, int pulled);
+
+        /**
+         * Routes changed on other phones have been stored, e.g. for indexing them.
+         * @param records Pulled records.
+         */
+        void onPulled(List<RouteRecord> records);
+
+        /**
+         * Sync failed after retries. Changes stay marked and go with the next sync.
+         * @param ex Error.
+         */
+        void onSyncFailed(IOException ex);
+    }
+
+
+    /**
+     * Constructor for RouteSync.
+     * @param store RouteStore to sync.
+     * @param state SyncState of the store.
+     * @param stateFile File the state is saved to after each round.
+     * @param client RouteSyncClient to the server.
+     * @param storeExecutor Executor of the store's thread.
+     * @param listener Listener for results.
+     */
+    public RouteSync(RouteStore store, SyncState state, File stateFile, RouteSyncClient client,
+                     Executor storeExecutor, Listener listener) {
+        mStore = store;
+        mState = state;
+        mStateFile = stateFile;
+        mClient = client;
+        mStoreExecutor = storeExecutor;
+        mListener = listener;
+    }
+
+
+    /**
+     * A route was saved after changing on this phone.
+     * @param id Id of the route.
+     */
+    public void markChanged(long id) {
+        mState.markChanged(id);
+    }
+
+
+    /**
+     * Check if a sync is running.
+     * @return True until the listener has been called.
+     */
+    public boolean isSyncing() {
+        return mInFlight;
+    }
+
+
+    /**
+     * Start a sync, unless one is already running.
+     */
+    public void sync() {
+        if (mInFlight) {
+            return;
+        }
+        mInFlight = true;
+        mRound = 0;
+        mPushed = 0;
+        mPulled = 0;
+        sendRound();
+    }
+
+
+    private void sendRound() {
+        SyncPayload request = new SyncPayload();
+        request.replicaId = mState.getReplicaId();
+        request.cursor = mState.getCursor();
+        for (long id : mState.getDirty(ROUTES_PER_PUSH)) {
+            RouteRecord record = mStore.load(id);
+            VersionVector version = mState.getVersion(id);
+            if (record == null) {
+                // Gone from the store, nothing to push.
+                mState.onPushed(id, version);
+                continue;
+            }
+            request.changes.add(new SyncPayload.Change(record, version));
+        }
+
+        mClient.send(request.encode(), new RouteSyncClient.Callback() {
+            @Override
+            public void onReply(byte[] reply) {
+                mStoreExecutor.execute(() -> onRoundDone(request, reply));
+            }
+
+            @Override
+            public void onFailure(IOException ex) {
+                mStoreExecutor.execute(() -> finish(ex));
+            }
+        });
+    }
+
+
+    /**
+     * Apply the server's reply to a round.
+     * @param request Payload that was pushed.
+     * @param replyBytes Server's reply.
+     */
+    private void onRoundDone(SyncPayload request, byte[] replyBytes) {
+        SyncPayload reply;
+        try {
+            reply = SyncPayload.decode(replyBytes);
+        } catch (IOException ex) {
+            finish(ex);
+            return;
+        }
+
+        for (SyncPayload.Change change : request.changes) {
+            mState.onPushed(change.record.id, change.version);
+        }
+        mPushed += request.changes.size();
+
+        List<RouteRecord> pulled = new ArrayList<>(reply.changes.size());
+        for (SyncPayload.Change change : reply.changes) {
+            if (mState.applyRemote(change.record.id, change.version)) {
+                pulled.add(change.record);
+            }
+        }
+        try {
+            mStore.saveAll(pulled);
+            mState.setCursor(reply.cursor);
+            mState.save(mStateFile);
+            if (mStore.shouldCompact()) {
+                mStore.compact();
+            }
+        } catch (IOException ex) {
+            finish(ex);
+            return;
+        }
+        mPulled += pulled.size();
+        if (!pulled.isEmpty()) {
+            mListener.onPulled(pulled);
+        }
+
+        mRound++;
+        boolean more = reply.hasFlag(SyncPayload.FLAG_MORE) || mState.getDirtyCount() > 0;
+        if (more && mRound < MAX_ROUNDS) {
+            sendRound();
+        } else {
+            finish(null);
+        }
+    }
+
+
+    private void finish(IOException ex) {
+        mInFlight = false;
+        if (ex != null) {
+            mListener.onSyncFailed(ex);
+        } else {
+            mListener.onSynced(mPushed, mPulled);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package ninja.siili.climbingroutes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends SyncPayloads to the gym's sync server over HTTP and hands back its reply.
+ * Bodies are gzipped both ways. Failed attempts are retried with exponential backoff and
+ * jitter on the client's own executor, so slow Wi-Fi never holds up the UI or the route store.
+ */
+public class RouteSyncClient {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long MAX_BACKOFF_MS = 60000;
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private final URL mEndpoint;
+    private final ScheduledExecutorService mExecutor;
+    private final Random mRandom;
+    private final long mBaseBackoffMillis;
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+
+
+    /**
+     * Reply to send().
+     */
+    public interface Callback {
+        /**
+         * The server replied.
+         * @param reply Server's reply, uncompressed.
+         */
+        void onReply(byte[] reply);
+
+        /**
+         * The server couldn't be reached, or refused the payload, after all retries.
+         * @param ex Error of the last attempt.
+         */
+        void onFailure(IOException ex);
+    }
+
+
+    /**
+     * An HTTP status other than 200.
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+        // Delay the server asked for in Retry-After, -1 if none.
+        public final long retryAfterMillis;
+
+
+        StatusException(int status, long retryAfterMillis) {
+            super("Sync server replied " + status);
+            this.status = status;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+
+        /**
+         * Check if trying again later could succeed.
+         * @return True for timeouts, throttling and server errors.
+         */
+        public boolean isRetryable() {
+            return status == HttpURLConnection.HTTP_CLIENT_TIMEOUT || status == 429 || status >= 500;
+        }
+    }
+
+
+    /**
+     * Constructor for RouteSyncClient.
+     * @param endpoint URL payloads are POSTed to.
+     * @param executor Executor requests and retries run on.
+     */
+    public RouteSyncClient(URL endpoint, ScheduledExecutorService executor) {
+        this(endpoint, executor, new Random(), 1000);
+    }
+
+
+    /**
+     * Constructor with custom backoff, for tests.
+     * @param endpoint URL payloads are POSTed to.
+     * @param executor Executor requests and retries run on.
+     * @param random Random for jitter.
+     * @param baseBackoffMillis Delay before the first retry, doubled for each one after it.
+     */
+    RouteSyncClient(URL endpoint, ScheduledExecutorService executor, Random random, long baseBackoffMillis) {
+        mEndpoint = endpoint;
+        mExecutor = executor;
+        mRandom = random;
+        mBaseBackoffMillis = baseBackoffMillis;
+    }
+
+
+    /**
+     * Send a payload in the background.
+     * @param payload Encoded SyncPayload.
+     * @param callback Called on the client's executor with the reply or the failure.
+     */
+    public void send(byte[] payload, Callback callback) {
+        mExecutor.execute(() -> attempt(gzip(payload), 0, callback));
+    }
+
+
+    private void attempt(byte[] body, int attempt, Callback callback) {
+        byte[] reply;
+        try {
+            reply = post(body);
+        } catch (IOException ex) {
+            boolean retryable = !(ex instanceof StatusException) || ((StatusException) ex).isRetryable();
+            if (!retryable || attempt + 1 >= MAX_ATTEMPTS || mExecutor.isShutdown()) {
+                callback.onFailure(ex);
+                return;
+            }
+            long delay = getBackoffMillis(attempt);
+            if (ex instanceof StatusException && ((StatusException) ex).retryAfterMillis >= 0) {
+                delay = Math.min(MAX_BACKOFF_MS, Math.max(delay, ((StatusException) ex).retryAfterMillis));
+            }
+            mExecutor.schedule(() -> attempt(body, attempt + 1, callback), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        callback.onReply(reply);
+    }
+
+
+    /**
+     * Delay before a retry: exponential, with random jitter so phones that lost the
+     * connection together don't all come back at once.
+     * @param attempt Number of the failed attempt, 0 for the first.
+     * @return Delay in milliseconds.
+     */
+    long getBackoffMillis(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MS, mBaseBackoffMillis << Math.min(attempt, 30));
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+
+
+    /**
+     * POST a body once. The connection is left open after a success, so the next request of
+     * the same sync reuses it instead of paying for another handshake.
+     * @param body Gzipped payload.
+     * @return Uncompressed reply.
+     * @throws IOException If the request fails or the status isn't 200.
+     */
+    private byte[] post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) mEndpoint.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            mBytesSent.addAndGet(body.length);
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new StatusException(status, parseRetryAfter(connection.getHeaderField("Retry-After")));
+            }
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    reply.write(buffer, 0, n);
+                }
+            }
+            mBytesReceived.addAndGet(reply.size());
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                return gunzip(reply.toByteArray());
+            }
+            return reply.toByteArray();
+        } catch (IOException ex) {
+            connection.disconnect();
+            throw ex;
+        }
+    }
+
+
+    private static long parseRetryAfter(String header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.trim()) * 1000L;
+        } catch (NumberFormatException ex) {
+            // An HTTP date, not worth parsing, the usual backoff will do.
+            return -1;
+        }
+    }
+
+
+    /**
+     * Compress bytes.
+     * @param bytes Bytes to compress.
+     * @return Gzipped bytes.
+     */
+    static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException ex) {
+            // ByteArrayOutputStream doesn't throw.
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Decompress bytes.
+     * @param bytes Gzipped bytes.
+     * @return Uncompressed bytes.
+     * @throws IOException If the bytes are not gzipped.
+     */
+    static byte[] gunzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = gzip.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Compressed bytes sent so far, for keeping an eye on the sync's cost.
+     * @return Byte count.
+     */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+
+    /**
+     * Compressed bytes received so far.
+     * @return Byte count.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+}
@@ -0,0 +1,216 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Changes to the Scene posted from any thread and applied together on the UI thread, at the
+ * start of a frame. A change replaces a pending change of the same kind to the same target, so
+ * only the newest one is applied, in the place of the first one.
+ * How far the UI thread is behind the producers is tracked for profiling.
+ */
+public class SceneMutationQueue {
+
+    // Kinds of changes, only one of each kind per target is pending at a time.
+    public static final int KIND_RECOLOR = 0;
+    public static final int KIND_SNAPSHOT = 1;
+    public static final int KIND_PROGRESS = 2;
+    public static final int KIND_COUNT = 3;
+
+    private static class Entry {
+        Runnable mutation;
+        final long postedNanos;
+
+        Entry(Runnable mutation, long postedNanos) {
+            this.mutation = mutation;
+            this.postedNanos = postedNanos;
+        }
+    }
+
+    private final LongSupplier mClock;
+    private final Object mLock = new Object();
+
+    // Guarded by mLock.
+    private ArrayList<Entry> mPending = new ArrayList<>();
+    private final HashMap<Object, Entry[]> mPendingByTarget = new HashMap<>();
+    private long mPosted = 0;
+    private long mCoalesced = 0;
+    private int mMaxPending = 0;
+
+    // UI thread only.
+    private ArrayList<Entry> mApplying = new ArrayList<>();
+    private final LatencyHistogram mWait = new LatencyHistogram();
+    private long mApplied = 0;
+    private int mLastBatch = 0;
+
+
+    /**
+     * Constructor for SceneMutationQueue.
+     */
+    public SceneMutationQueue() {
+        this(System::nanoTime);
+    }
+
+
+    /**
+     * Constructor with a custom clock, for tests.
+     * @param clock Clock returning nanoseconds.
+     */
+    SceneMutationQueue(LongSupplier clock) {
+        mClock = clock;
+    }
+
+
+    /**
+     * Post a change that replaces a pending change of the same kind to the same target.
+     * Can be called from any thread.
+     * @param target What is changed, e.g. a Route, compared with equals().
+     * @param kind One of the KIND_ constants.
+     * @param mutation Change to run on the UI thread.
+     */
+    public void post(Object target, int kind, Runnable mutation) {
+        synchronized (mLock) {
+            mPosted++;
+            Entry[] kinds = mPendingByTarget.get(target);
+            if (kinds == null) {
+                kinds = new Entry[KIND_COUNT];
+                mPendingByTarget.put(target, kinds);
+            } else if (kinds[kind] != null) {
+                kinds[kind].mutation = mutation;
+                mCoalesced++;
+                return;
+            }
+            kinds[kind] = add(mutation);
+        }
+    }
+
+
+    /**
+     * Post a change that is always applied, after the changes posted before it.
+     * Can be called from any thread.
+     * @param mutation Change to run on the UI thread.
+     */
+    public void post(Runnable mutation) {
+        synchronized (mLock) {
+            mPosted++;
+            add(mutation);
+        }
+    }
+
+
+    private Entry add(Runnable mutation) {
+        Entry entry = new Entry(mutation, mClock.getAsLong());
+        mPending.add(entry);
+        mMaxPending = Math.max(mMaxPending, mPending.size());
+        return entry;
+    }
+
+
+    /**
+     * Apply every pending change in the order they were first posted. Must be called on the
+     * UI thread. Changes posted while applying are applied on the next call.
+     * @return Number of changes applied.
+     */
+    public int applyPending() {
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                mLastBatch = 0;
+                return 0;
+            }
+            ArrayList<Entry> batch = mPending;
+            mPending = mApplying;
+            mApplying = batch;
+            mPendingByTarget.clear();
+        }
+
+        long now = mClock.getAsLong();
+        int count = mApplying.size();
+        try {
+            for (int i = 0; i < count; i++) {
+                Entry entry = mApplying.get(i);
+                mWait.record(now - entry.postedNanos);
+                entry.mutation.run();
+            }
+        } finally {
+            mApplying.clear();
+        }
+        mApplied += count;
+        mLastBatch = count;
+        return count;
+    }
+
+
+    /**
+     * Number of changes waiting for the next frame, producers can use this to slow down.
+     * @return Count of changes.
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+
+    /**
+     * Most changes that have been waiting at once.
+     * @return Count of changes.
+     */
+    public int getMaxPendingCount() {
+        synchronized (mLock) {
+            return mMaxPending;
+        }
+    }
+
+
+    /**
+     * Number of posted changes that replaced a pending one.
+     * @return Count of changes.
+     */
+    public long getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalesced;
+        }
+    }
+
+
+    /**
+     * Number of changes applied so far.
+     * @return Count of changes.
+     */
+    public long getAppliedCount() {
+        return mApplied;
+    }
+
+
+    /**
+     * Time from posting a change to applying it.
+     * @return LatencyHistogram of the wait.
+     */
+    public LatencyHistogram getWaitHistogram() {
+        return mWait;
+    }
+
+
+    /**
+     * Human readable summary for the debug overlay.
+     * @return Report, two lines.
+     */
+    public String getReport() {
+        long posted;
+        long coalesced;
+        int pending;
+        int maxPending;
+        synchronized (mLock) {
+            posted = mPosted;
+            coalesced = mCoalesced;
+            pending = mPending.size();
+            maxPending = mMaxPending;
+        }
+        return String.format(Locale.US, "mutations %d, merged %d, applied %d (last %d)%n",
+                posted, coalesced, mApplied, mLastBatch)
+                + String.format(Locale.US, "pending %d (max %d), wait p95 %.2f ms, max %.2f ms%n",
+                pending, maxPending, mWait.getPercentileNanos(95) / 1e6, mWait.getMaxNanos() / 1e6);
+    }
+}
@@ -0,0 +1,204 @@
+package ninja.siili.climbingroutes;
+
+import android.view.View;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Pose;
+import com.google.ar.core.Session;
+import com.google.ar.sceneform.AnchorNode;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.ux.TransformationSystem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * RouteScene made of Sceneform Nodes and ARCore anchors. Owns the pooled info cards' Nodes
+ * and Views, and knows which Route each tracked ARCore anchor is for.
+ */
+public class SceneformRouteScene implements RouteScene {
+
+    // Scratch arrays for making anchors, Sceneform is only touched from the UI thread.
+    private static final float[] sScratchTranslation = new float[3];
+    private static final float[] sScratchRotation = new float[4];
+
+    private final RenderableHelper mRenderableHelper;
+    private final TransformationSystem mTransformationSystem;
+    private final ArCoreHitTestProvider mHitTester;
+    private final Supplier<Session> mSession;
+
+    private final ArrayList<Node> mCardNodes = new ArrayList<>();
+    private final ArrayList<View> mCardViews = new ArrayList<>();
+    // Routes of the tracked ARCore anchors, for telling them about updates.
+    private final HashMap<Anchor, Route> mAnchorRoutes = new HashMap<>();
+
+
+    /** AnchorHandle of an AnchorNode, which follows its ARCore anchor exactly. */
+    private class SceneAnchor implements AnchorHandle {
+        final AnchorNode node;
+        final Route route;
+
+        SceneAnchor(Route route, Anchor anchor) {
+            this.route = route;
+            if (anchor != null) {
+                mAnchorRoutes.put(anchor, route);
+            }
+            node = anchor != null ? new AnchorNode(anchor) : new AnchorNode();
+            // RouteModel's poses must match what's drawn.
+            node.setSmoothed(false);
+            node.setParent(mRenderableHelper.getScene());
+        }
+
+        @Override
+        public void readPose(float[] out) {
+            Vector3 position = node.getWorldPosition();
+            Quaternion rotation = node.getWorldRotation();
+            out[0] = position.x;
+            out[1] = position.y;
+            out[2] = position.z;
+            out[3] = rotation.x;
+            out[4] = rotation.y;
+            out[5] = rotation.z;
+            out[6] = rotation.w;
+        }
+
+        @Override
+        public boolean isAnchored() {
+            return node.getAnchor() != null;
+        }
+
+        @Override
+        public void setAnchored(boolean anchored) {
+            Anchor anchor = node.getAnchor();
+            if (anchored && anchor == null) {
+                Session session = mSession.get();
+                if (session == null) {
+                    return;
+                }
+                Vector3 position = node.getWorldPosition();
+                Quaternion rotation = node.getWorldRotation();
+                sScratchTranslation[0] = position.x;
+                sScratchTranslation[1] = position.y;
+                sScratchTranslation[2] = position.z;
+                sScratchRotation[0] = rotation.x;
+                sScratchRotation[1] = rotation.y;
+                sScratchRotation[2] = rotation.z;
+                sScratchRotation[3] = rotation.w;
+                anchor = session.createAnchor(new Pose(sScratchTranslation, sScratchRotation));
+                mAnchorRoutes.put(anchor, route);
+                node.setAnchor(anchor);
+            } else if (!anchored && anchor != null) {
+                mAnchorRoutes.remove(anchor);
+                node.setAnchor(null);
+                anchor.detach();
+            }
+        }
+
+        @Override
+        public void destroy() {
+            setAnchored(false);
+            node.setParent(null);
+        }
+    }
+
+
+    /**
+     * Constructor for SceneformRouteScene.
+     * @param renderableHelper RenderableHelper for Renderables and the Scene.
+     * @param transformationSystem TransformationSystem for Clips' TransformableNodes.
+     * @param hitTester Hit tester whose last hit anchors are made at.
+     * @param session Supplies ARCore's Session, null until it's available.
+     */
+    public SceneformRouteScene(RenderableHelper renderableHelper,
+                               TransformationSystem transformationSystem,
+                               ArCoreHitTestProvider hitTester, Supplier<Session> session) {
+        mRenderableHelper = renderableHelper;
+        mTransformationSystem = transformationSystem;
+        mHitTester = hitTester;
+        mSession = session;
+    }
+
+
+    /**
+     * Add a pooled info card.
+     * @param card Node with the card's ViewRenderable.
+     * @param view View of the card.
+     * @return Index of the card.
+     */
+    public int addInfoCard(Node card, View view) {
+        mCardNodes.add(card);
+        mCardViews.add(view);
+        return mCardNodes.size() - 1;
+    }
+
+
+    /**
+     * Get the Node of a pooled info card.
+     * @param card Index of the card.
+     * @return Node with the card's ViewRenderable.
+     */
+    Node getInfoCardNode(int card) {
+        return mCardNodes.get(card);
+    }
+
+
+    @Override
+    public View getInfoCardView(int card) {
+        return mCardViews.get(card);
+    }
+
+
+    /**
+     * Check if any Route has a tracked anchor, ARCore's updated anchors need checking only then.
+     * @return True if there are tracked anchors.
+     */
+    public boolean hasTrackedAnchors() {
+        return !mAnchorRoutes.isEmpty();
+    }
+
+
+    /**
+     * Find the Route an ARCore anchor is for.
+     * @param anchor Anchor, e.g. one of the Frame's updated anchors.
+     * @return Route, null if the anchor isn't a Route's.
+     */
+    public Route getRoute(Anchor anchor) {
+        return mAnchorRoutes.get(anchor);
+    }
+
+
+    @Override
+    public AnchorHandle createAnchor(Route route, float[] position, boolean atHit) {
+        SceneAnchor anchor = new SceneAnchor(route, atHit ? mHitTester.createAnchor() : null);
+        if (!atHit) {
+            anchor.node.setWorldPosition(new Vector3(position[0], position[1], position[2]));
+        }
+        return anchor;
+    }
+
+
+    @Override
+    public ClipHandle createClip(AnchorHandle anchor, int band, boolean withLine) {
+        return new Clip(this, mTransformationSystem, mRenderableHelper, ((SceneAnchor) anchor).node,
+                band, withLine);
+    }
+
+
+    @Override
+    public MeshHandle createMesh(Runnable onReady) {
+        return new RouteMesh(mRenderableHelper, onReady);
+    }
+
+
+    /**
+     * Get the Node of an anchor, for placing Clips under it.
+     * @param anchor AnchorHandle made by this scene.
+     * @return Anchor's Node.
+     */
+    static Node getNode(AnchorHandle anchor) {
+        return ((SceneAnchor) anchor).node;
+    }
+}
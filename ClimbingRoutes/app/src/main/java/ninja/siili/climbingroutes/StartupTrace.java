@@ -0,0 +1,103 @@
+package ninja.siili.climbingroutes;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Records how long startup milestones take from the start of the activity.
+ * Time to the first placeable clip is kept in a short history in SharedPreferences,
+ * so cold start regressions can be spotted across launches and app versions.
+ */
+public class StartupTrace {
+
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    // Milestones.
+    public static final int PLACEHOLDERS_READY = 0;
+    public static final int CLIP_MODEL_LOADED = 1;
+    public static final int LINE_MODEL_LOADED = 2;
+    public static final int FIRST_PLACEABLE_CLIP = 3;
+    private static final String[] MILESTONE_NAMES =
+            {"placeholders ready", "clip model loaded", "line model loaded", "first placeable clip"};
+
+    private static final String PREFS_NAME = "startup_trace";
+    private static final String KEY_HISTORY = "first_placeable_clip_ms";
+    private static final int HISTORY_LENGTH = 20;
+
+    private final SharedPreferences mPrefs;
+    private final long mStartNanos;
+    private final long[] mMarkNanos = new long[MILESTONE_NAMES.length];
+
+
+    /**
+     * Start the trace, call first thing in onCreate.
+     * @param context App's context.
+     */
+    public StartupTrace(Context context) {
+        mStartNanos = System.nanoTime();
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (int i = 0; i < mMarkNanos.length; i++) {
+            mMarkNanos[i] = -1;
+        }
+    }
+
+
+    /**
+     * Record a milestone. Only the first call for each milestone counts.
+     * @param milestone One of the milestone constants.
+     */
+    public void mark(int milestone) {
+        if (isMarked(milestone)) {
+            return;
+        }
+        mMarkNanos[milestone] = System.nanoTime() - mStartNanos;
+        Log.i(TAG, MILESTONE_NAMES[milestone] + " at " + getMillis(milestone) + " ms");
+
+        if (milestone == FIRST_PLACEABLE_CLIP) {
+            saveToHistory(getMillis(milestone));
+        }
+    }
+
+
+    /**
+     * Check if a milestone has been reached.
+     * @param milestone One of the milestone constants.
+     * @return True if marked.
+     */
+    public boolean isMarked(int milestone) {
+        return mMarkNanos[milestone] >= 0;
+    }
+
+
+    /**
+     * Get the time of a milestone.
+     * @param milestone One of the milestone constants.
+     * @return Milliseconds from start, -1 if not reached.
+     */
+    public long getMillis(int milestone) {
+        return isMarked(milestone) ? mMarkNanos[milestone] / 1000000L : -1;
+    }
+
+
+    /**
+     * Get times to the first placeable clip from earlier launches, oldest first.
+     * @return Comma separated milliseconds.
+     */
+    public String getHistory() {
+        return mPrefs.getString(KEY_HISTORY, "");
+    }
+
+
+    private void saveToHistory(long millis) {
+        String history = getHistory();
+        String[] values = history.isEmpty() ? new String[0] : history.split(",");
+
+        StringBuilder updated = new StringBuilder();
+        for (int i = Math.max(0, values.length - HISTORY_LENGTH + 1); i < values.length; i++) {
+            updated.append(values[i]).append(',');
+        }
+        updated.append(millis);
+        mPrefs.edit().putString(KEY_HISTORY, updated.toString()).apply();
+    }
+}
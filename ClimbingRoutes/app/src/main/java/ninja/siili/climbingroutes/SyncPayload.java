@@ -0,0 +1,125 @@
+package ninja.siili.climbingroutes;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * A batch of changed routes exchanged with the gym's sync server, the same layout both ways.
+ *
+ * Layout: header (magic, version), [long replica][long cursor][byte flags][int count], then
+ * changes of [long id][VersionVector][int length][RouteRecord bytes]. Only routes that changed
+ * since the other side's cursor are sent, the transport compresses the whole payload.
+ * Going up, replica is the phone's id and cursor the last server change it has seen. Coming
+ * down, cursor is the server's change to ask from next time and FLAG_MORE is set if there
+ * are more changes than fit one payload.
+ */
+public class SyncPayload {
+
+    private static final int MAGIC = 0x43525359; // "CRSY"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 8 + 1 + 4;
+
+    public static final int FLAG_MORE = 1;
+
+    public long replicaId;
+    public long cursor;
+    public int flags;
+    public final ArrayList<Change> changes = new ArrayList<>();
+
+
+    /**
+     * A route's latest state and version.
+     */
+    public static class Change {
+        public final RouteRecord record;
+        public final VersionVector version;
+
+
+        /**
+         * Constructor for Change.
+         * @param record Route's record.
+         * @param version Route's version.
+         */
+        public Change(RouteRecord record, VersionVector version) {
+            this.record = record;
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * Check a flag.
+     * @param flag One of the FLAG_ constants.
+     * @return True if set.
+     */
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+
+    /**
+     * Encode the payload.
+     * @return Encoded bytes.
+     */
+    public byte[] encode() {
+        int size = HEADER_SIZE;
+        for (Change change : changes) {
+            size += 8 + change.version.encodedSize() + 4 + change.record.encodedSize();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort(VERSION);
+        buffer.putLong(replicaId).putLong(cursor).put((byte) flags).putInt(changes.size());
+        for (Change change : changes) {
+            buffer.putLong(change.record.id);
+            change.version.writeTo(buffer);
+            buffer.putInt(change.record.encodedSize());
+            change.record.writeTo(buffer);
+        }
+        return buffer.array();
+    }
+
+
+    /**
+     * Decode a payload written with encode().
+     * @param bytes Encoded bytes.
+     * @return The payload.
+     * @throws IOException If the bytes are not a sync payload or are corrupt.
+     */
+    public static SyncPayload decode(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a sync payload");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sync payload version " + version);
+            }
+            SyncPayload payload = new SyncPayload();
+            payload.replicaId = buffer.getLong();
+            payload.cursor = buffer.getLong();
+            payload.flags = buffer.get();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                VersionVector routeVersion = VersionVector.readFrom(buffer);
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+                if (length < 0 || end > buffer.limit()) {
+                    throw new IOException("Corrupt sync payload, route " + id + " is cut short");
+                }
+                RouteRecord record = RouteRecord.readFrom(id, buffer);
+                if (buffer.position() != end) {
+                    throw new IOException("Corrupt sync payload, route " + id + " has a wrong length");
+                }
+                payload.changes.add(new Change(record, routeVersion));
+            }
+            return payload;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt sync payload, cut short");
+        }
+    }
+}
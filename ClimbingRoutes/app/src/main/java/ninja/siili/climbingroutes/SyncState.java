@@ -0,0 +1,244 @@
+package ninja.siili.climbingroutes;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * What this phone knows about syncing: its replica id, each route's VersionVector, which
+ * routes have changes the server hasn't acknowledged, and the server's cursor.
+ * Saved to its own small file next to the route store.
+ *
+ * Not thread safe, use from the route store's thread.
+ */
+public class SyncState {
+
+    private static final int MAGIC = 0x43525353; // "CRSS"
+    private static final short VERSION = 1;
+
+    private final long mReplicaId;
+    private long mCursor = 0;
+    private final HashMap<Long, VersionVector> mVersions = new HashMap<>();
+    // Routes to push, oldest change first.
+    private final LinkedHashSet<Long> mDirty = new LinkedHashSet<>();
+    private boolean mLoaded = false;
+
+
+    /**
+     * Constructor for SyncState.
+     * @param replicaId Id of this phone, unique among the gym's phones.
+     */
+    public SyncState(long replicaId) {
+        mReplicaId = replicaId;
+    }
+
+
+    /**
+     * Load the state, or start a new one with a random replica id if there is none.
+     * @param file File of the state.
+     * @param random Random for a new replica id.
+     * @return The state, isNew() tells if it was just created.
+     * @throws IOException If the file can't be read or is corrupt.
+     */
+    public static SyncState load(File file, Random random) throws IOException {
+        if (!file.exists()) {
+            return new SyncState(random.nextLong());
+        }
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                throw new IOException("Not a sync state: " + file);
+            }
+            SyncState state = new SyncState(buffer.getLong());
+            state.mCursor = buffer.getLong();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                boolean dirty = buffer.get() != 0;
+                state.mVersions.put(id, VersionVector.readFrom(buffer));
+                if (dirty) {
+                    state.mDirty.add(id);
+                }
+            }
+            state.mLoaded = true;
+            return state;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Sync state is cut short: " + file);
+        }
+    }
+
+
+    /**
+     * Check if the state was just created, so existing routes should be marked changed.
+     * @return True if not loaded from a file.
+     */
+    public boolean isNew() {
+        return !mLoaded;
+    }
+
+
+    /**
+     * Save the state. It's written next to the old file and renamed over it.
+     * @param file File of the state.
+     * @throws IOException If writing fails. The old file stays intact then.
+     */
+    public void save(File file) throws IOException {
+        int size = 4 + 2 + 8 + 8 + 4;
+        for (VersionVector version : mVersions.values()) {
+            size += 8 + 1 + version.encodedSize();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort(VERSION).putLong(mReplicaId).putLong(mCursor);
+        buffer.putInt(mVersions.size());
+        for (HashMap.Entry<Long, VersionVector> entry : mVersions.entrySet()) {
+            buffer.putLong(entry.getKey());
+            buffer.put((byte) (mDirty.contains(entry.getKey()) ? 1 : 0));
+            entry.getValue().writeTo(buffer);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+
+    /**
+     * Get the id of this phone.
+     * @return Replica id.
+     */
+    public long getReplicaId() {
+        return mReplicaId;
+    }
+
+
+    /**
+     * Get the last server change this phone has pulled.
+     * @return Server's cursor, 0 before the first sync.
+     */
+    public long getCursor() {
+        return mCursor;
+    }
+
+
+    /**
+     * Set the server's cursor after pulling changes.
+     * @param cursor Cursor from the server's payload.
+     */
+    public void setCursor(long cursor) {
+        mCursor = cursor;
+    }
+
+
+    /**
+     * A route was changed on this phone and saved, it needs to be pushed.
+     * @param id Id of the route.
+     */
+    public void markChanged(long id) {
+        VersionVector version = mVersions.get(id);
+        if (version == null) {
+            version = new VersionVector();
+            mVersions.put(id, version);
+        }
+        version.increment(mReplicaId);
+        mDirty.add(id);
+    }
+
+
+    /**
+     * Get a route's version.
+     * @param id Id of the route.
+     * @return Copy of the version, empty if the route is unknown.
+     */
+    public VersionVector getVersion(long id) {
+        VersionVector version = mVersions.get(id);
+        return version != null ? new VersionVector(version) : new VersionVector();
+    }
+
+
+    /**
+     * Get routes to push, oldest change first.
+     * @param max Most routes to return.
+     * @return Ids of the routes.
+     */
+    public List<Long> getDirty(int max) {
+        ArrayList<Long> ids = new ArrayList<>(Math.min(max, mDirty.size()));
+        Iterator<Long> it = mDirty.iterator();
+        while (it.hasNext() && ids.size() < max) {
+            ids.add(it.next());
+        }
+        return ids;
+    }
+
+
+    /**
+     * Get the number of routes to push.
+     * @return Route count.
+     */
+    public int getDirtyCount() {
+        return mDirty.size();
+    }
+
+
+    /**
+     * The server has stored a pushed route. It stays dirty if it changed again meanwhile.
+     * @param id Id of the route.
+     * @param pushed Version that was pushed.
+     */
+    public void onPushed(long id, VersionVector pushed) {
+        VersionVector version = mVersions.get(id);
+        if (version != null && version.compare(pushed) == VersionVector.EQUAL) {
+            mDirty.remove(id);
+        }
+    }
+
+
+    /**
+     * Merge a route pulled from the server.
+     * Newer versions replace this phone's. Of concurrent changes both sides keep the same one,
+     * chosen by VersionVector.winsOver(), and the route is pushed again with the merged version
+     * so the server sees the conflict resolved.
+     * @param id Id of the route.
+     * @param remote Version from the server.
+     * @return True if the pulled record should replace the stored one.
+     */
+    public boolean applyRemote(long id, VersionVector remote) {
+        VersionVector version = mVersions.get(id);
+        if (version == null) {
+            mVersions.put(id, new VersionVector(remote));
+            return true;
+        }
+        switch (version.compare(remote)) {
+            case VersionVector.BEFORE:
+                mVersions.put(id, new VersionVector(remote));
+                mDirty.remove(id);
+                return true;
+            case VersionVector.CONCURRENT:
+                boolean remoteWins = remote.winsOver(version);
+                version.merge(remote);
+                mDirty.add(id);
+                return remoteWins;
+            default:
+                return false;
+        }
+    }
+}
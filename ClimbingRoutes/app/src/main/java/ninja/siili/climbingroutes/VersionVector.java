@@ -0,0 +1,226 @@
+package ninja.siili.climbingroutes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Version of a route as a counter per replica that has changed it. Comparing two vectors
+ * tells if one change has seen the other or if they were made concurrently.
+ * Entries are kept sorted by replica id, a route is usually changed by only a few phones.
+ */
+public class VersionVector {
+
+    // Results of compare().
+    public static final int EQUAL = 0;
+    public static final int BEFORE = 1;
+    public static final int AFTER = 2;
+    public static final int CONCURRENT = 3;
+
+    private long[] mReplicas;
+    private int[] mCounters;
+    private int mSize;
+
+
+    /**
+     * Constructor for an empty VersionVector, older than any change.
+     */
+    public VersionVector() {
+        mReplicas = new long[2];
+        mCounters = new int[2];
+    }
+
+
+    /**
+     * Copy constructor.
+     * @param other VersionVector to copy.
+     */
+    public VersionVector(VersionVector other) {
+        mReplicas = Arrays.copyOf(other.mReplicas, Math.max(2, other.mSize));
+        mCounters = Arrays.copyOf(other.mCounters, Math.max(2, other.mSize));
+        mSize = other.mSize;
+    }
+
+
+    /**
+     * Get a replica's counter.
+     * @param replica Id of the replica.
+     * @return Counter, 0 if the replica hasn't changed the route.
+     */
+    public int get(long replica) {
+        int index = Arrays.binarySearch(mReplicas, 0, mSize, replica);
+        return index >= 0 ? mCounters[index] : 0;
+    }
+
+
+    /**
+     * Count a change made by a replica.
+     * @param replica Id of the replica.
+     */
+    public void increment(long replica) {
+        set(replica, get(replica) + 1);
+    }
+
+
+    private void set(long replica, int counter) {
+        int index = Arrays.binarySearch(mReplicas, 0, mSize, replica);
+        if (index >= 0) {
+            mCounters[index] = counter;
+            return;
+        }
+        index = -index - 1;
+        if (mSize == mReplicas.length) {
+            mReplicas = Arrays.copyOf(mReplicas, mSize * 2);
+            mCounters = Arrays.copyOf(mCounters, mSize * 2);
+        }
+        System.arraycopy(mReplicas, index, mReplicas, index + 1, mSize - index);
+        System.arraycopy(mCounters, index, mCounters, index + 1, mSize - index);
+        mReplicas[index] = replica;
+        mCounters[index] = counter;
+        mSize++;
+    }
+
+
+    /**
+     * Take the larger counter of each replica, the result has seen both vectors' changes.
+     * @param other VersionVector to merge in.
+     */
+    public void merge(VersionVector other) {
+        for (int i = 0; i < other.mSize; i++) {
+            if (other.mCounters[i] > get(other.mReplicas[i])) {
+                set(other.mReplicas[i], other.mCounters[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Compare to another vector.
+     * @param other VersionVector to compare to.
+     * @return EQUAL, BEFORE if other has seen all of this one's changes and more, AFTER if the
+     * other way round, CONCURRENT if both have changes the other hasn't seen.
+     */
+    public int compare(VersionVector other) {
+        boolean before = false;
+        boolean after = false;
+        int i = 0;
+        int j = 0;
+        while (i < mSize || j < other.mSize) {
+            int mine;
+            int theirs;
+            if (j >= other.mSize || (i < mSize && mReplicas[i] < other.mReplicas[j])) {
+                mine = mCounters[i++];
+                theirs = 0;
+            } else if (i >= mSize || other.mReplicas[j] < mReplicas[i]) {
+                mine = 0;
+                theirs = other.mCounters[j++];
+            } else {
+                mine = mCounters[i++];
+                theirs = other.mCounters[j++];
+            }
+            if (mine < theirs) before = true;
+            else if (mine > theirs) after = true;
+        }
+        if (before && after) return CONCURRENT;
+        if (before) return BEFORE;
+        if (after) return AFTER;
+        return EQUAL;
+    }
+
+
+    /**
+     * Decide which of two concurrent changes to keep. Every replica and the server decide the
+     * same way: more changes in total wins, ties go by comparing the entries in order.
+     * @param other Concurrent VersionVector.
+     * @return True if this one's change wins.
+     */
+    public boolean winsOver(VersionVector other) {
+        long total = getTotal();
+        long otherTotal = other.getTotal();
+        if (total != otherTotal) {
+            return total > otherTotal;
+        }
+        for (int i = 0; i < Math.min(mSize, other.mSize); i++) {
+            if (mReplicas[i] != other.mReplicas[i]) {
+                return mReplicas[i] > other.mReplicas[i];
+            }
+            if (mCounters[i] != other.mCounters[i]) {
+                return mCounters[i] > other.mCounters[i];
+            }
+        }
+        return mSize > other.mSize;
+    }
+
+
+    private long getTotal() {
+        long total = 0;
+        for (int i = 0; i < mSize; i++) {
+            total += mCounters[i];
+        }
+        return total;
+    }
+
+
+    /**
+     * Size of the encoded vector in bytes.
+     * @return Byte count.
+     */
+    public int encodedSize() {
+        return 2 + mSize * (8 + 4);
+    }
+
+
+    /**
+     * Encode the vector.
+     * @param buffer Buffer with at least encodedSize() bytes remaining.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putShort((short) mSize);
+        for (int i = 0; i < mSize; i++) {
+            buffer.putLong(mReplicas[i]).putInt(mCounters[i]);
+        }
+    }
+
+
+    /**
+     * Decode a vector written with writeTo().
+     * @param buffer Buffer positioned at the start of the vector.
+     * @return The vector.
+     */
+    public static VersionVector readFrom(ByteBuffer buffer) {
+        VersionVector vector = new VersionVector();
+        int size = buffer.getShort() & 0xffff;
+        for (int i = 0; i < size; i++) {
+            vector.set(buffer.getLong(), buffer.getInt());
+        }
+        return vector;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VersionVector && compare((VersionVector) o) == EQUAL;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mCounters[i] != 0) {
+                hash = 31 * hash + Long.hashCode(mReplicas[i]) * 17 + mCounters[i];
+            }
+        }
+        return hash;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("{");
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) s.append(", ");
+            s.append(Long.toHexString(mReplicas[i])).append(": ").append(mCounters[i]);
+        }
+        return s.append('}').toString();
+    }
+}
@@ -0,0 +1,666 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the wall's faces as planes in the feature points, so Clips can be put on the wall
+ * where ARCore's plane detection, made for floors and tables, finds nothing.
+ *
+ * Each update() refines the planes already found instead of fitting them again: points near a
+ * plane are added to its moments, older points fading out, and the plane is refit from the
+ * moments. Only points no plane explains go to RANSAC, which looks for one new plane per
+ * update and scores its hypotheses in parallel.
+ *
+ * update() is called on one background thread at a time. The found Surfaces can be queried on
+ * any thread, they're swapped in whole when an update is done.
+ */
+public class WallSurfaceEstimator {
+
+    // Points this close to a plane, in meters, are on it.
+    private static final float INLIER_DISTANCE = 0.03f;
+    // Least points needed to start a plane, and least support to keep one.
+    private static final int MIN_PLANE_POINTS = 40;
+    private static final int MAX_PLANES = 8;
+    // Least points per square meter of a new plane, stray points line up now and then but
+    // never this densely.
+    private static final float MIN_PLANE_DENSITY = 50.0f;
+    // RANSAC hypotheses per update, and most unexplained points they're scored on.
+    private static final int HYPOTHESES_PER_UPDATE = 128;
+    private static final int MAX_RANSAC_POINTS = 4096;
+    // Weight of a plane's earlier points on each update, so the planes follow ARCore's drift.
+    private static final double MOMENT_DECAY = 0.5;
+    // Planes' extents shrink this much per update unless points keep them up.
+    private static final float RADIUS_DECAY = 0.9f;
+    // Planes closer than this in angle, and close to each other, are merged.
+    private static final float MERGE_COS_ANGLE = (float) Math.cos(Math.toRadians(10.0));
+
+    private final ExecutorService mWorkers;
+    private final int mParallelism;
+    private final Random mRandom;
+
+    private final ArrayList<Plane> mPlanes = new ArrayList<>();
+    private volatile List<Surface> mSurfaces = Collections.emptyList();
+    private int mUpdateCount = 0;
+
+    // Scratch for update(), grown as needed.
+    private float[] mOutliers = new float[0];
+    private float[] mSamples = new float[0];
+    private final float[] mHypotheses = new float[HYPOTHESES_PER_UPDATE * 4];
+    private final int[] mScores = new int[HYPOTHESES_PER_UPDATE];
+    private final float[] mScratchRadius = new float[MAX_PLANES];
+    private final double[] mScratchCovariance = new double[9];
+    private final double[] mScratchVectors = new double[9];
+    private final double[] mScratchValues = new double[3];
+
+
+    /**
+     * A face of the wall, at the time of an update. Immutable.
+     */
+    public static class Surface {
+        // Unit normal and offset: points p on the surface have dot(normal, p) == offset.
+        public final float nx;
+        public final float ny;
+        public final float nz;
+        public final float offset;
+        // Centre of the points on the surface and their distance from it.
+        public final float cx;
+        public final float cy;
+        public final float cz;
+        public final float radius;
+        // Number of recent points on the surface, decayed.
+        public final float support;
+
+
+        Surface(float[] normal, float offset, float[] centroid, float radius, float support) {
+            nx = normal[0];
+            ny = normal[1];
+            nz = normal[2];
+            this.offset = offset;
+            cx = centroid[0];
+            cy = centroid[1];
+            cz = centroid[2];
+            this.radius = radius;
+            this.support = support;
+        }
+
+
+        /**
+         * Signed distance of a position from the surface's plane.
+         * @param position World position, 3 floats.
+         * @return Distance in meters, positive on the normal's side.
+         */
+        public float distanceTo(float[] position) {
+            return nx * position[0] + ny * position[1] + nz * position[2] - offset;
+        }
+
+
+        /**
+         * Check if a position on the surface's plane is within the surface.
+         * @param position World position on the plane, 3 floats.
+         * @param margin Meters the surface is extended by.
+         * @return True if the position is within radius + margin of the centre.
+         */
+        public boolean contains(float[] position, float margin) {
+            float dx = position[0] - cx;
+            float dy = position[1] - cy;
+            float dz = position[2] - cz;
+            float reach = radius + margin;
+            return dx * dx + dy * dy + dz * dz <= reach * reach;
+        }
+    }
+
+
+    /**
+     * A plane being refined. Moments are kept in doubles, they're sums of many squares.
+     */
+    private static class Plane {
+        double weight;
+        double sx, sy, sz;
+        double sxx, sxy, sxz, syy, syz, szz;
+        final float[] normal = new float[3];
+        final float[] centroid = new float[3];
+        float offset;
+        float radius;
+
+
+        void add(float x, float y, float z) {
+            weight += 1.0;
+            sx += x;
+            sy += y;
+            sz += z;
+            sxx += x * x;
+            sxy += x * y;
+            sxz += x * z;
+            syy += y * y;
+            syz += y * z;
+            szz += z * z;
+        }
+
+
+        void add(Plane other) {
+            weight += other.weight;
+            sx += other.sx;
+            sy += other.sy;
+            sz += other.sz;
+            sxx += other.sxx;
+            sxy += other.sxy;
+            sxz += other.sxz;
+            syy += other.syy;
+            syz += other.syz;
+            szz += other.szz;
+        }
+
+
+        void decay(double factor) {
+            weight *= factor;
+            sx *= factor;
+            sy *= factor;
+            sz *= factor;
+            sxx *= factor;
+            sxy *= factor;
+            sxz *= factor;
+            syy *= factor;
+            syz *= factor;
+            szz *= factor;
+        }
+
+
+        float distanceTo(float x, float y, float z) {
+            return normal[0] * x + normal[1] * y + normal[2] * z - offset;
+        }
+    }
+
+
+    /**
+     * Constructor for WallSurfaceEstimator.
+     * @param workers ExecutorService RANSAC hypotheses are scored on, null to score them on
+     *                the updating thread.
+     * @param parallelism Number of tasks the hypotheses are split into.
+     * @param random Random for sampling.
+     */
+    public WallSurfaceEstimator(ExecutorService workers, int parallelism, Random random) {
+        mWorkers = workers;
+        mParallelism = workers == null ? 1 : Math.max(1, parallelism);
+        mRandom = random;
+    }
+
+
+    /**
+     * Get the surfaces found by the last update. Safe to call on any thread.
+     * @return Unmodifiable list of Surfaces, most supported first.
+     */
+    public List<Surface> getSurfaces() {
+        return mSurfaces;
+    }
+
+
+    /**
+     * Get the number of updates done.
+     * @return Update count.
+     */
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+
+    /**
+     * Refine the surfaces with the current feature points.
+     * @param points World positions, 3 floats per point, e.g. FeaturePointCloud's centroids.
+     * @param count Number of points.
+     */
+    public void update(float[] points, int count) {
+        for (Plane plane : mPlanes) {
+            plane.decay(MOMENT_DECAY);
+        }
+        int outlierCount = assignPoints(points, count);
+        for (int i = 0; i < mPlanes.size(); i++) {
+            Plane plane = mPlanes.get(i);
+            refit(plane);
+            plane.radius = Math.max(mScratchRadius[i], plane.radius * RADIUS_DECAY);
+        }
+
+        if (mPlanes.size() < MAX_PLANES && outlierCount >= MIN_PLANE_POINTS) {
+            Plane found = findPlane(outlierCount);
+            if (found != null) {
+                mPlanes.add(found);
+            }
+        }
+        mergePlanes();
+        for (int i = mPlanes.size() - 1; i >= 0; i--) {
+            if (mPlanes.get(i).weight < MIN_PLANE_POINTS) {
+                mPlanes.remove(i);
+            }
+        }
+        mPlanes.sort((a, b) -> Double.compare(b.weight, a.weight));
+        publish();
+        mUpdateCount++;
+    }
+
+
+    /**
+     * Project a position onto the nearest surface.
+     * @param position World position, 3 floats.
+     * @param maxDistance Farthest a surface can be, in meters.
+     * @param out Array of 3 floats for the projected position, may be position.
+     * @return True if a surface was near enough.
+     */
+    public boolean project(float[] position, float maxDistance, float[] out) {
+        Surface nearest = null;
+        float nearestDistance = maxDistance;
+        for (Surface surface : mSurfaces) {
+            float distance = surface.distanceTo(position);
+            if (Math.abs(distance) <= nearestDistance && surface.contains(position, maxDistance)) {
+                nearest = surface;
+                nearestDistance = Math.abs(distance);
+            }
+        }
+        if (nearest == null) {
+            return false;
+        }
+        float distance = nearest.distanceTo(position);
+        out[0] = position[0] - nearest.nx * distance;
+        out[1] = position[1] - nearest.ny * distance;
+        out[2] = position[2] - nearest.nz * distance;
+        return true;
+    }
+
+
+    /**
+     * Find where a ray first hits a surface, e.g. under a tap.
+     * @param origin Start of the ray, 3 floats.
+     * @param direction Direction of the ray, unit length.
+     * @param maxDistance Farthest distance to look at.
+     * @param out Array of 3 floats for the hit position.
+     * @return True if a surface was hit.
+     */
+    public boolean raycast(float[] origin, float[] direction, float maxDistance, float[] out) {
+        float nearest = maxDistance;
+        boolean hit = false;
+        for (Surface surface : mSurfaces) {
+            float facing = surface.nx * direction[0] + surface.ny * direction[1] + surface.nz * direction[2];
+            if (Math.abs(facing) < 1e-4f) {
+                continue;
+            }
+            float t = -surface.distanceTo(origin) / facing;
+            if (t <= 0.0f || t > nearest) {
+                continue;
+            }
+            float x = origin[0] + direction[0] * t;
+            float y = origin[1] + direction[1] * t;
+            float z = origin[2] + direction[2] * t;
+            float dx = x - surface.cx;
+            float dy = y - surface.cy;
+            float dz = z - surface.cz;
+            if (dx * dx + dy * dy + dz * dz > surface.radius * surface.radius) {
+                continue;
+            }
+            out[0] = x;
+            out[1] = y;
+            out[2] = z;
+            nearest = t;
+            hit = true;
+        }
+        return hit;
+    }
+
+
+    /**
+     * Add each point to the moments of the plane it's on, and gather the rest.
+     * @return Number of points on no plane, copied to mOutliers.
+     */
+    private int assignPoints(float[] points, int count) {
+        if (mOutliers.length < count * 3) {
+            mOutliers = new float[count * 3];
+        }
+        Arrays.fill(mScratchRadius, 0.0f);
+        int outlierCount = 0;
+        for (int p = 0; p < count * 3; p += 3) {
+            float x = points[p];
+            float y = points[p + 1];
+            float z = points[p + 2];
+            int best = -1;
+            float bestDistance = INLIER_DISTANCE;
+            for (int i = 0; i < mPlanes.size(); i++) {
+                float distance = Math.abs(mPlanes.get(i).distanceTo(x, y, z));
+                if (distance <= bestDistance) {
+                    best = i;
+                    bestDistance = distance;
+                }
+            }
+            if (best < 0) {
+                mOutliers[outlierCount * 3] = x;
+                mOutliers[outlierCount * 3 + 1] = y;
+                mOutliers[outlierCount * 3 + 2] = z;
+                outlierCount++;
+                continue;
+            }
+            Plane plane = mPlanes.get(best);
+            plane.add(x, y, z);
+            float dx = x - plane.centroid[0];
+            float dy = y - plane.centroid[1];
+            float dz = z - plane.centroid[2];
+            mScratchRadius[best] = Math.max(mScratchRadius[best], (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+        }
+        return outlierCount;
+    }
+
+
+    /**
+     * RANSAC over the points no plane explains.
+     * @param outlierCount Number of points in mOutliers.
+     * @return New plane fit to the best hypothesis' inliers, null if none had enough.
+     */
+    private Plane findPlane(int outlierCount) {
+        // Score on an even subsample, the plane is fit to all inliers afterwards.
+        int stride = (outlierCount + MAX_RANSAC_POINTS - 1) / MAX_RANSAC_POINTS;
+        int sampleCount = 0;
+        if (mSamples.length < MAX_RANSAC_POINTS * 3) {
+            mSamples = new float[MAX_RANSAC_POINTS * 3];
+        }
+        for (int i = 0; i < outlierCount && sampleCount < MAX_RANSAC_POINTS; i += stride) {
+            System.arraycopy(mOutliers, i * 3, mSamples, sampleCount * 3, 3);
+            sampleCount++;
+        }
+
+        // Hypotheses are drawn up front, so the result doesn't depend on the parallelism.
+        for (int h = 0; h < HYPOTHESES_PER_UPDATE; h++) {
+            makeHypothesis(mSamples, sampleCount, h);
+        }
+        if (!scoreHypotheses(sampleCount)) {
+            return null;
+        }
+        int best = -1;
+        for (int h = 0; h < HYPOTHESES_PER_UPDATE; h++) {
+            if (best < 0 || mScores[h] > mScores[best]) {
+                best = h;
+            }
+        }
+        if (best < 0 || mScores[best] * stride < MIN_PLANE_POINTS) {
+            return null;
+        }
+
+        float nx = mHypotheses[best * 4];
+        float ny = mHypotheses[best * 4 + 1];
+        float nz = mHypotheses[best * 4 + 2];
+        float offset = mHypotheses[best * 4 + 3];
+        Plane plane = new Plane();
+        for (int p = 0; p < outlierCount * 3; p += 3) {
+            float x = mOutliers[p];
+            float y = mOutliers[p + 1];
+            float z = mOutliers[p + 2];
+            if (Math.abs(nx * x + ny * y + nz * z - offset) <= INLIER_DISTANCE) {
+                plane.add(x, y, z);
+            }
+        }
+        if (plane.weight < MIN_PLANE_POINTS) {
+            return null;
+        }
+        refit(plane);
+        for (int p = 0; p < outlierCount * 3; p += 3) {
+            if (Math.abs(plane.distanceTo(mOutliers[p], mOutliers[p + 1], mOutliers[p + 2])) <= INLIER_DISTANCE) {
+                float dx = mOutliers[p] - plane.centroid[0];
+                float dy = mOutliers[p + 1] - plane.centroid[1];
+                float dz = mOutliers[p + 2] - plane.centroid[2];
+                plane.radius = Math.max(plane.radius, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+            }
+        }
+        if (plane.weight < MIN_PLANE_DENSITY * Math.PI * plane.radius * plane.radius) {
+            return null;
+        }
+        return plane;
+    }
+
+
+    /**
+     * Plane through three random samples, stored in mHypotheses as normal and offset.
+     * Degenerate samples get a zero normal, which scores nothing.
+     */
+    private void makeHypothesis(float[] samples, int sampleCount, int h) {
+        int a = mRandom.nextInt(sampleCount) * 3;
+        int b = mRandom.nextInt(sampleCount) * 3;
+        int c = mRandom.nextInt(sampleCount) * 3;
+        float ux = samples[b] - samples[a];
+        float uy = samples[b + 1] - samples[a + 1];
+        float uz = samples[b + 2] - samples[a + 2];
+        float vx = samples[c] - samples[a];
+        float vy = samples[c + 1] - samples[a + 1];
+        float vz = samples[c + 2] - samples[a + 2];
+        float nx = uy * vz - uz * vy;
+        float ny = uz * vx - ux * vz;
+        float nz = ux * vy - uy * vx;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length < 1e-6f) {
+            Arrays.fill(mHypotheses, h * 4, h * 4 + 4, 0.0f);
+            return;
+        }
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        mHypotheses[h * 4] = nx;
+        mHypotheses[h * 4 + 1] = ny;
+        mHypotheses[h * 4 + 2] = nz;
+        mHypotheses[h * 4 + 3] = nx * samples[a] + ny * samples[a + 1] + nz * samples[a + 2];
+    }
+
+
+    /**
+     * Count the samples on each hypothesis into mScores, split into tasks on the workers.
+     * @return False if interrupted, e.g. when the app is closing.
+     */
+    private boolean scoreHypotheses(int sampleCount) {
+        if (mParallelism == 1) {
+            scoreHypotheses(0, HYPOTHESES_PER_UPDATE, sampleCount);
+            return true;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(mParallelism);
+        int perTask = (HYPOTHESES_PER_UPDATE + mParallelism - 1) / mParallelism;
+        for (int start = 0; start < HYPOTHESES_PER_UPDATE; start += perTask) {
+            int from = start;
+            int to = Math.min(HYPOTHESES_PER_UPDATE, start + perTask);
+            tasks.add(() -> {
+                scoreHypotheses(from, to, sampleCount);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : mWorkers.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        return true;
+    }
+
+
+    private void scoreHypotheses(int from, int to, int sampleCount) {
+        float[] samples = mSamples;
+        for (int h = from; h < to; h++) {
+            float nx = mHypotheses[h * 4];
+            float ny = mHypotheses[h * 4 + 1];
+            float nz = mHypotheses[h * 4 + 2];
+            float offset = mHypotheses[h * 4 + 3];
+            int score = 0;
+            if (nx != 0.0f || ny != 0.0f || nz != 0.0f) {
+                for (int p = 0; p < sampleCount * 3; p += 3) {
+                    float distance = nx * samples[p] + ny * samples[p + 1] + nz * samples[p + 2] - offset;
+                    if (distance <= INLIER_DISTANCE && distance >= -INLIER_DISTANCE) {
+                        score++;
+                    }
+                }
+            }
+            mScores[h] = score;
+        }
+    }
+
+
+    /**
+     * Merge planes that have grown into each other, e.g. two halves of one face found
+     * before the middle was seen.
+     */
+    private void mergePlanes() {
+        for (int i = 0; i < mPlanes.size(); i++) {
+            Plane a = mPlanes.get(i);
+            for (int j = mPlanes.size() - 1; j > i; j--) {
+                Plane b = mPlanes.get(j);
+                float cos = a.normal[0] * b.normal[0] + a.normal[1] * b.normal[1] + a.normal[2] * b.normal[2];
+                if (Math.abs(cos) < MERGE_COS_ANGLE
+                        || Math.abs(a.distanceTo(b.centroid[0], b.centroid[1], b.centroid[2])) > INLIER_DISTANCE) {
+                    continue;
+                }
+                float dx = a.centroid[0] - b.centroid[0];
+                float dy = a.centroid[1] - b.centroid[1];
+                float dz = a.centroid[2] - b.centroid[2];
+                float apart = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+                if (apart > a.radius + b.radius) {
+                    continue;
+                }
+                // The merged centre is between the two, the merged extent covers both.
+                float ax = a.centroid[0];
+                float ay = a.centroid[1];
+                float az = a.centroid[2];
+                a.add(b);
+                refit(a);
+                a.radius = Math.max(
+                        a.radius + distance(a.centroid, ax, ay, az),
+                        b.radius + distance(a.centroid, b.centroid[0], b.centroid[1], b.centroid[2]));
+                mPlanes.remove(j);
+            }
+        }
+    }
+
+
+    /**
+     * Fit a plane to its moments: through the centroid, normal along the covariance's
+     * smallest eigenvector. The normal keeps its side, so surfaces don't flip between updates.
+     */
+    private void refit(Plane plane) {
+        if (plane.weight <= 0.0) {
+            return;
+        }
+        double w = plane.weight;
+        double mx = plane.sx / w;
+        double my = plane.sy / w;
+        double mz = plane.sz / w;
+        double[] covariance = mScratchCovariance;
+        covariance[0] = plane.sxx / w - mx * mx;
+        covariance[1] = plane.sxy / w - mx * my;
+        covariance[2] = plane.sxz / w - mx * mz;
+        covariance[4] = plane.syy / w - my * my;
+        covariance[5] = plane.syz / w - my * mz;
+        covariance[8] = plane.szz / w - mz * mz;
+        covariance[3] = covariance[1];
+        covariance[6] = covariance[2];
+        covariance[7] = covariance[5];
+        double[] vectors = mScratchVectors;
+        double[] values = mScratchValues;
+        eigenSymmetric3(covariance, values, vectors);
+        int smallest = 0;
+        for (int i = 1; i < 3; i++) {
+            if (values[i] < values[smallest]) {
+                smallest = i;
+            }
+        }
+        float nx = (float) vectors[smallest];
+        float ny = (float) vectors[3 + smallest];
+        float nz = (float) vectors[6 + smallest];
+        if (nx * plane.normal[0] + ny * plane.normal[1] + nz * plane.normal[2] < 0.0f) {
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
+        }
+        plane.normal[0] = nx;
+        plane.normal[1] = ny;
+        plane.normal[2] = nz;
+        plane.centroid[0] = (float) mx;
+        plane.centroid[1] = (float) my;
+        plane.centroid[2] = (float) mz;
+        plane.offset = (float) (nx * mx + ny * my + nz * mz);
+    }
+
+
+    /**
+     * Eigen decomposition of a symmetric 3x3 matrix with Jacobi rotations.
+     * @param matrix Row major matrix, overwritten.
+     * @param values Array of 3 for the eigenvalues.
+     * @param vectors Row major array of 9 for the eigenvectors, in columns.
+     */
+    static void eigenSymmetric3(double[] matrix, double[] values, double[] vectors) {
+        Arrays.fill(vectors, 0.0);
+        vectors[0] = 1.0;
+        vectors[4] = 1.0;
+        vectors[8] = 1.0;
+        for (int sweep = 0; sweep < 16; sweep++) {
+            double off = matrix[1] * matrix[1] + matrix[2] * matrix[2] + matrix[5] * matrix[5];
+            if (off < 1e-30) {
+                break;
+            }
+            for (int p = 0; p < 2; p++) {
+                for (int q = p + 1; q < 3; q++) {
+                    double apq = matrix[p * 3 + q];
+                    if (Math.abs(apq) < 1e-30) {
+                        continue;
+                    }
+                    double theta = (matrix[q * 3 + q] - matrix[p * 3 + p]) / (2.0 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+                    if (theta == 0.0) {
+                        t = 1.0;
+                    }
+                    double c = 1.0 / Math.sqrt(t * t + 1.0);
+                    double s = t * c;
+                    // matrix = J^T * matrix * J, vectors = vectors * J.
+                    for (int k = 0; k < 3; k++) {
+                        double kp = matrix[k * 3 + p];
+                        double kq = matrix[k * 3 + q];
+                        matrix[k * 3 + p] = c * kp - s * kq;
+                        matrix[k * 3 + q] = s * kp + c * kq;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double pk = matrix[p * 3 + k];
+                        double qk = matrix[q * 3 + k];
+                        matrix[p * 3 + k] = c * pk - s * qk;
+                        matrix[q * 3 + k] = s * pk + c * qk;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double kp = vectors[k * 3 + p];
+                        double kq = vectors[k * 3 + q];
+                        vectors[k * 3 + p] = c * kp - s * kq;
+                        vectors[k * 3 + q] = s * kp + c * kq;
+                    }
+                }
+            }
+        }
+        values[0] = matrix[0];
+        values[1] = matrix[4];
+        values[2] = matrix[8];
+    }
+
+
+    private static float distance(float[] a, float x, float y, float z) {
+        float dx = a[0] - x;
+        float dy = a[1] - y;
+        float dz = a[2] - z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+
+    private void publish() {
+        ArrayList<Surface> surfaces = new ArrayList<>(mPlanes.size());
+        for (Plane plane : mPlanes) {
+            surfaces.add(new Surface(plane.normal, plane.offset, plane.centroid, plane.radius,
+                    (float) plane.weight));
+        }
+        mSurfaces = Collections.unmodifiableList(surfaces);
+    }
+}
@@ -0,0 +1,90 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnchorBudgetTest {
+
+    private final HashMap<String, Integer> mWanted = new HashMap<>();
+    private final HashMap<String, Integer> mLimits = new HashMap<>();
+    private int mCalls = 0;
+
+    private final AnchorBudget<String> mBudget = new AnchorBudget<>(
+            new DefaultAnchorBudgetPolicy(5, 6.0f, 40.0f, 0.15f),
+            new AnchorBudget.Host<String>() {
+                @Override
+                public int getWantedAnchors(String item) {
+                    return mWanted.get(item);
+                }
+
+                @Override
+                public void setAnchorLimit(String item, int limit) {
+                    mLimits.put(item, limit);
+                    mCalls++;
+                }
+            });
+
+
+    @Test
+    public void nearRoutesKeepAnchorsFarOnesMergeOrRelease() {
+        List<String> items = Arrays.asList("far", "near", "middle", "gone");
+        mWanted.put("far", 3);
+        mWanted.put("near", 3);
+        mWanted.put("middle", 2);
+        mWanted.put("gone", 2);
+        mBudget.update(items, new float[] {30.0f, 2.0f, 10.0f, 60.0f});
+
+        assertEquals(3, (int) mLimits.get("near"));
+        assertEquals(1, (int) mLimits.get("middle"));
+        assertEquals(1, (int) mLimits.get("far"));
+        assertEquals(0, (int) mLimits.get("gone"));
+        assertEquals(5, mBudget.getAnchorCount());
+    }
+
+
+    @Test
+    public void budgetRunsOutNearestFirst() {
+        List<String> items = Arrays.asList("a", "b", "c");
+        mWanted.put("a", 4);
+        mWanted.put("b", 3);
+        mWanted.put("c", 1);
+        mBudget.update(items, new float[] {1.0f, 2.0f, 3.0f});
+
+        assertEquals(4, (int) mLimits.get("a"));
+        // Doesn't fit in full, merged to one.
+        assertEquals(1, (int) mLimits.get("b"));
+        assertEquals(0, (int) mLimits.get("c"));
+    }
+
+
+    @Test
+    public void hostIsOnlyCalledOnChangeWithHysteresis() {
+        List<String> items = Arrays.asList("a");
+        mWanted.put("a", 2);
+        mBudget.update(items, new float[] {5.0f});
+        assertEquals(1, mCalls);
+        assertEquals(2, mBudget.getLimit("a"));
+
+        // Just past the threshold, not enough to merge.
+        mBudget.update(items, new float[] {6.5f});
+        assertEquals(1, mCalls);
+        mBudget.update(items, new float[] {7.5f});
+        assertEquals(2, mCalls);
+        assertEquals(1, mBudget.getLimit("a"));
+        mBudget.update(items, new float[] {5.5f});
+        assertEquals(1, mBudget.getLimit("a"));
+        mBudget.update(items, new float[] {4.5f});
+        assertEquals(2, mBudget.getLimit("a"));
+
+        // New Clip far from the others wants another anchor.
+        mWanted.put("a", 3);
+        mBudget.update(items, new float[] {4.5f});
+        assertEquals(3, mBudget.getLimit("a"));
+        assertEquals(4, mCalls);
+    }
+}
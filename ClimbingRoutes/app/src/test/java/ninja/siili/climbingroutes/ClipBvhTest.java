@@ -0,0 +1,109 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClipBvhTest {
+
+    @Test
+    public void pickFindsClosestSphereAndLine() {
+        ClipBvh<String> bvh = new ClipBvh<>();
+        bvh.addSphere("near", 0, new float[] {0, 0, -1}, 0.05f);
+        bvh.addSphere("far", 3, new float[] {0, 0, -2}, 0.05f);
+        bvh.addSegment("line", 2, new float[] {-1, 0.5f, -1.5f}, new float[] {1, 0.5f, -1.5f}, 0.02f);
+        ClipBvh.Hit<String> hit = new ClipBvh.Hit<>();
+
+        assertTrue(bvh.raycast(new float[] {0, 0, 0}, new float[] {0, 0, -1}, hit));
+        assertEquals("near", hit.owner);
+        assertEquals(0, hit.clipIndex);
+        assertEquals(0.95f, hit.distance, 1e-4f);
+
+        assertTrue(bvh.raycast(new float[] {0.3f, 0.5f, 0}, new float[] {0, 0, -1}, hit));
+        assertEquals("line", hit.owner);
+        assertEquals(2, hit.clipIndex);
+
+        assertFalse(bvh.raycast(new float[] {0, 0, 0}, new float[] {0, 0, 1}, hit));
+    }
+
+
+    @Test
+    public void movedProxiesArePicked() {
+        ClipBvh<String> bvh = new ClipBvh<>();
+        int sphere = bvh.addSphere("clip", 1, new float[] {0, 0, -1}, 0.05f);
+        ClipBvh.Hit<String> hit = new ClipBvh.Hit<>();
+
+        bvh.moveSphere(sphere, new float[] {2, 0, -1});
+        assertFalse(bvh.raycast(new float[] {0, 0, 0}, new float[] {0, 0, -1}, hit));
+        assertTrue(bvh.raycast(new float[] {2, 0, 0}, new float[] {0, 0, -1}, hit));
+
+        bvh.remove(sphere);
+        assertEquals(0, bvh.size());
+        assertFalse(bvh.raycast(new float[] {2, 0, 0}, new float[] {0, 0, -1}, hit));
+    }
+
+
+    @Test
+    public void matchesLinearScanAndStaysBalanced() {
+        Random random = new Random(42);
+        int count = 2000;
+        float[][] centers = new float[count][];
+        int[] proxies = new int[count];
+        ClipBvh<Integer> bvh = new ClipBvh<>();
+        for (int i = 0; i < count; i++) {
+            centers[i] = new float[] {random.nextFloat() * 10, random.nextFloat() * 4, -1 - random.nextFloat()};
+            proxies[i] = bvh.addSphere(i, 0, centers[i], 0.05f);
+        }
+        // Move half of them around.
+        for (int i = 0; i < count; i += 2) {
+            centers[i] = new float[] {random.nextFloat() * 10, random.nextFloat() * 4, -1 - random.nextFloat()};
+            bvh.moveSphere(proxies[i], centers[i]);
+        }
+
+        assertTrue("height " + bvh.getHeight(), bvh.getHeight() < 30);
+
+        ClipBvh.Hit<Integer> hit = new ClipBvh.Hit<>();
+        for (int ray = 0; ray < 200; ray++) {
+            float[] origin = {random.nextFloat() * 10, random.nextFloat() * 4, 0};
+            float[] direction = {0, 0, -1};
+
+            int expected = -1;
+            float best = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                float dx = centers[i][0] - origin[0];
+                float dy = centers[i][1] - origin[1];
+                if (dx * dx + dy * dy <= 0.05f * 0.05f) {
+                    float t = -centers[i][2] - (float) Math.sqrt(0.05f * 0.05f - dx * dx - dy * dy);
+                    if (t < best) {
+                        best = t;
+                        expected = i;
+                    }
+                }
+            }
+
+            boolean found = bvh.raycast(origin, direction, hit);
+            assertEquals(expected != -1, found);
+            if (found) {
+                assertEquals(expected, (int) hit.owner);
+            }
+        }
+    }
+
+
+    @Test
+    public void axisAlignedRaysOnBoxFacesHit() {
+        float[] box = {0, 0, 0, 1, 1, 1};
+        float[] direction = {0, 0, 1};
+        float[] inverse = {1 / 0.0f, 1 / 0.0f, 1};
+
+        // Origin on the x = 0 face would make the slab NaN.
+        assertTrue(ClipBvh.rayHitsBox(box, 0, new float[] {0, 0.5f, -1}, direction, inverse, 10));
+        assertTrue(ClipBvh.rayHitsBox(box, 0, new float[] {1, 1, -1}, direction, inverse, 10));
+        assertTrue(ClipBvh.rayHitsBox(box, 0, new float[] {0.5f, 0.5f, -1}, direction, inverse, 10));
+        assertFalse(ClipBvh.rayHitsBox(box, 0, new float[] {-0.1f, 0.5f, -1}, direction, inverse, 10));
+        assertFalse(ClipBvh.rayHitsBox(box, 0, new float[] {0.5f, 0.5f, -1}, direction, inverse, 0.5f));
+        assertFalse(ClipBvh.rayHitsBox(box, 0, new float[] {0.5f, 0.5f, 2}, direction, inverse, 10));
+    }
+}
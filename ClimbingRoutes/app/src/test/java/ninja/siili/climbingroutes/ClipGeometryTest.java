@@ -0,0 +1,89 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClipGeometryTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    private final ClipGeometry mGeometry = new ClipGeometry();
+
+
+    private void add(float x, float y, float z) {
+        mGeometry.add(new float[] {x, y, z}, 0.1f);
+    }
+
+
+    @Test
+    public void segmentsAndLengthFollowPositions() {
+        add(0.0f, 0.0f, 0.0f);
+        add(0.0f, 3.0f, 4.0f);
+        add(0.0f, 3.0f, 6.0f);
+        mGeometry.updateSegments();
+
+        assertEquals(5.0f, mGeometry.getSegmentLength(1), EPSILON);
+        assertEquals(2.0f, mGeometry.getSegmentLength(2), EPSILON);
+        assertEquals(7.0f, mGeometry.getLength(), EPSILON);
+
+        mGeometry.removeLast();
+        assertEquals(5.0f, mGeometry.getLength(), EPSILON);
+    }
+
+
+    @Test
+    public void movingAClipDirtiesOnlyItsSegments() {
+        for (int i = 0; i < 6; i++) {
+            add(0.0f, i, 0.0f);
+        }
+        mGeometry.updateSegments();
+        assertTrue(mGeometry.getDirtyStart() >= mGeometry.getDirtyEnd());
+
+        // Under the epsilon, not a move.
+        assertFalse(mGeometry.setPosition(2, 0.0f, 2.00001f, 0.0f));
+        assertTrue(mGeometry.getDirtyStart() >= mGeometry.getDirtyEnd());
+
+        assertTrue(mGeometry.setPosition(2, 1.0f, 2.0f, 0.0f));
+        assertEquals(2, mGeometry.getDirtyStart());
+        assertEquals(4, mGeometry.getDirtyEnd());
+        mGeometry.updateSegments();
+        assertEquals((float) Math.sqrt(2.0), mGeometry.getSegmentLength(2), EPSILON);
+        assertEquals((float) Math.sqrt(2.0), mGeometry.getSegmentLength(3), EPSILON);
+        assertEquals(1.0f, mGeometry.getSegmentLength(4), EPSILON);
+
+        // Last Clip only has the segment before it.
+        assertTrue(mGeometry.setPosition(5, 0.0f, 6.0f, 0.0f));
+        assertEquals(6, mGeometry.getDirtyEnd());
+    }
+
+
+    @Test
+    public void boundsAndPosesComeFromTheArrays() {
+        add(1.0f, 2.0f, -2.0f);
+        add(-1.0f, 4.0f, -2.0f);
+        mGeometry.setRotation(1, 0.0f, 1.0f, 0.0f, 0.0f);
+        mGeometry.setScale(1, 0.2f);
+
+        float[] bounds = new float[6];
+        mGeometry.getBounds(bounds);
+        assertArrayEquals(new float[] {-1.0f, 2.0f, -2.0f, 1.0f, 4.0f, -2.0f}, bounds, EPSILON);
+        mGeometry.getBoundingSphere(bounds);
+        assertArrayEquals(new float[] {0.0f, 3.0f, -2.0f, (float) Math.sqrt(2.0)},
+                new float[] {bounds[0], bounds[1], bounds[2], bounds[3]}, EPSILON);
+
+        float[] origin = new float[RouteRecord.ORIGIN_FLOATS];
+        mGeometry.getPose(0, origin);
+        float[] poses = new float[2 * RouteRecord.CLIP_FLOATS];
+        mGeometry.writePoses(origin, new RigidPoseMath(), poses);
+        assertArrayEquals(new float[] {0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.1f,
+                -2.0f, 2.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.2f}, poses, EPSILON);
+
+        // Relative to a rotated origin, half a turn around y.
+        mGeometry.setRotation(0, 0.0f, 1.0f, 0.0f, 0.0f);
+        mGeometry.getPose(0, origin);
+        mGeometry.writePoses(origin, new RigidPoseMath(), poses);
+        assertArrayEquals(new float[] {0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.1f,
+                2.0f, 2.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.2f}, poses, EPSILON);
+    }
+}
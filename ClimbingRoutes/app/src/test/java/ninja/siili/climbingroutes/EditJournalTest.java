@@ -0,0 +1,225 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class EditJournalTest {
+
+    private static final long MS = 1000000L;
+
+    private File mFile;
+    private File mStoreFile;
+    private ScheduledExecutorService mWriter;
+    private long mNow = 0;
+
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("edits", ".journal");
+        mFile.delete();
+        mStoreFile = File.createTempFile("routes", ".bin");
+        mStoreFile.delete();
+        mWriter = Executors.newSingleThreadScheduledExecutor();
+    }
+
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mWriter.shutdown();
+        mWriter.awaitTermination(5, TimeUnit.SECONDS);
+        mFile.delete();
+        mStoreFile.delete();
+    }
+
+
+    private EditJournal open() {
+        return new EditJournal(mFile, mWriter, () -> mNow, 0);
+    }
+
+
+    private void closeAndWait(EditJournal journal) throws InterruptedException {
+        journal.close();
+        mWriter.shutdown();
+        assertTrue(mWriter.awaitTermination(5, TimeUnit.SECONDS));
+        mWriter = Executors.newSingleThreadScheduledExecutor();
+    }
+
+
+    private static float[] at(float x) {
+        return new float[] {x, 0.0f, 0.0f};
+    }
+
+
+    @Test
+    public void undoAndRedoReturnInverseAndOriginal() throws InterruptedException {
+        EditJournal journal = open();
+        journal.record(EditCommand.addClip(1, 0, at(1.0f), 1.0f));
+        mNow += 1000 * MS;
+        journal.record(EditCommand.moveClip(1, 0, at(1.0f), at(2.0f), 1.0f));
+
+        EditCommand undo = journal.undo();
+        assertEquals(EditCommand.MOVE_CLIP, undo.type);
+        assertEquals(1.0f, undo.after[0], 0.0f);
+        assertEquals(EditCommand.REMOVE_CLIP, journal.undo().type);
+        assertFalse(journal.canUndo());
+        assertNull(journal.undo());
+
+        EditCommand redo = journal.redo();
+        assertEquals(EditCommand.ADD_CLIP, redo.type);
+        assertTrue(journal.canRedo());
+
+        // A new edit drops the redo history.
+        journal.record(EditCommand.moveClip(1, 0, at(1.0f), at(3.0f), 1.0f));
+        assertFalse(journal.canRedo());
+        closeAndWait(journal);
+    }
+
+
+    @Test
+    public void dragStepsCloseInTimeAreOneUndoStep() throws InterruptedException {
+        EditJournal journal = open();
+        journal.record(EditCommand.addClip(1, 0, at(0.0f), 1.0f));
+        mNow += 1000 * MS;
+        for (int i = 1; i <= 10; i++) {
+            journal.record(EditCommand.moveClip(1, 0, at(i - 1), at(i), 1.0f));
+            mNow += 16 * MS;
+        }
+
+        EditCommand undo = journal.undo();
+        assertEquals(EditCommand.MOVE_CLIP, undo.type);
+        assertEquals(10.0f, undo.before[0], 0.0f);
+        assertEquals(0.0f, undo.after[0], 0.0f);
+        assertEquals(EditCommand.REMOVE_CLIP, journal.undo().type);
+        closeAndWait(journal);
+    }
+
+
+    @Test
+    public void unsavedEditsAreRecovered() throws Exception {
+        EditJournal journal = open();
+        RouteRecord info = new RouteRecord();
+        info.name = "arete";
+        info.difficulty = 17;
+        journal.log(EditCommand.setInfo(7, null, info));
+        journal.record(EditCommand.addClip(7, 0, new float[] {1.0f, 2.0f, 3.0f}, 1.0f));
+        journal.record(EditCommand.addClip(7, 1, new float[] {1.0f, 3.0f, 3.0f}, 2.0f));
+        mNow += 1000 * MS;
+        journal.record(EditCommand.moveClip(7, 1, new float[] {1.0f, 3.0f, 3.0f},
+                new float[] {1.5f, 3.0f, 3.0f}, 2.0f));
+        journal.undo();
+        journal.undo();
+        // Simulated crash, the store never saw the route.
+        closeAndWait(journal);
+
+        RouteStore store = new RouteStore(mStoreFile);
+        EditJournal reopened = open();
+        // Undoing the move may be merged with the move when written in one batch.
+        int count = mWriter.submit(() -> reopened.recoverInto(store)).get();
+        assertTrue(count >= 5);
+
+        RouteRecord record = store.load(7);
+        assertEquals("arete", record.name);
+        assertEquals(17, record.difficulty);
+        assertEquals(1, record.getClipCount());
+        assertEquals(2.0f, record.origin[1], 0.0f);
+        assertEquals(0.0f, record.clips[1], 0.0f);
+
+        // Recovered edits are not replayed twice.
+        assertEquals(0, (int) mWriter.submit(() -> reopened.recoverInto(store)).get());
+        closeAndWait(reopened);
+        store.close();
+    }
+
+
+    @Test
+    public void recoveryStopsAtTornOrGarbageRecords() throws Exception {
+        EditJournal journal = open();
+        journal.record(EditCommand.addClip(7, 0, new float[] {1.0f, 2.0f, 3.0f}, 1.0f));
+        journal.record(EditCommand.addClip(8, 0, new float[] {1.0f, 2.0f, 3.0f}, 1.0f));
+        closeAndWait(journal);
+
+        // Second record torn: its last byte never made it to disk intact.
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        }
+        RouteStore store = new RouteStore(mStoreFile);
+        EditJournal reopened = open();
+        assertEquals(1, (int) mWriter.submit(() -> reopened.recoverInto(store)).get());
+        assertEquals(1, store.load(7).getClipCount());
+        assertNull(store.load(8));
+        closeAndWait(reopened);
+
+        // A record whose CRC matches but whose info is cut short isn't applied either.
+        ByteBuffer command = ByteBuffer.allocate(1 + 8 + 2 + 2).order(ByteOrder.LITTLE_ENDIAN);
+        command.put(EditCommand.SET_INFO).putLong(9).putShort((short) 0).putShort((short) 1000);
+        CRC32 crc = new CRC32();
+        crc.update(command.array());
+        ByteBuffer record = ByteBuffer.allocate(4 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(command.capacity()).putInt((int) crc.getValue());
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(file.length());
+            file.write(record.array());
+            file.write(command.array());
+        }
+        EditJournal garbage = open();
+        assertEquals(0, (int) mWriter.submit(() -> garbage.recoverInto(store)).get());
+        assertNull(store.load(9));
+        assertEquals(6, mFile.length());
+        closeAndWait(garbage);
+        store.close();
+    }
+
+
+    @Test
+    public void editsAfterSnapshotStampAreKept() throws Exception {
+        EditJournal journal = open();
+        journal.record(EditCommand.addClip(7, 0, new float[] {1.0f, 2.0f, 3.0f}, 1.0f));
+        long stamp = journal.mark();
+        RouteRecord snapshot = new RouteRecord();
+        snapshot.id = 7;
+        snapshot.origin[1] = 2.0f;
+        snapshot.clips = new float[RouteRecord.CLIP_FLOATS];
+        snapshot.clips[6] = 1.0f;
+        snapshot.clips[7] = 1.0f;
+        // Edited again while the snapshot is being saved.
+        journal.record(EditCommand.addClip(7, 1, new float[] {1.0f, 3.0f, 3.0f}, 1.0f));
+
+        RouteStore store = new RouteStore(mStoreFile);
+        mWriter.submit(() -> {
+            store.save(snapshot);
+            journal.snapshotSaved(7, stamp);
+            return null;
+        }).get();
+        assertTrue(mFile.length() > 6);
+        closeAndWait(journal);
+
+        EditJournal reopened = open();
+        assertTrue(mWriter.submit(() -> reopened.recoverInto(store)).get() > 0);
+        assertEquals(2, store.load(7).getClipCount());
+
+        // Saved with a stamp covering every edit, the journal is emptied.
+        reopened.record(EditCommand.moveClip(7, 1, new float[] {1.0f, 3.0f, 3.0f},
+                new float[] {1.0f, 4.0f, 3.0f}, 1.0f));
+        long latest = reopened.mark();
+        mWriter.submit(() -> reopened.snapshotSaved(7, latest)).get();
+        assertEquals(6, mFile.length());
+        closeAndWait(reopened);
+        store.close();
+    }
+}
@@ -0,0 +1,372 @@
+package ninja.siili.climbingroutes;
+
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * RouteScene for headless runs. Anchors are poses that can be made to drift the way ARCore
+ * updates them, Clips remember where they were placed, so where a Clip is drawn can be compared
+ * with where its Route thinks it is.
+ */
+public class FakeRouteScene implements RouteScene {
+
+    private static final PoseMath POSE_MATH = new RigidPoseMath();
+
+    private final ArrayList<FakeAnchor> mAnchors = new ArrayList<>();
+    private final ArrayList<FakeClip> mClips = new ArrayList<>();
+    private final ArrayList<FakeMesh> mMeshes = new ArrayList<>();
+    private int mLinesPlaced = 0;
+
+
+    /** Anchor at a pose, tracked ones drift with driftAnchors(). */
+    public static class FakeAnchor implements AnchorHandle {
+        final float[] pose = {0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f};
+        Route route;
+        boolean anchored;
+        boolean destroyed = false;
+
+        @Override
+        public void readPose(float[] out) {
+            System.arraycopy(pose, 0, out, 0, 7);
+        }
+
+        @Override
+        public boolean isAnchored() {
+            return anchored;
+        }
+
+        @Override
+        public void setAnchored(boolean anchored) {
+            this.anchored = anchored;
+        }
+
+        @Override
+        public void destroy() {
+            anchored = false;
+            destroyed = true;
+        }
+    }
+
+
+    /** Clip placed under an anchor, moved by a simulated gesture while one is active. */
+    public class FakeClip implements ClipHandle {
+        private FakeAnchor mAnchor;
+        private final float[] mLocal = new float[3];
+        private final float[] mRotation = {0.0f, 0.0f, 0.0f, 1.0f};
+        private float mScale = 1.0f;
+        private boolean mTransforming = false;
+        private boolean mSphereShown = true;
+        // Where a gesture left the Clip, until it's placed again.
+        private boolean mMoved = false;
+        private final float[] mGesture = new float[3];
+        private Runnable mListener;
+        private boolean mDestroyed = false;
+
+        FakeClip(FakeAnchor anchor) {
+            mAnchor = anchor;
+        }
+
+        /**
+         * Move the Clip by a gesture, the way a TransformableNode's drag does each frame.
+         * @param worldPosition World position the gesture moved it to.
+         */
+        public void gesture(float[] worldPosition) {
+            mTransforming = true;
+            mMoved = true;
+            System.arraycopy(worldPosition, 0, mGesture, 0, 3);
+            if (mListener != null) {
+                mListener.run();
+            }
+        }
+
+        /**
+         * Let go of the Clip. It stays where the gesture left it until it's placed again.
+         */
+        public void endGesture() {
+            mTransforming = false;
+        }
+
+        /**
+         * Get where the Clip is drawn: at its offset from its anchor, or where a gesture has
+         * moved it.
+         * @param out World position, 3 floats.
+         */
+        public void getDrawnPosition(float[] out) {
+            if (mMoved) {
+                System.arraycopy(mGesture, 0, out, 0, 3);
+            } else {
+                POSE_MATH.toWorld(mAnchor.pose, mLocal, out);
+            }
+        }
+
+        /**
+         * Check if the Route has removed the Clip.
+         * @return True if destroyed.
+         */
+        public boolean isDestroyed() {
+            return mDestroyed;
+        }
+
+        /**
+         * Check if the Clip's own sphere is drawn.
+         * @return True if shown.
+         */
+        public boolean isSphereShown() {
+            return mSphereShown;
+        }
+
+        @Override
+        public void setParent(AnchorHandle anchor) {
+            mAnchor = (FakeAnchor) anchor;
+        }
+
+        @Override
+        public void setTransform(float[] localPosition, float[] rotation, float scale) {
+            System.arraycopy(localPosition, 0, mLocal, 0, 3);
+            System.arraycopy(rotation, 0, mRotation, 0, 4);
+            mScale = scale;
+            mMoved = false;
+        }
+
+        @Override
+        public float readGesture(float[] worldPosition, float[] rotation) {
+            getDrawnPosition(worldPosition);
+            System.arraycopy(mRotation, 0, rotation, 0, 4);
+            return mScale;
+        }
+
+        @Override
+        public boolean isTransforming() {
+            return mTransforming;
+        }
+
+        @Override
+        public void setOnTransformListener(Runnable listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void placeLine(RouteSpline spline, int index) {
+            mLinesPlaced++;
+        }
+
+        @Override
+        public void setDetail(boolean visible, boolean sphere, boolean line, boolean card) {
+            mSphereShown = visible && sphere;
+        }
+
+        @Override
+        public void enableTransforming(boolean enable) {
+        }
+
+        @Override
+        public void changeColor(int band) {
+        }
+
+        @Override
+        public void refreshRenderables() {
+        }
+
+        @Override
+        public void attachInfoCard(int card) {
+        }
+
+        @Override
+        public void detachInfoCard() {
+        }
+
+        @Override
+        public void destroy() {
+            mListener = null;
+            mDestroyed = true;
+        }
+    }
+
+
+    /**
+     * Mesh built with a RouteMeshBuilder, under an anchor like the Clips. Like RouteMesh a
+     * rebuild is set on a later frame, by finishBuilds().
+     */
+    public static class FakeMesh implements MeshHandle {
+        private final RouteMeshBuilder mBuilder = new RouteMeshBuilder(0.015f);
+        private final Runnable mOnReady;
+        private FakeAnchor mParent;
+        private int mBuilds = 0;
+        private boolean mBuilding = false;
+        private boolean mReady = false;
+        private boolean mVisible = false;
+
+        FakeMesh(Runnable onReady) {
+            mOnReady = onReady;
+        }
+
+        public int getVertexCount() {
+            return mBuilder.getVertexCount();
+        }
+
+        /**
+         * Get the anchor the mesh is under.
+         * @return FakeAnchor, null before the first Clips are set.
+         */
+        public FakeAnchor getParent() {
+            return mParent;
+        }
+
+        /**
+         * Get how many times vertices have changed, each would build a new renderable.
+         * @return Build count.
+         */
+        public int getBuildCount() {
+            return mBuilds;
+        }
+
+        /**
+         * Check if a mesh is drawn.
+         * @return True if ready and visible.
+         */
+        public boolean isShown() {
+            return mReady && mVisible;
+        }
+
+        private void finishBuild() {
+            if (mBuilding) {
+                mBuilding = false;
+                mReady = true;
+                mOnReady.run();
+            }
+        }
+
+        @Override
+        public void setClips(RouteModel<?> model, int anchor, AnchorHandle parent) {
+            if (parent != null) {
+                mParent = (FakeAnchor) parent;
+            }
+            model.fillMesh(mBuilder, anchor, Clip.MODEL_RADIUS);
+        }
+
+        @Override
+        public void rebuild(int band) {
+            boolean moved = mBuilder.hasChangedClips();
+            if (!mBuilder.update()) {
+                return;
+            }
+            mBuilds++;
+            if (mBuilder.getVertexCount() == 0) {
+                mReady = false;
+                mBuilding = false;
+                return;
+            }
+            // Old mesh stays shown unless its clips are out of date.
+            if (moved) {
+                mReady = false;
+            }
+            mBuilding = true;
+        }
+
+        @Override
+        public boolean isReady() {
+            return mReady;
+        }
+
+        @Override
+        public void setVisible(boolean visible) {
+            mVisible = visible;
+        }
+
+        @Override
+        public void invalidateMaterial() {
+        }
+    }
+
+
+    /**
+     * Move every tracked anchor, the way ARCore corrects its poses as it learns the space.
+     * @param dx Movement along x.
+     * @param dy Movement along y.
+     * @param dz Movement along z.
+     * @param outRoutes Routes of the moved anchors are added here, each once.
+     */
+    public void driftAnchors(float dx, float dy, float dz, ArrayList<Route> outRoutes) {
+        for (FakeAnchor anchor : mAnchors) {
+            if (anchor.anchored) {
+                anchor.pose[0] += dx;
+                anchor.pose[1] += dy;
+                anchor.pose[2] += dz;
+                if (!outRoutes.contains(anchor.route)) {
+                    outRoutes.add(anchor.route);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Set the meshes whose builds were started, as Sceneform does a frame or more later.
+     */
+    public void finishBuilds() {
+        for (FakeMesh mesh : mMeshes) {
+            mesh.finishBuild();
+        }
+    }
+
+
+    /**
+     * Get the Clips made so far, destroyed ones included.
+     * @return FakeClips, in the order they were made.
+     */
+    public ArrayList<FakeClip> getClips() {
+        return mClips;
+    }
+
+
+    /**
+     * Get the meshes made so far.
+     * @return FakeMeshes, in the order the Routes were made.
+     */
+    public ArrayList<FakeMesh> getMeshes() {
+        return mMeshes;
+    }
+
+
+    /**
+     * Get the number of lines placed so far.
+     * @return Count of placeLine() calls.
+     */
+    public int getLinesPlaced() {
+        return mLinesPlaced;
+    }
+
+
+    @Override
+    public AnchorHandle createAnchor(Route route, float[] position, boolean atHit) {
+        FakeAnchor anchor = new FakeAnchor();
+        anchor.route = route;
+        System.arraycopy(position, 0, anchor.pose, 0, 3);
+        anchor.anchored = atHit;
+        mAnchors.add(anchor);
+        return anchor;
+    }
+
+
+    @Override
+    public ClipHandle createClip(AnchorHandle anchor, int band, boolean withLine) {
+        FakeClip clip = new FakeClip((FakeAnchor) anchor);
+        mClips.add(clip);
+        return clip;
+    }
+
+
+    @Override
+    public MeshHandle createMesh(Runnable onReady) {
+        FakeMesh mesh = new FakeMesh(onReady);
+        mMeshes.add(mesh);
+        return mesh;
+    }
+
+
+    @Override
+    public View getInfoCardView(int card) {
+        return null;
+    }
+}
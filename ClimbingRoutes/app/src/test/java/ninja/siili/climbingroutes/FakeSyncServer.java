@@ -0,0 +1,214 @@
+package ninja.siili.climbingroutes;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Stand-in for the gym's sync server on localhost. Keeps the latest version of each route,
+ * numbered by a change sequence the phones use as their cursor, and resolves concurrent
+ * changes the same way SyncState does.
+ */
+public class FakeSyncServer {
+
+    private static class Entry {
+        RouteRecord record;
+        VersionVector version;
+        long sequence;
+    }
+
+    private final HttpServer mServer;
+    private final int mPageSize;
+    private final HashMap<Long, Entry> mRoutes = new HashMap<>();
+    private long mSequence = 0;
+    private int mFailures = 0;
+    private int mFailureStatus = 503;
+    private int mRequests = 0;
+    private long mBytesReceived = 0;
+    private long mBytesSent = 0;
+
+
+    /**
+     * Start the server on a free port.
+     * @param pageSize Most routes sent back per reply.
+     * @throws IOException If the server can't start.
+     */
+    public FakeSyncServer(int pageSize) throws IOException {
+        mPageSize = pageSize;
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/sync", this::handle);
+        mServer.start();
+    }
+
+
+    /**
+     * Get the URL phones sync with.
+     * @return URL of the server.
+     */
+    public URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/sync");
+    }
+
+
+    /**
+     * Fail the next requests, e.g. to test retries.
+     * @param count Number of requests to fail.
+     * @param status HTTP status to fail with.
+     */
+    public synchronized void failNext(int count, int status) {
+        mFailures = count;
+        mFailureStatus = status;
+    }
+
+
+    /**
+     * Get the number of requests served, failed ones included.
+     * @return Request count.
+     */
+    public synchronized int getRequests() {
+        return mRequests;
+    }
+
+
+    /**
+     * Get the number of routes the server has.
+     * @return Route count.
+     */
+    public synchronized int size() {
+        return mRoutes.size();
+    }
+
+
+    /**
+     * Compressed request bytes received.
+     * @return Byte count.
+     */
+    public synchronized long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+
+    /**
+     * Compressed reply bytes sent.
+     * @return Byte count.
+     */
+    public synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+
+    /**
+     * Stop the server.
+     */
+    public void stop() {
+        mServer.stop(0);
+    }
+
+
+    private synchronized void handle(HttpExchange exchange) throws IOException {
+        mRequests++;
+        byte[] body = readAll(exchange.getRequestBody());
+        mBytesReceived += body.length;
+        if (mFailures > 0) {
+            mFailures--;
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            exchange.sendResponseHeaders(mFailureStatus, -1);
+            exchange.close();
+            return;
+        }
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = RouteSyncClient.gunzip(body);
+        }
+
+        SyncPayload request = SyncPayload.decode(body);
+        HashMap<Long, VersionVector> pushed = new HashMap<>();
+        for (SyncPayload.Change change : request.changes) {
+            pushed.put(change.record.id, change.version);
+            apply(change);
+        }
+
+        // Changes since the phone's cursor, oldest first, except what it just pushed.
+        List<Entry> changed = new ArrayList<>();
+        for (Entry entry : mRoutes.values()) {
+            if (entry.sequence > request.cursor) {
+                changed.add(entry);
+            }
+        }
+        changed.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        SyncPayload reply = new SyncPayload();
+        reply.cursor = mSequence;
+        for (Entry entry : changed) {
+            if (reply.changes.size() == mPageSize) {
+                reply.flags |= SyncPayload.FLAG_MORE;
+                break;
+            }
+            reply.cursor = entry.sequence;
+            VersionVector pushedVersion = pushed.get(entry.record.id);
+            if (pushedVersion == null || !pushedVersion.equals(entry.version)) {
+                reply.changes.add(new SyncPayload.Change(entry.record, entry.version));
+            }
+        }
+        if (!reply.hasFlag(SyncPayload.FLAG_MORE)) {
+            reply.cursor = mSequence;
+        }
+
+        byte[] replyBytes = reply.encode();
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept != null && accept.contains("gzip")) {
+            replyBytes = RouteSyncClient.gzip(replyBytes);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        mBytesSent += replyBytes.length;
+        exchange.sendResponseHeaders(200, replyBytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(replyBytes);
+        }
+    }
+
+
+    private void apply(SyncPayload.Change change) {
+        Entry entry = mRoutes.get(change.record.id);
+        if (entry == null) {
+            entry = new Entry();
+            mRoutes.put(change.record.id, entry);
+        } else {
+            int order = entry.version.compare(change.version);
+            if (order == VersionVector.CONCURRENT) {
+                VersionVector merged = new VersionVector(entry.version);
+                merged.merge(change.version);
+                if (change.version.winsOver(entry.version)) {
+                    entry.record = change.record;
+                }
+                entry.version = merged;
+                entry.sequence = ++mSequence;
+                return;
+            }
+            if (order != VersionVector.BEFORE) {
+                return;
+            }
+        }
+        entry.record = change.record;
+        entry.version = new VersionVector(change.version);
+        entry.sequence = ++mSequence;
+    }
+
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,148 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FeaturePointCloudTest {
+
+    private static final float WALL_Z = -2.0f;
+
+
+    /**
+     * Scatter noisy points on the wall z = WALL_Z.
+     */
+    private static void addWall(FeaturePointCloud cloud, Random random, int count, float noise) {
+        FloatBuffer points = FloatBuffer.allocate(count * 4);
+        for (int i = 0; i < count; i++) {
+            points.put(random.nextFloat() * 2.0f - 1.0f);
+            points.put(random.nextFloat() * 2.0f);
+            points.put(WALL_Z + (float) random.nextGaussian() * noise);
+            points.put(0.5f + random.nextFloat() * 0.5f);
+        }
+        points.flip();
+        cloud.addPoints(points);
+    }
+
+
+    @Test
+    public void snapsNoisyPointOntoWall() {
+        FeaturePointCloud cloud = new FeaturePointCloud(0.02f, 16384, 100);
+        Random random = new Random(1);
+        for (int frame = 0; frame < 10; frame++) {
+            cloud.frame();
+            addWall(cloud, random, 2000, 0.005f);
+        }
+
+        float[] out = new float[3];
+        assertTrue(cloud.snap(new float[] {0.1f, 1.0f, WALL_Z + 0.03f}, 0.05f, 2.0f, out));
+        assertEquals(WALL_Z, out[2], 0.006f);
+        assertEquals(0.1f, out[0], 0.05f);
+        assertEquals(1.0f, out[1], 0.05f);
+
+        // Nothing dense far from the wall.
+        assertFalse(cloud.snap(new float[] {0.1f, 1.0f, WALL_Z + 0.5f}, 0.05f, 2.0f, out));
+    }
+
+
+    @Test
+    public void raycastHitsWallAndMissesBesideIt() {
+        FeaturePointCloud cloud = new FeaturePointCloud(0.02f, 16384, 100);
+        Random random = new Random(2);
+        for (int frame = 0; frame < 10; frame++) {
+            cloud.frame();
+            addWall(cloud, random, 2000, 0.005f);
+        }
+
+        float[] out = new float[3];
+        float[] origin = {0.0f, 1.0f, 0.0f};
+        assertTrue(cloud.raycast(origin, new float[] {0.0f, 0.0f, -1.0f}, 5.0f, 2.0f, out));
+        assertEquals(WALL_Z, out[2], 0.03f);
+        assertEquals(1.0f, out[1], 0.03f);
+
+        // Points are only between x -1 and 1.
+        float length = (float) Math.sqrt(2.0);
+        assertFalse(cloud.raycast(origin, new float[] {1.0f / length, 0.0f, -1.0f / length}, 5.0f, 2.0f, out));
+        // Too short to reach the wall.
+        assertFalse(cloud.raycast(origin, new float[] {0.0f, 0.0f, -1.0f}, 1.5f, 2.0f, out));
+    }
+
+
+    @Test
+    public void oldVoxelsAgeOut() {
+        FeaturePointCloud cloud = new FeaturePointCloud(0.02f, 1024, 10);
+        cloud.frame();
+        cloud.addPoint(0.0f, 0.0f, 0.0f, 1.0f);
+        cloud.addPoint(1.0f, 0.0f, 0.0f, 1.0f);
+        assertEquals(2, cloud.size());
+
+        for (int i = 0; i < 5; i++) {
+            cloud.frame();
+            cloud.addPoint(1.0f, 0.0f, 0.0f, 1.0f);
+        }
+        for (int i = 0; i < 8; i++) {
+            cloud.frame();
+        }
+        assertEquals(1, cloud.size());
+        assertEquals(0.0f, cloud.getWeight(0.0f, 0.0f, 0.0f), 0.0f);
+        assertEquals(6.0f, cloud.getWeight(1.0f, 0.0f, 0.0f), 1e-4f);
+    }
+
+
+    @Test
+    public void sizeIsBounded() {
+        FeaturePointCloud cloud = new FeaturePointCloud(0.02f, 100, 1000);
+        cloud.frame();
+        for (int i = 0; i < 1000; i++) {
+            cloud.addPoint(i * 0.1f, 0.0f, 0.0f, 1.0f);
+        }
+        assertEquals(100, cloud.size());
+        // Voxels already in the cloud still take points.
+        cloud.addPoint(0.0f, 0.0f, 0.0f, 1.0f);
+        assertEquals(2.0f, cloud.getWeight(0.0f, 0.0f, 0.0f), 1e-4f);
+    }
+
+
+    @Test
+    public void weightIsCappedSoNewPointsCount() {
+        FeaturePointCloud cloud = new FeaturePointCloud(1.0f, 16, 1000);
+        cloud.frame();
+        for (int i = 0; i < 100; i++) {
+            cloud.addPoint(0.1f, 0.1f, 0.1f, 1.0f);
+        }
+        for (int i = 0; i < 100; i++) {
+            cloud.addPoint(0.9f, 0.1f, 0.1f, 1.0f);
+        }
+        float[] out = new float[3];
+        assertTrue(cloud.snap(new float[] {0.5f, 0.1f, 0.1f}, 1.0f, 1.0f, out));
+        assertEquals(0.9f, out[0], 0.05f);
+    }
+
+
+    @Test
+    public void remainingVoxelsAreFoundAfterRemovals() {
+        FeaturePointCloud cloud = new FeaturePointCloud(0.02f, 4096, 20);
+        Random random = new Random(3);
+        float[][] kept = new float[200][];
+        cloud.frame();
+        for (int i = 0; i < 2000; i++) {
+            cloud.addPoint(random.nextFloat() * 10.0f, random.nextFloat() * 10.0f, random.nextFloat(), 1.0f);
+        }
+        for (int frame = 0; frame < 80; frame++) {
+            cloud.frame();
+            for (int i = 0; i < kept.length; i++) {
+                if (kept[i] == null) {
+                    kept[i] = new float[] {-1.0f - i * 0.1f, random.nextFloat(), random.nextFloat()};
+                }
+                cloud.addPoint(kept[i][0], kept[i][1], kept[i][2], 1.0f);
+            }
+        }
+        assertEquals(kept.length, cloud.size());
+        for (float[] point : kept) {
+            assertTrue(cloud.getWeight(point[0], point[1], point[2]) > 0.0f);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class FrameProfilerTest {
+
+    private static final long MS = 1000000L;
+
+    private long mTime = 0;
+    private final FrameProfiler mProfiler = new FrameProfiler(16.0f, () -> mTime);
+
+
+    @Test
+    public void framesOverBudgetAreCounted() {
+        long[] frameMs = {16, 16, 40, 16, 17};
+        mProfiler.frame();
+        for (long ms : frameMs) {
+            mTime += ms * MS;
+            mProfiler.frame();
+        }
+        LatencyHistogram frames = mProfiler.getHistogram(FrameProfiler.TIMER_FRAME);
+        assertEquals(5, frames.getCount());
+        assertEquals(40 * MS, frames.getMaxNanos());
+        assertEquals(2, mProfiler.getFramesOverBudget());
+    }
+
+
+    @Test
+    public void timersRecordOnlyWhileEnabled() {
+        long start = mProfiler.start();
+        mTime += 3 * MS;
+        mProfiler.stop(FrameProfiler.TIMER_TAP, start);
+        assertEquals(3 * MS, mProfiler.getHistogram(FrameProfiler.TIMER_TAP).getMaxNanos());
+
+        mProfiler.setEnabled(false);
+        start = mProfiler.start();
+        mTime += 5 * MS;
+        mProfiler.stop(FrameProfiler.TIMER_TAP, start);
+        mProfiler.frame();
+        assertEquals(1, mProfiler.getHistogram(FrameProfiler.TIMER_TAP).getCount());
+        assertEquals(0, mProfiler.getHistogram(FrameProfiler.TIMER_FRAME).getCount());
+    }
+
+
+    @Test
+    public void csvHasARowPerTimer() throws IOException {
+        long start = mProfiler.start();
+        mTime += 2 * MS;
+        mProfiler.stop(FrameProfiler.TIMER_VIEW_BUILD, start);
+
+        StringWriter csv = new StringWriter();
+        mProfiler.writeCsv(csv, "test device");
+        String[] lines = csv.toString().split("\n");
+        assertEquals("# test device", lines[0]);
+        assertEquals(3 + FrameProfiler.TIMER_COUNT, lines.length);
+        assertTrue(csv.toString().contains("view build,1,2000,"));
+    }
+}
@@ -0,0 +1,109 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class FrameSchedulerTest {
+
+    private static final long MS = 1000000L;
+
+    private long mTime = 0;
+    private final FrameScheduler mScheduler = new FrameScheduler(4.0f, () -> mTime);
+    private final ArrayList<String> mRan = new ArrayList<>();
+
+
+    private FrameScheduler.Task task(String name, long costMs) {
+        return () -> {
+            mRan.add(name);
+            mTime += costMs * MS;
+            return true;
+        };
+    }
+
+
+    @Test
+    public void runsByPriority() {
+        mScheduler.post(FrameScheduler.CATEGORY_OTHER, FrameScheduler.PRIORITY_LOW, task("low", 0));
+        mScheduler.post(FrameScheduler.CATEGORY_OTHER, FrameScheduler.PRIORITY_HIGH, task("high", 0));
+        mScheduler.post(FrameScheduler.CATEGORY_OTHER, FrameScheduler.PRIORITY_NORMAL, task("normal", 0));
+
+        mScheduler.runFrame();
+
+        assertEquals("[high, normal, low]", mRan.toString());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+
+    @Test
+    public void leftoverWorkRollsOver() {
+        for (int i = 0; i < 5; i++) {
+            mScheduler.post(FrameScheduler.CATEGORY_RECOLOR, FrameScheduler.PRIORITY_NORMAL, task("t" + i, 2));
+        }
+
+        mScheduler.runFrame();
+        assertEquals(2, mRan.size());
+        assertEquals(4 * MS, mScheduler.getFrameUsageNanos(FrameScheduler.CATEGORY_RECOLOR));
+        assertEquals(3, mScheduler.getPendingCount());
+
+        mScheduler.runFrame();
+        mScheduler.runFrame();
+        assertEquals(5, mRan.size());
+    }
+
+
+    @Test
+    public void overdueTaskRunsOverBudget() {
+        mScheduler.post(FrameScheduler.CATEGORY_LOADING, FrameScheduler.PRIORITY_HIGH, task("big", 5));
+        mScheduler.post(FrameScheduler.CATEGORY_INFO_CARDS, FrameScheduler.PRIORITY_LOW, 3 * MS, task("due", 1));
+
+        mTime = 3 * MS;
+        mScheduler.runFrame();
+
+        assertEquals("[due, big]", mRan.toString());
+        assertEquals(1, mScheduler.getFramesOverBudget());
+    }
+
+
+    @Test
+    public void overdueTaskStaysFirstUntilDone() {
+        int[] slices = {0};
+        mScheduler.post(FrameScheduler.CATEGORY_LOADING, FrameScheduler.PRIORITY_LOW, 3 * MS, () -> {
+            mRan.add("due");
+            mTime += MS;
+            return ++slices[0] == 3;
+        });
+        // Busy work that would use the whole budget every frame.
+        mScheduler.post(FrameScheduler.CATEGORY_LINES, FrameScheduler.PRIORITY_HIGH, () -> {
+            mRan.add("busy");
+            mTime += 4 * MS;
+            return false;
+        });
+
+        mTime = 3 * MS;
+        for (int i = 0; i < 4; i++) {
+            mScheduler.runFrame();
+        }
+
+        assertEquals("[due, busy, due, busy, due, busy, busy]", mRan.toString());
+        assertEquals(1, mScheduler.getPendingCount());
+    }
+
+
+    @Test
+    public void unfinishedTaskRunsOncePerFrame() {
+        int[] runs = {0};
+        mScheduler.post(FrameScheduler.CATEGORY_LINES, FrameScheduler.PRIORITY_HIGH, () -> {
+            runs[0]++;
+            return false;
+        });
+
+        mScheduler.runFrame();
+        mScheduler.runFrame();
+
+        assertEquals(2, runs[0]);
+        assertEquals(1, mScheduler.getPendingCount());
+    }
+}
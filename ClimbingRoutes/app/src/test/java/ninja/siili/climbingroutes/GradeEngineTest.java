@@ -0,0 +1,34 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GradeEngineTest {
+
+    @Test
+    public void frenchLabelsMatchDifficultyIndex() {
+        assertEquals("5A-", GradeEngine.getLabel(GradeEngine.FRENCH, 0));
+        assertEquals("6A ", GradeEngine.getLabel(GradeEngine.FRENCH, 10));
+        assertEquals("7B+", GradeEngine.getLabel(GradeEngine.FRENCH, 23));
+        assertEquals("8C+", GradeEngine.getLabel(GradeEngine.FRENCH, 35));
+        assertEquals("8C+", GradeEngine.getLabel(GradeEngine.FRENCH, 99));
+    }
+
+
+    @Test
+    public void parseAndConvert() {
+        int range = GradeEngine.parse(GradeEngine.FRENCH, " 6b ");
+        assertEquals(12, GradeEngine.getMin(range));
+        assertEquals(14, GradeEngine.getMax(range));
+        range = GradeEngine.parse(GradeEngine.FRENCH, "6B+");
+        assertEquals(14, GradeEngine.getMin(range));
+        assertEquals(14, GradeEngine.getMax(range));
+        assertEquals(-1, GradeEngine.parse(GradeEngine.V_SCALE, "V42"));
+
+        assertEquals("V4", GradeEngine.convert(GradeEngine.FRENCH, "6b", GradeEngine.V_SCALE));
+        assertEquals("5.12a", GradeEngine.convert(GradeEngine.FRENCH, "7b", GradeEngine.YDS));
+        assertEquals("7B", GradeEngine.convert(GradeEngine.YDS, "5.12b", GradeEngine.FONT));
+        assertSame(GradeEngine.getLabel(GradeEngine.UIAA, 3), GradeEngine.getLabel(GradeEngine.UIAA, 4));
+    }
+}
@@ -0,0 +1,30 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GradePaletteTest {
+
+    @Test
+    public void fourBandsMatchOldThresholds() {
+        GradePalette palette = new GradePalette(new int[] {1, 2, 3, 4});
+
+        for (int diff = 0; diff < GradePalette.DIFFICULTY_COUNT; diff++) {
+            int expected = diff < 9 ? 0 : diff < 18 ? 1 : diff < 27 ? 2 : 3;
+            assertEquals(expected, palette.getBand(diff));
+        }
+        assertEquals(3, palette.getColor(palette.getBand(20)));
+    }
+
+
+    @Test
+    public void anyNumberOfBands() {
+        GradePalette palette = new GradePalette(new int[] {1, 2, 3, 4, 5, 6});
+
+        assertEquals(0, palette.getBand(0));
+        assertEquals(5, palette.getBand(GradePalette.DIFFICULTY_COUNT - 1));
+        assertEquals(5, palette.getBand(100));
+        assertEquals(0, palette.getBand(-1));
+    }
+}
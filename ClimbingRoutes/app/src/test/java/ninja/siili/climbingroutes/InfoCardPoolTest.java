@@ -0,0 +1,66 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InfoCardPoolTest {
+
+    private final HashMap<String, Integer> mShown = new HashMap<>();
+    private int mBinds = 0;
+
+    private final InfoCardPool<String> mPool = new InfoCardPool<>(2, new InfoCardPool.Binder<String>() {
+        @Override
+        public void bind(int card, String item) {
+            assertFalse(mShown.containsValue(card));
+            mShown.put(item, card);
+            mBinds++;
+        }
+
+        @Override
+        public void unbind(int card, String item) {
+            assertEquals(Integer.valueOf(card), mShown.remove(item));
+        }
+    });
+
+
+    @Test
+    public void nearestItemsGetCards() {
+        List<String> items = Arrays.asList("a", "b", "c", "d");
+        mPool.update(items, new float[] {1.0f, 2.0f, 3.0f, 4.0f});
+        assertTrue(mShown.isEmpty());
+
+        mPool.addCard();
+        mPool.addCard();
+        assertEquals(-1, mPool.addCard());
+        mPool.update(items, new float[] {5.0f, 2.0f, 1.0f, Float.POSITIVE_INFINITY});
+        assertEquals(2, mShown.size());
+        assertTrue(mShown.containsKey("b"));
+        assertTrue(mShown.containsKey("c"));
+
+        mPool.update(items, new float[] {1.0f, 2.0f, 3.0f, 0.5f});
+        assertEquals(2, mShown.size());
+        assertTrue(mShown.containsKey("a"));
+        assertTrue(mShown.containsKey("d"));
+        assertEquals(-1, mPool.getCard("b"));
+    }
+
+
+    @Test
+    public void cardsStayPutNearTies() {
+        mPool.addCard();
+        List<String> items = Arrays.asList("a", "b");
+        mPool.update(items, new float[] {1.0f, 1.1f});
+        mPool.update(items, new float[] {1.1f, 1.0f});
+        mPool.update(items, new float[] {1.15f, 1.0f});
+        assertEquals(1, mBinds);
+        assertTrue(mShown.containsKey("a"));
+
+        mPool.release("a");
+        assertTrue(mShown.isEmpty());
+    }
+}
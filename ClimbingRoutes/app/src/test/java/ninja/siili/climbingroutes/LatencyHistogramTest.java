@@ -0,0 +1,60 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    private static final long US = 1000L;
+    private static final long MS = 1000000L;
+
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        // 1..1000 ms, each once.
+        for (int i = 1; i <= 1000; i++) {
+            mHistogram.record(i * MS);
+        }
+        assertEquals(1000, mHistogram.getCount());
+        assertEquals(1000 * MS, mHistogram.getMaxNanos());
+        assertEquals(500 * MS + MS / 2, mHistogram.getMeanNanos());
+
+        long[] expected = {500 * MS, 950 * MS, 990 * MS};
+        double[] percentiles = {50, 95, 99};
+        for (int i = 0; i < expected.length; i++) {
+            long value = mHistogram.getPercentileNanos(percentiles[i]);
+            assertTrue(value >= expected[i]);
+            assertTrue(value <= expected[i] * 1.04);
+        }
+        assertEquals(1000 * MS, mHistogram.getPercentileNanos(100));
+    }
+
+
+    @Test
+    public void smallDurationsAreExactToTheMicrosecond() {
+        mHistogram.record(3 * US);
+        mHistogram.record(3 * US + 500);
+        mHistogram.record(17 * US);
+        assertEquals(3 * US + 999, mHistogram.getPercentileNanos(50));
+        assertEquals(17 * US, mHistogram.getPercentileNanos(99));
+    }
+
+
+    @Test
+    public void extremesAreClampedAndResetEmpties() {
+        mHistogram.record(-5);
+        mHistogram.record(Long.MAX_VALUE);
+        assertEquals(2, mHistogram.getCount());
+        // In the first microsecond.
+        assertTrue(mHistogram.getPercentileNanos(50) < US);
+        assertEquals(Long.MAX_VALUE, mHistogram.getPercentileNanos(100));
+
+        mHistogram.reset();
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getPercentileNanos(99));
+        assertEquals(0, mHistogram.getMaxNanos());
+    }
+}
@@ -0,0 +1,70 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LineMathTest {
+
+    private static final float DELTA = 1e-5f;
+
+
+    @Test
+    public void lookRotation_pointsForwardAlongDirection() {
+        float[][] directions = {
+                {1, 0, 0}, {0, 0, -1}, {0, 0, 1}, {1, 2, 3}, {-0.5f, -1, 0.25f}, {0, 1, 0}, {0, -2, 0}
+        };
+        float[] q = new float[4];
+
+        for (float[] d : directions) {
+            LineMath.lookRotation(d[0], d[1], d[2], q);
+
+            float length = (float) Math.sqrt(d[0] * d[0] + d[1] * d[1] + d[2] * d[2]);
+            float[] forward = rotate(q, 0, 0, -1);
+            assertEquals(d[0] / length, forward[0], DELTA);
+            assertEquals(d[1] / length, forward[1], DELTA);
+            assertEquals(d[2] / length, forward[2], DELTA);
+            assertEquals(1.0f, q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3], DELTA);
+        }
+    }
+
+
+    @Test
+    public void lookRotation_keepsUpwards() {
+        float[] q = new float[4];
+        LineMath.lookRotation(1, 1, 0, q);
+
+        // Local up should stay on the upper side of the world.
+        float[] up = rotate(q, 0, 1, 0);
+        assertTrue(up[1] > 0);
+        assertEquals(0.0f, up[2], DELTA);
+    }
+
+
+    @Test
+    public void updateIfMoved_ignoresJitter() {
+        float[] cache = {1, 2, 3};
+
+        assertFalse(LineMath.updateIfMoved(cache, 1.00001f, 2, 3));
+        assertArrayEquals(new float[] {1, 2, 3}, cache, 0);
+
+        assertTrue(LineMath.updateIfMoved(cache, 1.01f, 2, 3));
+        assertArrayEquals(new float[] {1.01f, 2, 3}, cache, 0);
+    }
+
+
+    private static float[] rotate(float[] q, float x, float y, float z) {
+        // v' = v + 2w(q x v) + 2q x (q x v)
+        float cx = q[1] * z - q[2] * y;
+        float cy = q[2] * x - q[0] * z;
+        float cz = q[0] * y - q[1] * x;
+        float ccx = q[1] * cz - q[2] * cy;
+        float ccy = q[2] * cx - q[0] * cz;
+        float ccz = q[0] * cy - q[1] * cx;
+        return new float[] {
+                x + 2 * (q[3] * cx + ccx),
+                y + 2 * (q[3] * cy + ccy),
+                z + 2 * (q[3] * cz + ccz)
+        };
+    }
+}
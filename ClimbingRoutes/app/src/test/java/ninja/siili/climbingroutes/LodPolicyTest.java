@@ -0,0 +1,45 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LodPolicyTest {
+
+    private final LodPolicy mPolicy = new LodPolicy(4.0f, 8.0f, 25.0f, 0.15f, 45.0f);
+
+
+    @Test
+    public void levelsFollowDistanceWithHysteresis() {
+        int level = LodPolicy.LEVEL_FULL;
+        level = mPolicy.chooseLevel(level, 4.3f, true);
+        assertEquals(LodPolicy.LEVEL_FULL, level);
+        level = mPolicy.chooseLevel(level, 4.7f, true);
+        assertEquals(LodPolicy.LEVEL_SIMPLIFIED, level);
+        level = mPolicy.chooseLevel(level, 3.8f, true);
+        assertEquals(LodPolicy.LEVEL_SIMPLIFIED, level);
+        level = mPolicy.chooseLevel(level, 3.3f, true);
+        assertEquals(LodPolicy.LEVEL_FULL, level);
+        level = mPolicy.chooseLevel(level, 50.0f, true);
+        assertEquals(LodPolicy.LEVEL_HIDDEN, level);
+        level = mPolicy.chooseLevel(level, 15.0f, true);
+        assertEquals(LodPolicy.LEVEL_MARKER, level);
+        assertEquals(LodPolicy.LEVEL_HIDDEN, mPolicy.chooseLevel(LodPolicy.LEVEL_FULL, 1.0f, false));
+        assertEquals(LodPolicy.LEVEL_FULL, mPolicy.chooseLevel(LodPolicy.LEVEL_HIDDEN, 1.0f, true));
+    }
+
+
+    @Test
+    public void viewConeHasMarginForVisibleRoutes() {
+        float[] camera = {0.0f, 0.0f, 0.0f};
+        float[] forward = {0.0f, 0.0f, -1.0f};
+        assertTrue(mPolicy.isInView(camera, forward, new float[] {0.0f, 0.0f, -5.0f}, 0.5f, false));
+        assertFalse(mPolicy.isInView(camera, forward, new float[] {0.0f, 0.0f, 5.0f}, 0.5f, true));
+        assertTrue(mPolicy.isInView(camera, forward, new float[] {0.0f, 0.0f, 0.3f}, 0.5f, false));
+
+        // About 50 degrees off center, only kept if already visible.
+        float[] edge = {6.0f, 0.0f, -5.0f};
+        assertFalse(mPolicy.isInView(camera, forward, edge, 0.1f, false));
+        assertTrue(mPolicy.isInView(camera, forward, edge, 0.1f, true));
+    }
+}
@@ -0,0 +1,40 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RigidPoseMathTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    private final PoseMath mMath = new RigidPoseMath();
+
+
+    @Test
+    public void rotationAndTranslationAreApplied() {
+        // 90 degrees around Y, local -Z points to world -X.
+        float s = (float) Math.sqrt(0.5);
+        float[] pose = {1.0f, 2.0f, 3.0f, 0.0f, s, 0.0f, s};
+        float[] out = new float[3];
+        mMath.toWorld(pose, new float[] {0.0f, 0.0f, -1.0f}, out);
+        assertArrayEquals(new float[] {0.0f, 2.0f, 3.0f}, out, EPSILON);
+
+        mMath.toLocal(pose, new float[] {0.0f, 2.0f, 3.0f}, out);
+        assertArrayEquals(new float[] {0.0f, 0.0f, -1.0f}, out, EPSILON);
+    }
+
+
+    @Test
+    public void toLocalUndoesToWorld() {
+        // Normalized arbitrary rotation.
+        float[] q = {0.3f, -0.5f, 0.2f, 0.8f};
+        float length = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        float[] pose = {-4.0f, 0.5f, 7.0f, q[0] / length, q[1] / length, q[2] / length, q[3] / length};
+        float[] local = {0.25f, -1.5f, 2.0f};
+        float[] point = local.clone();
+        mMath.toWorld(pose, point, point);
+        mMath.toLocal(pose, point, point);
+        assertArrayEquals(local, point, EPSILON);
+    }
+}
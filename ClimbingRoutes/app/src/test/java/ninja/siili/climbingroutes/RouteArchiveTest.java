@@ -0,0 +1,141 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RouteArchiveTest {
+
+    private static RouteRecord record(long id) {
+        RouteRecord record = new RouteRecord();
+        record.id = id;
+        record.name = "route " + id;
+        record.difficulty = (int) (id % 30);
+        record.setFlag(RouteRecord.FLAG_SITSTART, id % 2 == 0);
+        record.notes = id % 3 == 0 ? "slopers ä" : "";
+        record.origin[0] = id;
+        record.clips = new float[(int) (id % 7) * RouteRecord.CLIP_FLOATS];
+        for (int i = 0; i < record.clips.length; i++) {
+            record.clips[i] = id + i * 0.25f;
+        }
+        return record;
+    }
+
+
+    private static byte[] archive(int count, boolean finish) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteArchive.Writer writer = new RouteArchive.Writer(bytes, null, 100)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(record(i));
+            }
+            if (finish) {
+                writer.finish();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+
+    @Test
+    public void manyRoutesRoundTrip() throws IOException {
+        byte[] bytes = archive(20000, true);
+
+        int count = 0;
+        try (RouteArchive.Reader reader = new RouteArchive.Reader(new ByteArrayInputStream(bytes), null, 100)) {
+            RouteRecord read;
+            while ((read = reader.next()) != null) {
+                RouteRecord expected = record(count);
+                assertEquals(expected.id, read.id);
+                assertEquals(expected.name, read.name);
+                assertEquals(expected.difficulty, read.difficulty);
+                assertEquals(expected.flags, read.flags);
+                assertEquals(expected.notes, read.notes);
+                assertTrue(Arrays.equals(expected.origin, read.origin));
+                assertTrue(Arrays.equals(expected.clips, read.clips));
+                count++;
+            }
+            assertEquals(20000, count);
+            assertEquals(20000, reader.getCount());
+            assertNull(reader.next());
+        }
+    }
+
+
+    @Test
+    public void emptyArchive() throws IOException {
+        try (RouteArchive.Reader reader = new RouteArchive.Reader(
+                new ByteArrayInputStream(archive(0, true)), null, 100)) {
+            assertNull(reader.next());
+        }
+    }
+
+
+    @Test
+    public void progressIsReported() throws IOException {
+        ArrayList<Integer> written = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteArchive.Writer writer = new RouteArchive.Writer(bytes,
+                (routes, byteCount) -> written.add(routes), 10)) {
+            for (int i = 0; i < 25; i++) {
+                writer.write(record(i));
+            }
+            writer.finish();
+        }
+        assertEquals(Arrays.asList(10, 20, 25), written);
+
+        ArrayList<Long> read = new ArrayList<>();
+        try (RouteArchive.Reader reader = new RouteArchive.Reader(new ByteArrayInputStream(bytes.toByteArray()),
+                (routes, byteCount) -> read.add(byteCount), 10)) {
+            while (reader.next() != null) {
+                // Read all.
+            }
+        }
+        assertEquals(3, read.size());
+        assertTrue(read.get(2) <= bytes.size());
+        assertTrue(read.get(0) <= read.get(2));
+    }
+
+
+    @Test
+    public void unfinishedArchiveIsRejected() throws IOException {
+        byte[] bytes = archive(50, false);
+        try (RouteArchive.Reader reader = new RouteArchive.Reader(new ByteArrayInputStream(bytes), null, 100)) {
+            int count = 0;
+            try {
+                while (reader.next() != null) {
+                    count++;
+                }
+                fail("Archive without an end should not read to the end");
+            } catch (IOException expected) {
+                assertEquals(50, count);
+            }
+        }
+    }
+
+
+    @Test
+    public void cutOffArchiveIsRejected() throws IOException {
+        byte[] bytes = archive(1000, true);
+        byte[] cut = Arrays.copyOf(bytes, bytes.length / 2);
+        try (RouteArchive.Reader reader = new RouteArchive.Reader(new ByteArrayInputStream(cut), null, 100)) {
+            while (reader.next() != null) {
+                // Routes before the cut read fine.
+            }
+            fail("Cut off archive should not read to the end");
+        } catch (IOException expected) {
+            // Expected.
+        }
+    }
+
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        new RouteArchive.Reader(new ByteArrayInputStream("not an archive".getBytes("UTF-8")), null, 100);
+    }
+}
@@ -0,0 +1,67 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteMeshBuilderTest {
+
+    private static RouteMeshBuilder build(int clipCount) {
+        RouteMeshBuilder builder = new RouteMeshBuilder(0.015f);
+        builder.setClipCount(clipCount);
+        for (int i = 0; i < clipCount; i++) {
+            builder.setClip(i, 0.1f * i, 0.3f * i, 0.0f, 0.05f);
+        }
+        builder.update();
+        return builder;
+    }
+
+
+    @Test
+    public void meshHasSphereAndTubeSlots() {
+        RouteMeshBuilder builder = build(30);
+        assertEquals(30 * RouteMeshBuilder.SPHERE_VERTICES + 29 * RouteMeshBuilder.TUBE_VERTICES,
+                builder.getVertexCount());
+        assertEquals(30 * RouteMeshBuilder.SPHERE_INDICES + 29 * RouteMeshBuilder.TUBE_INDICES,
+                builder.getIndices().length);
+        for (int index : builder.getIndices()) {
+            assertTrue(index >= 0 && index < builder.getVertexCount());
+        }
+
+        // Top of the third clip's sphere is radius above its center.
+        float[] positions = builder.getPositions();
+        int top = 2 * RouteMeshBuilder.SPHERE_VERTICES * 3;
+        assertEquals(0.6f + 0.05f, positions[top + 1], 1e-5f);
+    }
+
+
+    @Test
+    public void movingOneClipOnlyRegeneratesItsNeighbourhood() {
+        RouteMeshBuilder builder = build(30);
+        assertFalse(builder.update());
+
+        // A clip shapes the two tubes on both sides of it.
+        builder.setClip(10, 5.0f, 5.0f, 5.0f, 0.05f);
+        assertTrue(builder.hasChangedClips());
+        assertTrue(builder.update());
+        assertFalse(builder.hasChangedClips());
+        assertEquals(4, builder.getRegeneratedTubeCount());
+        int changed = builder.getChangedEnd() - builder.getChangedStart();
+        assertTrue(changed < builder.getVertexCount());
+
+        // Tube 11 starts at clip 10, its first ring moved with it.
+        float[] positions = builder.getPositions();
+        int tube = (30 * RouteMeshBuilder.SPHERE_VERTICES + 10 * RouteMeshBuilder.TUBE_VERTICES) * 3;
+        float dx = positions[tube] - 5.0f;
+        float dy = positions[tube + 1] - 5.0f;
+        float dz = positions[tube + 2] - 5.0f;
+        assertEquals(0.015f, (float) Math.sqrt(dx * dx + dy * dy + dz * dz), 1e-5f);
+
+        builder.setClip(0, 0.0f, 0.0f, 0.0f, 0.05f);
+        assertFalse(builder.hasChangedClips());
+        assertFalse(builder.update());
+        builder.setClip(29, 1.0f, 1.0f, 1.0f, 0.05f);
+        builder.update();
+        assertEquals(2, builder.getRegeneratedTubeCount());
+    }
+}
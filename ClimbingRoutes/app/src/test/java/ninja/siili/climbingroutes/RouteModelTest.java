@@ -0,0 +1,62 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteModelTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    private final ClipBvh<String> mClipBvh = new ClipBvh<>();
+    private final RouteModel<String> mModel = new RouteModel<>(1, "route", mClipBvh, new RouteRecord());
+
+
+    @Test
+    public void clipsFollowTheirAnchor() {
+        int anchor = mModel.addAnchor(new float[] {1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f});
+        mModel.addClip(new float[] {1.0f, 1.0f, 0.0f}, 0.2f);
+        mModel.setClipAnchor(0, anchor);
+        mModel.addClip(new float[] {3.0f, 1.0f, 0.0f}, 0.2f);
+
+        float[] local = new float[3];
+        mModel.getClipLocalPosition(0, local);
+        assertArrayEquals(new float[] {0.0f, 1.0f, 0.0f}, local, EPSILON);
+        assertEquals(-1, mModel.getClipAnchor(1));
+
+        // Anchor turns a quarter around z and moves, the Clip relative to it follows.
+        float half = (float) Math.sqrt(0.5);
+        assertTrue(mModel.setAnchorPose(anchor, new float[] {2.0f, 0.0f, 0.0f, 0.0f, 0.0f, half, half}));
+        float[] position = new float[3];
+        mModel.getClipPosition(0, position);
+        assertArrayEquals(new float[] {1.0f, 0.0f, 0.0f}, position, EPSILON);
+        mModel.getClipPosition(1, position);
+        assertArrayEquals(new float[] {3.0f, 1.0f, 0.0f}, position, EPSILON);
+
+        // Picking follows the moved Clip.
+        ClipBvh.Hit<String> hit = new ClipBvh.Hit<>();
+        assertTrue(mClipBvh.raycast(new float[] {1.0f, 0.0f, 1.0f}, new float[] {0.0f, 0.0f, -1.0f}, hit));
+        assertEquals(0, hit.clipIndex);
+
+        // Same pose again moves nothing.
+        assertFalse(mModel.setAnchorPose(anchor, new float[] {2.0f, 0.0f, 0.0f, 0.0f, 0.0f, half, half}));
+    }
+
+
+    @Test
+    public void movingClipKeepsItsOffsetInSync() {
+        int anchor = mModel.addAnchor(new float[] {0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 1.0f});
+        mModel.addClip(new float[] {0.0f, 0.0f, 1.0f}, 0.2f);
+        mModel.setClipAnchor(0, anchor);
+        assertTrue(mModel.setClipPosition(0, new float[] {0.5f, 0.0f, 1.0f}, true));
+
+        float[] local = new float[3];
+        mModel.getClipLocalPosition(0, local);
+        assertArrayEquals(new float[] {0.5f, 0.0f, 0.0f}, local, EPSILON);
+
+        mModel.setAnchorPose(anchor, new float[] {0.0f, 1.0f, 1.0f, 0.0f, 0.0f, 0.0f, 1.0f});
+        float[] position = new float[3];
+        mModel.getClipPosition(0, position);
+        assertArrayEquals(new float[] {0.5f, 1.0f, 1.0f}, position, EPSILON);
+    }
+}
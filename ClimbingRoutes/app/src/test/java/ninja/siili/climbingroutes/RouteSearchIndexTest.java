@@ -0,0 +1,128 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteSearchIndexTest {
+
+    private static RouteRecord info(String name, String notes, int diff, int flags) {
+        RouteRecord record = new RouteRecord();
+        record.name = name;
+        record.notes = notes;
+        record.difficulty = diff;
+        record.flags = flags;
+        return record;
+    }
+
+
+    @Test
+    public void combinedQuery() {
+        RouteSearchIndex<String> index = new RouteSearchIndex<>();
+        int sitBoulder = RouteRecord.FLAG_BOULDER | RouteRecord.FLAG_SITSTART;
+        index.put("a", info("Crimp City", "", 13, sitBoulder));
+        index.put("b", info("Slab", "crimpy start", 10, sitBoulder));
+        index.put("c", info("Roof", "crimps", 14, RouteRecord.FLAG_BOULDER));
+        index.put("d", info("Arete", "crimp", 25, sitBoulder));
+        index.put("e", info("Lead", "crimp", 12, RouteRecord.FLAG_SPORT | RouteRecord.FLAG_SITSTART));
+
+        RouteSearchIndex.Query query = new RouteSearchIndex.Query()
+                .withFlags(sitBoulder)
+                .grades(GradeEngine.FRENCH, "6a", "6c")
+                .text("CRIMP");
+        List<String> found = index.search(query, new ArrayList<>());
+        assertEquals(2, found.size());
+        assertEquals("b", found.get(0));
+        assertEquals("a", found.get(1));
+
+        query.clear().withoutFlags(RouteRecord.FLAG_SITSTART);
+        assertEquals(1, index.search(query, new ArrayList<>()).size());
+    }
+
+
+    @Test
+    public void updatesAndRemoves() {
+        RouteSearchIndex<String> index = new RouteSearchIndex<>();
+        index.put("a", info("Jug haul", "", 5, RouteRecord.FLAG_BOULDER));
+        index.put("b", info("Pinch", "", 5, RouteRecord.FLAG_BOULDER));
+        index.put("a", info("Sloper", "", 20, RouteRecord.FLAG_TRAD));
+        index.remove("b");
+        index.put("c", info("Pinch again", "", 7, 0));
+
+        RouteSearchIndex.Query query = new RouteSearchIndex.Query();
+        assertTrue(index.search(query.text("jug"), new ArrayList<>()).isEmpty());
+        assertEquals("a", index.search(query.clear().withFlags(RouteRecord.FLAG_TRAD).grades(20, 20),
+                new ArrayList<>()).get(0));
+        List<String> pinch = index.search(query.clear().text("pinch"), new ArrayList<>());
+        assertEquals(1, pinch.size());
+        assertEquals("c", pinch.get(0));
+        assertEquals(2, index.size());
+    }
+
+
+    @Test
+    public void gradeRangeQuery() {
+        RouteSearchIndex<String> index = new RouteSearchIndex<>();
+        index.put("easy", info("", "", 2, 0));
+        index.put("six b", info("", "", 13, 0));
+        index.put("seven a", info("", "", 19, 0));
+        index.put("hard", info("", "", 30, 0));
+        index.put("moved", info("", "", 5, 0));
+        index.put("moved", info("", "", 20, 0));
+        index.put("gone", info("", "", 15, 0));
+        index.remove("gone");
+
+        RouteSearchIndex.Query query = new RouteSearchIndex.Query();
+        List<String> found = index.search(query.grades(GradeEngine.FRENCH, "6b", "7a"), new ArrayList<>());
+        assertEquals(3, found.size());
+        assertEquals("six b", found.get(0));
+        assertEquals("seven a", found.get(1));
+        assertEquals("moved", found.get(2));
+        assertEquals(3, index.search(query.grades(12, 20), new ArrayList<>()).size());
+        assertEquals(5, index.size());
+        assertTrue(index.search(query.grades(0, 1), new ArrayList<>()).isEmpty());
+        // An unknown label leaves that end open.
+        assertEquals(4, index.search(query.grades(GradeEngine.FRENCH, "6b", "9z"), new ArrayList<>()).size());
+    }
+
+
+    @Test
+    public void typedQueries() {
+        RouteSearchIndex<String> index = new RouteSearchIndex<>();
+        index.put("a", info("Crimp City", "", 13, 0));
+        index.put("b", info("Slab", "crimpy start", 10, 0));
+        index.put("c", info("Roof", "jugs", 14, 0));
+
+        RouteSearchIndex.Query query = new RouteSearchIndex.Query();
+        List<String> found = index.search(query.parse(GradeEngine.FRENCH, " crimp  6a-6c "), new ArrayList<>());
+        assertEquals(2, found.size());
+        assertEquals("b", found.get(0));
+        assertEquals("a", found.get(1));
+
+        // A single grade, and a dash between words stays text.
+        assertEquals("a", index.search(query.parse(GradeEngine.FRENCH, "6b"), new ArrayList<>()).get(0));
+        assertEquals(1, index.search(query.parse(GradeEngine.FRENCH, "roof-jugs"), new ArrayList<>()).size());
+        assertEquals(3, index.search(query.parse(GradeEngine.FRENCH, ""), new ArrayList<>()).size());
+    }
+
+
+    @Test
+    public void manyRoutes() {
+        RouteSearchIndex<Integer> index = new RouteSearchIndex<>();
+        for (int i = 0; i < 20000; i++) {
+            index.put(i, info("route " + i, i % 7 == 0 ? "crimp" : "jugs",
+                    i % GradeEngine.DIFFICULTY_COUNT, i % 2 == 0 ? RouteRecord.FLAG_BOULDER : 0));
+        }
+        RouteSearchIndex.Query query = new RouteSearchIndex.Query()
+                .withFlags(RouteRecord.FLAG_BOULDER).grades(9, 17).text("crimp");
+        List<Integer> found = index.search(query, new ArrayList<>());
+        assertFalse(found.isEmpty());
+        for (int i : found) {
+            assertTrue(i % 14 == 0);
+            assertTrue(i % GradeEngine.DIFFICULTY_COUNT >= 9 && i % GradeEngine.DIFFICULTY_COUNT <= 17);
+        }
+    }
+}
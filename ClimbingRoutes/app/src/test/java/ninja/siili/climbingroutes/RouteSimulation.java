@@ -0,0 +1,417 @@
+package ninja.siili.climbingroutes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Headless run of the real Route logic: Routes made in a FakeRouteScene whose anchors drift,
+ * tapped on a SimulatedWall and sharing a ClipBvh, with Clips added by taps, dragged by
+ * simulated gestures, picked, level of detail updated and meshes rebuilt the way ArActivity
+ * drives them, without Sceneform or a phone.
+ * run() times a big scenario and reports how far drawn Clips are from where Routes think
+ * they are.
+ */
+public class RouteSimulation {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    private static final float FOCAL_LENGTH = 1500.0f;
+    private static final float WALL_DISTANCE = 2.0f;
+    // Routes are placed this far apart along the wall, in meters.
+    private static final float ROUTE_SPACING = 1.5f;
+    private static final GradePalette PALETTE = new GradePalette(
+            new int[] {0xff00ff00, 0xffffff00, 0xffff8000, 0xffff0000, 0xff8000ff, 0xff000000});
+
+    private final Random mRandom;
+    private final FakeRouteScene mScene = new FakeRouteScene();
+    private final SimulatedWall mWall = new SimulatedWall(SCREEN_WIDTH, SCREEN_HEIGHT,
+            FOCAL_LENGTH, WALL_DISTANCE);
+    private final ClipBvh<Route> mClipBvh = new ClipBvh<>();
+    private final ArrayList<Route> mRoutes = new ArrayList<>();
+    private final HashMap<Long, Route> mRoutesById = new HashMap<>();
+    // Scene's Clips of each Route, in Route's order.
+    private final HashMap<Route, ArrayList<FakeRouteScene.FakeClip>> mClips = new HashMap<>();
+    private final LodPolicy mLodPolicy = new LodPolicy();
+    // Two cards handed out the way ArActivity does.
+    private final InfoCardPool<Route> mInfoCardPool = new InfoCardPool<>(2,
+            new InfoCardPool.Binder<Route>() {
+                @Override
+                public void bind(int card, Route route) {
+                    route.bindInfoCard(card);
+                }
+
+                @Override
+                public void unbind(int card, Route route) {
+                    route.unbindInfoCard();
+                }
+            });
+    private EditJournal mJournal;
+    // Route being edited, ArActivity only moves its lines every frame.
+    private Route mActiveRoute;
+    // Routes whose anchors moved this frame.
+    private final ArrayList<Route> mUpdatedRoutes = new ArrayList<>();
+
+    private final float[] mPosition = new float[3];
+    private final float[] mDrawn = new float[3];
+    private final float[] mOrigin = new float[3];
+    private final float[] mDirection = new float[3];
+    private final ClipBvh.Hit<Route> mHit = new ClipBvh.Hit<>();
+
+
+    /**
+     * Constructor for RouteSimulation.
+     * @param seed Seed for taps and drags, runs with the same seed do the same things.
+     */
+    public RouteSimulation(long seed) {
+        mRandom = new Random(seed);
+        mInfoCardPool.addCard();
+        mInfoCardPool.addCard();
+    }
+
+
+    /**
+     * Record edits of new Routes to a journal.
+     * @param journal EditJournal, null to stop recording.
+     */
+    public void setEditJournal(EditJournal journal) {
+        mJournal = journal;
+    }
+
+
+    /**
+     * Place new Routes side by side along the wall, each with a few tapped Clips. Each Route
+     * is edited while its Clips are added and left when done, which builds its mesh.
+     * @param count Number of Routes.
+     * @param clipsPerRoute Clips tapped to each Route.
+     */
+    public void addRoutes(int count, int clipsPerRoute) {
+        for (int i = 0; i < count; i++) {
+            Route route = new Route(null, mScene, PALETTE, mClipBvh);
+            route.setEditJournal(mJournal);
+            route.setSnapSurface(mWall);
+            route.setInfoCardPool(mInfoCardPool);
+            mRoutes.add(route);
+            mRoutesById.put(route.getId(), route);
+            mClips.put(route, new ArrayList<>());
+            setActiveRoute(route);
+
+            // The user walks to an empty part of the wall and taps from the bottom up.
+            mWall.setCameraPosition(i * ROUTE_SPACING, 0.0f);
+            for (int c = 0; c < clipsPerRoute; c++) {
+                float x = SCREEN_WIDTH * (0.4f + 0.2f * mRandom.nextFloat());
+                float y = SCREEN_HEIGHT * (0.9f - 0.8f * c / clipsPerRoute);
+                if (mWall.hitTest(x, y, mPosition)) {
+                    route.addClip(mPosition);
+                    syncClips(route);
+                }
+            }
+        }
+        setActiveRoute(null);
+    }
+
+
+    /**
+     * Drag random Clips around.
+     * @param drags Number of drags.
+     * @param steps Frames per drag.
+     */
+    public void drag(int drags, int steps) {
+        for (int i = 0; i < drags; i++) {
+            Route route = mRoutes.get(mRandom.nextInt(mRoutes.size()));
+            int count = route.getModel().getClipCount();
+            if (count == 0) {
+                continue;
+            }
+            int clip = mRandom.nextInt(count);
+            float dx = (mRandom.nextFloat() - 0.5f) * 0.02f;
+            float dy = (mRandom.nextFloat() - 0.5f) * 0.02f;
+            dragClip(route, clip, dx, dy, steps);
+        }
+        setActiveRoute(null);
+    }
+
+
+    /**
+     * Edit a Route and drag one of its Clips along the wall, a step per frame like
+     * a TransformableNode does, then let go.
+     * @param route Route to edit.
+     * @param index Position of the Clip in Route.
+     * @param dx Step along x.
+     * @param dy Step along y.
+     * @param steps Frames the drag lasts.
+     */
+    public void dragClip(Route route, int index, float dx, float dy, int steps) {
+        setActiveRoute(route);
+        FakeRouteScene.FakeClip clip = getClip(route, index);
+        clip.getDrawnPosition(mPosition);
+        for (int s = 0; s < steps; s++) {
+            mPosition[0] += dx;
+            mPosition[1] += dy;
+            clip.gesture(mPosition);
+            frame();
+        }
+        clip.endGesture();
+        frame();
+    }
+
+
+    /**
+     * Move every tracked anchor, the way ARCore corrects its poses, and run a frame that
+     * reports the updated anchors.
+     * @param dx Movement along x.
+     * @param dy Movement along y.
+     * @param dz Movement along z.
+     */
+    public void drift(float dx, float dy, float dz) {
+        mScene.driftAnchors(dx, dy, dz, mUpdatedRoutes);
+        frame();
+    }
+
+
+    /**
+     * Run the per frame work of ArActivity's lines task: Routes whose anchors were updated are
+     * told, then the lines of the Route being edited are moved.
+     */
+    private void frame() {
+        mScene.finishBuilds();
+        for (int i = 0; i < mUpdatedRoutes.size(); i++) {
+            mUpdatedRoutes.get(i).onAnchorsUpdated();
+        }
+        mUpdatedRoutes.clear();
+        if (mActiveRoute != null) {
+            mActiveRoute.moveLinesIfNeeded();
+        }
+    }
+
+
+    /**
+     * Select a Route for editing the way ArActivity does, leaving the previous one.
+     * @param route Route to edit, null to stop editing.
+     */
+    public void setActiveRoute(Route route) {
+        if (route == mActiveRoute) {
+            return;
+        }
+        if (mActiveRoute != null) {
+            mActiveRoute.enableClipTransforming(false);
+        }
+        mActiveRoute = route;
+        if (route != null) {
+            route.enableClipTransforming(true);
+        }
+    }
+
+
+    /**
+     * Tap the screen at random to pick Routes, the way ArActivity.pickRoute() does.
+     * @param taps Number of taps.
+     * @return Number of taps that hit a Route.
+     */
+    public int pick(int taps) {
+        int hits = 0;
+        for (int i = 0; i < taps; i++) {
+            mWall.setCameraPosition(mRandom.nextFloat() * mRoutes.size() * ROUTE_SPACING, 0.0f);
+            mWall.getRay(mRandom.nextFloat() * SCREEN_WIDTH, mRandom.nextFloat() * SCREEN_HEIGHT,
+                    mOrigin, mDirection);
+            if (mClipBvh.raycast(mOrigin, mDirection, mHit)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+
+    /**
+     * Update level of detail of all Routes, the camera looking at the wall.
+     * @param cameraX Camera's x along the wall.
+     * @return Number of Routes whose level changed.
+     */
+    public int updateLod(float cameraX) {
+        mScene.finishBuilds();
+        float[] camera = {cameraX, 0.0f, 0.0f};
+        float[] forward = {0.0f, 0.0f, -1.0f};
+        int changed = 0;
+        for (Route route : mRoutes) {
+            if (route.updateLod(mLodPolicy, camera, forward)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+
+    /**
+     * Get the vertices of every Route's mesh.
+     * @return Total vertex count.
+     */
+    public long getMeshVertexCount() {
+        long vertices = 0;
+        for (FakeRouteScene.FakeMesh mesh : mScene.getMeshes()) {
+            vertices += mesh.getVertexCount();
+        }
+        return vertices;
+    }
+
+
+    /**
+     * Check if a Route is drawn at all, by its merged mesh or by its Clips' own spheres.
+     * @param route Route to check.
+     * @return True if its mesh or all of its spheres are shown.
+     */
+    public boolean isDrawn(Route route) {
+        if (mScene.getMeshes().get(mRoutes.indexOf(route)).isShown()) {
+            return true;
+        }
+        for (FakeRouteScene.FakeClip clip : mClips.get(route)) {
+            if (!clip.isSphereShown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Apply an undone or redone edit to its Route.
+     * @param command EditCommand to apply.
+     */
+    public void applyEdit(EditCommand command) {
+        Route route = mRoutesById.get(command.routeId);
+        route.applyEdit(command);
+        syncClips(route);
+    }
+
+
+    /**
+     * Keep the list of a Route's Clips in step after Clips were added or removed at its end.
+     * @param route Route whose Clips changed.
+     */
+    private void syncClips(Route route) {
+        ArrayList<FakeRouteScene.FakeClip> clips = mClips.get(route);
+        ArrayList<FakeRouteScene.FakeClip> made = mScene.getClips();
+        int count = route.getModel().getClipCount();
+        while (clips.size() > count) {
+            clips.remove(clips.size() - 1);
+        }
+        if (clips.size() < count) {
+            clips.add(made.get(made.size() - 1));
+        }
+    }
+
+
+    /**
+     * Find the farthest any drawn Clip is from where its Route has it, e.g. when the Route
+     * hasn't followed its anchors.
+     * @return Distance in meters.
+     */
+    public float getDriftError() {
+        float error = 0.0f;
+        for (Route route : mRoutes) {
+            RouteModel<Route> model = route.getModel();
+            for (int i = 0; i < model.getClipCount(); i++) {
+                model.getClipPosition(i, mPosition);
+                getClip(route, i).getDrawnPosition(mDrawn);
+                error = Math.max(error, LineMath.distance(mPosition, mDrawn));
+            }
+        }
+        return error;
+    }
+
+
+    /**
+     * Get the scene's Clip of a Route.
+     * @param route Route.
+     * @param index Position of the Clip in Route.
+     * @return FakeClip.
+     */
+    public FakeRouteScene.FakeClip getClip(Route route, int index) {
+        return mClips.get(route).get(index);
+    }
+
+
+    /**
+     * Get the simulated Routes.
+     * @return Routes in the order they were placed.
+     */
+    public ArrayList<Route> getRoutes() {
+        return mRoutes;
+    }
+
+
+    /**
+     * Get the pool of info cards the Routes share.
+     * @return InfoCardPool with two cards.
+     */
+    public InfoCardPool<Route> getInfoCardPool() {
+        return mInfoCardPool;
+    }
+
+
+    /**
+     * Get the ClipBvh shared by the Routes.
+     * @return ClipBvh.
+     */
+    public ClipBvh<Route> getClipBvh() {
+        return mClipBvh;
+    }
+
+
+    /**
+     * Get the scene the Routes are made in.
+     * @return FakeRouteScene.
+     */
+    public FakeRouteScene getScene() {
+        return mScene;
+    }
+
+
+    /**
+     * Run a big scenario and report how long each part takes, and how far the drawn Clips
+     * ended up from their Routes after the anchors drifted.
+     * @param routes Number of Routes.
+     * @param clips Clips per Route.
+     * @return Report, a line per part.
+     */
+    public String run(int routes, int clips) {
+        StringBuilder report = new StringBuilder();
+        long start = System.nanoTime();
+        addRoutes(routes, clips);
+        report(report, "add " + routes * clips + " clips", start);
+
+        start = System.nanoTime();
+        drag(routes, 30);
+        report(report, "drag " + routes + " clips for 30 frames", start);
+
+        start = System.nanoTime();
+        setActiveRoute(mRoutes.get(0));
+        for (int frame = 0; frame < 100; frame++) {
+            drift(0.001f, 0.0f, 0.0005f);
+        }
+        setActiveRoute(null);
+        report(report, "drift anchors for 100 frames", start);
+
+        start = System.nanoTime();
+        int hits = pick(100000);
+        report(report, "pick 100000 taps, " + hits + " hits", start);
+
+        start = System.nanoTime();
+        int changed = 0;
+        for (int frame = 0; frame < 100; frame++) {
+            changed += updateLod(frame * ROUTE_SPACING * routes / 100.0f);
+        }
+        report(report, "lod 100 frames, " + changed + " changes", start);
+
+        report.append(String.format(Locale.US, "mesh vertices %d, lines placed %d%n",
+                getMeshVertexCount(), mScene.getLinesPlaced()));
+        report.append(String.format(Locale.US, "drift error %.4f m%n", getDriftError()));
+        return report.toString();
+    }
+
+
+    private static void report(StringBuilder report, String what, long start) {
+        report.append(String.format(Locale.US, "%-45s %8.2f ms%n", what,
+                (System.nanoTime() - start) / 1e6));
+    }
+}
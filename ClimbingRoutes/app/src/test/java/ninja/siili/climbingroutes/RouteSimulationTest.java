@@ -0,0 +1,283 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RouteSimulationTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    private final RouteSimulation mSimulation = new RouteSimulation(7);
+    private File mFile;
+    private ScheduledExecutorService mWriter;
+
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("edits", ".journal");
+        mFile.delete();
+        mWriter = Executors.newSingleThreadScheduledExecutor();
+    }
+
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mWriter.shutdown();
+        mWriter.awaitTermination(5, TimeUnit.SECONDS);
+        mFile.delete();
+    }
+
+
+    @Test
+    public void tapsOnTheWallAddClipsAndPickingProxies() {
+        mSimulation.addRoutes(20, 6);
+        assertEquals(20, mSimulation.getRoutes().size());
+        // A sphere for every Clip and a line between each pair.
+        assertEquals(20 * 6 + 20 * 5, mSimulation.getClipBvh().size());
+
+        float[] position = new float[3];
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        ClipBvh.Hit<Route> hit = new ClipBvh.Hit<>();
+        for (Route route : mSimulation.getRoutes()) {
+            assertEquals(5, route.getSelectedClipPosition());
+            route.getModel().getClipPosition(3, position);
+            assertEquals(-2.0f, position[2], EPSILON);
+
+            // Aim straight at the Clip from in front of the wall.
+            origin[0] = position[0];
+            origin[1] = position[1];
+            origin[2] = 0.0f;
+            direction[2] = -1.0f;
+            assertTrue(mSimulation.getClipBvh().raycast(origin, direction, hit));
+            assertSame(route, hit.owner);
+        }
+    }
+
+
+    @Test
+    public void draggedClipsStayInsideBoundsAndMoveTheirProxies() {
+        mSimulation.addRoutes(10, 5);
+        mSimulation.drag(50, 10);
+
+        float[] bounds = new float[4];
+        float[] position = new float[3];
+        float[] origin = new float[3];
+        float[] direction = {0.0f, 0.0f, -1.0f};
+        ClipBvh.Hit<Route> hit = new ClipBvh.Hit<>();
+        for (Route route : mSimulation.getRoutes()) {
+            RouteModel<Route> model = route.getModel();
+            assertFalse(model.isTransforming());
+            model.getBounds(bounds);
+            for (int i = 0; i < model.getClipCount(); i++) {
+                model.getClipPosition(i, position);
+                assertTrue(LineMath.distance(position, bounds) <= bounds[3]);
+
+                origin[0] = position[0];
+                origin[1] = position[1];
+                assertTrue(mSimulation.getClipBvh().raycast(origin, direction, hit));
+                assertSame(route, hit.owner);
+            }
+        }
+        // Let go Clips are drawn where their Routes have them.
+        assertEquals(0.0f, mSimulation.getDriftError(), EPSILON);
+        assertTrue(mSimulation.pick(200) > 0);
+    }
+
+
+    @Test
+    public void farRoutesLoseDetailAndMeshesCoverAllClips() {
+        mSimulation.addRoutes(40, 4);
+        assertTrue(mSimulation.updateLod(0.0f) > 0);
+        Route near = mSimulation.getRoutes().get(0);
+        Route far = mSimulation.getRoutes().get(39);
+        assertEquals(LodPolicy.LEVEL_FULL, near.getLodLevel());
+        assertTrue(far.getLodLevel() != LodPolicy.LEVEL_FULL);
+        // Same camera, nothing changes.
+        assertEquals(0, mSimulation.updateLod(0.0f));
+
+        assertEquals(40L * (4 * RouteMeshBuilder.SPHERE_VERTICES + 3 * RouteMeshBuilder.TUBE_VERTICES),
+                mSimulation.getMeshVertexCount());
+    }
+
+
+    @Test
+    public void dragsAreUndoneFromTheJournal() {
+        EditJournal journal = new EditJournal(mFile, mWriter);
+        mSimulation.setEditJournal(journal);
+        mSimulation.addRoutes(1, 3);
+        Route route = mSimulation.getRoutes().get(0);
+        RouteModel<Route> model = route.getModel();
+        float[] before = new float[3];
+        model.getClipPosition(1, before);
+
+        // Steps of one drag merge into one move.
+        mSimulation.dragClip(route, 1, 0.01f, 0.0f, 5);
+        float[] after = new float[3];
+        model.getClipPosition(1, after);
+        assertEquals(before[0] + 0.05f, after[0], EPSILON);
+
+        mSimulation.applyEdit(journal.undo());
+        model.getClipPosition(1, after);
+        assertArrayEquals(before, after, EPSILON);
+        // Undo places the Clip's node too.
+        mSimulation.getClip(route, 1).getDrawnPosition(after);
+        assertArrayEquals(before, after, EPSILON);
+
+        mSimulation.applyEdit(journal.undo());
+        assertEquals(2, model.getClipCount());
+        mSimulation.applyEdit(journal.redo());
+        assertEquals(3, model.getClipCount());
+        journal.close();
+    }
+
+
+    @Test
+    public void editedRouteFollowsDriftingAnchors() {
+        mSimulation.addRoutes(3, 5);
+        Route route = mSimulation.getRoutes().get(1);
+        mSimulation.setActiveRoute(route);
+        float[] before = new float[3];
+        route.getModel().getClipPosition(2, before);
+
+        for (int frame = 0; frame < 10; frame++) {
+            mSimulation.drift(0.01f, 0.0f, 0.0f);
+        }
+        float[] after = new float[3];
+        route.getModel().getClipPosition(2, after);
+        assertEquals(before[0] + 0.1f, after[0], EPSILON);
+
+        // Picking finds the Clip where it's drawn now.
+        float[] direction = {0.0f, 0.0f, -1.0f};
+        after[2] = 0.0f;
+        ClipBvh.Hit<Route> hit = new ClipBvh.Hit<>();
+        assertTrue(mSimulation.getClipBvh().raycast(after, direction, hit));
+        assertSame(route, hit.owner);
+        assertEquals(2, hit.clipIndex);
+
+        // A drag after drifting starts where the Clip is drawn.
+        mSimulation.dragClip(route, 2, 0.0f, 0.01f, 3);
+        mSimulation.getClip(route, 2).getDrawnPosition(before);
+        route.getModel().getClipPosition(2, after);
+        assertArrayEquals(before, after, EPSILON);
+    }
+
+
+    @Test
+    public void routesNotBeingEditedFollowDriftingAnchorsToo() {
+        mSimulation.addRoutes(3, 4);
+        for (int frame = 0; frame < 10; frame++) {
+            mSimulation.drift(0.0f, 0.01f, 0.0f);
+        }
+        assertEquals(0.0f, mSimulation.getDriftError(), EPSILON);
+
+        // Every Route's picking proxies moved with its Clips.
+        float[] origin = new float[3];
+        float[] direction = {0.0f, 0.0f, -1.0f};
+        ClipBvh.Hit<Route> hit = new ClipBvh.Hit<>();
+        for (Route route : mSimulation.getRoutes()) {
+            route.getModel().getClipPosition(0, origin);
+            origin[2] = 0.0f;
+            assertTrue(mSimulation.getClipBvh().raycast(origin, direction, hit));
+            assertSame(route, hit.owner);
+            assertEquals(0, hit.clipIndex);
+        }
+    }
+
+
+    @Test
+    public void meshesFollowTheirAnchorsWithoutRebuilding() {
+        mSimulation.addRoutes(3, 4);
+        int builds = 0;
+        for (FakeRouteScene.FakeMesh mesh : mSimulation.getScene().getMeshes()) {
+            assertTrue(mesh.getParent().isAnchored());
+            builds += mesh.getBuildCount();
+        }
+
+        for (int frame = 0; frame < 10; frame++) {
+            mSimulation.drift(0.01f, 0.0f, 0.0f);
+        }
+        // Vertices are relative to the anchor the mesh is under, drifting doesn't change them.
+        for (FakeRouteScene.FakeMesh mesh : mSimulation.getScene().getMeshes()) {
+            builds -= mesh.getBuildCount();
+        }
+        assertEquals(0, builds);
+    }
+
+
+    @Test
+    public void routesStayDrawnWhileTheirMeshesAreRebuilt() {
+        mSimulation.addRoutes(1, 4);
+        Route route = mSimulation.getRoutes().get(0);
+        FakeRouteScene.FakeMesh mesh = mSimulation.getScene().getMeshes().get(0);
+        // Leaving the Route after adding Clips starts a build, its Clips are drawn meanwhile.
+        assertTrue(mSimulation.isDrawn(route));
+        mSimulation.updateLod(0.0f);
+        assertTrue(mesh.isShown());
+
+        // Farther away, still in full detail, lines are tessellated again.
+        int builds = mesh.getBuildCount();
+        mSimulation.updateLod(3.0f);
+        assertEquals(LodPolicy.LEVEL_FULL, route.getLodLevel());
+        assertEquals(builds + 1, mesh.getBuildCount());
+        // The old mesh stays shown until the new one is set.
+        assertTrue(mesh.isShown());
+
+        // A dragged Clip is drawn by the Clips until the mesh has it.
+        mSimulation.dragClip(route, 1, 0.01f, 0.0f, 3);
+        mSimulation.setActiveRoute(null);
+        assertFalse(mesh.isShown());
+        assertTrue(mSimulation.isDrawn(route));
+        mSimulation.updateLod(3.0f);
+        assertTrue(mesh.isShown());
+    }
+
+
+    @Test
+    public void infoCardsGoBackToThePoolWithoutClips() {
+        EditJournal journal = new EditJournal(mFile, mWriter);
+        mSimulation.setEditJournal(journal);
+        mSimulation.addRoutes(2, 1);
+        mSimulation.addRoutes(1, 0);
+        Route first = mSimulation.getRoutes().get(0);
+        Route last = mSimulation.getRoutes().get(1);
+        Route empty = mSimulation.getRoutes().get(2);
+        InfoCardPool<Route> pool = mSimulation.getInfoCardPool();
+
+        // A Route without Clips has nothing to show a card on.
+        pool.update(mSimulation.getRoutes(), new float[] {Float.POSITIVE_INFINITY, 1.0f, 0.0f});
+        assertEquals(-1, pool.getCard(empty));
+        assertTrue(pool.getCard(last) != -1);
+
+        // Undoing the start Clip frees the card for another Route.
+        mSimulation.applyEdit(journal.undo());
+        assertEquals(0, last.getModel().getClipCount());
+        assertEquals(-1, pool.getCard(last));
+        pool.update(mSimulation.getRoutes(), new float[] {1.0f, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY});
+        assertTrue(pool.getCard(first) != -1);
+        journal.close();
+    }
+
+
+    @Test
+    public void reportCoversEveryPart() {
+        String report = new RouteSimulation(3).run(30, 6);
+        assertTrue(report.contains("add 180 clips"));
+        assertTrue(report.contains("drag 30 clips for 30 frames"));
+        assertTrue(report.contains("drift anchors for 100 frames"));
+        assertTrue(report.contains("pick 100000 taps"));
+        assertTrue(report.contains("lod 100 frames"));
+        assertTrue(report.contains("mesh vertices " + 30L * (6 * RouteMeshBuilder.SPHERE_VERTICES
+                + 5 * RouteMeshBuilder.TUBE_VERTICES)));
+        assertTrue(report.contains("drift error 0.0000 m"));
+    }
+}
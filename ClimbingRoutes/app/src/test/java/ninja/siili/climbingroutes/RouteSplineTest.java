@@ -0,0 +1,150 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RouteSplineTest {
+
+    private final float[] mSample = new float[3];
+
+
+    /**
+     * Spline through a zigzag traverse, clips 0.5 m apart sideways and 0.3 m up and down.
+     */
+    private static RouteSpline zigzag(int count, float tolerance) {
+        RouteSpline spline = new RouteSpline();
+        spline.setPointCount(count);
+        spline.setTolerance(tolerance);
+        for (int i = 0; i < count; i++) {
+            spline.setPoint(i, 0.5f * i, (i % 2) * 0.3f, -2.0f);
+        }
+        spline.update();
+        return spline;
+    }
+
+
+    @Test
+    public void straightSegmentsAreOnePiece() {
+        RouteSpline spline = new RouteSpline();
+        spline.setPointCount(10);
+        for (int i = 0; i < 10; i++) {
+            spline.setPoint(i, 0.0f, 0.3f * i, -2.0f);
+        }
+        assertEquals(9, spline.update());
+        for (int segment = 1; segment < 10; segment++) {
+            assertEquals(2, spline.getSampleCount(segment));
+        }
+    }
+
+
+    @Test
+    public void bendsGetMorePiecesAndPassThroughClips() {
+        RouteSpline spline = zigzag(10, 0.002f);
+        for (int segment = 1; segment < 10; segment++) {
+            int count = spline.getSampleCount(segment);
+            assertTrue(count > 2 && count <= RouteSpline.MAX_SAMPLES);
+
+            spline.getSample(segment, 0, mSample);
+            assertEquals(0.5f * (segment - 1), mSample[0], 1e-6f);
+            spline.getSample(segment, count - 1, mSample);
+            assertEquals(0.5f * segment, mSample[0], 1e-6f);
+            assertEquals((segment % 2) * 0.3f, mSample[1], 1e-6f);
+        }
+
+        // A looser tolerance, as for a Route farther away, needs fewer pieces.
+        RouteSpline far = zigzag(10, 0.016f);
+        int near = 0;
+        int farCount = 0;
+        for (int segment = 1; segment < 10; segment++) {
+            near += spline.getSampleCount(segment);
+            farCount += far.getSampleCount(segment);
+        }
+        assertTrue(farCount < near);
+    }
+
+
+    @Test
+    public void samplesStayNearClipsWithUnevenSpacing() {
+        // Two clips close together between far ones, uniform Catmull-Rom loops here.
+        RouteSpline spline = new RouteSpline();
+        float[][] clips = {{0.0f, 0.0f}, {1.0f, 0.0f}, {1.02f, 0.02f}, {1.04f, 1.0f}, {2.0f, 1.0f}};
+        spline.setPointCount(clips.length);
+        for (int i = 0; i < clips.length; i++) {
+            spline.setPoint(i, clips[i][0], clips[i][1], 0.0f);
+        }
+        spline.update();
+        for (int segment = 1; segment < clips.length; segment++) {
+            for (int sample = 0; sample < spline.getSampleCount(segment); sample++) {
+                spline.getSample(segment, sample, mSample);
+                assertTrue(mSample[0] >= -0.05f && mSample[0] <= 2.05f);
+                assertTrue(mSample[1] >= -0.1f && mSample[1] <= 1.1f);
+            }
+        }
+    }
+
+
+    @Test
+    public void movingClipOnlyTessellatesSegmentsItShapes() {
+        RouteSpline spline = zigzag(30, 0.002f);
+        float[] before = Arrays.copyOf(spline.getSamples(), spline.getSamples().length);
+        assertEquals(0, spline.update());
+
+        spline.setPoint(10, 5.0f, 1.0f, -2.0f);
+        assertTrue(spline.isDirty());
+        assertEquals(4, spline.update());
+        assertEquals(9, spline.getChangedStart());
+        assertEquals(13, spline.getChangedEnd());
+        float[] after = spline.getSamples();
+        int perSegment = RouteSpline.MAX_SAMPLES * 3;
+        assertArrayEquals(Arrays.copyOfRange(before, 0, 9 * perSegment),
+                Arrays.copyOfRange(after, 0, 9 * perSegment), 0.0f);
+        assertArrayEquals(Arrays.copyOfRange(before, 13 * perSegment, 30 * perSegment),
+                Arrays.copyOfRange(after, 13 * perSegment, 30 * perSegment), 0.0f);
+
+        // Moving the last clip, and adding one after it, only touch the end.
+        spline.setPoint(29, 15.0f, 0.0f, -2.0f);
+        assertEquals(2, spline.update());
+        spline.setPointCount(31);
+        spline.setPoint(30, 15.5f, 0.3f, -2.0f);
+        spline.update();
+        assertEquals(29, spline.getChangedStart());
+        assertEquals(31, spline.getChangedEnd());
+    }
+
+
+    @Test
+    public void toleranceChangesInSteps() {
+        assertEquals(0.002f, RouteSpline.toleranceAt(0.5f), 0.0f);
+        assertEquals(0.002f, RouteSpline.toleranceAt(1.9f), 0.0f);
+        assertEquals(0.004f, RouteSpline.toleranceAt(2.0f), 0.0f);
+        assertEquals(0.008f, RouteSpline.toleranceAt(5.0f), 0.0f);
+        assertEquals(0.032f, RouteSpline.toleranceAt(100.0f), 0.0f);
+
+        RouteSpline spline = zigzag(10, 0.002f);
+        spline.setTolerance(0.002f);
+        assertFalse(spline.isDirty());
+        spline.setTolerance(RouteSpline.toleranceAt(3.0f));
+        assertEquals(9, spline.update());
+    }
+
+
+    @Test
+    public void coincidentClipsStayFinite() {
+        RouteSpline spline = new RouteSpline();
+        spline.setPointCount(4);
+        spline.setPoint(0, 0.0f, 0.0f, 0.0f);
+        spline.setPoint(1, 0.0f, 0.0f, 0.0f);
+        spline.setPoint(2, 0.5f, 0.5f, 0.0f);
+        spline.setPoint(3, 0.5f, 0.5f, 0.0f);
+        spline.update();
+        for (int segment = 1; segment < 4; segment++) {
+            for (int sample = 0; sample < spline.getSampleCount(segment); sample++) {
+                spline.getSample(segment, sample, mSample);
+                assertFalse(Float.isNaN(mSample[0]) || Float.isNaN(mSample[1]));
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RouteStoreTest {
+
+    private File mFile;
+
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("routes", ".bin");
+        mFile.delete();
+    }
+
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+
+    private static RouteRecord record(long id, String name, int clipCount) {
+        RouteRecord record = new RouteRecord();
+        record.id = id;
+        record.name = name;
+        record.difficulty = 21;
+        record.setFlag(RouteRecord.FLAG_BOULDER, true);
+        record.setFlag(RouteRecord.FLAG_TOP_OUT, true);
+        record.notes = "crimpy \u00e4";
+        record.clips = new float[clipCount * RouteRecord.CLIP_FLOATS];
+        for (int i = 0; i < record.clips.length; i++) {
+            record.clips[i] = i * 0.5f;
+        }
+        return record;
+    }
+
+
+    @Test
+    public void savedRoutesSurviveReopen() throws IOException {
+        RouteStore store = new RouteStore(mFile);
+        store.save(record(1, "first", 3));
+        store.save(record(2, "second", 1));
+        store.save(record(1, "first again", 4));
+        store.close();
+
+        store = new RouteStore(mFile);
+        assertEquals(2, store.size());
+        RouteRecord loaded = store.load(1);
+        assertEquals("first again", loaded.name);
+        assertEquals(21, loaded.difficulty);
+        assertTrue(loaded.hasFlag(RouteRecord.FLAG_TOP_OUT));
+        assertFalse(loaded.hasFlag(RouteRecord.FLAG_SPORT));
+        assertEquals("crimpy \u00e4", loaded.notes);
+        assertEquals(4, loaded.getClipCount());
+        assertArrayEquals(record(1, "", 4).clips, loaded.clips, 0);
+        assertTrue(store.getGarbageBytes() > 0);
+
+        RouteRecord info = store.loadInfo(2);
+        assertEquals("second", info.name);
+        assertEquals(21, info.difficulty);
+        assertTrue(info.hasFlag(RouteRecord.FLAG_BOULDER));
+        assertEquals("crimpy \u00e4", info.notes);
+        assertEquals(0, info.getClipCount());
+        assertNull(store.loadInfo(3));
+        store.close();
+    }
+
+
+    @Test
+    public void deleteAndCompact() throws IOException {
+        RouteStore store = new RouteStore(mFile);
+        for (int i = 0; i < 10; i++) {
+            store.save(record(i, "route " + i, 5));
+        }
+        store.delete(3);
+        store.save(record(4, "moved", 5));
+        long sizeBefore = mFile.length();
+
+        store.compact();
+
+        assertTrue(mFile.length() < sizeBefore);
+        assertEquals(0, store.getGarbageBytes());
+        assertEquals(9, store.size());
+        assertNull(store.load(3));
+        assertEquals("moved", store.load(4).name);
+        assertEquals("route 9", store.load(9).name);
+        store.close();
+    }
+
+
+    @Test
+    public void truncatedTailIsDropped() throws IOException {
+        RouteStore store = new RouteStore(mFile);
+        store.save(record(1, "kept", 2));
+        store.save(record(2, "torn", 2));
+        store.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        store = new RouteStore(mFile);
+        assertEquals(1, store.size());
+        assertEquals("kept", store.load(1).name);
+        store.save(record(3, "after", 1));
+        assertEquals("after", store.load(3).name);
+        store.close();
+    }
+
+
+    @Test
+    public void corruptRecordEndsTheStore() throws IOException {
+        RouteStore store = new RouteStore(mFile);
+        store.save(record(1, "kept", 2));
+        store.close();
+        long corruptAt = mFile.length();
+        store = new RouteStore(mFile);
+        store.save(record(2, "flipped", 2));
+        store.save(record(3, "after", 2));
+        store.close();
+
+        // Flip a bit in the second record's clips.
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(corruptAt + 40);
+            int b = file.read();
+            file.seek(corruptAt + 40);
+            file.write(b ^ 1);
+        }
+
+        store = new RouteStore(mFile);
+        assertEquals(1, store.size());
+        assertEquals("kept", store.load(1).name);
+        assertNull(store.load(3));
+        store.close();
+    }
+
+
+    @Test
+    public void zeroFilledTailIsDropped() throws IOException {
+        RouteStore store = new RouteStore(mFile);
+        store.save(record(1, "kept", 2));
+        store.close();
+        long length = mFile.length();
+
+        // Like a crash after the file was grown but before the record was written.
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(length + 4096);
+        }
+
+        store = new RouteStore(mFile);
+        assertEquals(1, store.size());
+        assertEquals(0, store.getGarbageBytes());
+        store.close();
+        assertEquals(length, mFile.length());
+    }
+
+
+    @Test
+    public void longStringsAreCutBetweenCharacters() throws IOException {
+        StringBuilder name = new StringBuilder("a");
+        while (name.length() < 40000) {
+            // Two and four byte characters, so the limit falls inside one of them.
+            name.append('\u00e4').append("\ud83e\uddd7");
+        }
+        RouteStore store = new RouteStore(mFile);
+        store.save(record(1, name.toString(), 1));
+        store.save(record(2, "next", 1));
+        store.close();
+
+        store = new RouteStore(mFile);
+        String loaded = store.load(1).name;
+        assertTrue(name.toString().startsWith(loaded));
+        assertTrue(loaded.length() > 20000);
+        assertFalse(loaded.contains("\ufffd"));
+        assertEquals("next", store.load(2).name);
+        store.close();
+    }
+
+
+    @Test
+    public void saveAllAppendsBatch() throws IOException {
+        RouteStore store = new RouteStore(mFile);
+        store.save(record(1, "old", 2));
+        store.saveAll(Arrays.asList(record(1, "new", 3), record(2, "two", 0), record(3, "three", 5)));
+        assertEquals(3, store.size());
+        assertEquals("new", store.load(1).name);
+        assertEquals(3, store.load(1).getClipCount());
+        assertEquals(5, store.load(3).getClipCount());
+        assertTrue(store.getGarbageBytes() > 0);
+        store.close();
+
+        store = new RouteStore(mFile);
+        assertEquals(3, store.size());
+        assertEquals("two", store.load(2).name);
+        store.close();
+    }
+}
@@ -0,0 +1,272 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RouteSyncTest {
+
+    private static final int SERVER_PAGE_SIZE = 200;
+
+    private FakeSyncServer mServer;
+    private final ArrayList<Phone> mPhones = new ArrayList<>();
+
+
+    /**
+     * A phone with its own route store, syncing on its own threads like ArActivity does.
+     */
+    private class Phone {
+        final File storeFile;
+        final File stateFile;
+        final ScheduledExecutorService storeExecutor = Executors.newSingleThreadScheduledExecutor();
+        final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor();
+        final RouteStore store;
+        final SyncState state;
+        final RouteSyncClient client;
+        final RouteSync sync;
+        CompletableFuture<int[]> result;
+        // Records reported as pulled, touched on the store's thread.
+        final ArrayList<RouteRecord> pulled = new ArrayList<>();
+
+
+        Phone(long replicaId) throws IOException {
+            storeFile = File.createTempFile("routes", ".bin");
+            storeFile.delete();
+            stateFile = File.createTempFile("sync", ".state");
+            stateFile.delete();
+            store = new RouteStore(storeFile);
+            state = new SyncState(replicaId);
+            client = new RouteSyncClient(mServer.getUrl(), syncExecutor, new Random(1), 1);
+            sync = new RouteSync(store, state, stateFile, client, storeExecutor, new RouteSync.Listener() {
+                @Override
+                public void onSynced(int pushed, int pulled) {
+                    result.complete(new int[] {pushed, pulled});
+                }
+
+                @Override
+                public void onPulled(List<RouteRecord> records) {
+                    pulled.addAll(records);
+                }
+
+                @Override
+                public void onSyncFailed(IOException ex) {
+                    result.completeExceptionally(ex);
+                }
+            });
+        }
+
+
+        <T> T run(Callable<T> task) throws Exception {
+            return storeExecutor.submit(task).get(10, TimeUnit.SECONDS);
+        }
+
+
+        void save(long id, String name) throws Exception {
+            run(() -> {
+                RouteRecord record = new RouteRecord();
+                record.id = id;
+                record.name = name;
+                record.difficulty = (int) (id % 30);
+                record.clips = new float[4 * RouteRecord.CLIP_FLOATS];
+                store.save(record);
+                sync.markChanged(id);
+                return null;
+            });
+        }
+
+
+        String name(long id) throws Exception {
+            return run(() -> {
+                RouteRecord record = store.load(id);
+                return record == null ? null : record.name;
+            });
+        }
+
+
+        int[] sync() throws Exception {
+            result = new CompletableFuture<>();
+            run(() -> {
+                sync.sync();
+                return null;
+            });
+            return result.get(10, TimeUnit.SECONDS);
+        }
+
+
+        void close() throws Exception {
+            run(() -> {
+                store.close();
+                return null;
+            });
+            storeExecutor.shutdown();
+            syncExecutor.shutdown();
+            storeFile.delete();
+            stateFile.delete();
+        }
+    }
+
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeSyncServer(SERVER_PAGE_SIZE);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        for (Phone phone : mPhones) {
+            phone.close();
+        }
+        mServer.stop();
+    }
+
+
+    private Phone phone(long replicaId) throws IOException {
+        Phone phone = new Phone(replicaId);
+        mPhones.add(phone);
+        return phone;
+    }
+
+
+    @Test
+    public void routesReachOtherPhones() throws Exception {
+        Phone setter = phone(1);
+        Phone climber = phone(2);
+        for (int i = 0; i < 600; i++) {
+            setter.save(i, "route " + i);
+        }
+
+        int[] pushed = setter.sync();
+        assertEquals(600, pushed[0]);
+        assertEquals(0, pushed[1]);
+        assertEquals(600, mServer.size());
+        // Pushed in batches.
+        assertTrue(mServer.getRequests() >= 600 / RouteSync.ROUTES_PER_PUSH);
+
+        int[] pulled = climber.sync();
+        assertEquals(0, pulled[0]);
+        assertEquals(600, pulled[1]);
+        assertEquals("route 0", climber.name(0));
+        assertEquals("route 599", climber.name(599));
+        assertEquals(600, (int) climber.run(climber.pulled::size));
+    }
+
+
+    @Test
+    public void onlyChangesAreSent() throws Exception {
+        Phone setter = phone(1);
+        Phone climber = phone(2);
+        for (int i = 0; i < 300; i++) {
+            setter.save(i, "route " + i);
+        }
+        setter.sync();
+        climber.sync();
+
+        setter.save(5, "renamed");
+        long before = mServer.getBytesReceived();
+        int[] pushed = setter.sync();
+        assertEquals(1, pushed[0]);
+        // Its own change isn't echoed back.
+        assertEquals(0, pushed[1]);
+        assertTrue(mServer.getBytesReceived() - before < 500);
+
+        int[] pulled = climber.sync();
+        assertEquals(1, pulled[1]);
+        assertEquals("renamed", climber.name(5));
+
+        int[] idle = climber.sync();
+        assertEquals(0, idle[0]);
+        assertEquals(0, idle[1]);
+    }
+
+
+    @Test
+    public void concurrentChangesConverge() throws Exception {
+        Phone first = phone(1);
+        Phone second = phone(2);
+        first.save(1, "original");
+        first.sync();
+        second.sync();
+
+        first.save(1, "first's");
+        second.save(1, "second's");
+        second.save(1, "second's again");
+        first.sync();
+        second.sync();
+        first.sync();
+        second.sync();
+
+        // Second made more changes, its version wins everywhere.
+        assertEquals("second's again", first.name(1));
+        assertEquals("second's again", second.name(1));
+        assertEquals(0, (int) first.run(first.state::getDirtyCount));
+        assertEquals(0, (int) second.run(second.state::getDirtyCount));
+    }
+
+
+    @Test
+    public void serverErrorsAreRetried() throws Exception {
+        Phone setter = phone(1);
+        setter.save(1, "route");
+        mServer.failNext(2, 503);
+        int[] pushed = setter.sync();
+        assertEquals(1, pushed[0]);
+        assertEquals(3, mServer.getRequests());
+        assertTrue(setter.client.getBytesSent() > 0);
+    }
+
+
+    @Test
+    public void clientErrorsFailTheSync() throws Exception {
+        Phone setter = phone(1);
+        setter.save(1, "route");
+        mServer.failNext(1, 400);
+        try {
+            setter.sync();
+            fail("Sync should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RouteSyncClient.StatusException);
+            assertEquals(400, ((RouteSyncClient.StatusException) ex.getCause()).status);
+        }
+        assertEquals(1, mServer.getRequests());
+        // The change goes with the next sync.
+        assertEquals(1, (int) setter.run(setter.state::getDirtyCount));
+        assertEquals(1, setter.sync()[0]);
+    }
+
+
+    @Test
+    public void stateSurvivesReload() throws Exception {
+        Phone setter = phone(1);
+        setter.save(1, "synced");
+        setter.sync();
+        setter.save(2, "not yet");
+
+        setter.run(() -> {
+            setter.state.save(setter.stateFile);
+            return null;
+        });
+        SyncState loaded = SyncState.load(setter.stateFile, new Random());
+        assertFalse(loaded.isNew());
+        assertEquals(1, loaded.getReplicaId());
+        assertTrue(loaded.getCursor() > 0);
+        assertEquals(1, loaded.getDirtyCount());
+        assertEquals(1, loaded.getVersion(1).get(1));
+
+        assertTrue(SyncState.load(new File(setter.stateFile.getPath() + ".missing"), new Random()).isNew());
+    }
+}
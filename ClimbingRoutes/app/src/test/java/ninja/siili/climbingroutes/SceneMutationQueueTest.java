@@ -0,0 +1,128 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SceneMutationQueueTest {
+
+    private static final long MS = 1000000L;
+
+    private long mNow = 0;
+    private final SceneMutationQueue mQueue = new SceneMutationQueue(() -> mNow);
+    private final List<String> mApplied = new ArrayList<>();
+
+
+    @Test
+    public void repeatedChangesCollapseIntoLast() {
+        Object route = new Object();
+        mQueue.post(route, SceneMutationQueue.KIND_RECOLOR, () -> mApplied.add("red"));
+        mQueue.post(route, SceneMutationQueue.KIND_RECOLOR, () -> mApplied.add("green"));
+        mQueue.post(route, SceneMutationQueue.KIND_RECOLOR, () -> mApplied.add("blue"));
+        assertEquals(1, mQueue.getPendingCount());
+
+        assertEquals(1, mQueue.applyPending());
+        assertEquals(Collections.singletonList("blue"), mApplied);
+        assertEquals(2, mQueue.getCoalescedCount());
+        assertEquals(0, mQueue.applyPending());
+    }
+
+
+    @Test
+    public void differentTargetsAndKindsAreKeptInOrder() {
+        Object first = new Object();
+        Object second = new Object();
+        mQueue.post(first, SceneMutationQueue.KIND_RECOLOR, () -> mApplied.add("first color"));
+        mQueue.post(second, SceneMutationQueue.KIND_RECOLOR, () -> mApplied.add("second color"));
+        mQueue.post(first, SceneMutationQueue.KIND_SNAPSHOT, () -> mApplied.add("first snapshot"));
+        mQueue.post(() -> mApplied.add("done"));
+        mQueue.post(() -> mApplied.add("done"));
+        // Replacing keeps the place of the first change.
+        mQueue.post(first, SceneMutationQueue.KIND_RECOLOR, () -> mApplied.add("first color 2"));
+        // Targets are compared with equals.
+        mQueue.post(5L, SceneMutationQueue.KIND_SNAPSHOT, () -> mApplied.add("snapshot 5"));
+        mQueue.post(Long.valueOf(5L), SceneMutationQueue.KIND_SNAPSHOT, () -> mApplied.add("snapshot 5 again"));
+
+        mQueue.applyPending();
+        assertEquals(Arrays.asList("first color 2", "second color", "first snapshot", "done", "done",
+                "snapshot 5 again"), mApplied);
+    }
+
+
+    @Test
+    public void changesPostedWhileApplyingWaitForNextFrame() {
+        Object route = new Object();
+        mQueue.post(route, SceneMutationQueue.KIND_RECOLOR, () -> {
+            mApplied.add("outer");
+            mQueue.post(route, SceneMutationQueue.KIND_RECOLOR, () -> mApplied.add("inner"));
+        });
+        assertEquals(1, mQueue.applyPending());
+        assertEquals(Collections.singletonList("outer"), mApplied);
+        assertEquals(1, mQueue.applyPending());
+        assertEquals(Arrays.asList("outer", "inner"), mApplied);
+    }
+
+
+    @Test
+    public void tracksWaitAndDepth() {
+        for (int i = 0; i < 10; i++) {
+            mQueue.post(i, SceneMutationQueue.KIND_PROGRESS, () -> { });
+        }
+        mNow = 5 * MS;
+        mQueue.post(() -> { });
+        mNow = 8 * MS;
+        mQueue.applyPending();
+
+        assertEquals(11, mQueue.getAppliedCount());
+        assertEquals(11, mQueue.getMaxPendingCount());
+        assertEquals(0, mQueue.getPendingCount());
+        LatencyHistogram wait = mQueue.getWaitHistogram();
+        assertEquals(11, wait.getCount());
+        assertEquals(8 * MS, wait.getMaxNanos());
+        assertTrue(mQueue.getReport().contains("applied 11"));
+    }
+
+
+    @Test
+    public void producerThreadsLoseNothing() throws Exception {
+        SceneMutationQueue queue = new SceneMutationQueue();
+        int producers = 4;
+        int posts = 20000;
+        int targets = 50;
+        int[] lastApplied = new int[producers * targets];
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < posts; i++) {
+                    int slot = producer * targets + i % targets;
+                    int value = i;
+                    queue.post(slot, SceneMutationQueue.KIND_RECOLOR, () -> lastApplied[slot] = value);
+                }
+            });
+            threads[p].start();
+        }
+
+        // Apply as frames would while the producers are running.
+        boolean running = true;
+        while (running) {
+            queue.applyPending();
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+        }
+        queue.applyPending();
+
+        // Each target ends up with its newest change, and every post was applied or merged.
+        for (int slot = 0; slot < lastApplied.length; slot++) {
+            assertEquals(posts - targets + slot % targets, lastApplied[slot]);
+        }
+        assertEquals((long) producers * posts, queue.getAppliedCount() + queue.getCoalescedCount());
+    }
+}
@@ -0,0 +1,81 @@
+package ninja.siili.climbingroutes;
+
+/**
+ * HitTestProvider for headless runs: a flat wall facing a pinhole camera. The camera looks
+ * along -Z and the wall is the plane z = -distance from it.
+ */
+public class SimulatedWall implements HitTestProvider {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final float mFocalLength;
+    private final float mDistance;
+    private final float[] mCameraPosition = new float[3];
+
+
+    /**
+     * Constructor for SimulatedWall.
+     * @param width Screen width in pixels.
+     * @param height Screen height in pixels.
+     * @param focalLength Focal length in pixels.
+     * @param distance Distance from the camera to the wall, in meters.
+     */
+    public SimulatedWall(int width, int height, float focalLength, float distance) {
+        mWidth = width;
+        mHeight = height;
+        mFocalLength = focalLength;
+        mDistance = distance;
+    }
+
+
+    /**
+     * Move the camera along the wall, e.g. the user walking sideways.
+     * @param x Camera's x.
+     * @param y Camera's y.
+     */
+    public void setCameraPosition(float x, float y) {
+        mCameraPosition[0] = x;
+        mCameraPosition[1] = y;
+    }
+
+
+    /**
+     * Get the camera ray through a screen position.
+     * @param x Screen x in pixels.
+     * @param y Screen y in pixels.
+     * @param outOrigin Ray origin, 3 floats.
+     * @param outDirection Ray direction, unit length.
+     */
+    public void getRay(float x, float y, float[] outOrigin, float[] outDirection) {
+        System.arraycopy(mCameraPosition, 0, outOrigin, 0, 3);
+        outDirection[0] = (x - mWidth * 0.5f) / mFocalLength;
+        outDirection[1] = (mHeight * 0.5f - y) / mFocalLength;
+        outDirection[2] = -1.0f;
+        float length = (float) Math.sqrt(outDirection[0] * outDirection[0]
+                + outDirection[1] * outDirection[1] + 1.0f);
+        for (int i = 0; i < 3; i++) {
+            outDirection[i] /= length;
+        }
+    }
+
+
+    @Override
+    public boolean hitTest(float x, float y, float[] outPosition) {
+        if (x < 0 || y < 0 || x >= mWidth || y >= mHeight) {
+            return false;
+        }
+        outPosition[0] = mCameraPosition[0] + (x - mWidth * 0.5f) / mFocalLength * mDistance;
+        outPosition[1] = mCameraPosition[1] + (mHeight * 0.5f - y) / mFocalLength * mDistance;
+        outPosition[2] = mCameraPosition[2] - mDistance;
+        return true;
+    }
+
+
+    @Override
+    public boolean snapToSurface(float[] position, float[] outPosition) {
+        outPosition[0] = position[0];
+        outPosition[1] = position[1];
+        outPosition[2] = mCameraPosition[2] - mDistance;
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class VersionVectorTest {
+
+    private static final long A = 7;
+    private static final long B = -3;
+    private static final long C = 42;
+
+
+    @Test
+    public void incrementAndCompare() {
+        VersionVector first = new VersionVector();
+        VersionVector second = new VersionVector();
+        assertEquals(VersionVector.EQUAL, first.compare(second));
+
+        first.increment(A);
+        assertEquals(1, first.get(A));
+        assertEquals(0, first.get(B));
+        assertEquals(VersionVector.AFTER, first.compare(second));
+        assertEquals(VersionVector.BEFORE, second.compare(first));
+
+        second.increment(B);
+        assertEquals(VersionVector.CONCURRENT, first.compare(second));
+        assertEquals(VersionVector.CONCURRENT, second.compare(first));
+    }
+
+
+    @Test
+    public void mergeHasSeenBoth() {
+        VersionVector first = new VersionVector();
+        first.increment(A);
+        first.increment(A);
+        first.increment(C);
+        VersionVector second = new VersionVector();
+        second.increment(B);
+        second.increment(A);
+
+        VersionVector merged = new VersionVector(first);
+        merged.merge(second);
+        assertEquals(2, merged.get(A));
+        assertEquals(1, merged.get(B));
+        assertEquals(1, merged.get(C));
+        assertEquals(VersionVector.AFTER, merged.compare(first));
+        assertEquals(VersionVector.AFTER, merged.compare(second));
+        // Copy wasn't touched by merging.
+        assertEquals(0, first.get(B));
+    }
+
+
+    @Test
+    public void exactlyOneConcurrentChangeWins() {
+        VersionVector first = new VersionVector();
+        first.increment(A);
+        VersionVector second = new VersionVector();
+        second.increment(B);
+        assertTrue(first.winsOver(second) != second.winsOver(first));
+
+        // More changes win.
+        second.increment(B);
+        assertTrue(second.winsOver(first));
+        assertFalse(first.winsOver(second));
+    }
+
+
+    @Test
+    public void encodeRoundTrip() {
+        VersionVector version = new VersionVector();
+        for (long replica : new long[] {C, A, B, 100, -100}) {
+            version.increment(replica);
+        }
+        version.increment(A);
+        ByteBuffer buffer = ByteBuffer.allocate(version.encodedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        version.writeTo(buffer);
+        assertEquals(0, buffer.remaining());
+        buffer.flip();
+        VersionVector read = VersionVector.readFrom(buffer);
+        assertEquals(version, read);
+        assertEquals(version.hashCode(), read.hashCode());
+        assertEquals(2, read.get(A));
+    }
+}
@@ -0,0 +1,180 @@
+package ninja.siili.climbingroutes;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class WallSurfaceEstimatorTest {
+
+    private final Random mRandom = new Random(1);
+    private final float[] mPoints = new float[6000 * 3];
+    private int mCount = 0;
+
+
+    /**
+     * Noisy points on a vertical wall z = wallZ, x from -1 to 1 and y from 0 to 2.
+     */
+    private void addVerticalWall(int count, float wallZ) {
+        for (int i = 0; i < count; i++) {
+            add(mRandom.nextFloat() * 2.0f - 1.0f, mRandom.nextFloat() * 2.0f,
+                    wallZ + (float) mRandom.nextGaussian() * 0.005f);
+        }
+    }
+
+
+    /**
+     * Noisy points on an overhang leaning 30 degrees out from the top of the vertical wall.
+     */
+    private void addOverhang(int count) {
+        float sin = (float) Math.sin(Math.toRadians(30.0));
+        float cos = (float) Math.cos(Math.toRadians(30.0));
+        for (int i = 0; i < count; i++) {
+            float along = mRandom.nextFloat() * 1.5f;
+            add(mRandom.nextFloat() * 2.0f - 1.0f, 2.0f + along * cos,
+                    -2.0f + along * sin + (float) mRandom.nextGaussian() * 0.005f);
+        }
+    }
+
+
+    private void addOutliers(int count) {
+        for (int i = 0; i < count; i++) {
+            add(mRandom.nextFloat() * 4.0f - 2.0f, mRandom.nextFloat() * 3.0f, -mRandom.nextFloat() * 3.0f);
+        }
+    }
+
+
+    private void add(float x, float y, float z) {
+        mPoints[mCount * 3] = x;
+        mPoints[mCount * 3 + 1] = y;
+        mPoints[mCount * 3 + 2] = z;
+        mCount++;
+    }
+
+
+    @Test
+    public void findsWallAmongOutliers() {
+        addVerticalWall(2000, -2.0f);
+        addOutliers(300);
+        WallSurfaceEstimator estimator = new WallSurfaceEstimator(null, 1, new Random(2));
+        for (int i = 0; i < 3; i++) {
+            estimator.update(mPoints, mCount);
+        }
+
+        List<WallSurfaceEstimator.Surface> surfaces = estimator.getSurfaces();
+        // Stray points don't make surfaces of their own.
+        assertEquals(1, surfaces.size());
+        WallSurfaceEstimator.Surface wall = surfaces.get(0);
+        assertEquals(1.0f, Math.abs(wall.nz), 0.01f);
+        assertEquals(-2.0f, wall.cz, 0.01f);
+        assertTrue(wall.radius > 1.0f);
+
+        float[] out = new float[3];
+        assertTrue(estimator.project(new float[] {0.2f, 1.0f, -1.9f}, 0.15f, out));
+        assertEquals(-2.0f, out[2], 0.01f);
+        assertEquals(0.2f, out[0], 0.01f);
+        assertFalse(estimator.project(new float[] {0.2f, 1.0f, -1.5f}, 0.15f, out));
+
+        assertTrue(estimator.raycast(new float[] {0.0f, 1.0f, 0.0f}, new float[] {0.0f, 0.0f, -1.0f}, 5.0f, out));
+        assertEquals(-2.0f, out[2], 0.01f);
+        // Beside the wall.
+        assertFalse(estimator.raycast(new float[] {5.0f, 1.0f, 0.0f}, new float[] {0.0f, 0.0f, -1.0f}, 5.0f, out));
+    }
+
+
+    @Test
+    public void findsEachFaceOfWall() {
+        addVerticalWall(2000, -2.0f);
+        addOverhang(1500);
+        WallSurfaceEstimator estimator = new WallSurfaceEstimator(null, 1, new Random(3));
+        for (int i = 0; i < 4; i++) {
+            estimator.update(mPoints, mCount);
+        }
+
+        List<WallSurfaceEstimator.Surface> surfaces = estimator.getSurfaces();
+        assertEquals(2, surfaces.size());
+        float[] out = new float[3];
+        // A point above the overhang is projected onto it, not onto the vertical face.
+        float[] position = {0.0f, 2.5f, -1.6f};
+        assertTrue(estimator.project(position, 0.15f, out));
+        assertEquals(0.0f, surfaces.get(1).distanceTo(out) * surfaces.get(0).distanceTo(out), 1e-4f);
+        assertTrue(out[2] > -1.8f);
+    }
+
+
+    @Test
+    public void followsDriftWithoutNewPlanes() {
+        WallSurfaceEstimator estimator = new WallSurfaceEstimator(null, 1, new Random(4));
+        addVerticalWall(2000, -2.0f);
+        estimator.update(mPoints, mCount);
+        assertEquals(1, estimator.getSurfaces().size());
+
+        // ARCore's world moves a little.
+        for (int i = 0; i < 10; i++) {
+            mCount = 0;
+            addVerticalWall(2000, -2.0f + (i + 1) * 0.002f);
+            estimator.update(mPoints, mCount);
+        }
+        assertEquals(1, estimator.getSurfaces().size());
+        assertEquals(-1.98f, estimator.getSurfaces().get(0).cz, 0.003f);
+        assertEquals(11, estimator.getUpdateCount());
+    }
+
+
+    @Test
+    public void parallelScoringFindsSameSurfaces() throws Exception {
+        addVerticalWall(2000, -2.0f);
+        addOverhang(1500);
+        addOutliers(300);
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            WallSurfaceEstimator sequential = new WallSurfaceEstimator(null, 1, new Random(5));
+            WallSurfaceEstimator parallel = new WallSurfaceEstimator(workers, 3, new Random(5));
+            for (int i = 0; i < 4; i++) {
+                sequential.update(mPoints, mCount);
+                parallel.update(mPoints, mCount);
+            }
+            List<WallSurfaceEstimator.Surface> expected = sequential.getSurfaces();
+            List<WallSurfaceEstimator.Surface> actual = parallel.getSurfaces();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).offset, actual.get(i).offset, 0.0f);
+                assertEquals(expected.get(i).nz, actual.get(i).nz, 0.0f);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void tooFewPointsFindNothing() {
+        addVerticalWall(20, -2.0f);
+        WallSurfaceEstimator estimator = new WallSurfaceEstimator(null, 1, new Random(6));
+        estimator.update(mPoints, mCount);
+        assertTrue(estimator.getSurfaces().isEmpty());
+    }
+
+
+    @Test
+    public void eigenDecomposition() {
+        double[] matrix = {4.0, 1.0, 0.0, 1.0, 3.0, 0.5, 0.0, 0.5, 1.0};
+        double[] original = matrix.clone();
+        double[] values = new double[3];
+        double[] vectors = new double[9];
+        WallSurfaceEstimator.eigenSymmetric3(matrix, values, vectors);
+        for (int i = 0; i < 3; i++) {
+            for (int row = 0; row < 3; row++) {
+                double product = 0.0;
+                for (int k = 0; k < 3; k++) {
+                    product += original[row * 3 + k] * vectors[k * 3 + i];
+                }
+                assertEquals(values[i] * vectors[row * 3 + i], product, 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ninja.siili.climbingroutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Grade lookups behind RouteInfo.getDifficultyText() and setDifficulty(): labels in every
+ * scale, parsing a label back and converting between scales.
+ */
+@State(Scope.Thread)
+public class GradeBenchmark {
+
+    private static final int LOOKUPS = GradeEngine.DIFFICULTY_COUNT * GradeEngine.SCALE_COUNT;
+
+    private final String[] mLabels = new String[LOOKUPS];
+
+
+    public GradeBenchmark() {
+        for (int scale = 0; scale < GradeEngine.SCALE_COUNT; scale++) {
+            for (int diff = 0; diff < GradeEngine.DIFFICULTY_COUNT; diff++) {
+                mLabels[scale * GradeEngine.DIFFICULTY_COUNT + diff] = GradeEngine.getLabel(scale, diff);
+            }
+        }
+    }
+
+
+    /**
+     * Difficulty text of every difficulty in every scale.
+     * @return Total length of the labels.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int getDifficultyText() {
+        int length = 0;
+        for (int scale = 0; scale < GradeEngine.SCALE_COUNT; scale++) {
+            for (int diff = 0; diff < GradeEngine.DIFFICULTY_COUNT; diff++) {
+                length += GradeEngine.getLabel(scale, GradeEngine.clamp(diff)).length();
+            }
+        }
+        return length;
+    }
+
+
+    /**
+     * Difficulty set from a label in every scale, as when loading or searching.
+     * @return Sum of the difficulties.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int parseDifficulty() {
+        int sum = 0;
+        for (int scale = 0; scale < GradeEngine.SCALE_COUNT; scale++) {
+            for (int diff = 0; diff < GradeEngine.DIFFICULTY_COUNT; diff++) {
+                sum += GradeEngine.parse(scale, mLabels[scale * GradeEngine.DIFFICULTY_COUNT + diff]);
+            }
+        }
+        return sum;
+    }
+
+
+    /**
+     * French labels converted to every other scale.
+     * @return Total length of the converted labels.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int convert() {
+        int length = 0;
+        for (int scale = 0; scale < GradeEngine.SCALE_COUNT; scale++) {
+            for (int diff = 0; diff < GradeEngine.DIFFICULTY_COUNT; diff++) {
+                length += GradeEngine.convert(GradeEngine.FRENCH, mLabels[diff], scale).length();
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,75 @@
+package ninja.siili.climbingroutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Math of Clip.moveLine(): length and rotation of a line between two Clips, and the
+ * moved check done when sampling a Clip. Runs over a batch of Clip pairs.
+ */
+@State(Scope.Thread)
+public class LineMathBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    private final float[] mStarts = new float[PAIRS * 3];
+    private final float[] mEnds = new float[PAIRS * 3];
+    private final float[] mCache = new float[PAIRS * 3];
+    private final float[] mRotation = new float[4];
+    private boolean mFlip = false;
+
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < PAIRS * 3; i++) {
+            mStarts[i] = random.nextFloat() * 4.0f;
+            mEnds[i] = mStarts[i] + (random.nextFloat() - 0.5f) * 0.8f;
+        }
+    }
+
+
+    /**
+     * Line from previous Clip, as moveLine() computes it.
+     * @return Sum of the results, so nothing is optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public float moveLine() {
+        float sum = 0.0f;
+        for (int p = 0; p < PAIRS * 3; p += 3) {
+            float dx = mEnds[p] - mStarts[p];
+            float dy = mEnds[p + 1] - mStarts[p + 1];
+            float dz = mEnds[p + 2] - mStarts[p + 2];
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            LineMath.lookRotation(dx, dy, dz, mRotation);
+            sum += length + mRotation[3];
+        }
+        return sum;
+    }
+
+
+    /**
+     * Moved check of refreshWorldPosition(), half the Clips have moved.
+     * @return Number of moved Clips.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public int updateIfMoved() {
+        // Odd Clips go back and forth between two positions, even ones stay put.
+        mFlip = !mFlip;
+        int moved = 0;
+        for (int p = 0; p < PAIRS * 3; p += 3) {
+            float[] source = (p / 3 & 1) == 0 || mFlip ? mStarts : mEnds;
+            if (LineMath.updateIfMoved(mCache, p, source[p], source[p + 1], source[p + 2])) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+}
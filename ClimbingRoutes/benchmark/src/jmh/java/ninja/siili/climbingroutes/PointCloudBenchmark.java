@@ -0,0 +1,117 @@
+package ninja.siili.climbingroutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * FeaturePointCloud as ArCoreHitTestProvider uses it: a frame's feature points added, and
+ * the snap and raycast of a tap or a drag, on a wall seen for a while.
+ */
+@State(Scope.Thread)
+public class PointCloudBenchmark {
+
+    // About what ARCore reports per frame on a textured wall.
+    private static final int POINTS_PER_FRAME = 400;
+    private static final int QUERIES = 256;
+
+    private final FeaturePointCloud mCloud = new FeaturePointCloud(0.02f, 16384, 1800);
+    private final FloatBuffer mPoints = FloatBuffer.allocate(POINTS_PER_FRAME * 4);
+    private final float[] mQueries = new float[QUERIES * 3];
+    private final float[] mOrigin = {0.0f, 1.5f, 0.0f};
+    private final float[] mDirections = new float[QUERIES * 3];
+    private final float[] mDirection = new float[3];
+    private final float[] mOut = new float[3];
+
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int frame = 0; frame < 300; frame++) {
+            mCloud.frame();
+            fillWall(random);
+            mCloud.addPoints(mPoints);
+        }
+        fillWall(random);
+        for (int i = 0; i < QUERIES; i++) {
+            mQueries[i * 3] = random.nextFloat() * 4.0f - 2.0f;
+            mQueries[i * 3 + 1] = random.nextFloat() * 3.0f;
+            mQueries[i * 3 + 2] = -2.0f + (random.nextFloat() - 0.5f) * 0.1f;
+            float dx = mQueries[i * 3] - mOrigin[0];
+            float dy = mQueries[i * 3 + 1] - mOrigin[1];
+            float dz = -2.0f - mOrigin[2];
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            mDirections[i * 3] = dx / length;
+            mDirections[i * 3 + 1] = dy / length;
+            mDirections[i * 3 + 2] = dz / length;
+        }
+    }
+
+
+    /**
+     * Noisy points on a 4 x 3 m wall 2 m away.
+     */
+    private void fillWall(Random random) {
+        mPoints.clear();
+        for (int i = 0; i < POINTS_PER_FRAME; i++) {
+            mPoints.put(random.nextFloat() * 4.0f - 2.0f);
+            mPoints.put(random.nextFloat() * 3.0f);
+            mPoints.put(-2.0f + (float) random.nextGaussian() * 0.01f);
+            mPoints.put(random.nextFloat());
+        }
+        mPoints.flip();
+    }
+
+
+    /**
+     * A frame's points added, as accumulatePoints() does.
+     * @return Voxel count.
+     */
+    @Benchmark
+    public int addFrame() {
+        mCloud.frame();
+        mCloud.addPoints(mPoints);
+        return mCloud.size();
+    }
+
+
+    /**
+     * Snap of a dropped Clip.
+     * @return Number of snapped positions.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int snap() {
+        int snapped = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            System.arraycopy(mQueries, i * 3, mOut, 0, 3);
+            if (mCloud.snap(mOut, 0.05f, 2.0f, mOut)) {
+                snapped++;
+            }
+        }
+        return snapped;
+    }
+
+
+    /**
+     * Tap that missed ARCore's points, followed through the cloud.
+     * @return Number of hits.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int raycast() {
+        int hits = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            System.arraycopy(mDirections, i * 3, mDirection, 0, 3);
+            if (mCloud.raycast(mOrigin, mDirection, 5.0f, 2.0f, mOut)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
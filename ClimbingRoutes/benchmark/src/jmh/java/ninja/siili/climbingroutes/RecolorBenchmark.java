@@ -0,0 +1,79 @@
+package ninja.siili.climbingroutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+
+/**
+ * Regrading many Routes at once, e.g. after a gym resets its grades: each Route gets a new
+ * difficulty, its info card label and search index entry are updated, and its merged mesh
+ * is rebuilt in the new color.
+ */
+@State(Scope.Thread)
+public class RecolorBenchmark {
+
+    @Param({"100", "1000"})
+    public int routeCount;
+
+    private final ArrayList<RouteRecord> mRecords = new ArrayList<>();
+    private final ArrayList<RouteModel<Object>> mModels = new ArrayList<>();
+    private final RouteSearchIndex<Object> mSearchIndex = new RouteSearchIndex<>();
+    private final RouteMeshBuilder mMeshBuilder = new RouteMeshBuilder(0.015f);
+    private int mShift = 0;
+
+
+    @Setup
+    public void setUp() {
+        ClipBvh<Object> clipBvh = new ClipBvh<>();
+        float[] position = new float[3];
+        for (int i = 0; i < routeCount; i++) {
+            RouteRecord record = new RouteRecord();
+            record.name = "Route " + i;
+            record.notes = i % 3 == 0 ? "slab" : "overhang";
+            record.difficulty = i % GradeEngine.DIFFICULTY_COUNT;
+            mRecords.add(record);
+            RouteModel<Object> model = new RouteModel<>(i, record, clipBvh, record);
+            for (int c = 0; c < 8; c++) {
+                position[0] = i * 1.5f;
+                position[1] = c * 0.3f;
+                position[2] = -2.0f;
+                model.addClip(position, 0.1f);
+            }
+            // Mesh is relative to an anchor at the first Clip, as in Route.
+            model.addAnchor(new float[] {i * 1.5f, 0.0f, -2.0f, 0.0f, 0.0f, 0.0f, 1.0f});
+            for (int c = 0; c < 8; c++) {
+                model.setClipAnchor(c, 0);
+            }
+            mModels.add(model);
+            mSearchIndex.put(record, record);
+        }
+    }
+
+
+    /**
+     * Move every Route one grade up and refresh what depends on the grade.
+     * @return Total label length and vertex count, so nothing is optimized away.
+     */
+    @Benchmark
+    public long regradeAll() {
+        mShift++;
+        long sum = 0;
+        for (int i = 0; i < routeCount; i++) {
+            RouteRecord record = mRecords.get(i);
+            record.difficulty = GradeEngine.clamp((i + mShift) % GradeEngine.DIFFICULTY_COUNT);
+            sum += GradeEngine.getLabel(GradeEngine.FRENCH, record.difficulty).length();
+            mSearchIndex.put(record, record);
+
+            RouteModel<Object> model = mModels.get(i);
+            mMeshBuilder.setClipCount(0);
+            model.fillMesh(mMeshBuilder, 0, 0.5f);
+            mMeshBuilder.update();
+            sum += mMeshBuilder.getVertexCount();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,109 @@
+package ninja.siili.climbingroutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per frame work of Route.moveLinesIfNeeded() on long Routes: a dragged Clip moving its
+ * picking proxies and the segments and spline pieces around it, and every Clip being sampled
+ * again after ARCore has updated the anchors. Also batch bounds and length, and rebuilding the merged mesh.
+ */
+@State(Scope.Thread)
+public class RouteEditBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int clipCount;
+
+    private final ClipBvh<Object> mClipBvh = new ClipBvh<>();
+    private final RouteMeshBuilder mMeshBuilder = new RouteMeshBuilder(0.015f);
+    private final float[] mPosition = new float[3];
+    private final float[] mBounds = new float[6];
+    private RouteModel<Object> mModel;
+    private float mDrift = 0.0f;
+
+
+    @Setup
+    public void setUp() {
+        mModel = new RouteModel<>(1, this, mClipBvh, new RouteRecord());
+        for (int i = 0; i < clipCount; i++) {
+            mPosition[0] = (i % 2) * 0.3f;
+            mPosition[1] = i * 0.25f;
+            mPosition[2] = -2.0f;
+            mModel.addClip(mPosition, 0.1f);
+        }
+        // Clips are relative to an anchor at the first one, as in Route.
+        mModel.addAnchor(new float[] {0.0f, 0.0f, -2.0f, 0.0f, 0.0f, 0.0f, 1.0f});
+        for (int i = 0; i < clipCount; i++) {
+            mModel.setClipAnchor(i, 0);
+        }
+        // Some other Routes in the BVH too.
+        Object other = new Object();
+        for (int i = 0; i < 500; i++) {
+            mPosition[0] = 2.0f + (i % 10) * 0.5f;
+            mPosition[1] = (i / 10) * 0.25f;
+            mClipBvh.addSphere(other, i, mPosition, 0.05f);
+        }
+    }
+
+
+    /**
+     * A Clip in the middle of the Route is dragged one frame further.
+     * @return Something from the result.
+     */
+    @Benchmark
+    public float dragMiddleClip() {
+        int selected = clipCount / 2;
+        mModel.onClipTransformed(selected);
+        mModel.getClipPosition(selected, mPosition);
+        mDrift = -mDrift + 0.001f;
+        mPosition[0] += mDrift;
+        mModel.setClipPosition(selected, mPosition, false);
+        mModel.updateLines();
+        return mModel.getGeometry().getSegmentLength(selected) + mModel.getSpline().getSampleCount(selected);
+    }
+
+
+    /**
+     * Anchors were updated, every Clip is sampled again and all lines are moved.
+     * @return Something from the result.
+     */
+    @Benchmark
+    public float resampleAllClips() {
+        mDrift = -mDrift + 0.001f;
+        for (int i = 0; i < clipCount; i++) {
+            mModel.getClipPosition(i, mPosition);
+            mPosition[1] += mDrift;
+            mModel.setClipPosition(i, mPosition, false);
+        }
+        mModel.updateLines();
+        return mModel.getLength();
+    }
+
+
+    /**
+     * Bounding box and length over the whole Route.
+     * @return Something from the result.
+     */
+    @Benchmark
+    public float boundsAndLength() {
+        ClipGeometry geometry = mModel.getGeometry();
+        geometry.getBounds(mBounds);
+        return mBounds[4] - mBounds[1] + geometry.getLength();
+    }
+
+
+    /**
+     * Merged mesh of the whole Route is regenerated, as when a Clip of a distant Route moved.
+     * @return Vertex count.
+     */
+    @Benchmark
+    public int rebuildMesh() {
+        mMeshBuilder.setClipCount(0);
+        mModel.fillMesh(mMeshBuilder, 0, 0.5f);
+        mMeshBuilder.update();
+        return mMeshBuilder.getVertexCount();
+    }
+}
@@ -0,0 +1,138 @@
+package ninja.siili.climbingroutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Saving and loading Routes: RouteRecord's encoding alone, through RouteStore's file, and
+ * through a RouteArchive export and import.
+ */
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({"5", "50"})
+    public int clipCount;
+
+    private RouteRecord mRecord;
+    private ByteBuffer mBuffer;
+    private File mFile;
+    private RouteStore mStore;
+    private long mNextId = 0;
+    private final ByteArrayOutputStream mArchiveBytes = new ByteArrayOutputStream();
+
+
+    @Setup
+    public void setUp() {
+        mRecord = new RouteRecord();
+        mRecord.id = 1;
+        mRecord.name = "Crimpy traverse";
+        mRecord.difficulty = 14;
+        mRecord.notes = "Start matched on the jug, no dyno to the lip.";
+        mRecord.setFlag(RouteRecord.FLAG_BOULDER, true);
+        mRecord.clips = new float[clipCount * RouteRecord.CLIP_FLOATS];
+        for (int i = 0; i < mRecord.clips.length; i++) {
+            mRecord.clips[i] = i * 0.01f;
+        }
+        mBuffer = ByteBuffer.allocate(mRecord.encodedSize()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    @Setup(Level.Iteration)
+    public void openStore() throws IOException {
+        mFile = File.createTempFile("routes", ".bin");
+        mFile.delete();
+        mStore = new RouteStore(mFile);
+        // Some routes to look up among.
+        for (mNextId = 0; mNextId < 100; mNextId++) {
+            mRecord.id = mNextId;
+            mStore.save(mRecord);
+        }
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void closeStore() throws IOException {
+        mStore.close();
+        mFile.delete();
+    }
+
+
+    /**
+     * Encode and decode a record in memory.
+     * @return Decoded record.
+     */
+    @Benchmark
+    public RouteRecord encodeDecode() {
+        mBuffer.clear();
+        mRecord.writeTo(mBuffer);
+        mBuffer.flip();
+        return RouteRecord.readFrom(mRecord.id, mBuffer);
+    }
+
+
+    /**
+     * Save a changed Route to the store, compacting when it asks to.
+     * @throws IOException If writing fails.
+     */
+    @Benchmark
+    public void save() throws IOException {
+        mRecord.id = mNextId++ % 100;
+        mStore.save(mRecord);
+        if (mStore.shouldCompact()) {
+            mStore.compact();
+        }
+    }
+
+
+    /**
+     * Load a Route from the store.
+     * @return Loaded record.
+     */
+    @Benchmark
+    public RouteRecord load() {
+        return mStore.load(mNextId++ % 100);
+    }
+
+
+    /**
+     * Export the stored Routes to an archive in memory and import them back in one batch.
+     * @return Number of Routes imported.
+     * @throws IOException If writing or reading fails.
+     */
+    @Benchmark
+    public int exportImport() throws IOException {
+        mArchiveBytes.reset();
+        try (RouteArchive.Writer writer = new RouteArchive.Writer(mArchiveBytes, null, 100)) {
+            for (long id : mStore.getIds()) {
+                writer.write(mStore.load(id));
+            }
+            writer.finish();
+        }
+        ArrayList<RouteRecord> batch = new ArrayList<>();
+        try (RouteArchive.Reader reader = new RouteArchive.Reader(
+                new ByteArrayInputStream(mArchiveBytes.toByteArray()), null, 100)) {
+            RouteRecord record;
+            while ((record = reader.next()) != null) {
+                batch.add(record);
+            }
+        }
+        mStore.saveAll(batch);
+        if (mStore.shouldCompact()) {
+            mStore.compact();
+        }
+        return batch.size();
+    }
+}
@@ -0,0 +1,130 @@
+package ninja.siili.climbingroutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WallSurfaceEstimator.update() as ArActivity runs it, a few times a second on the
+ * accumulated points. Points are read from pointFile, one "x y z" per line, e.g. centroids
+ * saved from a session at the gym. Without one, a wall with an overhang and some noise is used.
+ */
+@State(Scope.Thread)
+public class WallSurfaceBenchmark {
+
+    @Param({""})
+    public String pointFile;
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private float[] mPoints = new float[16384 * 3];
+    private int mCount = 0;
+    private ExecutorService mWorkers;
+    private WallSurfaceEstimator mEstimator;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        if (pointFile.isEmpty()) {
+            makeWall();
+        } else {
+            readPoints();
+        }
+        mWorkers = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        mEstimator = new WallSurfaceEstimator(mWorkers, parallelism, new Random(1));
+        // Settled, as it is after the first few seconds.
+        for (int i = 0; i < 5; i++) {
+            mEstimator.update(mPoints, mCount);
+        }
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        if (mWorkers != null) {
+            mWorkers.shutdownNow();
+        }
+    }
+
+
+    private void makeWall() {
+        Random random = new Random(1);
+        float sin = (float) Math.sin(Math.toRadians(30.0));
+        float cos = (float) Math.cos(Math.toRadians(30.0));
+        for (int i = 0; i < 8000; i++) {
+            add(random.nextFloat() * 4.0f - 2.0f, random.nextFloat() * 3.0f,
+                    -2.0f + (float) random.nextGaussian() * 0.01f);
+        }
+        for (int i = 0; i < 5000; i++) {
+            float along = random.nextFloat() * 2.0f;
+            add(random.nextFloat() * 4.0f - 2.0f, 3.0f + along * cos,
+                    -2.0f + along * sin + (float) random.nextGaussian() * 0.01f);
+        }
+        for (int i = 0; i < 1500; i++) {
+            add(random.nextFloat() * 4.0f - 2.0f, random.nextFloat() * 4.0f, -random.nextFloat() * 3.0f);
+        }
+    }
+
+
+    private void readPoints() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(pointFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length < 3) {
+                    continue;
+                }
+                add(Float.parseFloat(parts[0]), Float.parseFloat(parts[1]), Float.parseFloat(parts[2]));
+            }
+        }
+    }
+
+
+    private void add(float x, float y, float z) {
+        if (mCount * 3 == mPoints.length) {
+            float[] points = new float[mPoints.length * 2];
+            System.arraycopy(mPoints, 0, points, 0, mPoints.length);
+            mPoints = points;
+        }
+        mPoints[mCount * 3] = x;
+        mPoints[mCount * 3 + 1] = y;
+        mPoints[mCount * 3 + 2] = z;
+        mCount++;
+    }
+
+
+    /**
+     * Refining the surfaces found, what most updates do.
+     * @return Number of surfaces.
+     */
+    @Benchmark
+    public int update() {
+        mEstimator.update(mPoints, mCount);
+        return mEstimator.getSurfaces().size();
+    }
+
+
+    /**
+     * First updates of a session, RANSAC finding the faces from nothing.
+     * @return Number of surfaces.
+     */
+    @Benchmark
+    public int coldStart() {
+        WallSurfaceEstimator estimator = new WallSurfaceEstimator(mWorkers, parallelism, new Random(2));
+        for (int i = 0; i < 3; i++) {
+            estimator.update(mPoints, mCount);
+        }
+        return estimator.getSurfaces().size();
+    }
+}